@@ -54,6 +54,58 @@ public class AgentProperties{
      */
     public static final Property<Boolean> ENABLE_MANUALLY_SETTING_CPU_TOPOLOGY_ON_KVM_VM = new Property<Boolean>("enable.manually.setting.cpu.topology.on.kvm.vm", true);
 
+    /**
+     * Interval in seconds at which the agent samples host and VM stats and pushes them to the management server along with the ping.
+     * While pushing, the management server stops polling the host for stats. <br>
+     * Data type: int. <br>
+     * Default value: 0 (disabled).
+     */
+    public static final Property<Integer> STATS_PUSH_INTERVAL = new Property<Integer>("stats.push.interval", 0);
+
+    /**
+     * Report the VM state changes to the management server as libvirt signals them through its domain lifecycle events,
+     * instead of only through the full VM state report of every ping. <br>
+     * Data type: boolean.<br>
+     * Default value: false.
+     */
+    public static final Property<Boolean> LIBVIRT_EVENTS_ENABLED = new Property<Boolean>("libvirt.events.enabled", false);
+
+    /**
+     * Interval in seconds at which the full VM state report is still sent with the ping when libvirt.events.enabled is true. <br>
+     * Data type: int. <br>
+     * Default value: 600 (sec).
+     */
+    public static final Property<Integer> VM_STATE_FULL_REPORT_INTERVAL = new Property<Integer>("vm.state.full.report.interval", 600);
+
+    /**
+     * Maximum number of external processes (scripts and commands) the agent runs at the same time; further ones wait for a free slot,
+     * and fail with a timeout when none frees up within their own timeout. Long running qemu-img conversions are not counted. <br>
+     * Data type: int. <br>
+     * Default value: 0 (unlimited).
+     */
+    public static final Property<Integer> SCRIPT_MAX_CONCURRENT_PROCESSES = new Property<Integer>("script.max.concurrent.processes", 0);
+
+    /**
+     * Interval in seconds at which the execution counts and durations of the external processes are logged, per executable. <br>
+     * Data type: int. <br>
+     * Default value: 600 (sec), 0 disables the logging.
+     */
+    public static final Property<Integer> SCRIPT_STATS_LOG_INTERVAL = new Property<Integer>("script.stats.log.interval", 600);
+
+    /**
+     * Number of coroutines qemu-img convert uses to copy disks in parallel (its -m option). <br>
+     * Data type: int. <br>
+     * Default value: 0 (the qemu-img default).
+     */
+    public static final Property<Integer> QEMU_IMG_CONVERT_COROUTINES = new Property<Integer>("qemu.img.convert.coroutines", 0);
+
+    /**
+     * Allow qemu-img convert to write out of order (its -W option) when copying disks to raw destinations. <br>
+     * Data type: boolean.<br>
+     * Default value: false.
+     */
+    public static final Property<Boolean> QEMU_IMG_CONVERT_OUT_OF_ORDER_WRITES = new Property<Boolean>("qemu.img.convert.out.of.order.writes", false);
+
     public static class Property <T>{
         private final String name;
         private final T defaultValue;
@@ -24,6 +24,7 @@ import org.apache.cloudstack.api.command.admin.vm.AssignVMCmd;
 import org.apache.cloudstack.api.command.admin.vm.RecoverVMCmd;
 import org.apache.cloudstack.api.command.user.vm.AddNicToVMCmd;
 import org.apache.cloudstack.api.command.user.vm.DeployVMCmd;
+import org.apache.cloudstack.api.command.user.vm.DeployVirtualMachinesCmd;
 import org.apache.cloudstack.api.command.user.vm.DestroyVMCmd;
 import org.apache.cloudstack.api.command.user.vm.RebootVMCmd;
 import org.apache.cloudstack.api.command.user.vm.RemoveNicFromVMCmd;
@@ -398,6 +399,17 @@ public interface UserVmService {
      */
     UserVm startVirtualMachine(DeployVMCmd cmd) throws InsufficientCapacityException, ConcurrentOperationException, ResourceUnavailableException, ResourceAllocationException;
 
+    /**
+     * Starts the batch of virtual machines created from createVirtualMachines. The whole batch is
+     * planned and its capacity reserved at once, then the virtual machines are started in parallel.
+     *
+     * @return the virtual machines of the batch, including the ones which failed to start
+     * @throws InsufficientCapacityException
+     *             if the batch does not fit on the hosts, none of the virtual machines is started then.
+     */
+    List<UserVm> startVirtualMachines(DeployVirtualMachinesCmd cmd) throws InsufficientCapacityException, ConcurrentOperationException, ResourceUnavailableException,
+        ResourceAllocationException;
+
     /**
      * Creates a vm group.
      *
@@ -429,6 +441,13 @@ public interface UserVmService {
     UserVm createVirtualMachine(DeployVMCmd cmd) throws InsufficientCapacityException, ResourceUnavailableException, ConcurrentOperationException,
         StorageUnavailableException, ResourceAllocationException;
 
+    /**
+     * Creates count virtual machines from the same request. Either all of them are created or, if one
+     * fails, the ones already created are expunged again.
+     */
+    List<UserVm> createVirtualMachines(DeployVirtualMachinesCmd cmd) throws InsufficientCapacityException, ResourceUnavailableException, ConcurrentOperationException,
+        StorageUnavailableException, ResourceAllocationException;
+
     UserVm getUserVm(long vmId);
 
     /**
@@ -16,6 +16,9 @@
 // under the License.
 package org.apache.cloudstack.api;
 
+import java.util.Collections;
+import java.util.List;
+
 import com.cloud.exception.ResourceAllocationException;
 
 public abstract class BaseAsyncCreateCmd extends BaseAsyncCmd {
@@ -23,6 +26,8 @@ public abstract class BaseAsyncCreateCmd extends BaseAsyncCmd {
 
     private String uuid;
 
+    private List<Long> ids;
+
     public abstract void create() throws ResourceAllocationException;
 
     public Long getEntityId() {
@@ -33,6 +38,21 @@ public abstract class BaseAsyncCreateCmd extends BaseAsyncCmd {
         this.id = id;
     }
 
+    /**
+     * @return ids of all the entities created by the command, the entity id alone unless the command
+     * creates more than one entity
+     */
+    public List<Long> getEntityIds() {
+        if (ids == null) {
+            return id == null ? Collections.<Long>emptyList() : Collections.singletonList(id);
+        }
+        return ids;
+    }
+
+    public void setEntityIds(List<Long> ids) {
+        this.ids = ids;
+    }
+
     public String getEntityUuid() {
         return uuid;
     }
@@ -57,6 +57,18 @@ public abstract class BaseListCmd extends BaseCmd implements IBaseListCmd {
         return page;
     }
 
+    /**
+     * @return the pagetoken parameter of the list APIs supporting keyset pagination, which declare it, null otherwise
+     */
+    @Override
+    public String getPageToken() {
+        return null;
+    }
+
+    protected boolean isPageTokenSupported() {
+        return false;
+    }
+
     @Override
     public Integer getPageSize() {
         if (pageSize != null && s_maxPageSize.longValue() != s_pageSizeUnlimited && pageSize.longValue() > s_maxPageSize.longValue()) {
@@ -132,10 +144,19 @@ public abstract class BaseListCmd extends BaseCmd implements IBaseListCmd {
             pageSize = Long.valueOf((String)pageSizeObj);
         }
 
+        if (params.get(ApiConstants.PAGE_TOKEN) != null && !isPageTokenSupported()) {
+            throw new InvalidParameterValueException("\"pagetoken\" parameter is not supported by " + getActualCommandName());
+        }
+
+        if (params.get(ApiConstants.PAGE) != null && params.get(ApiConstants.PAGE_TOKEN) != null) {
+            throw new ServerApiException(ApiErrorCode.PARAM_ERROR, "Specify either \"page\" or \"pagetoken\" parameter but not both");
+        }
+
         if (params.get(ApiConstants.PAGE) == null &&
+                params.get(ApiConstants.PAGE_TOKEN) == null &&
                 pageSize != null &&
                 !pageSize.equals(BaseListCmd.s_pageSizeUnlimited)) {
-            final ServerApiException ex = new ServerApiException(ApiErrorCode.PARAM_ERROR, "\"page\" parameter is required when \"pagesize\" is specified");
+            final ServerApiException ex = new ServerApiException(ApiErrorCode.PARAM_ERROR, "\"page\" or \"pagetoken\" parameter is required when \"pagesize\" is specified");
             ex.setCSErrorCode(CSExceptionErrorCode.getCSErrCode(ex.getClass().getName()));
             throw ex;
         } else if (pageSize == null && (params.get(ApiConstants.PAGE) != null)) {
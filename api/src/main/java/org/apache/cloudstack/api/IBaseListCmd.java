@@ -22,6 +22,8 @@ public interface IBaseListCmd {
 
     Integer getPage();
 
+    String getPageToken();
+
     Integer getPageSize();
 
     Long getPageSizeVal();
@@ -68,10 +68,24 @@ public class ListEventsCmd extends BaseListProjectAndAccountResourcesCmd {
     @Parameter(name = ApiConstants.START_ID, type = CommandType.UUID, entityType = EventResponse.class, description = "the parent/start ID of the event, when provided this will list all the events with the start/parent ID including the parent event")
     private Long startId;
 
+    @Parameter(name = ApiConstants.PAGE_TOKEN, type = CommandType.STRING, description = "The nextpagetoken returned with the previous page, "
+            + "to list the following page without counting the rows before it. Used instead of page", since = "4.17.0")
+    private String pageToken;
+
     /////////////////////////////////////////////////////
     /////////////////// Accessors ///////////////////////
     /////////////////////////////////////////////////////
 
+    @Override
+    public String getPageToken() {
+        return pageToken;
+    }
+
+    @Override
+    protected boolean isPageTokenSupported() {
+        return true;
+    }
+
     public Long getId() {
         return id;
     }
@@ -0,0 +1,200 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.api.command.user.vm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.cloudstack.api.APICommand;
+import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.ApiErrorCode;
+import org.apache.cloudstack.api.Parameter;
+import org.apache.cloudstack.api.ResponseObject.ResponseView;
+import org.apache.cloudstack.api.ServerApiException;
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.api.response.UserVmResponse;
+import org.apache.cloudstack.context.CallContext;
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.collections.MapUtils;
+import org.apache.log4j.Logger;
+
+import com.cloud.exception.ConcurrentOperationException;
+import com.cloud.exception.InsufficientCapacityException;
+import com.cloud.exception.InsufficientServerCapacityException;
+import com.cloud.exception.InvalidParameterValueException;
+import com.cloud.exception.ResourceAllocationException;
+import com.cloud.exception.ResourceUnavailableException;
+import com.cloud.network.Network.IpAddresses;
+import com.cloud.uservm.UserVm;
+import com.cloud.vm.VirtualMachine;
+
+@APICommand(name = "deployVirtualMachines", description = "Creates and automatically starts a batch of identical virtual machines. The virtual machines are placed on the hosts in one pass, "
+        + "their capacity is reserved for the whole batch at once and they are started in parallel.", responseObject = UserVmResponse.class, responseView = ResponseView.Restricted,
+        entityType = {VirtualMachine.class}, requestHasSensitiveInfo = false, responseHasSensitiveInfo = true, since = "4.17.0")
+public class DeployVirtualMachinesCmd extends DeployVMCmd {
+    public static final Logger s_logger = Logger.getLogger(DeployVirtualMachinesCmd.class.getName());
+
+    private static final String s_name = "deployvirtualmachinesresponse";
+
+    /////////////////////////////////////////////////////
+    //////////////// API parameters /////////////////////
+    /////////////////////////////////////////////////////
+
+    @Parameter(name = ApiConstants.COUNT, type = CommandType.INTEGER, required = true, description = "the number of virtual machines to deploy. "
+            + "If a name is given, the virtual machines are named <name>-1 to <name>-<count>")
+    private Integer count;
+
+    // index of the virtual machine being created, picks its name
+    private int currentIndex;
+
+    /////////////////////////////////////////////////////
+    /////////////////// Accessors ///////////////////////
+    /////////////////////////////////////////////////////
+
+    public int getCount() {
+        return count == null ? 1 : count;
+    }
+
+    public void setCurrentIndex(int currentIndex) {
+        this.currentIndex = currentIndex;
+    }
+
+    @Override
+    public String getName() {
+        String name = super.getName();
+        if (name == null || getCount() == 1) {
+            return name;
+        }
+        return name + "-" + (currentIndex + 1);
+    }
+
+    /**
+     * Rejects the parameters which can only apply to a single virtual machine.
+     */
+    public void validateBatchParameters() {
+        if (getCount() < 1) {
+            throw new InvalidParameterValueException("The number of virtual machines to deploy must be at least 1");
+        }
+        if (getCount() == 1) {
+            return;
+        }
+        if (getIpAddress() != null || getIp6Address() != null || getMacAddress() != null) {
+            throw new InvalidParameterValueException("IP and MAC addresses can not be specified when deploying more than one virtual machine");
+        }
+        if (MapUtils.isNotEmpty(getIpToNetworkMap())) {
+            for (IpAddresses addresses : getIpToNetworkMap().values()) {
+                if (addresses.getIp4Address() != null || addresses.getIp6Address() != null || addresses.getMacAddress() != null) {
+                    throw new InvalidParameterValueException("IP and MAC addresses can not be specified when deploying more than one virtual machine");
+                }
+            }
+        }
+        if (getHostId() != null) {
+            throw new InvalidParameterValueException("A host can not be specified when deploying more than one virtual machine, the virtual machines are placed by the batch planner");
+        }
+        if (getCustomId() != null) {
+            throw new InvalidParameterValueException("A custom id can not be specified when deploying more than one virtual machine");
+        }
+        if (CollectionUtils.isNotEmpty(getAffinityGroupIdList())) {
+            throw new InvalidParameterValueException("Affinity groups are not supported when deploying more than one virtual machine, use deployVirtualMachine instead");
+        }
+    }
+
+    /////////////////////////////////////////////////////
+    /////////////// API Implementation///////////////////
+    /////////////////////////////////////////////////////
+
+    @Override
+    public String getCommandName() {
+        return s_name;
+    }
+
+    @Override
+    public String getCreateEventDescription() {
+        return "creating " + getCount() + " Vms";
+    }
+
+    @Override
+    public String getEventDescription() {
+        return "starting " + getCount() + " Vms. First Vm Id: " + getEntityUuid();
+    }
+
+    @Override
+    public void execute() {
+        List<UserVm> result;
+
+        try {
+            CallContext.current().setEventDetails("Vm Ids: " + getEntityIds());
+            result = _userVmService.startVirtualMachines(this);
+        } catch (ResourceUnavailableException ex) {
+            s_logger.warn("Exception: ", ex);
+            throw new ServerApiException(ApiErrorCode.RESOURCE_UNAVAILABLE_ERROR, ex.getMessage());
+        } catch (ResourceAllocationException ex) {
+            s_logger.warn("Exception: ", ex);
+            throw new ServerApiException(ApiErrorCode.RESOURCE_ALLOCATION_ERROR, ex.getMessage());
+        } catch (ConcurrentOperationException ex) {
+            s_logger.warn("Exception: ", ex);
+            throw new ServerApiException(ApiErrorCode.INTERNAL_ERROR, ex.getMessage());
+        } catch (InsufficientCapacityException ex) {
+            StringBuilder message = new StringBuilder(ex.getMessage());
+            if (ex instanceof InsufficientServerCapacityException) {
+                if (((InsufficientServerCapacityException)ex).isAffinityApplied()) {
+                    message.append(", Please check the affinity groups provided, there may not be sufficient capacity to follow them");
+                }
+            }
+            s_logger.info(message.toString(), ex);
+            throw new ServerApiException(ApiErrorCode.INSUFFICIENT_CAPACITY_ERROR, message.toString());
+        }
+
+        if (CollectionUtils.isEmpty(result)) {
+            throw new ServerApiException(ApiErrorCode.INTERNAL_ERROR, "Failed to deploy vms, first vm uuid:" + getEntityUuid());
+        }
+        ListResponse<UserVmResponse> response = new ListResponse<UserVmResponse>();
+        List<UserVmResponse> vmResponses = _responseGenerator.createUserVmResponse(getResponseView(), "virtualmachine", result.toArray(new UserVm[result.size()]));
+        response.setResponses(vmResponses, vmResponses.size());
+        response.setResponseName(getCommandName());
+        setResponseObject(response);
+    }
+
+    @Override
+    public void create() throws ResourceAllocationException {
+        validateBatchParameters();
+        try {
+            List<UserVm> vms = _userVmService.createVirtualMachines(this);
+
+            if (CollectionUtils.isEmpty(vms)) {
+                throw new ServerApiException(ApiErrorCode.INTERNAL_ERROR, "Failed to deploy vms");
+            }
+            setEntityId(vms.get(0).getId());
+            setEntityUuid(vms.get(0).getUuid());
+            List<Long> vmIds = new ArrayList<Long>(vms.size());
+            for (UserVm vm : vms) {
+                vmIds.add(vm.getId());
+            }
+            setEntityIds(vmIds);
+        } catch (InsufficientCapacityException ex) {
+            s_logger.info(ex);
+            s_logger.trace(ex.getMessage(), ex);
+            throw new ServerApiException(ApiErrorCode.INSUFFICIENT_CAPACITY_ERROR, ex.getMessage());
+        } catch (ResourceUnavailableException ex) {
+            s_logger.warn("Exception: ", ex);
+            throw new ServerApiException(ApiErrorCode.RESOURCE_UNAVAILABLE_ERROR, ex.getMessage());
+        } catch (ConcurrentOperationException ex) {
+            s_logger.warn("Exception: ", ex);
+            throw new ServerApiException(ApiErrorCode.INTERNAL_ERROR, ex.getMessage());
+        }
+    }
+}
@@ -153,10 +153,24 @@ public class ListVMsCmd extends BaseListTaggedResourcesCmd implements UserCmd {
             description = "flag to display the resource icon for VMs", since = "4.16.0.0")
     private Boolean showIcon;
 
+    @Parameter(name = ApiConstants.PAGE_TOKEN, type = CommandType.STRING, description = "The nextpagetoken returned with the previous page, "
+            + "to list the following page without counting the rows before it. Used instead of page", since = "4.17.0")
+    private String pageToken;
+
     /////////////////////////////////////////////////////
     /////////////////// Accessors ///////////////////////
     /////////////////////////////////////////////////////
 
+    @Override
+    public String getPageToken() {
+        return pageToken;
+    }
+
+    @Override
+    protected boolean isPageTokenSupported() {
+        return true;
+    }
+
     public Long getGroupId() {
         return groupId;
     }
@@ -92,10 +92,24 @@ public class ListVolumesCmd extends BaseListTaggedResourcesCmd implements UserCm
     @Parameter(name = ApiConstants.STATE, type = CommandType.STRING, description = "state of the volume. Possible values are: Ready, Allocated, Destroy, Expunging, Expunged.")
     private String state;
 
+    @Parameter(name = ApiConstants.PAGE_TOKEN, type = CommandType.STRING, description = "The nextpagetoken returned with the previous page, "
+            + "to list the following page without counting the rows before it. Used instead of page", since = "4.17.0")
+    private String pageToken;
+
     /////////////////////////////////////////////////////
     /////////////////// Accessors ///////////////////////
     /////////////////////////////////////////////////////
 
+    @Override
+    public String getPageToken() {
+        return pageToken;
+    }
+
+    @Override
+    protected boolean isPageTokenSupported() {
+        return true;
+    }
+
     public Long getHostId() {
         return hostId;
     }
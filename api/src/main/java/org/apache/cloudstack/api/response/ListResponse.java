@@ -24,6 +24,7 @@ import org.apache.cloudstack.api.ResponseObject;
 public class ListResponse<T extends ResponseObject> extends BaseResponse {
     List<T> responses;
     private transient Integer count;
+    private transient String nextPageToken;
 
     public List<T> getResponses() {
         return responses;
@@ -38,6 +39,14 @@ public class ListResponse<T extends ResponseObject> extends BaseResponse {
         this.count = count;
     }
 
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+
+    public void setNextPageToken(String nextPageToken) {
+        this.nextPageToken = nextPageToken;
+    }
+
     public Integer getCount() {
         if (count != null) {
             return count;
@@ -0,0 +1,54 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.api;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.cloudstack.api.command.user.event.ListEventsCmd;
+import org.junit.Test;
+
+import com.cloud.exception.InvalidParameterValueException;
+
+public class BaseListCmdTest {
+
+    private Map<String, String> pageTokenParams() {
+        final Map<String, String> params = new HashMap<String, String>();
+        params.put(ApiConstants.PAGE_SIZE, "20");
+        params.put(ApiConstants.PAGE_TOKEN, "token");
+        return params;
+    }
+
+    @Test
+    public void validateSpecificParametersAcceptsPageTokenWhereSupported() {
+        new ListEventsCmd().validateSpecificParameters(pageTokenParams());
+    }
+
+    @Test(expected = InvalidParameterValueException.class)
+    public void validateSpecificParametersRejectsPageTokenWhereUnsupported() {
+        new BaseListCmd() {
+            @Override
+            public void execute() {
+            }
+
+            @Override
+            public String getCommandName() {
+                return "listthingsresponse";
+            }
+        }.validateSpecificParameters(pageTokenParams());
+    }
+}
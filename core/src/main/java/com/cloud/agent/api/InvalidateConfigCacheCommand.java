@@ -0,0 +1,45 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.api;
+
+/*
+ * This is used to tell MS peers that a configuration value has been updated, so that
+ * they drop their cached global and scoped values of it. On receiving the command
+ * the cached values are invalidated immediately.
+ */
+public class InvalidateConfigCacheCommand extends Command {
+    private String configName;
+
+    protected InvalidateConfigCacheCommand() {
+    }
+
+    public InvalidateConfigCacheCommand(String configName) {
+        this.configName = configName;
+    }
+
+    public String getConfigName() {
+        return configName;
+    }
+
+    @Override
+    public boolean executeInSequence() {
+        return false; // standalone command and can be executed independent of other commands
+    }
+}
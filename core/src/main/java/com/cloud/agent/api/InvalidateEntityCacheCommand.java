@@ -0,0 +1,48 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+
+package com.cloud.agent.api;
+
+import java.util.List;
+import java.util.Map;
+
+/*
+ * This is used to tell MS peers that entities cached by the daos have been changed, so
+ * that they evict them from their entity caches. The ids are kept per cache name.
+ */
+public class InvalidateEntityCacheCommand extends Command {
+    private Map<String, List<String>> entities;
+
+    protected InvalidateEntityCacheCommand() {
+    }
+
+    public InvalidateEntityCacheCommand(Map<String, List<String>> entities) {
+        this.entities = entities;
+    }
+
+    public Map<String, List<String>> getEntities() {
+        return entities;
+    }
+
+    @Override
+    public boolean executeInSequence() {
+        return false; // standalone command and can be executed independent of other commands
+    }
+}
@@ -30,6 +30,14 @@ public class PingRoutingCommand extends PingCommand {
     boolean _gatewayAccessible = true;
     boolean _vnetAccessible = true;
 
+    /**
+     * Stats sampled by the agent when it pushes them instead of being polled, null otherwise.
+     * The VM entries are keyed by instance name and hold the counters accumulated since the previous sample.
+     */
+    HostStatsEntry _hostStats;
+    Map<String, VmStatsEntry> _vmStats;
+    int _statsPushInterval;
+
     protected PingRoutingCommand() {
     }
 
@@ -57,4 +65,26 @@ public class PingRoutingCommand extends PingCommand {
     public void setVnetAccessible(boolean vnetAccessible) {
         _vnetAccessible = vnetAccessible;
     }
+
+    public HostStatsEntry getHostStats() {
+        return _hostStats;
+    }
+
+    public Map<String, VmStatsEntry> getVmStats() {
+        return _vmStats;
+    }
+
+    public int getStatsPushInterval() {
+        return _statsPushInterval;
+    }
+
+    public void setPushedStats(HostStatsEntry hostStats, Map<String, VmStatsEntry> vmStats, int statsPushInterval) {
+        _hostStats = hostStats;
+        _vmStats = vmStats;
+        _statsPushInterval = statsPushInterval;
+    }
+
+    public boolean hasPushedStats() {
+        return _hostStats != null || _vmStats != null;
+    }
 }
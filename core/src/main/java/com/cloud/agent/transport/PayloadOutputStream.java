@@ -0,0 +1,100 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Collects the serialized content of a Request. The bytes are kept as they
+ * are until the compression threshold is reached, from then on everything
+ * written goes through gzip, so a large payload never exists uncompressed
+ * in memory as a whole.
+ */
+class PayloadOutputStream extends OutputStream {
+    private final int _threshold;
+    private ExposedByteArrayOutputStream _buffer;
+    private GZIPOutputStream _gzip;
+    private int _size;
+
+    PayloadOutputStream(final int threshold) {
+        _threshold = threshold;
+        _buffer = new ExposedByteArrayOutputStream(threshold);
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[] {(byte)b}, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        if (_gzip == null && _size + len >= _threshold) {
+            final ExposedByteArrayOutputStream compressed = new ExposedByteArrayOutputStream(_threshold);
+            _gzip = new GZIPOutputStream(compressed, 8192);
+            _buffer.writeTo(_gzip);
+            _buffer = compressed;
+        }
+        if (_gzip != null) {
+            _gzip.write(b, off, len);
+        } else {
+            _buffer.write(b, off, len);
+        }
+        _size += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (_gzip != null) {
+            _gzip.finish();
+        }
+    }
+
+    /**
+     * @return the number of bytes written, before compression.
+     */
+    int getSize() {
+        return _size;
+    }
+
+    boolean isCompressed() {
+        return _gzip != null;
+    }
+
+    /**
+     * @return the collected bytes, without copying them; only valid once closed.
+     */
+    ByteBuffer toByteBuffer() {
+        return _buffer.toByteBuffer();
+    }
+
+    private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        ExposedByteArrayOutputStream(final int size) {
+            super(size);
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
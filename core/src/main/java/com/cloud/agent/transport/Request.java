@@ -22,9 +22,15 @@ package com.cloud.agent.transport;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.io.StringReader;
+import java.io.Writer;
 import java.lang.reflect.Type;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
@@ -68,13 +74,19 @@ import com.cloud.utils.exception.CloudRuntimeException;
  *
  * A request looks as follows:
  * 1. Version - 1 byte;
- * 2. Flags - 3 bytes;
- * 3. Sequence - 8 bytes;
- * 4. Length - 4 bytes;
- * 5. ManagementServerId - 8 bytes;
- * 6. AgentId - 8 bytes;
- * 7. Data Package.
+ * 2. Codec - 1 byte;
+ * 3. Flags - 2 bytes;
+ * 4. Sequence - 8 bytes;
+ * 5. Length - 4 bytes;
+ * 6. ManagementServerId - 8 bytes;
+ * 7. AgentId - 8 bytes;
+ * 8. Via - 8 bytes;
+ * 9. Data Package.
  *
+ * The codec byte used to be always 0, so peers which do not know about it
+ * simply skip it. Both codecs put the same JSON on the wire; the codec only
+ * tells the receiver whether it may decode the data package as a UTF-8 stream
+ * instead of building a String out of it first.
  */
 public class Request {
     private static final Logger s_logger = Logger.getLogger(Request.class);
@@ -98,6 +110,34 @@ public class Request {
         }
     };
 
+    public enum Codec {
+        Json((byte)0), // data package is the json of the commands as a String in the platform charset.
+        JsonStream((byte)1); // data package is the json of the commands streamed as UTF-8, decoded lazily.
+
+        private final byte _id;
+
+        Codec(final byte id) {
+            _id = id;
+        }
+
+        public byte getId() {
+            return _id;
+        }
+
+        public static Codec get(final byte id) {
+            for (final Codec codec : Codec.values()) {
+                if (codec._id == id) {
+                    return codec;
+                }
+            }
+            return Json;
+        }
+    };
+
+    protected static final int COMPRESSION_THRESHOLD = 8192;
+
+    private static volatile Codec s_defaultCodec = Codec.JsonStream;
+
     protected static final short FLAG_RESPONSE = 0x0;
     protected static final short FLAG_REQUEST = 0x1;
     protected static final short FLAG_STOP_ON_ERROR = 0x2;
@@ -116,6 +156,9 @@ public class Request {
     protected Command[] _cmds;
     protected String _content;
     protected String _agentName;
+    protected Codec _codec = s_defaultCodec;
+    protected ByteBuffer _payload;
+    protected int _payloadSize;
 
     protected Request() {
     }
@@ -138,6 +181,14 @@ public class Request {
     protected Request(Version ver, long seq, long agentId, long mgmtId, long via, short flags, final String content) {
         this(ver, seq, agentId, mgmtId, via, flags, (Command[])null);
         _content = content;
+        _codec = Codec.Json;
+    }
+
+    protected Request(Version ver, long seq, long agentId, long mgmtId, long via, short flags, final Codec codec, final ByteBuffer payload, final int payloadSize) {
+        this(ver, seq, agentId, mgmtId, via, flags, (Command[])null);
+        _codec = codec;
+        _payload = payload;
+        _payloadSize = payloadSize;
     }
 
     public Request(long agentId, long mgmtId, Command command, boolean fromServer) {
@@ -181,9 +232,23 @@ public class Request {
         _via = that._via;
         _agentId = that._agentId;
         _agentName = that._agentName;
+        // Answer in the codec the peer used, so peers only ever receive what they sent.
+        _codec = that._codec;
         setFromServer(!that.isFromServer());
     }
 
+    /**
+     * Sets the codec used for the requests created by this process from now on.
+     * Responses always use the codec of the request they answer.
+     */
+    public static void setDefaultCodec(final Codec codec) {
+        s_defaultCodec = codec;
+    }
+
+    public static Codec getDefaultCodec() {
+        return s_defaultCodec;
+    }
+
     private final void setStopOnError(boolean stopOnError) {
         _flags |= (stopOnError ? FLAG_STOP_ON_ERROR : 0);
     }
@@ -220,6 +285,10 @@ public class Request {
         return _ver;
     }
 
+    public Codec getCodec() {
+        return _codec;
+    }
+
     public void setAgentId(long agentId) {
         _agentId = agentId;
     }
@@ -248,28 +317,74 @@ public class Request {
     public Command[] getCommands() {
         if (_cmds == null) {
             try {
-                StringReader reader = new StringReader(_content);
-                JsonReader jsonReader = new JsonReader(reader);
-                jsonReader.setLenient(true);
-                _cmds = s_gson.fromJson(jsonReader, (Type)Command[].class);
+                _cmds = deserializeContent(Command[].class);
             } catch (JsonParseException e) {
                 _cmds = new Command[] { new BadCommand() };
             } catch (RuntimeException e) {
-                s_logger.error("Caught problem with " + _content, e);
+                s_logger.error("Caught problem with " + getContent(), e);
                 throw e;
             }
         }
         return _cmds;
     }
 
+    protected Command[] deserializeContent(final Class<? extends Command[]> type) {
+        JsonReader jsonReader = new JsonReader(getContentReader());
+        jsonReader.setLenient(true);
+        return s_gson.fromJson(jsonReader, (Type)type);
+    }
+
+    /**
+     * @return a reader over the json of the commands, decompressing the received payload on the fly if needed.
+     */
+    protected Reader getContentReader() {
+        if (_content != null || _payload == null) {
+            return new StringReader(getContent());
+        }
+        final ByteBuffer payload = _payload.duplicate();
+        InputStream in = new ByteArrayInputStream(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+        if ((_flags & FLAG_COMPRESSED) != 0) {
+            try {
+                in = new GZIPInputStream(in);
+            } catch (IOException e) {
+                throw new CloudRuntimeException("Unable to decompress the content of " + _agentId + "-" + _seq, e);
+            }
+        }
+        return new InputStreamReader(in, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the json of the commands as a String, which is only built on demand for requests received with the JsonStream codec.
+     */
+    protected String getContent() {
+        if (_content == null) {
+            if (_payload != null) {
+                final StringBuilder content = new StringBuilder(_payloadSize);
+                final char[] chars = new char[4096];
+                try (Reader reader = getContentReader()) {
+                    int len;
+                    while ((len = reader.read(chars)) > 0) {
+                        content.append(chars, 0, len);
+                    }
+                } catch (IOException e) {
+                    throw new CloudRuntimeException("Unable to read the content of " + _agentId + "-" + _seq, e);
+                }
+                _content = content.toString();
+            } else if (_cmds != null) {
+                _content = s_gson.toJson(_cmds, _cmds.getClass());
+            }
+        }
+        return _content;
+    }
+
     protected String getType() {
         return "Cmd ";
     }
 
-    protected ByteBuffer serializeHeader(final int contentSize) {
+    protected ByteBuffer serializeHeader(final int contentSize, final Codec codec) {
         final ByteBuffer buffer = ByteBuffer.allocate(40);
         buffer.put(getVersionInByte());
-        buffer.put((byte)0);
+        buffer.put(codec.getId());
         buffer.putShort(getFlags());
         buffer.putLong(_seq);
         // The size here is uncompressed size, if the data is compressed.
@@ -331,18 +446,39 @@ public class Request {
         final ByteBuffer[] buffers = new ByteBuffer[2];
         ByteBuffer tmp;
 
+        if (_content == null && _payload == null && _codec == Codec.JsonStream) {
+            final PayloadOutputStream out = new PayloadOutputStream(COMPRESSION_THRESHOLD);
+            try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+                s_gson.toJson(_cmds, _cmds.getClass(), writer);
+            } catch (IOException e) {
+                throw new CloudRuntimeException("Unable to serialize the commands of " + _agentId + "-" + _seq, e);
+            }
+            if (out.isCompressed()) {
+                _flags |= FLAG_COMPRESSED;
+            }
+            _payload = out.toByteBuffer();
+            _payloadSize = out.getSize();
+        }
+
+        if (_content == null && _payload != null) {
+            // Sent as encoded, or as received when forwarding, without going through a String.
+            buffers[1] = _payload.duplicate();
+            buffers[0] = serializeHeader(_payloadSize, Codec.JsonStream);
+            return buffers;
+        }
+
         if (_content == null) {
             _content = s_gson.toJson(_cmds, _cmds.getClass());
         }
         tmp = ByteBuffer.wrap(_content.getBytes());
         int capacity = tmp.capacity();
         /* Check if we need to compress the data */
-        if (capacity >= 8192) {
+        if (capacity >= COMPRESSION_THRESHOLD) {
             tmp = doCompress(tmp, capacity);
             _flags |= FLAG_COMPRESSED;
         }
         buffers[1] = tmp;
-        buffers[0] = serializeHeader(capacity);
+        buffers[0] = serializeHeader(capacity, Codec.Json);
 
         return buffers;
     }
@@ -402,9 +538,9 @@ public class Request {
         if (logContent) {
             if (_cmds == null) {
                 try {
-                    _cmds = s_gson.fromJson(_content, this instanceof Response ? Answer[].class : Command[].class);
+                    _cmds = deserializeContent(this instanceof Response ? Answer[].class : Command[].class);
                 } catch (RuntimeException e) {
-                    s_logger.error("Unable to deserialize from json: " + _content);
+                    s_logger.error("Unable to deserialize from json: " + getContent());
                     throw e;
                 }
             }
@@ -425,7 +561,7 @@ public class Request {
             }
         } else {
             if (_cmds == null) {
-                _cmds = s_gson.fromJson(_content, this instanceof Response ? Answer[].class : Command[].class);
+                _cmds = deserializeContent(this instanceof Response ? Answer[].class : Command[].class);
             }
             content.append("{ ");
             for (Command cmd : _cmds) {
@@ -495,7 +631,7 @@ public class Request {
         if (version.ordinal() != Version.v1.ordinal() && version.ordinal() != Version.v3.ordinal()) {
             throw new UnsupportedVersionException("This version is no longer supported: " + version.toString(), UnsupportedVersionException.IncompatibleVersion);
         }
-        buff.get();
+        final Codec codec = Codec.get(buff.get());
         final short flags = buff.getShort();
         final boolean isRequest = (flags & FLAG_REQUEST) > 0;
 
@@ -512,6 +648,16 @@ public class Request {
             via = agentId;
         }
 
+        if (codec == Codec.JsonStream) {
+            // Keep the received bytes, they are only decoded when the commands are accessed.
+            final ByteBuffer payload = buff.slice();
+            if (isRequest) {
+                return new Request(version, seq, agentId, mgmtId, via, flags, codec, payload, size);
+            } else {
+                return new Response(version, seq, agentId, mgmtId, via, flags, codec, payload, size);
+            }
+        }
+
         if ((flags & FLAG_COMPRESSED) != 0) {
             buff = doDecompress(buff, size);
         }
@@ -20,6 +20,11 @@
 package com.cloud.agent.transport;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
 import junit.framework.TestCase;
 
 import org.apache.log4j.Level;
@@ -34,12 +39,16 @@ import com.cloud.agent.api.Answer;
 import com.cloud.agent.api.BadCommand;
 import com.cloud.agent.api.Command;
 import com.cloud.agent.api.GetHostStatsCommand;
+import com.cloud.agent.api.GetVmStatsAnswer;
+import com.cloud.agent.api.GetVmStatsCommand;
 import com.cloud.agent.api.GetVolumeStatsCommand;
 import com.cloud.agent.api.SecStorageFirewallCfgCommand;
 import com.cloud.agent.api.UpdateHostPasswordCommand;
+import com.cloud.agent.api.VmStatsEntry;
 import com.cloud.agent.api.storage.DownloadAnswer;
 import com.cloud.agent.api.storage.ListTemplateCommand;
 import com.cloud.agent.api.to.NfsTO;
+import com.cloud.agent.transport.Request.Codec;
 import com.cloud.agent.transport.Request.Version;
 import com.cloud.exception.UnsupportedVersionException;
 import com.cloud.hypervisor.Hypervisor.HypervisorType;
@@ -274,4 +283,87 @@ public class RequestTest extends TestCase {
         assert cmds[0].getClass().equals(BadCommand.class);
     }
 
+    protected static GetVmStatsCommand createVmStatsCommand(int vms) {
+        List<String> vmNames = new ArrayList<String>();
+        for (int i = 0; i < vms; i++) {
+            vmNames.add("i-2-" + i + "-VM");
+        }
+        return new GetVmStatsCommand(vmNames, "hostguid", "hostname");
+    }
+
+    protected static GetVmStatsAnswer createVmStatsAnswer(GetVmStatsCommand cmd) {
+        HashMap<String, VmStatsEntry> vmStatsMap = new HashMap<String, VmStatsEntry>();
+        int i = 0;
+        for (String vmName : cmd.getVmNames()) {
+            vmStatsMap.put(vmName, new VmStatsEntry(2097152, 1048576, 2097152, 1048576, 12.5, 1024.0 * i, 2048.0 * i, 2, "UserVm"));
+            i++;
+        }
+        return new GetVmStatsAnswer(cmd, vmStatsMap);
+    }
+
+    public void testSerDeserJsonStreamCompressed() throws Exception {
+        s_logger.info("Testing that large answers are streamed, compressed and decoded lazily");
+        GetVmStatsCommand cmd = createVmStatsCommand(500);
+        Request req = new Request(2, 3, cmd, true);
+        req.setSequence(5);
+        Response resp = new Response(req, createVmStatsAnswer(cmd));
+        assertEquals(Codec.JsonStream, resp.getCodec());
+
+        byte[] bytes = resp.getBytes();
+        assertEquals(Codec.JsonStream.getId(), bytes[1]);
+        assertTrue((bytes[3] & Request.FLAG_COMPRESSED) != 0);
+
+        Response parsed = Response.parse(bytes);
+        assertEquals(Codec.JsonStream, parsed.getCodec());
+        compareRequest(resp, parsed);
+        GetVmStatsAnswer parsedAnswer = (GetVmStatsAnswer)parsed.getAnswer();
+        assertEquals(500, parsedAnswer.getVmStatsMap().size());
+        assertEquals(1024.0 * 10, parsedAnswer.getVmStatsMap().get("i-2-10-VM").getNetworkReadKBs(), 0.0);
+    }
+
+    public void testJsonStreamIsReadableAsJson() throws Exception {
+        s_logger.info("Testing that peers which skip the codec byte can still read the streamed json");
+        Request sreq = new Request(2, 3, new Command[] {new GetHostStatsCommand("hostguid", "hostname", 101)}, true, true);
+        byte[] bytes = sreq.getBytes();
+        assertEquals(Codec.JsonStream.getId(), bytes[1]);
+
+        bytes[1] = Codec.Json.getId();
+        Request creq = Request.parse(bytes);
+        assertEquals(Codec.Json, creq.getCodec());
+        compareRequest(sreq, creq);
+    }
+
+    public void testSerDeserJsonCodec() throws Exception {
+        s_logger.info("Testing that the json codec is still used when asked for and answered in kind");
+        Codec defaultCodec = Request.getDefaultCodec();
+        Request.setDefaultCodec(Codec.Json);
+        try {
+            GetHostStatsCommand cmd = new GetHostStatsCommand("hostguid", "hostname", 101);
+            Request sreq = new Request(2, 3, new Command[] {cmd}, true, true);
+            byte[] bytes = sreq.getBytes();
+            assertEquals(Codec.Json.getId(), bytes[1]);
+
+            Request.setDefaultCodec(defaultCodec);
+            Request creq = Request.parse(bytes);
+            assertEquals(Codec.Json, creq.getCodec());
+            compareRequest(sreq, creq);
+
+            Response resp = new Response(creq, new Answer(cmd, true, null));
+            assertEquals(Codec.Json, resp.getCodec());
+            assertEquals(Codec.Json.getId(), resp.getBytes()[1]);
+        } finally {
+            Request.setDefaultCodec(defaultCodec);
+        }
+    }
+
+    public void testForwardJsonStreamWithoutDecoding() throws Exception {
+        s_logger.info("Testing that a received request is forwarded as it was received");
+        Request sreq = new Request(2, 3, new Command[] {new GetHostStatsCommand("hostguid", "hostname", 101)}, true, true);
+        sreq.setSequence(7);
+        byte[] bytes = sreq.getBytes();
+
+        Request creq = Request.parse(bytes);
+        assertTrue(Arrays.equals(bytes, creq.getBytes()));
+        assertTrue(Arrays.equals(bytes, sreq.getBytes()));
+    }
 }
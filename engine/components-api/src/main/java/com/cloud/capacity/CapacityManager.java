@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.capacity;
 
+import java.util.List;
 import java.util.Map;
 
 import org.apache.cloudstack.framework.config.ConfigKey;
@@ -92,10 +93,27 @@ public interface CapacityManager {
     static final ConfigKey<Float> SecondaryStorageCapacityThreshold = new ConfigKey<Float>("Advanced", Float.class, "secondary.storage.capacity.threshold", "0.90",
             "Percentage (as a value between 0 and 1) of secondary storage capacity threshold.", true);
 
+    static final ConfigKey<Integer> HostCapacityIndexTtl = new ConfigKey<Integer>("Advanced", Integer.class, "host.capacity.index.ttl", "60",
+            "Time in seconds after which the in-memory host capacity index used by planners and allocators reloads a zone from the database. " +
+            "0 disables the index and every host is checked against the database.", true);
+
+    static final ConfigKey<Integer> CapacityReconcileInterval = new ConfigKey<Integer>("Advanced", Integer.class, "capacity.reconcile.interval", "3600",
+            "Interval in seconds between full recalculations of the cpu and memory capacity of the hosts. In between, host capacity follows the vm state " +
+            "transitions and the capacity checker only releases expired reservations. 0 recalculates every host on every capacity check.", true);
+
     public boolean releaseVmCapacity(VirtualMachine vm, boolean moveFromReserved, boolean moveToReservered, Long hostId);
 
     void allocateVmCapacity(VirtualMachine vm, boolean fromLastHost);
 
+    /**
+     * Reserves the capacity of the offering on the planned host of every vm, all or nothing. The vms
+     * get their planned host as last host, so the reservation is consumed once they start there.
+     *
+     * @param vmIdsByHost the vms to reserve for, keyed by planned host
+     * @return false if one of the hosts is short of capacity, nothing is reserved then
+     */
+    boolean reserveVmCapacity(ServiceOffering offering, Map<Long, List<Long>> vmIdsByHost);
+
     /**
      * @param hostId Id of the host to check capacity
      * @param cpu required CPU
@@ -109,6 +127,15 @@ public interface CapacityManager {
 
     void updateCapacityForHost(Host host, Map<Long, ServiceOfferingVO> offeringsMap);
 
+    /**
+     * Brings the cpu and memory capacity of the hosts up to date. Host capacity is tracked incrementally
+     * from the vm state transitions, so most calls only release the reservations of stopped vms which
+     * expired since the previous call; every capacity.reconcile.interval all hosts are fully recalculated
+     * and the drift from the tracked capacity is recorded.
+     * @param force fully recalculate all hosts now, for callers which need the capacity to be exact
+     */
+    void updateHostCapacities(boolean force);
+
     /**
      * @param pool storage pool
      * @param templateForVmCreation template that will be used for vm creation
@@ -148,4 +175,9 @@ public interface CapacityManager {
     long getUsedIops(StoragePoolVO pool);
 
     Pair<Boolean, Boolean> checkIfHostHasCpuCapabilityAndCapacity(Host host, ServiceOffering offering, boolean considerReservedCapacity);
+
+    /**
+     * @return the in-memory host capacity index, or null when it is disabled through host.capacity.index.ttl
+     */
+    HostCapacityIndex getHostCapacityIndex();
 }
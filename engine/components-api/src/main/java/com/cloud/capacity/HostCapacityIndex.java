@@ -0,0 +1,46 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.capacity;
+
+/**
+ * Per zone, in-memory view of the compute capacity and placement related
+ * attributes (guest OS category, GPU, UEFI, running VM count) of the hosts.
+ * Planners and allocators use it to evaluate many candidate hosts without
+ * querying the database for every one of them.
+ *
+ * The view is only a hint: capacity is re-verified under a row lock when it
+ * is actually allocated to a VM.
+ */
+public interface HostCapacityIndex {
+
+    /**
+     * @param zoneId zone of the host
+     * @param hostId the host to look up
+     * @return the snapshot of the host, or null if the host is not known to the index
+     * (e.g. it is not Up and Enabled), in which case callers fall back to the database
+     */
+    HostCapacitySnapshot getHost(long zoneId, long hostId);
+
+    /**
+     * Marks the snapshot of the host as stale, it will be reloaded on the next lookup in its zone.
+     */
+    void invalidateHost(long hostId);
+
+    void invalidateZone(long zoneId);
+
+    void invalidateAll();
+}
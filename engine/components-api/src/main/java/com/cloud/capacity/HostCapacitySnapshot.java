@@ -0,0 +1,240 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.capacity;
+
+import com.cloud.hypervisor.Hypervisor.HypervisorType;
+
+/**
+ * Point in time copy of a host's compute capacity and placement attributes,
+ * held by {@link HostCapacityIndex}. Snapshots are never modified once they
+ * have been published, a refreshed host gets a new snapshot.
+ */
+public class HostCapacitySnapshot {
+    private long hostId;
+    private Long clusterId;
+    private Long podId;
+    private HypervisorType hypervisorType;
+    private int cpus;
+    private int speed;
+    private long usedCpu;
+    private long reservedCpu;
+    private long totalCpu;
+    private long usedMemory;
+    private long reservedMemory;
+    private long totalMemory;
+    private float cpuOvercommitRatio = 1.0f;
+    private float memoryOvercommitRatio = 1.0f;
+    private String guestOSCategory;
+    private boolean gpuEnabled;
+    private boolean uefiEnabled;
+    private long activeVmCount;
+    private Long maxGuestsLimit;
+    private long loadedAt;
+
+    public HostCapacitySnapshot(long hostId) {
+        this.hostId = hostId;
+    }
+
+    /**
+     * Same as {@link CapacityManager#checkIfHostReachMaxGuestLimit}, a null limit means the hypervisor has none.
+     */
+    public boolean hasReachedMaxGuestLimit() {
+        return maxGuestsLimit != null && activeVmCount >= maxGuestsLimit;
+    }
+
+    /**
+     * Same as {@link CapacityManager#checkIfHostHasCpuCapability}.
+     */
+    public boolean hasCpuCapability(int cpuNum, int cpuSpeed) {
+        return cpus >= cpuNum && speed >= cpuSpeed;
+    }
+
+    /**
+     * Same as {@link CapacityManager#checkIfHostHasCapacity} when not allocating from reserved capacity.
+     * @param cpu requested CPU in MHz
+     * @param ram requested RAM in bytes
+     */
+    public boolean hasCapacity(int cpu, long ram, boolean considerReservedCapacity) {
+        long reservedCpuValueToUse = considerReservedCapacity ? reservedCpu : 0;
+        long reservedMemValueToUse = considerReservedCapacity ? reservedMemory : 0;
+        long overcommittedCpu = (long)(totalCpu * cpuOvercommitRatio);
+        long overcommittedMem = (long)(totalMemory * memoryOvercommitRatio);
+        return reservedCpuValueToUse + usedCpu + cpu <= overcommittedCpu && reservedMemValueToUse + usedMemory + ram <= overcommittedMem;
+    }
+
+    public long getHostId() {
+        return hostId;
+    }
+
+    public Long getClusterId() {
+        return clusterId;
+    }
+
+    public void setClusterId(Long clusterId) {
+        this.clusterId = clusterId;
+    }
+
+    public Long getPodId() {
+        return podId;
+    }
+
+    public void setPodId(Long podId) {
+        this.podId = podId;
+    }
+
+    public HypervisorType getHypervisorType() {
+        return hypervisorType;
+    }
+
+    public void setHypervisorType(HypervisorType hypervisorType) {
+        this.hypervisorType = hypervisorType;
+    }
+
+    public int getCpus() {
+        return cpus;
+    }
+
+    public void setCpus(int cpus) {
+        this.cpus = cpus;
+    }
+
+    public int getSpeed() {
+        return speed;
+    }
+
+    public void setSpeed(int speed) {
+        this.speed = speed;
+    }
+
+    public long getUsedCpu() {
+        return usedCpu;
+    }
+
+    public void setUsedCpu(long usedCpu) {
+        this.usedCpu = usedCpu;
+    }
+
+    public long getReservedCpu() {
+        return reservedCpu;
+    }
+
+    public void setReservedCpu(long reservedCpu) {
+        this.reservedCpu = reservedCpu;
+    }
+
+    public long getTotalCpu() {
+        return totalCpu;
+    }
+
+    public void setTotalCpu(long totalCpu) {
+        this.totalCpu = totalCpu;
+    }
+
+    public long getUsedMemory() {
+        return usedMemory;
+    }
+
+    public void setUsedMemory(long usedMemory) {
+        this.usedMemory = usedMemory;
+    }
+
+    public long getReservedMemory() {
+        return reservedMemory;
+    }
+
+    public void setReservedMemory(long reservedMemory) {
+        this.reservedMemory = reservedMemory;
+    }
+
+    public long getTotalMemory() {
+        return totalMemory;
+    }
+
+    public void setTotalMemory(long totalMemory) {
+        this.totalMemory = totalMemory;
+    }
+
+    public float getCpuOvercommitRatio() {
+        return cpuOvercommitRatio;
+    }
+
+    public void setCpuOvercommitRatio(float cpuOvercommitRatio) {
+        this.cpuOvercommitRatio = cpuOvercommitRatio;
+    }
+
+    public float getMemoryOvercommitRatio() {
+        return memoryOvercommitRatio;
+    }
+
+    public void setMemoryOvercommitRatio(float memoryOvercommitRatio) {
+        this.memoryOvercommitRatio = memoryOvercommitRatio;
+    }
+
+    public String getGuestOSCategory() {
+        return guestOSCategory;
+    }
+
+    public void setGuestOSCategory(String guestOSCategory) {
+        this.guestOSCategory = guestOSCategory;
+    }
+
+    public boolean isGpuEnabled() {
+        return gpuEnabled;
+    }
+
+    public void setGpuEnabled(boolean gpuEnabled) {
+        this.gpuEnabled = gpuEnabled;
+    }
+
+    public boolean isUefiEnabled() {
+        return uefiEnabled;
+    }
+
+    public void setUefiEnabled(boolean uefiEnabled) {
+        this.uefiEnabled = uefiEnabled;
+    }
+
+    public long getActiveVmCount() {
+        return activeVmCount;
+    }
+
+    public void setActiveVmCount(long activeVmCount) {
+        this.activeVmCount = activeVmCount;
+    }
+
+    public Long getMaxGuestsLimit() {
+        return maxGuestsLimit;
+    }
+
+    public void setMaxGuestsLimit(Long maxGuestsLimit) {
+        this.maxGuestsLimit = maxGuestsLimit;
+    }
+
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+
+    public void setLoadedAt(long loadedAt) {
+        this.loadedAt = loadedAt;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("HostCapacitySnapshot {hostId: %d, cpu: %d/%d/%d, memory: %d/%d/%d, vms: %d}", hostId, usedCpu, reservedCpu, totalCpu, usedMemory,
+                reservedMemory, totalMemory, activeVmCount);
+    }
+}
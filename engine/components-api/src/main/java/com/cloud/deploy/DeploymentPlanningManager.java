@@ -16,6 +16,9 @@
 // under the License.
 package com.cloud.deploy;
 
+import java.util.List;
+import java.util.Map;
+
 import com.cloud.dc.DataCenter;
 import com.cloud.deploy.DeploymentPlanner.ExcludeList;
 import com.cloud.exception.AffinityConflictException;
@@ -57,6 +60,20 @@ public interface DeploymentPlanningManager extends Manager {
 
     void cleanupVMReservations();
 
+    /**
+     * Places a batch of vms created from the same offering and template in one pass: the suitable
+     * hosts of the clusters, in the order and within the disable thresholds of the cluster planner,
+     * are looked up once, the vms are packed onto them following the vm allocation algorithm
+     * and the capacity of the whole batch is reserved atomically. Every vm is left with its planned
+     * host as last host, so it is started there unless the host no longer fits.
+     *
+     * @param planner the cluster planner to use, null for the planner of the offering or the configured one
+     * @return the planned host of every vm, keyed by vm id
+     * @throws InsufficientServerCapacityException if the batch does not fit, nothing is reserved then
+     */
+    Map<Long, Long> planBatchDeployment(List<VirtualMachineProfile> vmProfiles, DeploymentPlan plan, ExcludeList avoids, DeploymentPlanner planner)
+            throws InsufficientServerCapacityException;
+
     DeploymentPlanner getDeploymentPlannerByName(String plannerName);
 
     void checkForNonDedicatedResources(VirtualMachineProfile vmProfile, DataCenter dc, ExcludeList avoids);
@@ -115,6 +115,7 @@ import com.cloud.utils.exception.NioConnectionException;
 import com.cloud.utils.exception.TaskExecutionException;
 import com.cloud.utils.fsm.NoTransitionException;
 import com.cloud.utils.fsm.StateMachine2;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.utils.nio.HandlerFactory;
 import com.cloud.utils.nio.Link;
 import com.cloud.utils.nio.NioServer;
@@ -193,6 +194,10 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
     protected final ConfigKey<Integer> Workers = new ConfigKey<Integer>("Advanced", Integer.class, "workers", "5",
             "Number of worker threads handling remote agent connections.", false);
     protected final ConfigKey<Integer> Port = new ConfigKey<Integer>("Advanced", Integer.class, "port", "8250", "Port to listen on for remote agent connections.", false);
+    protected final ConfigKey<Integer> Reactors = new ConfigKey<Integer>("Advanced", Integer.class, "agent.connection.reactors", "1",
+            "Number of selector threads the remote agent connections are spread over, each with its own pool of worker threads.", false);
+    protected final ConfigKey<Integer> WorkerQueueLimit = new ConfigKey<Integer>("Advanced", Integer.class, "agent.connection.worker.queue.limit", "1000",
+            "Number of agent messages waiting for the worker threads of a reactor above which reading from its agents is paused until the workers catch up. 0 means no limit.", false);
     protected final ConfigKey<Integer> AlertWait = new ConfigKey<Integer>("Advanced", Integer.class, "alert.wait", "1800",
             "Seconds to wait before alerting on a disconnected agent", true);
     protected final ConfigKey<Integer> DirectAgentLoadSize = new ConfigKey<Integer>("Advanced", Integer.class, "direct.agent.load.size", "16",
@@ -227,8 +232,14 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         // allow core threads to time out even when there are no items in the queue
         _connectExecutor.allowCoreThreadTimeOut(true);
 
-        _connection = new NioServer("AgentManager", Port.value(), Workers.value() + 10, this, caService);
-        s_logger.info("Listening on " + Port.value() + " with " + Workers.value() + " workers");
+        _connection = new NioServer("AgentManager", Port.value(), Workers.value() + 10, Reactors.value(), this, caService);
+        _connection.setWorkerQueueLimit(WorkerQueueLimit.value());
+        try {
+            JmxUtil.registerMBean("AgentManager", "Agent Connection Workers", _connection);
+        } catch (final Exception e) {
+            s_logger.warn("Unable to register the agent connection worker stats for JMX", e);
+        }
+        s_logger.info("Listening on " + Port.value() + " with " + Workers.value() + " workers and " + Reactors.value() + " reactor(s)");
 
         // executes all agent commands other than cron and ping
         _directAgentExecutor = new ScheduledThreadPoolExecutor(DirectAgentPoolSize.value(), new NamedThreadFactory("DirectAgent"));
@@ -1631,6 +1642,11 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
                 s_logger.error("Caught the following exception: ", th);
             }
 
+            if (_connection != null && s_logger.isDebugEnabled()) {
+                s_logger.debug("Agent connection workers: queued tasks " + _connection.getWorkerQueueSize() + ", peak " + _connection.getPeakWorkerQueueSize()
+                        + ", links paused for backpressure " + _connection.getParkedLinkCount() + ", total pauses " + _connection.getBackpressureCount());
+            }
+
             s_logger.trace("Agent Monitor is leaving the building!");
         }
 
@@ -1725,7 +1741,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] { CheckTxnBeforeSending, Workers, Port, Wait, AlertWait, DirectAgentLoadSize, DirectAgentPoolSize,
+        return new ConfigKey<?>[] { CheckTxnBeforeSending, Workers, Port, Reactors, WorkerQueueLimit, Wait, AlertWait, DirectAgentLoadSize, DirectAgentPoolSize,
             DirectAgentThreadCap };
     }
 
@@ -28,6 +28,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -59,6 +60,8 @@ import com.cloud.agent.api.CancelCommand;
 import com.cloud.agent.api.ChangeAgentAnswer;
 import com.cloud.agent.api.ChangeAgentCommand;
 import com.cloud.agent.api.Command;
+import com.cloud.agent.api.InvalidateConfigCacheCommand;
+import com.cloud.agent.api.InvalidateEntityCacheCommand;
 import com.cloud.agent.api.PropagateResourceEventCommand;
 import com.cloud.agent.api.ScheduleHostScanTaskCommand;
 import com.cloud.agent.api.TransferAgentCommand;
@@ -87,6 +90,7 @@ import com.cloud.resource.ServerResource;
 import com.cloud.serializer.GsonHelper;
 import com.cloud.utils.DateUtil;
 import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.db.EntityCacheManager;
 import com.cloud.utils.db.QueryBuilder;
 import com.cloud.utils.db.SearchCriteria.Op;
 import com.cloud.utils.db.TransactionLegacy;
@@ -104,12 +108,15 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
     public final static long STARTUP_DELAY = 5000;
     public final static long SCAN_INTERVAL = 90000; // 90 seconds, it takes 60 sec for xenserver to fail login
     public final static int ACQUIRE_GLOBAL_LOCK_TIMEOUT_FOR_COOPERATION = 5; // 5 seconds
+    public final static long ENTITY_CACHE_INVALIDATION_INTERVAL = 1000; // 1 second
     protected Set<Long> _agentToTransferIds = new HashSet<Long>();
     Gson _gson;
     protected HashMap<String, SocketChannel> _peers;
     protected HashMap<String, SSLEngine> _sslEngines;
     private final Timer _timer = new Timer("ClusteredAgentManager Timer");
     boolean _agentLbHappened = false;
+    // entities changed on this management server, by cache name, yet to be evicted on the peers
+    private final Map<String, Set<String>> _changedEntities = new HashMap<String, Set<String>>();
 
     @Inject
     protected ClusterManager _clusterMgr = null;
@@ -153,6 +160,19 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
 
         _clusterMgr.registerListener(this);
         _clusterMgr.registerDispatcher(new ClusterDispatcher());
+        EntityCacheManager.setInvalidationListener(new EntityCacheManager.InvalidationListener() {
+            @Override
+            public void entityChanged(final String cacheName, final Object id) {
+                synchronized (_changedEntities) {
+                    Set<String> ids = _changedEntities.get(cacheName);
+                    if (ids == null) {
+                        ids = new LinkedHashSet<String>();
+                        _changedEntities.put(cacheName, ids);
+                    }
+                    ids.add(id.toString());
+                }
+            }
+        });
 
         _gson = GsonHelper.getGson();
 
@@ -168,6 +188,7 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Scheduled direct agent scan task to run at an interval of " + ScanInterval.value() + " seconds");
         }
+        _timer.schedule(new EntityCacheInvalidationTask(), ENTITY_CACHE_INVALIDATION_INTERVAL, ENTITY_CACHE_INVALIDATION_INTERVAL);
 
         // Schedule tasks for agent rebalancing
         if (isAgentRebalanceEnabled()) {
@@ -245,6 +266,50 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
         }
     }
 
+    /**
+     * Sends the entities changed since the last run to the peers in one command, so
+     * that they evict them from their entity caches.  The entities stay queued until
+     * the command is sent, a failed run sends them again on the next one.
+     */
+    protected void broadcastEntityCacheInvalidations() {
+        final Map<String, List<String>> entities;
+        synchronized (_changedEntities) {
+            if (_changedEntities.isEmpty()) {
+                return;
+            }
+            entities = new HashMap<String, List<String>>(_changedEntities.size());
+            for (final Map.Entry<String, Set<String>> entry : _changedEntities.entrySet()) {
+                entities.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+            }
+        }
+
+        final Command[] cmds = new Command[] {new InvalidateEntityCacheCommand(entities)};
+        _clusterMgr.broadcast(0, _gson.toJson(cmds));
+
+        synchronized (_changedEntities) {
+            for (final Map.Entry<String, List<String>> entry : entities.entrySet()) {
+                final Set<String> ids = _changedEntities.get(entry.getKey());
+                if (ids != null) {
+                    ids.removeAll(entry.getValue());
+                    if (ids.isEmpty()) {
+                        _changedEntities.remove(entry.getKey());
+                    }
+                }
+            }
+        }
+    }
+
+    private class EntityCacheInvalidationTask extends ManagedContextTimerTask {
+        @Override
+        protected void runInContext() {
+            try {
+                broadcastEntityCacheInvalidations();
+            } catch (final Throwable e) {
+                s_logger.error("Unexpected exception " + e.getMessage(), e);
+            }
+        }
+    }
+
     @Override
     public Task create(final Task.Type type, final Link link, final byte[] data) {
         return new ClusteredAgentHandler(type, link, data);
@@ -592,6 +657,7 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
             }
         }
         _timer.cancel();
+        EntityCacheManager.setInvalidationListener(null);
 
         // cancel all transfer tasks
         s_transferExecutor.shutdownNow();
@@ -1249,6 +1315,34 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
         return _gson.toJson(answers);
     }
 
+    private String handleInvalidateConfigCacheCommand(final InvalidateConfigCacheCommand cmd) {
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Intercepting config cache invalidation command: " + _gson.toJson(cmd));
+        }
+
+        _configDepot.invalidateConfigCache(cmd.getConfigName());
+
+        final Answer[] answers = new Answer[1];
+        answers[0] = new Answer(cmd, true, null);
+        return _gson.toJson(answers);
+    }
+
+    private String handleInvalidateEntityCacheCommand(final InvalidateEntityCacheCommand cmd) {
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("Intercepting entity cache invalidation command: " + _gson.toJson(cmd));
+        }
+
+        if (cmd.getEntities() != null) {
+            for (final Map.Entry<String, List<String>> entry : cmd.getEntities().entrySet()) {
+                EntityCacheManager.evict(entry.getKey(), entry.getValue());
+            }
+        }
+
+        final Answer[] answers = new Answer[1];
+        answers[0] = new Answer(cmd, true, null);
+        return _gson.toJson(answers);
+    }
+
     public Answer[] sendToAgent(final Long hostId, final Command[] cmds, final boolean stopOnError) throws AgentUnavailableException, OperationTimedoutException {
         final Commands commands = new Commands(stopOnError ? Command.OnError.Stop : Command.OnError.Continue);
         for (final Command cmd : cmds) {
@@ -1343,6 +1437,12 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
                 final ScheduleHostScanTaskCommand cmd = (ScheduleHostScanTaskCommand)cmds[0];
                 final String response = handleScheduleHostScanTaskCommand(cmd);
                 return response;
+            } else if (cmds.length == 1 && cmds[0] instanceof InvalidateConfigCacheCommand) {
+                final InvalidateConfigCacheCommand cmd = (InvalidateConfigCacheCommand)cmds[0];
+                return handleInvalidateConfigCacheCommand(cmd);
+            } else if (cmds.length == 1 && cmds[0] instanceof InvalidateEntityCacheCommand) {
+                final InvalidateEntityCacheCommand cmd = (InvalidateEntityCacheCommand)cmds[0];
+                return handleInvalidateEntityCacheCommand(cmd);
             }
 
             try {
@@ -96,6 +96,7 @@ import com.cloud.agent.api.CheckVirtualMachineCommand;
 import com.cloud.agent.api.ClusterVMMetaDataSyncAnswer;
 import com.cloud.agent.api.ClusterVMMetaDataSyncCommand;
 import com.cloud.agent.api.Command;
+import com.cloud.agent.api.HostVmStateChangeReportCommand;
 import com.cloud.agent.api.MigrateCommand;
 import com.cloud.agent.api.MigrateVmToPoolAnswer;
 import com.cloud.agent.api.ModifyTargetsCommand;
@@ -3628,6 +3629,13 @@ public class VirtualMachineManagerImpl extends ManagerBase implements VirtualMac
 
     @Override
     public AgentControlAnswer processControlCommand(final long agentId, final AgentControlCommand cmd) {
+        if (cmd instanceof HostVmStateChangeReportCommand) {
+            final HostVmStateChangeReportCommand report = (HostVmStateChangeReportCommand)cmd;
+            if (report.getHostVmStateChanges() != null) {
+                _syncMgr.processHostVmStateChangeReport(agentId, report.getHostVmStateChanges());
+            }
+            return new AgentControlAnswer(cmd);
+        }
         return null;
     }
 
@@ -4634,7 +4642,7 @@ public class VirtualMachineManagerImpl extends ManagerBase implements VirtualMac
             }
         } else {
             s_logger.info("There is pending job or HA tasks working on the VM. vm id: " + vmId + ", postpone power-change report by resetting power-change counters");
-            _vmDao.resetVmPowerStateTracking(vmId);
+            _syncMgr.resetVmSyncState(vmId);
         }
     }
 
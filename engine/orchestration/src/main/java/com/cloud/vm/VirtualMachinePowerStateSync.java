@@ -24,10 +24,15 @@ public interface VirtualMachinePowerStateSync {
 
     void resetHostSyncState(long hostId);
 
+    void resetVmSyncState(long vmId);
+
     void processHostVmStateReport(long hostId, Map<String, HostVmStateReportEntry> report);
 
     // to adapt legacy ping report
     void processHostVmStatePingReport(long hostId, Map<String, HostVmStateReportEntry> report);
 
+    // changes reported as they happen, VMs not part of the report are left untouched
+    void processHostVmStateChangeReport(long hostId, Map<String, HostVmStateReportEntry> report);
+
     Map<Long, VirtualMachine.PowerState> convertVmStateReport(Map<String, HostVmStateReportEntry> states);
 }
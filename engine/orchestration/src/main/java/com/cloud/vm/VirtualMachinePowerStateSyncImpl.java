@@ -21,7 +21,10 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 
 import org.apache.cloudstack.framework.messagebus.MessageBus;
@@ -31,31 +34,86 @@ import org.apache.log4j.Logger;
 import com.cloud.agent.api.HostVmStateReportEntry;
 import com.cloud.configuration.ManagementServiceConfiguration;
 import com.cloud.utils.DateUtil;
-import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.Pair;
+import com.cloud.utils.fsm.StateListener;
+import com.cloud.utils.fsm.StateMachine2;
 import com.cloud.vm.dao.VMInstanceDao;
 
-public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStateSync {
+public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStateSync, StateListener<VirtualMachine.State, VirtualMachine.Event, VirtualMachine> {
     private static final Logger s_logger = Logger.getLogger(VirtualMachinePowerStateSyncImpl.class);
 
+    // how many ping intervals a VM known to be settled in its reported state is skipped for before it is checked in the DB again
+    private static final int SETTLED_STATE_CHECK_PING_INTERVALS = 10;
+
     @Inject MessageBus _messageBus;
     @Inject VMInstanceDao _instanceDao;
     @Inject ManagementServiceConfiguration mgmtServiceConf;
 
+    // VMs in the last report of every host, and the ones among them which need no DB write while their report is unchanged
+    private final Map<Long, HostReportCache> _hostReportCaches = new ConcurrentHashMap<Long, HostReportCache>();
+
+    private final AtomicLong _reportCount = new AtomicLong();
+    private final AtomicLong _changeReportCount = new AtomicLong();
+    private final AtomicLong _reportedVmCount = new AtomicLong();
+    private final AtomicLong _skippedVmCount = new AtomicLong();
+    private final AtomicLong _rowsWritten = new AtomicLong();
+
     public VirtualMachinePowerStateSyncImpl() {
     }
 
+    @PostConstruct
+    public void init() {
+        VirtualMachine.State.getStateMachine().registerListener(this);
+    }
+
     @Override
     public void resetHostSyncState(long hostId) {
         s_logger.info("Reset VM power state sync for host: " + hostId);
+        _hostReportCaches.remove(hostId);
         _instanceDao.resetHostPowerStateTracking(hostId);
     }
 
+    @Override
+    public void resetVmSyncState(long vmId) {
+        evictVm(vmId, null);
+        _instanceDao.resetVmPowerStateTracking(vmId);
+    }
+
+    /**
+     * Makes the next report check the VM in the DB again, and look its name up again when it is given.
+     */
+    private void evictVm(long vmId, String vmName) {
+        for (HostReportCache cache : _hostReportCaches.values()) {
+            cache.settledStates.remove(vmId);
+            if (vmName != null) {
+                cache.vmIds.remove(vmName);
+            }
+        }
+    }
+
+    @Override
+    public boolean preStateTransitionEvent(VirtualMachine.State oldState, VirtualMachine.Event event, VirtualMachine.State newState, VirtualMachine vm, boolean status,
+            Object opaque) {
+        return true;
+    }
+
+    @Override
+    public boolean postStateTransitionEvent(StateMachine2.Transition<VirtualMachine.State, VirtualMachine.Event> transition, VirtualMachine vm, boolean status,
+            Object opaque) {
+        if (!status) {
+            return false;
+        }
+        // the orchestration writes the power state outside of the reports, e.g. on stop, so it is no longer known to be settled;
+        // an expunged VM no longer owns its name
+        evictVm(vm.getId(), transition.getToState() == VirtualMachine.State.Expunging ? vm.getInstanceName() : null);
+        return true;
+    }
+
     @Override
     public void processHostVmStateReport(long hostId, Map<String, HostVmStateReportEntry> report) {
             s_logger.debug("Process host VM state report. host: " + hostId);
 
-        Map<Long, VirtualMachine.PowerState> translatedInfo = convertVmStateReport(report);
-        processReport(hostId, translatedInfo);
+        processReport(hostId, report);
     }
 
     @Override
@@ -63,33 +121,78 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
         if (s_logger.isDebugEnabled())
             s_logger.debug("Process host VM state report from ping process. host: " + hostId);
 
-        Map<Long, VirtualMachine.PowerState> translatedInfo = convertVmStateReport(report);
-        processReport(hostId, translatedInfo);
+        processReport(hostId, report);
+    }
+
+    @Override
+    public void processHostVmStateChangeReport(long hostId, Map<String, HostVmStateReportEntry> report) {
+        if (s_logger.isDebugEnabled())
+            s_logger.debug("Process host VM state change report. host: " + hostId + ", number of changes: " + report.size());
+
+        final HostReportCache cache = _hostReportCaches.get(hostId);
+        Map<Long, VirtualMachine.PowerState> translatedInfo = convertVmStateReport(report, cache, null);
+        if (cache != null) {
+            // the next full report has to check these VMs in the DB again
+            cache.settledStates.keySet().removeAll(translatedInfo.keySet());
+        }
+
+        final Pair<List<Long>, List<Long>> result = _instanceDao.updatePowerState(hostId, translatedInfo, DateUtil.currentGMTTime());
+        for (Long vmId : result.first()) {
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("VM state change is updated. host: " + hostId + ", vm id: " + vmId + ", power state: " + translatedInfo.get(vmId));
+            }
+
+            _messageBus.publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, vmId);
+        }
+
+        _changeReportCount.incrementAndGet();
+        _rowsWritten.addAndGet(result.first().size());
     }
 
-    private void processReport(long hostId, Map<Long, VirtualMachine.PowerState> translatedInfo) {
+    private void processReport(long hostId, Map<String, HostVmStateReportEntry> report) {
+        final HostReportCache previousCache = _hostReportCaches.get(hostId);
+        final HostReportCache cache = new HostReportCache();
+        Map<Long, VirtualMachine.PowerState> translatedInfo = convertVmStateReport(report, previousCache, cache);
 
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Process VM state report. host: " + hostId + ", number of records in report: " + translatedInfo.size());
         }
 
+        final long now = System.currentTimeMillis();
+        final long settledStateCheckInterval = mgmtServiceConf.getPingInterval() * 1000L * SETTLED_STATE_CHECK_PING_INTERVALS;
+        final Map<Long, VirtualMachine.PowerState> powerStatesToUpdate = new HashMap<Long, VirtualMachine.PowerState>();
         for (Map.Entry<Long, VirtualMachine.PowerState> entry : translatedInfo.entrySet()) {
 
             if (s_logger.isDebugEnabled())
                 s_logger.debug("VM state report. host: " + hostId + ", vm id: " + entry.getKey() + ", power state: " + entry.getValue());
 
-            if (_instanceDao.updatePowerState(entry.getKey(), hostId, entry.getValue(), DateUtil.currentGMTTime())) {
-                if (s_logger.isInfoEnabled()) {
-                    s_logger.debug("VM state report is updated. host: " + hostId + ", vm id: " + entry.getKey() + ", power state: " + entry.getValue());
-                }
-
-                _messageBus.publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, entry.getKey());
-            } else {
+            final SettledState settled = previousCache == null ? null : previousCache.settledStates.get(entry.getKey());
+            if (settled != null && settled.powerState == entry.getValue() && now - settled.since < settledStateCheckInterval) {
+                cache.settledStates.put(entry.getKey(), settled);
                 if (s_logger.isTraceEnabled()) {
                     s_logger.trace("VM power state does not change, skip DB writing. vm id: " + entry.getKey());
                 }
+                continue;
+            }
+            powerStatesToUpdate.put(entry.getKey(), entry.getValue());
+        }
+
+        final Pair<List<Long>, List<Long>> result = _instanceDao.updatePowerState(hostId, powerStatesToUpdate, DateUtil.currentGMTTime());
+        long rowsWritten = result.first().size();
+        for (Long vmId : result.first()) {
+            if (s_logger.isInfoEnabled()) {
+                s_logger.debug("VM state report is updated. host: " + hostId + ", vm id: " + vmId + ", power state: " + translatedInfo.get(vmId));
+            }
+
+            _messageBus.publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, vmId);
+        }
+        for (Long vmId : result.second()) {
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("VM power state does not change, skip DB writing. vm id: " + vmId);
             }
+            cache.settledStates.put(vmId, new SettledState(translatedInfo.get(vmId), now));
         }
+        _hostReportCaches.put(hostId, cache);
 
         // any state outdates should be checked against the time before this list was retrieved
         Date startTime = DateUtil.currentGMTTime();
@@ -113,17 +216,14 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
             // 2 times of sync-update interval for graceful period
             long milliSecondsGracefullPeriod = mgmtServiceConf.getPingInterval() * 2000L;
 
+            final Map<Long, VirtualMachine.PowerState> missingPowerStates = new HashMap<Long, VirtualMachine.PowerState>();
             for (VMInstanceVO instance : vmsThatAreMissingReport) {
 
                 // Make sure powerState is up to date for missing VMs
-                try {
-                    if (!_instanceDao.isPowerStateUpToDate(instance.getId())) {
-                        s_logger.warn("Detected missing VM but power state is outdated, wait for another process report run for VM id: " + instance.getId());
-                        _instanceDao.resetVmPowerStateTracking(instance.getId());
-                        continue;
-                    }
-                } catch (CloudRuntimeException e) {
-                    s_logger.warn("Checked for missing powerstate of a none existing vm", e);
+                if (!_instanceDao.isPowerStateUpToDate(instance)) {
+                    s_logger.warn("Detected missing VM but power state is outdated, wait for another process report run for VM id: " + instance.getId());
+                    _instanceDao.resetVmPowerStateTracking(instance.getId());
+                    rowsWritten++;
                     continue;
                 }
 
@@ -152,42 +252,66 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
 
                 if (milliSecondsSinceLastStateUpdate > milliSecondsGracefullPeriod) {
                     s_logger.debug("vm id: " + instance.getId() + " - time since last state update(" + milliSecondsSinceLastStateUpdate + "ms) has passed graceful period");
-
-                    // this is were a race condition might have happened if we don't re-fetch the instance;
-                    // between the startime of this job and the currentTime of this missing-branch
-                    // an update might have occurred that we should not override in case of out of band migration
-                    if (_instanceDao.updatePowerState(instance.getId(), hostId, VirtualMachine.PowerState.PowerReportMissing, startTime)) {
-                        if (s_logger.isDebugEnabled()) {
-                            s_logger.debug("VM state report is updated. host: " + hostId + ", vm id: " + instance.getId() + ", power state: PowerReportMissing ");
-                        }
-
-                        _messageBus.publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, instance.getId());
-                    } else {
-                        if (s_logger.isDebugEnabled()) {
-                            s_logger.debug("VM power state does not change, skip DB writing. vm id: " + instance.getId());
-                        }
-                    }
+                    missingPowerStates.put(instance.getId(), VirtualMachine.PowerState.PowerReportMissing);
                 } else {
                     s_logger.debug("vm id: " + instance.getId() + " - time since last state update(" + milliSecondsSinceLastStateUpdate + "ms) has not passed graceful period yet");
                 }
             }
+
+            // this is were a race condition might have happened if we don't re-check the update time;
+            // between the startime of this job and the currentTime of this missing-branch
+            // an update might have occurred that we should not override in case of out of band migration
+            final Pair<List<Long>, List<Long>> missingResult = _instanceDao.updatePowerState(hostId, missingPowerStates, startTime);
+            rowsWritten += missingResult.first().size();
+            for (Long vmId : missingResult.first()) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("VM state report is updated. host: " + hostId + ", vm id: " + vmId + ", power state: PowerReportMissing ");
+                }
+
+                _messageBus.publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, vmId);
+            }
+            for (Long vmId : missingResult.second()) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("VM power state does not change, skip DB writing. vm id: " + vmId);
+                }
+            }
         }
 
+        _reportCount.incrementAndGet();
+        _reportedVmCount.addAndGet(translatedInfo.size());
+        _skippedVmCount.addAndGet(translatedInfo.size() - powerStatesToUpdate.size());
+        _rowsWritten.addAndGet(rowsWritten);
+
         if (s_logger.isDebugEnabled())
-            s_logger.debug("Done with process of VM state report. host: " + hostId);
+            s_logger.debug("Done with process of VM state report. host: " + hostId + ", VMs reported: " + translatedInfo.size() + ", skipped as settled: "
+                    + (translatedInfo.size() - powerStatesToUpdate.size()) + ", rows written: " + rowsWritten);
     }
 
     @Override
     public Map<Long, VirtualMachine.PowerState> convertVmStateReport(Map<String, HostVmStateReportEntry> states) {
+        return convertVmStateReport(states, null, null);
+    }
+
+    private Map<Long, VirtualMachine.PowerState> convertVmStateReport(Map<String, HostVmStateReportEntry> states, HostReportCache previousCache, HostReportCache cache) {
         final HashMap<Long, VirtualMachine.PowerState> map = new HashMap<Long, VirtualMachine.PowerState>();
         if (states == null) {
             return map;
         }
 
         for (Map.Entry<String, HostVmStateReportEntry> entry : states.entrySet()) {
-            VMInstanceVO vm = findVM(entry.getKey());
-            if (vm != null) {
-                map.put(vm.getId(), entry.getValue().getState());
+            // a VM reported by the host in a row keeps its id, only new names need a lookup
+            Long vmId = previousCache == null ? null : previousCache.vmIds.get(entry.getKey());
+            if (vmId == null) {
+                VMInstanceVO vm = findVM(entry.getKey());
+                if (vm != null) {
+                    vmId = vm.getId();
+                }
+            }
+            if (vmId != null) {
+                map.put(vmId, entry.getValue().getState());
+                if (cache != null) {
+                    cache.vmIds.put(entry.getKey(), vmId);
+                }
             } else {
                 s_logger.debug("Unable to find matched VM in CloudStack DB. name: " + entry.getKey());
             }
@@ -199,4 +323,42 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
     private VMInstanceVO findVM(String vmName) {
         return _instanceDao.findVMByInstanceName(vmName);
     }
+
+    public long getReportCount() {
+        return _reportCount.get();
+    }
+
+    public long getChangeReportCount() {
+        return _changeReportCount.get();
+    }
+
+    public long getReportedVmCount() {
+        return _reportedVmCount.get();
+    }
+
+    /**
+     * @return number of reported VM states which were not looked up in the DB because they were known to be settled.
+     */
+    public long getSkippedVmCount() {
+        return _skippedVmCount.get();
+    }
+
+    public long getRowsWritten() {
+        return _rowsWritten.get();
+    }
+
+    private static class HostReportCache {
+        final Map<String, Long> vmIds = new ConcurrentHashMap<String, Long>();
+        final Map<Long, SettledState> settledStates = new ConcurrentHashMap<Long, SettledState>();
+    }
+
+    private static class SettledState {
+        final VirtualMachine.PowerState powerState;
+        final long since;
+
+        SettledState(VirtualMachine.PowerState powerState, long since) {
+            this.powerState = powerState;
+            this.since = since;
+        }
+    }
 }
@@ -33,6 +33,7 @@ import org.apache.cloudstack.engine.datacenter.entity.api.DataCenterResourceEnti
 import org.apache.cloudstack.engine.datacenter.entity.api.DataCenterResourceEntity.State.Event;
 import org.apache.cloudstack.engine.datacenter.entity.api.db.EngineDataCenterVO;
 
+import com.cloud.dc.dao.DataCenterDao;
 import com.cloud.org.Grouping;
 import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.db.DB;
@@ -70,6 +71,8 @@ public class EngineDataCenterDaoImpl extends GenericDaoBase<EngineDataCenterVO,
 
     @Inject
     protected DcDetailsDao _detailsDao;
+    @Inject
+    protected DataCenterDao _dcDao;
 
     @Override
     public EngineDataCenterVO findByName(String name) {
@@ -335,4 +338,18 @@ public class EngineDataCenterDaoImpl extends GenericDaoBase<EngineDataCenterVO,
 
     }
 
+    /**
+     * The zones are also cached by the {@link DataCenterDao}, which reads the same table.
+     */
+    @Override
+    protected void invalidateCachedEntity(Long id) {
+        super.invalidateCachedEntity(id);
+        invalidateCachedEntity(_dcDao, id);
+    }
+
+    @Override
+    protected void invalidateCachedEntities() {
+        super.invalidateCachedEntities();
+        invalidateCachedEntities(_dcDao);
+    }
 }
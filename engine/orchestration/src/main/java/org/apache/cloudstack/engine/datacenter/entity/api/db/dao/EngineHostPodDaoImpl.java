@@ -24,6 +24,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 
+import javax.inject.Inject;
 
 import org.apache.log4j.Logger;
 import org.springframework.stereotype.Component;
@@ -33,6 +34,7 @@ import org.apache.cloudstack.engine.datacenter.entity.api.DataCenterResourceEnti
 import org.apache.cloudstack.engine.datacenter.entity.api.DataCenterResourceEntity.State.Event;
 import org.apache.cloudstack.engine.datacenter.entity.api.db.EngineHostPodVO;
 
+import com.cloud.dc.dao.HostPodDao;
 import com.cloud.org.Grouping;
 import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.GenericSearchBuilder;
@@ -51,6 +53,9 @@ public class EngineHostPodDaoImpl extends GenericDaoBase<EngineHostPodVO, Long>
     protected SearchBuilder<EngineHostPodVO> UUIDSearch;
     protected SearchBuilder<EngineHostPodVO> StateChangeSearch;
 
+    @Inject
+    protected HostPodDao _podDao;
+
     protected EngineHostPodDaoImpl() {
         DataCenterAndNameSearch = createSearchBuilder();
         DataCenterAndNameSearch.and("dc", DataCenterAndNameSearch.entity().getDataCenterId(), SearchCriteria.Op.EQ);
@@ -192,4 +197,18 @@ public class EngineHostPodDaoImpl extends GenericDaoBase<EngineHostPodVO, Long>
 
     }
 
+    /**
+     * The pods are also cached by the {@link HostPodDao}, which reads the same table.
+     */
+    @Override
+    protected void invalidateCachedEntity(Long id) {
+        super.invalidateCachedEntity(id);
+        invalidateCachedEntity(_podDao, id);
+    }
+
+    @Override
+    protected void invalidateCachedEntities() {
+        super.invalidateCachedEntities();
+        invalidateCachedEntities(_podDao);
+    }
 }
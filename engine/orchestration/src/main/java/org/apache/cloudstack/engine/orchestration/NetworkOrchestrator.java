@@ -1683,8 +1683,8 @@ public class NetworkOrchestrator extends ManagerBase implements NetworkOrchestra
                                 ip.setOneToOneNat(false);
                                 ip.setAssociatedWithVmId(null);
                                 ip.setVmIp(null);
-                                _ipAddressDao.update(ip.getId(),ip);
                             }
+                            _ipAddressDao.updateBatch(ips);
                         }
                     });
                 }
@@ -1700,8 +1700,8 @@ public class NetworkOrchestrator extends ManagerBase implements NetworkOrchestra
                     //removing static nat configured on ips.
                     for (IPAddressVO ip : ips) {
                         ip.setSourceNat(false);
-                        _ipAddressDao.update(ip.getId(),ip);
                     }
+                    _ipAddressDao.updateBatch(ips);
                 }
             });
         }
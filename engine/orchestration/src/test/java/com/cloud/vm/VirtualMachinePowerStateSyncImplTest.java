@@ -0,0 +1,186 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.vm;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.configuration.ManagementServiceConfiguration;
+import com.cloud.utils.Pair;
+import com.cloud.utils.fsm.StateMachine2;
+import com.cloud.vm.dao.VMInstanceDao;
+
+@RunWith(MockitoJUnitRunner.class)
+public class VirtualMachinePowerStateSyncImplTest {
+
+    private static final long HOST_ID = 1L;
+    private static final long VM_ID = 10L;
+    private static final String VM_NAME = "i-2-10-VM";
+
+    @InjectMocks
+    private VirtualMachinePowerStateSyncImpl powerStateSync = new VirtualMachinePowerStateSyncImpl();
+
+    @Mock
+    private MessageBus messageBus;
+    @Mock
+    private VMInstanceDao instanceDao;
+    @Mock
+    private ManagementServiceConfiguration mgmtServiceConf;
+
+    private Map<String, HostVmStateReportEntry> report;
+    private VMInstanceVO vm;
+
+    @Before
+    public void setup() {
+        vm = mock(VMInstanceVO.class);
+        when(vm.getId()).thenReturn(VM_ID);
+        when(instanceDao.findVMByInstanceName(VM_NAME)).thenReturn(vm);
+        when(instanceDao.findByHostInStates(anyLong(), any(VirtualMachine.State.class), any(VirtualMachine.State.class), any(VirtualMachine.State.class)))
+                .thenReturn(new ArrayList<VMInstanceVO>());
+        when(mgmtServiceConf.getPingInterval()).thenReturn(60);
+
+        report = new HashMap<String, HostVmStateReportEntry>();
+        report.put(VM_NAME, new HostVmStateReportEntry(VirtualMachine.PowerState.PowerOn, "host"));
+    }
+
+    private void mockUpdateResult(List<Long> updatedIds, List<Long> settledIds) {
+        when(instanceDao.updatePowerState(eq(HOST_ID), anyMap(), any(Date.class)))
+                .thenReturn(new Pair<List<Long>, List<Long>>(updatedIds, settledIds));
+    }
+
+    @Test
+    public void testUpdatedVmIsPublished() {
+        mockUpdateResult(Arrays.asList(VM_ID), Collections.<Long>emptyList());
+
+        powerStateSync.processHostVmStatePingReport(HOST_ID, report);
+
+        verify(instanceDao).updatePowerState(eq(HOST_ID), eq(Collections.singletonMap(VM_ID, VirtualMachine.PowerState.PowerOn)), any(Date.class));
+        verify(messageBus).publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, VM_ID);
+        Assert.assertEquals(1, powerStateSync.getRowsWritten());
+    }
+
+    @Test
+    public void testSettledVmIsSkipped() {
+        mockUpdateResult(Collections.<Long>emptyList(), Arrays.asList(VM_ID));
+
+        powerStateSync.processHostVmStatePingReport(HOST_ID, report);
+        powerStateSync.processHostVmStatePingReport(HOST_ID, report);
+
+        verify(instanceDao, times(1)).findVMByInstanceName(VM_NAME);
+        verify(instanceDao, times(1)).updatePowerState(eq(HOST_ID), eq(Collections.singletonMap(VM_ID, VirtualMachine.PowerState.PowerOn)), any(Date.class));
+        verify(instanceDao, times(1)).updatePowerState(eq(HOST_ID), eq(Collections.<Long, VirtualMachine.PowerState>emptyMap()), any(Date.class));
+        verify(messageBus, never()).publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, VM_ID);
+        Assert.assertEquals(1, powerStateSync.getSkippedVmCount());
+        Assert.assertEquals(0, powerStateSync.getRowsWritten());
+    }
+
+    @Test
+    public void testChangedStateOfSettledVmIsWritten() {
+        mockUpdateResult(Collections.<Long>emptyList(), Arrays.asList(VM_ID));
+        powerStateSync.processHostVmStatePingReport(HOST_ID, report);
+
+        report.put(VM_NAME, new HostVmStateReportEntry(VirtualMachine.PowerState.PowerOff, "host"));
+        powerStateSync.processHostVmStatePingReport(HOST_ID, report);
+
+        verify(instanceDao).updatePowerState(eq(HOST_ID), eq(Collections.singletonMap(VM_ID, VirtualMachine.PowerState.PowerOff)), any(Date.class));
+        Assert.assertEquals(0, powerStateSync.getSkippedVmCount());
+    }
+
+    @Test
+    public void testResetVmSyncStateChecksVmAgain() {
+        mockUpdateResult(Collections.<Long>emptyList(), Arrays.asList(VM_ID));
+        powerStateSync.processHostVmStatePingReport(HOST_ID, report);
+
+        powerStateSync.resetVmSyncState(VM_ID);
+        powerStateSync.processHostVmStatePingReport(HOST_ID, report);
+
+        verify(instanceDao).resetVmPowerStateTracking(VM_ID);
+        verify(instanceDao, times(2)).updatePowerState(eq(HOST_ID), eq(Collections.singletonMap(VM_ID, VirtualMachine.PowerState.PowerOn)), any(Date.class));
+        Assert.assertEquals(0, powerStateSync.getSkippedVmCount());
+    }
+
+    @Test
+    public void testStateTransitionChecksVmAgain() {
+        mockUpdateResult(Collections.<Long>emptyList(), Arrays.asList(VM_ID));
+        powerStateSync.processHostVmStatePingReport(HOST_ID, report);
+
+        // the power state is written on stop, outside of the reports
+        powerStateSync.postStateTransitionEvent(new StateMachine2.Transition<VirtualMachine.State, VirtualMachine.Event>(VirtualMachine.State.Stopping,
+                VirtualMachine.Event.OperationSucceeded, VirtualMachine.State.Stopped, null), vm, true, null);
+        powerStateSync.processHostVmStatePingReport(HOST_ID, report);
+
+        verify(instanceDao, times(2)).updatePowerState(eq(HOST_ID), eq(Collections.singletonMap(VM_ID, VirtualMachine.PowerState.PowerOn)), any(Date.class));
+        verify(instanceDao, times(1)).findVMByInstanceName(VM_NAME);
+        Assert.assertEquals(0, powerStateSync.getSkippedVmCount());
+    }
+
+    @Test
+    public void testExpungedVmNameIsLookedUpAgain() {
+        mockUpdateResult(Collections.<Long>emptyList(), Arrays.asList(VM_ID));
+        powerStateSync.processHostVmStatePingReport(HOST_ID, report);
+        when(vm.getInstanceName()).thenReturn(VM_NAME);
+
+        powerStateSync.postStateTransitionEvent(new StateMachine2.Transition<VirtualMachine.State, VirtualMachine.Event>(VirtualMachine.State.Destroyed,
+                VirtualMachine.Event.ExpungeOperation, VirtualMachine.State.Expunging, null), vm, true, null);
+        powerStateSync.processHostVmStatePingReport(HOST_ID, report);
+
+        verify(instanceDao, times(2)).findVMByInstanceName(VM_NAME);
+    }
+
+    @Test
+    public void testChangeReportLeavesOtherVmsAlone() {
+        mockUpdateResult(Collections.<Long>emptyList(), Arrays.asList(VM_ID));
+        powerStateSync.processHostVmStatePingReport(HOST_ID, report);
+
+        mockUpdateResult(Arrays.asList(VM_ID), Collections.<Long>emptyList());
+        powerStateSync.processHostVmStateChangeReport(HOST_ID,
+                Collections.singletonMap(VM_NAME, new HostVmStateReportEntry(VirtualMachine.PowerState.PowerOff, "host")));
+        powerStateSync.processHostVmStatePingReport(HOST_ID, report);
+
+        verify(instanceDao, times(2)).findByHostInStates(anyLong(), any(VirtualMachine.State.class), any(VirtualMachine.State.class), any(VirtualMachine.State.class));
+        verify(instanceDao).updatePowerState(eq(HOST_ID), eq(Collections.singletonMap(VM_ID, VirtualMachine.PowerState.PowerOff)), any(Date.class));
+        verify(messageBus, times(2)).publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, VM_ID);
+        Assert.assertEquals(0, powerStateSync.getSkippedVmCount());
+        Assert.assertEquals(1, powerStateSync.getChangeReportCount());
+    }
+}
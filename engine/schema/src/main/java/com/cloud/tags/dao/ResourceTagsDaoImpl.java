@@ -77,10 +77,11 @@ public class ResourceTagsDaoImpl extends GenericDaoBase<ResourceTagVO, Long> imp
         SearchCriteria<ResourceTagVO> sc = AllFieldsSearch.create();
         sc.setParameters("resourceId", srcId);
         sc.setParameters("resourceType", resourceType);
-        for( ResourceTagVO tag : listBy(sc)) {
+        List<ResourceTagVO> tags = listBy(sc);
+        for (ResourceTagVO tag : tags) {
             tag.setResourceId(destId);
-            update(tag.getId(), tag);
         }
+        updateBatch(tags);
     }
 
     @Override
@@ -0,0 +1,90 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import org.apache.cloudstack.api.InternalIdentity;
+
+/**
+ * How far the usage of an account has been parsed by one of the usage parsers.
+ */
+@Entity
+@Table(name = "usage_checkpoint")
+public class UsageCheckpointVO implements InternalIdentity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id")
+    private Long id;
+
+    @Column(name = "account_id")
+    private long accountId;
+
+    @Column(name = "usage_parser")
+    private String usageParser;
+
+    @Column(name = "processed_until")
+    @Temporal(value = TemporalType.TIMESTAMP)
+    private Date processedUntil;
+
+    @Column(name = "idle")
+    private boolean idle;
+
+    protected UsageCheckpointVO() {
+    }
+
+    public UsageCheckpointVO(long accountId, String usageParser, Date processedUntil, boolean idle) {
+        this.accountId = accountId;
+        this.usageParser = usageParser;
+        this.processedUntil = processedUntil;
+        this.idle = idle;
+    }
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    public long getAccountId() {
+        return accountId;
+    }
+
+    public String getUsageParser() {
+        return usageParser;
+    }
+
+    public Date getProcessedUntil() {
+        return processedUntil;
+    }
+
+    /**
+     * @return true if the last parse created no usage record and no usage event of the account was processed since
+     */
+    public boolean isIdle() {
+        return idle;
+    }
+}
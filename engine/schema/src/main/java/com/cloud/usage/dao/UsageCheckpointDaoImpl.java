@@ -0,0 +1,120 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage.dao;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.apache.log4j.Logger;
+import org.springframework.stereotype.Component;
+
+import com.cloud.usage.UsageCheckpointVO;
+import com.cloud.utils.db.GenericDaoBase;
+import com.cloud.utils.db.TransactionLegacy;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+@Component
+public class UsageCheckpointDaoImpl extends GenericDaoBase<UsageCheckpointVO, Long> implements UsageCheckpointDao {
+    public static final Logger s_logger = Logger.getLogger(UsageCheckpointDaoImpl.class.getName());
+
+    protected static final String SAVE_CHECKPOINT = "INSERT INTO cloud_usage.usage_checkpoint (account_id, usage_parser, processed_until, idle) VALUES (?,?,?,?) "
+            + "ON DUPLICATE KEY UPDATE processed_until = VALUES(processed_until), idle = VALUES(idle)";
+    protected static final String LIST_BY_ACCOUNT = "SELECT account_id, usage_parser, processed_until, idle FROM cloud_usage.usage_checkpoint WHERE account_id = ?";
+    protected static final String MARK_ACTIVE = "UPDATE cloud_usage.usage_checkpoint SET idle = 0 WHERE account_id = ? AND idle = 1";
+
+    private static final TimeZone s_gmtTimeZone = TimeZone.getTimeZone("GMT");
+
+    public UsageCheckpointDaoImpl() {
+    }
+
+    /**
+     * Reads the checkpoints with JDBC rather than through the generic dao, which drops the milliseconds
+     * of the dates it reads. The periods parsed end on the last millisecond of a second.
+     */
+    @Override
+    public List<UsageCheckpointVO> listByAccount(long accountId) {
+        List<UsageCheckpointVO> checkpoints = new ArrayList<UsageCheckpointVO>();
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try {
+            PreparedStatement pstmt = txn.prepareAutoCloseStatement(LIST_BY_ACCOUNT);
+            pstmt.setLong(1, accountId);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                Timestamp processedUntil = rs.getTimestamp(3, Calendar.getInstance(s_gmtTimeZone));
+                checkpoints.add(new UsageCheckpointVO(rs.getLong(1), rs.getString(2), new Date(processedUntil.getTime()), rs.getBoolean(4)));
+            }
+        } catch (Exception ex) {
+            s_logger.error("error listing usage checkpoints from cloud_usage db", ex);
+            throw new CloudRuntimeException(ex.getMessage());
+        }
+        return checkpoints;
+    }
+
+    @Override
+    public void saveCheckpoints(List<UsageCheckpointVO> checkpoints) {
+        if (checkpoints.isEmpty()) {
+            return;
+        }
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try {
+            txn.start();
+            PreparedStatement pstmt = txn.prepareAutoCloseStatement(SAVE_CHECKPOINT);
+            for (UsageCheckpointVO checkpoint : checkpoints) {
+                pstmt.setLong(1, checkpoint.getAccountId());
+                pstmt.setString(2, checkpoint.getUsageParser());
+                pstmt.setTimestamp(3, new Timestamp(checkpoint.getProcessedUntil().getTime()), Calendar.getInstance(s_gmtTimeZone));
+                pstmt.setBoolean(4, checkpoint.isIdle());
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            txn.commit();
+        } catch (Exception ex) {
+            txn.rollback();
+            s_logger.error("error saving usage checkpoints to cloud_usage db", ex);
+            throw new CloudRuntimeException(ex.getMessage());
+        }
+    }
+
+    @Override
+    public void markActive(Collection<Long> accountIds) {
+        if (accountIds.isEmpty()) {
+            return;
+        }
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try {
+            txn.start();
+            PreparedStatement pstmt = txn.prepareAutoCloseStatement(MARK_ACTIVE);
+            for (Long accountId : accountIds) {
+                pstmt.setLong(1, accountId);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            txn.commit();
+        } catch (Exception ex) {
+            txn.rollback();
+            s_logger.error("error marking usage checkpoints active in cloud_usage db", ex);
+            throw new CloudRuntimeException(ex.getMessage());
+        }
+    }
+}
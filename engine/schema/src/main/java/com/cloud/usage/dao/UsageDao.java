@@ -59,4 +59,6 @@ public interface UsageDao extends GenericDao<UsageVO, Long> {
     UsageVO persistUsage(final UsageVO usage);
 
     Pair<List<? extends UsageVO>, Integer> getUsageRecordsPendingQuotaAggregation(long accountId, long domainId);
+
+    void markQuotaCalculated(List<Long> usageRecordIds);
 }
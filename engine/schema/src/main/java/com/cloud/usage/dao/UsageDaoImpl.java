@@ -69,7 +69,9 @@ public class UsageDaoImpl extends GenericDaoBase<UsageVO, Long> implements Usage
             + "net_bytes_read=?, net_bytes_write=?, current_bytes_read=?, current_bytes_write=?, agg_bytes_read=?, agg_bytes_write=?  WHERE id=?";
     private static final String INSERT_USAGE_RECORDS = "INSERT INTO cloud_usage.cloud_usage (zone_id, account_id, domain_id, description, usage_display, "
             + "usage_type, raw_usage, vm_instance_id, vm_name, offering_id, template_id, "
-            + "usage_id, type, size, network_id, start_date, end_date, virtual_size) VALUES (?,?,?,?,?,?,?,?,?, ?, ?, ?,?,?,?,?,?,?)";
+            + "usage_id, type, size, network_id, start_date, end_date, virtual_size, cpu_speed, cpu_cores, memory, is_hidden) VALUES (?,?,?,?,?,?,?,?,?, ?, ?, ?,?,?,?,?,?,?,?,?,?,?)";
+
+    private static final String UPDATE_QUOTA_CALCULATED = "UPDATE cloud_usage.cloud_usage SET quota_calculated = 1 WHERE id = ?";
 
     protected final static TimeZone s_gmtTimeZone = TimeZone.getTimeZone("GMT");
 
@@ -447,6 +449,22 @@ public class UsageDaoImpl extends GenericDaoBase<UsageVO, Long> implements Usage
                 } else {
                     pstmt.setNull(18, Types.BIGINT);
                 }
+                if (usageRecord.getCpuSpeed() != null) {
+                    pstmt.setLong(19, usageRecord.getCpuSpeed());
+                } else {
+                    pstmt.setNull(19, Types.BIGINT);
+                }
+                if (usageRecord.getCpuCores() != null) {
+                    pstmt.setLong(20, usageRecord.getCpuCores());
+                } else {
+                    pstmt.setNull(20, Types.BIGINT);
+                }
+                if (usageRecord.getMemory() != null) {
+                    pstmt.setLong(21, usageRecord.getMemory());
+                } else {
+                    pstmt.setNull(21, Types.BIGINT);
+                }
+                pstmt.setBoolean(22, usageRecord.isHidden());
                 pstmt.addBatch();
             }
             pstmt.executeBatch();
@@ -512,4 +530,28 @@ public class UsageDaoImpl extends GenericDaoBase<UsageVO, Long> implements Usage
             }
         });
     }
+
+    @Override
+    public void markQuotaCalculated(final List<Long> usageRecordIds) {
+        if (usageRecordIds == null || usageRecordIds.isEmpty()) {
+            return;
+        }
+        TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
+        try {
+            txn.start();
+            PreparedStatement pstmt = txn.prepareAutoCloseStatement(UPDATE_QUOTA_CALCULATED);
+            for (Long usageRecordId : usageRecordIds) {
+                pstmt.setLong(1, usageRecordId);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            txn.commit();
+        } catch (Exception ex) {
+            txn.rollback();
+            s_logger.error("error marking " + usageRecordIds.size() + " cloud_usage records as quota calculated", ex);
+            throw new CloudRuntimeException(ex.getMessage());
+        } finally {
+            txn.close();
+        }
+    }
 }
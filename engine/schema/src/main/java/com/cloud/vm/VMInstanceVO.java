@@ -293,6 +293,10 @@ public class VMInstanceVO implements VirtualMachine, FiniteStateObject<State, Vi
         return updateTime;
     }
 
+    public void setUpdateTime(Date updateTime) {
+        this.updateTime = updateTime;
+    }
+
     @Override
     public long getDataCenterId() {
         return dataCenterId;
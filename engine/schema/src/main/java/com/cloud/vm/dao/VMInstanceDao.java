@@ -105,6 +105,11 @@ public interface VMInstanceDao extends GenericDao<VMInstanceVO, Long>, StateDao<
 
     List<VMInstanceVO> listByLastHostIdAndStates(Long hostId, State... states);
 
+    /**
+     * Lists the stopped VMs of the given type which keep a last host and were last updated in [from, to).
+     */
+    List<VMInstanceVO> listStoppedWithLastHostUpdatedBetween(VirtualMachine.Type type, Date from, Date to);
+
     List<VMInstanceVO> listByTypeAndState(VirtualMachine.Type type, State state);
 
     List<VMInstanceVO> listByAccountId(long accountId);
@@ -121,6 +126,12 @@ public interface VMInstanceDao extends GenericDao<VMInstanceVO, Long>, StateDao<
 
     public Long countActiveByHostId(long hostId);
 
+    /**
+     * Counts the active (Running, Starting, Stopping or Migrating) VMs of every host in the zone.
+     * @return number of active VMs keyed by host id, hosts without active VMs are absent
+     */
+    Map<Long, Long> countActiveByHostIdsInZone(long zoneId);
+
     Pair<List<Long>, Map<Long, Double>> listClusterIdsInZoneByVmCount(long zoneId, long accountId);
 
     Pair<List<Long>, Map<Long, Double>> listClusterIdsInPodByVmCount(long podId, long accountId);
@@ -148,6 +159,14 @@ public interface VMInstanceDao extends GenericDao<VMInstanceVO, Long>, StateDao<
 
     boolean updatePowerState(long instanceId, long powerHostId, VirtualMachine.PowerState powerState, Date wisdomEra);
 
+    /**
+     * Updates the power state of a number of VMs reported by the same host with a single JDBC batch,
+     * following the same rules as {@link #updatePowerState(long, long, VirtualMachine.PowerState, Date)}.
+     * @return the ids of the VMs whose record was written, and the ids of the VMs which were already in the
+     * reported state on the host and had reached the maximum number of consecutive same state updates
+     */
+    Pair<List<Long>, List<Long>> updatePowerState(long powerHostId, Map<Long, VirtualMachine.PowerState> powerStates, Date wisdomEra);
+
     void resetVmPowerStateTracking(long instanceId);
 
     void resetHostPowerStateTracking(long hostId);
@@ -158,6 +177,8 @@ public interface VMInstanceDao extends GenericDao<VMInstanceVO, Long>, StateDao<
 
     boolean isPowerStateUpToDate(long instanceId);
 
+    boolean isPowerStateUpToDate(VMInstanceVO instance);
+
     List<VMInstanceVO> listNonMigratingVmsByHostEqualsLastHost(long hostId);
 
     void updateSystemVmTemplateId(long templateId, Hypervisor.HypervisorType hypervisorType);
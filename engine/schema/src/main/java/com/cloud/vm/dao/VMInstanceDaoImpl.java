@@ -19,6 +19,7 @@ package com.cloud.vm.dao;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -97,6 +98,8 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
     protected SearchBuilder<VMInstanceVO> NotMigratingSearch;
     protected SearchBuilder<VMInstanceVO> BackupSearch;
     protected SearchBuilder<VMInstanceVO> LastHostAndStatesSearch;
+    protected SearchBuilder<VMInstanceVO> IdsSearch;
+    protected SearchBuilder<VMInstanceVO> StoppedLastHostUpdatedSearch;
 
     @Inject
     ResourceTagDao _tagsDao;
@@ -127,8 +130,14 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
     private static final String COUNT_VMS_BASED_ON_VGPU_TYPES2 =
             "GROUP BY offering.service_offering_id) results GROUP BY pci, type";
 
+    private static final String COUNT_ACTIVE_VMS_BY_HOST_IN_ZONE = "SELECT host_id, COUNT(*) FROM `cloud`.`vm_instance` WHERE data_center_id = ? " +
+        "AND host_id IS NOT NULL AND removed IS NULL AND state IN ('Running', 'Starting', 'Stopping', 'Migrating') GROUP BY host_id";
+
     private static final String UPDATE_SYSTEM_VM_TEMPLATE_ID_FOR_HYPERVISOR = "UPDATE `cloud`.`vm_instance` SET vm_template_id = ? WHERE type <> 'User' AND hypervisor_type = ? AND removed is NULL";
 
+    private static final String UPDATE_POWER_STATE = "UPDATE `cloud`.`vm_instance` SET power_state = ?, power_host = ?, power_state_update_count = ?, power_state_update_time = ? " +
+            "WHERE id = ? AND (power_state_update_time IS NULL OR power_state_update_time < ?)";
+
     @Inject
     protected HostDao _hostDao;
 
@@ -304,6 +313,17 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         LastHostAndStatesSearch.and("states", LastHostAndStatesSearch.entity().getState(), Op.IN);
         LastHostAndStatesSearch.done();
 
+        IdsSearch = createSearchBuilder();
+        IdsSearch.and("ids", IdsSearch.entity().getId(), Op.IN);
+        IdsSearch.done();
+
+        StoppedLastHostUpdatedSearch = createSearchBuilder();
+        StoppedLastHostUpdatedSearch.and("type", StoppedLastHostUpdatedSearch.entity().getType(), Op.EQ);
+        StoppedLastHostUpdatedSearch.and("state", StoppedLastHostUpdatedSearch.entity().getState(), Op.EQ);
+        StoppedLastHostUpdatedSearch.and("lastHost", StoppedLastHostUpdatedSearch.entity().getLastHostId(), Op.NNULL);
+        StoppedLastHostUpdatedSearch.and("updateTimeFrom", StoppedLastHostUpdatedSearch.entity().getUpdateTime(), Op.GTEQ);
+        StoppedLastHostUpdatedSearch.and("updateTimeTo", StoppedLastHostUpdatedSearch.entity().getUpdateTime(), Op.LT);
+        StoppedLastHostUpdatedSearch.done();
     }
 
     @Override
@@ -585,6 +605,16 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         return listBy(sc);
     }
 
+    @Override
+    public List<VMInstanceVO> listStoppedWithLastHostUpdatedBetween(VirtualMachine.Type type, Date from, Date to) {
+        SearchCriteria<VMInstanceVO> sc = StoppedLastHostUpdatedSearch.create();
+        sc.setParameters("type", type);
+        sc.setParameters("state", State.Stopped);
+        sc.setParameters("updateTimeFrom", from);
+        sc.setParameters("updateTimeTo", to);
+        return listBy(sc);
+    }
+
     @Override
     public List<VMInstanceVO> listByLastHostIdAndStates(Long hostId, State... states) {
         SearchCriteria<VMInstanceVO> sc = LastHostAndStatesSearch.create();
@@ -628,6 +658,24 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         return customSearch(sc, null).get(0);
     }
 
+    @Override
+    public Map<Long, Long> countActiveByHostIdsInZone(long zoneId) {
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        Map<Long, Long> vmCountByHost = new HashMap<Long, Long>();
+        try {
+            PreparedStatement pstmt = txn.prepareAutoCloseStatement(COUNT_ACTIVE_VMS_BY_HOST_IN_ZONE);
+            pstmt.setLong(1, zoneId);
+
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                vmCountByHost.put(rs.getLong(1), rs.getLong(2));
+            }
+            return vmCountByHost;
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + COUNT_ACTIVE_VMS_BY_HOST_IN_ZONE, e);
+        }
+    }
+
     @Override
     public Pair<List<Long>, Map<Long, Double>> listClusterIdsInZoneByVmCount(long zoneId, long accountId) {
         TransactionLegacy txn = TransactionLegacy.currentTxn();
@@ -904,12 +952,79 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         });
     }
 
+    @Override
+    public Pair<List<Long>, List<Long>> updatePowerState(final long powerHostId, final Map<Long, VirtualMachine.PowerState> powerStates, final Date wisdomEra) {
+        final List<Long> updatedIds = new ArrayList<Long>();
+        final List<Long> settledIds = new ArrayList<Long>();
+        if (powerStates.isEmpty()) {
+            return new Pair<List<Long>, List<Long>>(updatedIds, settledIds);
+        }
+
+        Transaction.execute(new TransactionCallbackNoReturn() {
+            @Override
+            public void doInTransactionWithoutResult(TransactionStatus status) {
+                final SearchCriteria<VMInstanceVO> sc = IdsSearch.create();
+                sc.setParameters("ids", powerStates.keySet().toArray());
+                final List<VMInstanceVO> instances = listBy(sc);
+
+                final List<Long> candidateIds = new ArrayList<Long>();
+                final String wisdomEraString = DateUtil.getDateDisplayString(s_gmtTimeZone, wisdomEra);
+                final String updateTimeString = DateUtil.getDateDisplayString(s_gmtTimeZone, DateUtil.currentGMTTime());
+                final TransactionLegacy txn = TransactionLegacy.currentTxn();
+                try (PreparedStatement pstmt = txn.prepareStatement(UPDATE_POWER_STATE)) {
+                    for (final VMInstanceVO instance : instances) {
+                        if (instance.getPowerStateUpdateTime() != null && !instance.getPowerStateUpdateTime().before(wisdomEra)) {
+                            continue;
+                        }
+                        final VirtualMachine.PowerState powerState = powerStates.get(instance.getId());
+                        final Long savedPowerHostId = instance.getPowerHostId();
+                        int updateCount;
+                        if (instance.getPowerState() != powerState || savedPowerHostId == null || savedPowerHostId.longValue() != powerHostId) {
+                            updateCount = 1;
+                        } else if (instance.getPowerStateUpdateCount() < MAX_CONSECUTIVE_SAME_STATE_UPDATE_COUNT) {
+                            // to reduce DB updates, consecutive same state update for more than 3 times
+                            updateCount = instance.getPowerStateUpdateCount() + 1;
+                        } else {
+                            settledIds.add(instance.getId());
+                            continue;
+                        }
+                        pstmt.setString(1, powerState.toString());
+                        pstmt.setLong(2, powerHostId);
+                        pstmt.setInt(3, updateCount);
+                        pstmt.setString(4, updateTimeString);
+                        pstmt.setLong(5, instance.getId());
+                        // re-checked in the statement so that a newer update made since the VMs were read is kept
+                        pstmt.setString(6, wisdomEraString);
+                        pstmt.addBatch();
+                        candidateIds.add(instance.getId());
+                    }
+                    if (!candidateIds.isEmpty()) {
+                        final int[] results = pstmt.executeBatch();
+                        for (int i = 0; i < results.length; i++) {
+                            if (results[i] > 0 || results[i] == Statement.SUCCESS_NO_INFO) {
+                                updatedIds.add(candidateIds.get(i));
+                            }
+                        }
+                    }
+                } catch (SQLException e) {
+                    throw new CloudRuntimeException("Unable to update power state of VMs on host " + powerHostId, e);
+                }
+            }
+        });
+        return new Pair<List<Long>, List<Long>>(updatedIds, settledIds);
+    }
+
     @Override
     public boolean isPowerStateUpToDate(final long instanceId) {
         VMInstanceVO instance = findById(instanceId);
         if(instance == null) {
             throw new CloudRuntimeException("checking power state update count on non existing instance " + instanceId);
         }
+        return isPowerStateUpToDate(instance);
+    }
+
+    @Override
+    public boolean isPowerStateUpToDate(final VMInstanceVO instance) {
         return instance.getPowerStateUpdateCount() < MAX_CONSECUTIVE_SAME_STATE_UPDATE_COUNT;
     }
 
@@ -643,3 +643,29 @@ CREATE VIEW `cloud`.`domain_router_view` AS
         `cloud`.`async_job` ON async_job.instance_id = vm_instance.id
             and async_job.instance_type = 'DomainRouter'
             and async_job.job_status = 0;
+
+-- Leases handed out by the database backed lock service
+CREATE TABLE IF NOT EXISTS `cloud`.`op_lease` (
+  `lock_key` varchar(255) NOT NULL COMMENT 'name of the lock',
+  `mgmt_server_id` bigint unsigned DEFAULT NULL COMMENT 'management server holding the lease, NULL if the lock is free',
+  `grant_id` bigint unsigned DEFAULT NULL COMMENT 'acquisition round of the management server which granted the lease',
+  `token` bigint unsigned NOT NULL DEFAULT 0 COMMENT 'token of the grant, incremented every time the lease is granted',
+  `expires` datetime(3) DEFAULT NULL COMMENT 'time the lease expires, in database time',
+  PRIMARY KEY (`lock_key`),
+  KEY `i_op_lease__mgmt_server_id__grant_id` (`mgmt_server_id`, `grant_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- Roles allowed to deploy a virtual machine may also deploy them in bulk
+INSERT IGNORE INTO `cloud`.`role_permissions` (`uuid`, `role_id`, `rule`, `permission`, `sort_order`)
+    SELECT UUID(), `role_id`, 'deployVirtualMachines', `permission`, `sort_order` FROM `cloud`.`role_permissions` WHERE `rule` = 'deployVirtualMachine';
+
+-- How far the usage of every account has been parsed, per usage parser
+CREATE TABLE IF NOT EXISTS `cloud_usage`.`usage_checkpoint` (
+  `id` bigint unsigned NOT NULL AUTO_INCREMENT,
+  `account_id` bigint unsigned NOT NULL,
+  `usage_parser` varchar(64) NOT NULL COMMENT 'name of the usage parser',
+  `processed_until` datetime(3) NOT NULL COMMENT 'end of the last period parsed for the account, to the millisecond as periods end on xx:59.999',
+  `idle` tinyint(1) NOT NULL DEFAULT 0 COMMENT 'whether the last parse created no usage record and no usage event of the account was processed since',
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `uc_usage_checkpoint__account_id__usage_parser` (`account_id`, `usage_parser`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
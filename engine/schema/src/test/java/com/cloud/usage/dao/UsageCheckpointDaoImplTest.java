@@ -0,0 +1,100 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage.dao;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.cloud.usage.UsageCheckpointVO;
+import com.cloud.utils.db.TransactionLegacy;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(TransactionLegacy.class)
+@PowerMockIgnore("javax.management.*")
+public class UsageCheckpointDaoImplTest {
+
+    @Mock
+    private PreparedStatement preparedStatementMock;
+
+    @Mock
+    private ResultSet resultSetMock;
+
+    @Mock
+    private TransactionLegacy transactionMock;
+
+    private final UsageCheckpointDaoImpl usageCheckpointDao = new UsageCheckpointDaoImpl();
+
+    // usage periods end on the last millisecond of a second
+    private final Date periodEnd = new Date(1600000000999L);
+
+    @Before
+    public void setUp() throws Exception {
+        PowerMockito.mockStatic(TransactionLegacy.class);
+        Mockito.when(TransactionLegacy.currentTxn()).thenReturn(transactionMock);
+    }
+
+    @Test
+    public void saveCheckpointsTestKeepsMilliseconds() throws Exception {
+        when(transactionMock.prepareAutoCloseStatement(UsageCheckpointDaoImpl.SAVE_CHECKPOINT)).thenReturn(preparedStatementMock);
+
+        usageCheckpointDao.saveCheckpoints(Arrays.asList(new UsageCheckpointVO(1L, "VMInstance", periodEnd, false)));
+
+        verify(preparedStatementMock).setTimestamp(eq(3), eq(new Timestamp(periodEnd.getTime())), any(Calendar.class));
+        verify(preparedStatementMock).executeBatch();
+    }
+
+    @Test
+    public void listByAccountTestKeepsMilliseconds() throws Exception {
+        when(transactionMock.prepareAutoCloseStatement(UsageCheckpointDaoImpl.LIST_BY_ACCOUNT)).thenReturn(preparedStatementMock);
+        when(preparedStatementMock.executeQuery()).thenReturn(resultSetMock);
+        when(resultSetMock.next()).thenReturn(true, false);
+        when(resultSetMock.getLong(1)).thenReturn(1L);
+        when(resultSetMock.getString(2)).thenReturn("VMInstance");
+        when(resultSetMock.getTimestamp(eq(3), any(Calendar.class))).thenReturn(new Timestamp(periodEnd.getTime()));
+        when(resultSetMock.getBoolean(4)).thenReturn(true);
+
+        List<UsageCheckpointVO> checkpoints = usageCheckpointDao.listByAccount(1L);
+
+        Assert.assertEquals(1, checkpoints.size());
+        Assert.assertEquals("VMInstance", checkpoints.get(0).getUsageParser());
+        Assert.assertEquals(periodEnd, checkpoints.get(0).getProcessedUntil());
+        Assert.assertTrue(checkpoints.get(0).isIdle());
+        // a re-run of the period is skipped
+        Assert.assertFalse(checkpoints.get(0).getProcessedUntil().before(periodEnd));
+    }
+}
@@ -31,4 +31,10 @@ public interface ConfigDepot {
     <T> void set(ConfigKey<T> key, T value);
 
     <T> void createOrUpdateConfigObject(String componentName, ConfigKey<T> key, String value);
+
+    /**
+     * Drops the cached global and scoped values of the configuration on this management server.
+     * @param name name of the configuration
+     */
+    void invalidateConfigCache(String name);
 }
@@ -19,6 +19,7 @@ package org.apache.cloudstack.framework.config;
 import java.sql.Date;
 
 import org.apache.cloudstack.framework.config.impl.ConfigDepotImpl;
+import org.apache.cloudstack.framework.config.impl.ConfigValueCache;
 import org.apache.cloudstack.framework.config.impl.ConfigurationVO;
 
 import com.cloud.utils.exception.CloudRuntimeException;
@@ -139,8 +140,7 @@ public class ConfigKey<T> {
 
     public T value() {
         if (_value == null || isDynamic()) {
-            ConfigurationVO vo = s_depot != null ? s_depot.global().findById(key()) : null;
-            final String value = (vo != null && vo.getValue() != null) ? vo.getValue() : defaultValue();
+            final String value = getGlobalValue();
             _value = ((value == null) ? (T)defaultValue() : valueOf(value));
         }
 
@@ -152,7 +152,7 @@ public class ConfigKey<T> {
             return value();
         }
 
-        String value = s_depot != null ? s_depot.findScopedConfigStorage(this).getConfigValue(id, this) : null;
+        String value = s_depot != null ? getScopedValue(s_depot.findScopedConfigStorage(this), id) : null;
         if (value == null) {
             return value();
         } else {
@@ -165,7 +165,7 @@ public class ConfigKey<T> {
             return value();
         }
 
-        String value = s_depot != null ? s_depot.getDomainScope(this).getConfigValue(domainId, this) : null;
+        String value = s_depot != null ? getScopedValue(s_depot.getDomainScope(this), domainId) : null;
         if (value == null) {
             return value();
         } else {
@@ -173,6 +173,31 @@ public class ConfigKey<T> {
         }
     }
 
+    private String getGlobalValue() {
+        if (s_depot == null) {
+            return defaultValue();
+        }
+
+        final ConfigValueCache cache = s_depot.getConfigValueCache();
+        if (cache == null) {
+            return loadGlobalValue();
+        }
+        return cache.get(Scope.Global, null, key(), this::loadGlobalValue);
+    }
+
+    private String loadGlobalValue() {
+        ConfigurationVO vo = s_depot.global().findById(key());
+        return (vo != null && vo.getValue() != null) ? vo.getValue() : defaultValue();
+    }
+
+    private String getScopedValue(final ScopedConfigStorage storage, final long id) {
+        final ConfigValueCache cache = s_depot.getConfigValueCache();
+        if (cache == null) {
+            return storage.getConfigValue(id, this);
+        }
+        return cache.get(storage.getScope(), id, key(), () -> storage.getConfigValue(id, this));
+    }
+
     @SuppressWarnings("unchecked")
     protected T valueOf(String value) {
         Number multiplier = 1;
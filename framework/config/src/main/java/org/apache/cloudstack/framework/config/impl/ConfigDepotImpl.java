@@ -38,6 +38,7 @@ import org.apache.log4j.Logger;
 
 import com.cloud.utils.Pair;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
 
 /**
  * ConfigDepotImpl implements the ConfigDepot and ConfigDepotAdmin interface.
@@ -78,9 +79,16 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
 
     HashMap<ConfigKey.Scope, Set<ConfigKey<?>>> _scopeLevelConfigsMap = new HashMap<ConfigKey.Scope, Set<ConfigKey<?>>>();
 
+    private final ConfigValueCache _configValueCache = new ConfigValueCache();
+
     public ConfigDepotImpl() {
         ConfigKey.init(this);
         createEmptyScopeLevelMappings();
+        try {
+            JmxUtil.registerMBean("ConfigDepot", "Config Value Cache", _configValueCache);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register config value cache counters for JMX", e);
+        }
     }
 
     /**
@@ -147,6 +155,7 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
                 vo.setValue(value);
             }
             _configDao.persist(vo);
+            _configValueCache.invalidate(key.key());
         } else {
             if (vo.isDynamic() != key.isDynamic() || !ObjectUtils.equals(vo.getDescription(), key.description()) || !ObjectUtils.equals(vo.getDefaultValue(), key.defaultValue()) ||
                 !ObjectUtils.equals(vo.getScope(), key.scope().toString()) ||
@@ -158,6 +167,7 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
                 vo.setComponent(componentName);
                 vo.setUpdated(date);
                 _configDao.persist(vo);
+                _configValueCache.invalidate(key.key());
             }
         }
     }
@@ -176,6 +186,22 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
         return _configDao;
     }
 
+    /**
+     * @return the cache consulted by ConfigKey for the values of global and scoped configurations
+     */
+    public ConfigValueCache getConfigValueCache() {
+        return _configValueCache;
+    }
+
+    @Override
+    public void invalidateConfigCache(String name) {
+        _configValueCache.invalidate(name);
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Invalidated cached values of configuration " + name + ", cache hits: " + _configValueCache.getHits() + ", misses: " +
+                _configValueCache.getMisses() + ", size: " + _configValueCache.size());
+        }
+    }
+
     public ScopedConfigStorage findScopedConfigStorage(ConfigKey<?> config) {
         for (ScopedConfigStorage storage : _scopedStorages) {
             if (storage.getScope() == config.scope()) {
@@ -222,6 +248,7 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
     @Override
     public <T> void set(ConfigKey<T> key, T value) {
         _configDao.update(key.key(), value.toString());
+        _configValueCache.invalidate(key.key());
     }
 
     @Override
@@ -0,0 +1,175 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.config.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.apache.cloudstack.framework.config.ConfigKey;
+
+/**
+ * In-process cache of the raw (string) values of configuration keys, both
+ * global and scoped (zone/cluster/account/domain/pool/image store).
+ *
+ * Every configuration name carries a version which is bumped whenever the
+ * name is invalidated.  Entries remember the version they were loaded with,
+ * so a value read from the database concurrently with an update is never
+ * served once the invalidation has happened.  Entries also expire after a
+ * fixed time, which bounds staleness for values changed outside of
+ * ConfigurationManager (e.g. resource details edited directly).  Expired
+ * entries are purged once per expiry period, and values are not cached
+ * while the cache holds its maximum number of live entries.
+ */
+public class ConfigValueCache implements ConfigValueCacheMBean {
+    public static final long DEFAULT_EXPIRE_MILLIS = 30000L;
+    public static final int DEFAULT_MAX_SIZE = 100000;
+
+    private final long _expireMillis;
+    private final int _maxSize;
+    private final Map<String, CachedValue> _values = new ConcurrentHashMap<String, CachedValue>(1007);
+    private final Map<String, AtomicLong> _versions = new ConcurrentHashMap<String, AtomicLong>(1007);
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _invalidations = new AtomicLong();
+    private final AtomicLong _evictions = new AtomicLong();
+    private volatile long _lastPurge = System.currentTimeMillis();
+
+    public ConfigValueCache() {
+        this(DEFAULT_EXPIRE_MILLIS, DEFAULT_MAX_SIZE);
+    }
+
+    public ConfigValueCache(long expireMillis) {
+        this(expireMillis, DEFAULT_MAX_SIZE);
+    }
+
+    public ConfigValueCache(long expireMillis, int maxSize) {
+        _expireMillis = expireMillis;
+        _maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cached value of the configuration, loading it through the loader on a miss.
+     * @param scope scope the value is stored in, Global for the configuration table
+     * @param resourceId id of the scoped resource, null for global values
+     * @param name name of the configuration
+     * @param loader retrieves the value from the backing storage, may return null
+     */
+    public String get(ConfigKey.Scope scope, Long resourceId, String name, Supplier<String> loader) {
+        final String cacheKey = getCacheKey(scope, resourceId, name);
+        final long version = getVersion(name).get();
+        final long now = System.currentTimeMillis();
+
+        CachedValue cached = _values.get(cacheKey);
+        if (cached != null && cached.version == version && now - cached.loadedAt < _expireMillis) {
+            _hits.incrementAndGet();
+            return cached.value;
+        }
+
+        _misses.incrementAndGet();
+        final String value = loader.get();
+        if (now - _lastPurge >= _expireMillis || (cached == null && _values.size() >= _maxSize)) {
+            purgeExpired(now);
+        }
+        if (cached != null || _values.size() < _maxSize) {
+            _values.put(cacheKey, new CachedValue(value, version, now));
+        }
+        return value;
+    }
+
+    /**
+     * Drops the entries loaded longer than the expiry time ago.
+     */
+    protected void purgeExpired(long now) {
+        _lastPurge = now;
+        final int sizeBefore = _values.size();
+        _values.values().removeIf(cached -> now - cached.loadedAt >= _expireMillis);
+        _evictions.addAndGet(Math.max(0, sizeBefore - _values.size()));
+    }
+
+    /**
+     * Drops every cached value, global or scoped, of the configuration.
+     */
+    public void invalidate(String name) {
+        getVersion(name).incrementAndGet();
+        _invalidations.incrementAndGet();
+        _values.keySet().removeIf(cacheKey -> cacheKey.endsWith(":" + name));
+    }
+
+    public void invalidateAll() {
+        for (AtomicLong version : _versions.values()) {
+            version.incrementAndGet();
+        }
+        _invalidations.incrementAndGet();
+        _values.clear();
+    }
+
+    @Override
+    public long getHits() {
+        return _hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return _misses.get();
+    }
+
+    @Override
+    public long getInvalidations() {
+        return _invalidations.get();
+    }
+
+    @Override
+    public long getEvictions() {
+        return _evictions.get();
+    }
+
+    @Override
+    public int getSize() {
+        return _values.size();
+    }
+
+    @Override
+    public int getMaxSize() {
+        return _maxSize;
+    }
+
+    public int size() {
+        return _values.size();
+    }
+
+    private AtomicLong getVersion(String name) {
+        return _versions.computeIfAbsent(name, k -> new AtomicLong());
+    }
+
+    protected static String getCacheKey(ConfigKey.Scope scope, Long resourceId, String name) {
+        return scope + ":" + (resourceId == null ? "" : resourceId) + ":" + name;
+    }
+
+    private static class CachedValue {
+        final String value;
+        final long version;
+        final long loadedAt;
+
+        CachedValue(String value, long version, long loadedAt) {
+            this.value = value;
+            this.version = version;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.config.impl;
+
+/**
+ * Counters of the cache of configuration values.
+ */
+public interface ConfigValueCacheMBean {
+
+    /**
+     * @return number of lookups served from the cache
+     */
+    long getHits();
+
+    /**
+     * @return number of lookups that read the value from the database
+     */
+    long getMisses();
+
+    /**
+     * @return number of invalidations of a configuration or of the whole cache
+     */
+    long getInvalidations();
+
+    /**
+     * @return number of expired entries purged
+     */
+    long getEvictions();
+
+    /**
+     * @return number of cached values
+     */
+    int getSize();
+
+    int getMaxSize();
+}
@@ -0,0 +1,132 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+package org.apache.cloudstack.framework.config.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cloudstack.framework.config.ConfigKey;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConfigValueCacheTest {
+
+    private ConfigValueCache cache = new ConfigValueCache();
+
+    private AtomicInteger loads = new AtomicInteger();
+
+    private String load(String value) {
+        loads.incrementAndGet();
+        return value;
+    }
+
+    @Test
+    public void getLoadsOnceAndCountsHitsAndMisses() {
+        Assert.assertEquals("1", cache.get(ConfigKey.Scope.Global, null, "some.key", () -> load("1")));
+        Assert.assertEquals("1", cache.get(ConfigKey.Scope.Global, null, "some.key", () -> load("2")));
+
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void getCachesNullValues() {
+        Assert.assertNull(cache.get(ConfigKey.Scope.Zone, 1L, "some.key", () -> load(null)));
+        Assert.assertNull(cache.get(ConfigKey.Scope.Zone, 1L, "some.key", () -> load("1")));
+
+        Assert.assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void getKeepsScopesApart() {
+        cache.get(ConfigKey.Scope.Global, null, "some.key", () -> load("global"));
+        cache.get(ConfigKey.Scope.Zone, 1L, "some.key", () -> load("zone1"));
+
+        Assert.assertEquals("zone1", cache.get(ConfigKey.Scope.Zone, 1L, "some.key", () -> load("other")));
+        Assert.assertEquals("zone2", cache.get(ConfigKey.Scope.Zone, 2L, "some.key", () -> load("zone2")));
+        Assert.assertEquals("account1", cache.get(ConfigKey.Scope.Account, 1L, "some.key", () -> load("account1")));
+        Assert.assertEquals("global", cache.get(ConfigKey.Scope.Global, null, "some.key", () -> load("other")));
+    }
+
+    @Test
+    public void invalidateDropsAllScopesOfTheKeyOnly() {
+        cache.get(ConfigKey.Scope.Global, null, "some.key", () -> load("1"));
+        cache.get(ConfigKey.Scope.Cluster, 3L, "some.key", () -> load("1"));
+        cache.get(ConfigKey.Scope.Global, null, "other.key", () -> load("1"));
+
+        cache.invalidate("some.key");
+
+        Assert.assertEquals("2", cache.get(ConfigKey.Scope.Global, null, "some.key", () -> load("2")));
+        Assert.assertEquals("2", cache.get(ConfigKey.Scope.Cluster, 3L, "some.key", () -> load("2")));
+        Assert.assertEquals("1", cache.get(ConfigKey.Scope.Global, null, "other.key", () -> load("2")));
+        Assert.assertEquals(1, cache.getInvalidations());
+    }
+
+    @Test
+    public void invalidateDuringLoadDiscardsTheLoadedValue() {
+        cache.get(ConfigKey.Scope.Global, null, "some.key", () -> {
+            cache.invalidate("some.key");
+            return "stale";
+        });
+
+        Assert.assertEquals("fresh", cache.get(ConfigKey.Scope.Global, null, "some.key", () -> load("fresh")));
+    }
+
+    @Test
+    public void invalidateAllDropsEverything() {
+        cache.get(ConfigKey.Scope.Global, null, "some.key", () -> load("1"));
+        cache.get(ConfigKey.Scope.Global, null, "other.key", () -> load("1"));
+
+        cache.invalidateAll();
+
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals("2", cache.get(ConfigKey.Scope.Global, null, "some.key", () -> load("2")));
+    }
+
+    @Test
+    public void getReloadsExpiredValues() {
+        cache = new ConfigValueCache(0L);
+        cache.get(ConfigKey.Scope.Global, null, "some.key", () -> load("1"));
+
+        Assert.assertEquals("2", cache.get(ConfigKey.Scope.Global, null, "some.key", () -> load("2")));
+        Assert.assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void getPurgesExpiredValues() {
+        cache = new ConfigValueCache(0L);
+        cache.get(ConfigKey.Scope.Global, null, "some.key", () -> load("1"));
+        cache.get(ConfigKey.Scope.Global, null, "other.key", () -> load("1"));
+
+        Assert.assertEquals(1, cache.getSize());
+        Assert.assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void getDoesNotCacheBeyondMaxSize() {
+        cache = new ConfigValueCache(ConfigValueCache.DEFAULT_EXPIRE_MILLIS, 1);
+        cache.get(ConfigKey.Scope.Global, null, "some.key", () -> load("1"));
+        cache.get(ConfigKey.Scope.Global, null, "other.key", () -> load("1"));
+        cache.get(ConfigKey.Scope.Global, null, "other.key", () -> load("1"));
+
+        Assert.assertEquals(1, cache.getSize());
+        Assert.assertEquals(3, loads.get());
+        Assert.assertEquals("1", cache.get(ConfigKey.Scope.Global, null, "some.key", () -> load("2")));
+    }
+}
@@ -0,0 +1,78 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.StandardMBean;
+
+import org.apache.log4j.Logger;
+
+public abstract class AbstractDistributedLockService extends StandardMBean implements DistributedLockService, DistributedLockServiceMBean {
+    private static final Logger s_logger = Logger.getLogger(AbstractDistributedLockService.class);
+
+    static final String KEY_SEPARATOR = ":";
+
+    protected final long _msId;
+    private final Map<String, LockWaitHistogram> _waitTimes = new ConcurrentHashMap<String, LockWaitHistogram>();
+
+    protected AbstractDistributedLockService(long msId) {
+        super(DistributedLockServiceMBean.class, false);
+        _msId = msId;
+    }
+
+    /**
+     * @return key of the lock, the name and id are separated so that e.g. "vm1" + "23" and "vm12" + "3" differ
+     */
+    protected static String getLockKey(String name, String id) {
+        return name + KEY_SEPARATOR + id;
+    }
+
+    protected void recordWait(String name, String key, long startTime, LockLease lease) {
+        long waited = System.currentTimeMillis() - startTime;
+        _waitTimes.computeIfAbsent(name, k -> new LockWaitHistogram()).record(waited, lease != null);
+        if (lease == null) {
+            s_logger.warn("Timed out on acquiring lock " + key + " after waiting " + waited + "ms");
+        } else if (s_logger.isTraceEnabled()) {
+            s_logger.trace("Acquired " + lease + " after waiting " + waited + "ms");
+        }
+    }
+
+    @Override
+    public Map<String, LockWaitHistogram> getWaitTimeHistograms() {
+        return Collections.unmodifiableMap(_waitTimes);
+    }
+
+    @Override
+    public Map<String, String> getWaitTimes() {
+        Map<String, String> waitTimes = new TreeMap<String, String>();
+        for (Map.Entry<String, LockWaitHistogram> entry : _waitTimes.entrySet()) {
+            waitTimes.put(entry.getKey(), entry.getValue().toString());
+        }
+        return waitTimes;
+    }
+
+    @Override
+    public void resetWaitTimes() {
+        for (LockWaitHistogram histogram : _waitTimes.values()) {
+            histogram.reset();
+        }
+    }
+}
@@ -0,0 +1,493 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * Lock service backed by the op_lease table.
+ *
+ * Threads of this management server never go to the database themselves to
+ * acquire a lock.  They queue up per key, and a single acquirer thread tries
+ * to take the leases of all the keys with waiters in a few statements per
+ * round.  A round runs as soon as a new key gets waiters, and otherwise every
+ * poll interval for keys held by other management servers.  Lease expiry is
+ * evaluated against the database clock.
+ *
+ * The acquirer owns a dedicated connection, renewals and releases run on
+ * pooled connections so they never queue behind an acquisition round.
+ *
+ * The rows of released leases, and of leases expired for over an hour, are
+ * purged every ten minutes.  A row created again starts its tokens from the
+ * current time in milliseconds, so the tokens of a key are never reused.
+ */
+public class DbDistributedLockService extends AbstractDistributedLockService {
+    private static final Logger s_logger = Logger.getLogger(DbDistributedLockService.class);
+
+    private static final String CREATE_SQL = "INSERT IGNORE INTO op_lease (lock_key, token) VALUES ";
+    private static final String CREATE_VALUES_SQL = "(?, UNIX_TIMESTAMP(NOW(3)) * 1000)";
+    private static final String GRANT_SQL = "UPDATE op_lease SET mgmt_server_id=?, grant_id=?, token=token+1, expires=NOW(3) + INTERVAL ? MICROSECOND"
+            + " WHERE (mgmt_server_id IS NULL OR expires < NOW(3)) AND lock_key IN ";
+    private static final String GRANTED_SQL = "SELECT lock_key, token FROM op_lease WHERE mgmt_server_id=? AND grant_id=?";
+    private static final String RENEW_SQL = "UPDATE op_lease SET expires=NOW(3) + INTERVAL ? MICROSECOND WHERE lock_key=? AND mgmt_server_id=? AND token=?";
+    private static final String RELEASE_SQL = "UPDATE op_lease SET mgmt_server_id=NULL, grant_id=NULL, expires=NULL WHERE lock_key=? AND mgmt_server_id=? AND token=?";
+    private static final String CLEANUP_SQL = "UPDATE op_lease SET mgmt_server_id=NULL, grant_id=NULL, expires=NULL WHERE mgmt_server_id=?";
+    private static final String PURGE_SQL = "DELETE FROM op_lease WHERE mgmt_server_id IS NULL OR expires < NOW(3) - INTERVAL ? MICROSECOND LIMIT ?";
+
+    private static final long PURGE_INTERVAL = 10 * 60 * 1000L;
+    private static final long PURGE_EXPIRED_AFTER = 60 * 60 * 1000L;
+    private static final int PURGE_BATCH_SIZE = 1000;
+
+    public static final long DEFAULT_POLL_INTERVAL = 100;
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private final long _pollInterval;
+    private final int _batchSize;
+    // only used by the acquirer thread
+    private final ConnectionConcierge _concierge;
+    private final AtomicLong _grantIds = new AtomicLong();
+
+    // all guarded by _keys
+    private final Map<String, KeyState> _keys = new HashMap<String, KeyState>();
+    private final Set<String> _pending = new LinkedHashSet<String>();
+    private boolean _newPending;
+
+    public DbDistributedLockService(long msId, long pollInterval, int batchSize) {
+        this(msId, pollInterval, batchSize, createConcierge());
+    }
+
+    protected DbDistributedLockService(long msId, long pollInterval, int batchSize, ConnectionConcierge concierge) {
+        super(msId);
+        _pollInterval = pollInterval;
+        _batchSize = batchSize;
+        _concierge = concierge;
+
+        cleanupForServer(_msId);
+
+        Thread acquirer = new Thread(this::runAcquirer, "LeaseAcquirer");
+        acquirer.setDaemon(true);
+        acquirer.start();
+
+        ScheduledExecutorService purger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "LeasePurger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        purger.scheduleWithFixedDelay(this::runPurge, PURGE_INTERVAL, PURGE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private static ConnectionConcierge createConcierge() {
+        Connection conn = null;
+        ConnectionConcierge concierge = null;
+        try {
+            conn = openConnection();
+            concierge = new ConnectionConcierge("LeaseAcquirer", conn, true);
+        } catch (SQLException e) {
+            s_logger.error("Unable to get a new db connection", e);
+            throw new CloudRuntimeException("Unable to initialize a connection to the database for locking purposes", e);
+        } finally {
+            if (concierge == null && conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    s_logger.debug("closing connection failed after everything else.", e);
+                }
+            }
+        }
+        return concierge;
+    }
+
+    private static Connection openConnection() throws SQLException {
+        Connection conn = TransactionLegacy.getStandaloneConnectionWithException();
+        conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+        conn.setAutoCommit(true);
+        return conn;
+    }
+
+    @Override
+    public LockLease acquire(String name, String id, long leaseMillis, long timeoutMillis) {
+        final String key = getLockKey(name, id);
+        final long startTime = System.currentTimeMillis();
+        final long deadline = startTime + timeoutMillis;
+        final Waiter waiter = new Waiter(leaseMillis);
+
+        synchronized (_keys) {
+            KeyState state = _keys.computeIfAbsent(key, k -> new KeyState(name));
+            state.waiters.add(waiter);
+            if (state.holder == null || state.holder.getExpiresAt() <= startTime) {
+                addPending(key);
+            }
+        }
+
+        try {
+            while (true) {
+                long wait;
+                synchronized (_keys) {
+                    long now = System.currentTimeMillis();
+                    if (waiter.lease != null) {
+                        recordWait(name, key, startTime, waiter.lease);
+                        return waiter.lease;
+                    }
+                    KeyState state = _keys.get(key);
+                    if (now >= deadline) {
+                        state.waiters.remove(waiter);
+                        removeIfIdle(key, state);
+                        recordWait(name, key, startTime, null);
+                        return null;
+                    }
+                    wait = deadline - now;
+                    if (state.holder != null) {
+                        if (state.holder.getExpiresAt() <= now) {
+                            // the local holder is stuck, let the database decide when the lease is really over
+                            addPending(key);
+                        } else {
+                            wait = Math.min(wait, state.holder.getExpiresAt() - now);
+                        }
+                    }
+                }
+                waiter.granted.await(wait, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            s_logger.debug("[ignored] interrupted while acquiring " + key);
+            Thread.currentThread().interrupt();
+            LockLease lease;
+            synchronized (_keys) {
+                lease = waiter.lease;
+                if (lease == null) {
+                    KeyState state = _keys.get(key);
+                    state.waiters.remove(waiter);
+                    removeIfIdle(key, state);
+                }
+            }
+            if (lease != null) {
+                release(lease);
+            }
+            recordWait(name, key, startTime, null);
+            return null;
+        }
+    }
+
+    @Override
+    public boolean renew(LockLease lease, long leaseMillis) {
+        long now = System.currentTimeMillis();
+        try (Connection conn = openConnection(); PreparedStatement pstmt = conn.prepareStatement(RENEW_SQL)) {
+            pstmt.setLong(1, leaseMillis * 1000);
+            pstmt.setString(2, lease.getKey());
+            pstmt.setLong(3, _msId);
+            pstmt.setLong(4, lease.getToken());
+            if (pstmt.executeUpdate() != 1) {
+                s_logger.warn("Unable to renew " + lease + ", it has been lost");
+                return false;
+            }
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("Unable to renew " + lease, e);
+        }
+        lease.setExpiresAt(now + leaseMillis);
+        return true;
+    }
+
+    @Override
+    public void release(LockLease lease) {
+        try {
+            releaseInDb(lease);
+        } finally {
+            synchronized (_keys) {
+                KeyState state = _keys.get(lease.getKey());
+                if (state != null && state.holder != null && state.holder.getToken() == lease.getToken()) {
+                    state.holder = null;
+                    if (state.waiters.isEmpty()) {
+                        removeIfIdle(lease.getKey(), state);
+                    } else {
+                        addPending(lease.getKey());
+                    }
+                }
+            }
+        }
+    }
+
+    protected void releaseInDb(LockLease lease) {
+        try (Connection conn = openConnection(); PreparedStatement pstmt = conn.prepareStatement(RELEASE_SQL)) {
+            pstmt.setString(1, lease.getKey());
+            pstmt.setLong(2, _msId);
+            pstmt.setLong(3, lease.getToken());
+            if (pstmt.executeUpdate() != 1) {
+                s_logger.warn("Releasing " + lease + " which is no longer held");
+            } else if (s_logger.isTraceEnabled()) {
+                s_logger.trace("Released " + lease);
+            }
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("Unable to release " + lease, e);
+        }
+    }
+
+    @Override
+    public void cleanupForServer(long msId) {
+        s_logger.info("Cleaning up leases for " + msId);
+        try (Connection conn = openConnection(); PreparedStatement pstmt = conn.prepareStatement(CLEANUP_SQL)) {
+            pstmt.setLong(1, msId);
+            int rows = pstmt.executeUpdate();
+            s_logger.info("Released " + rows + " leases for " + msId);
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("Unable to clean up the leases of " + msId, e);
+        }
+    }
+
+    private void runPurge() {
+        try {
+            int rows = purgeInDb(PURGE_EXPIRED_AFTER);
+            if (rows > 0 && s_logger.isDebugEnabled()) {
+                s_logger.debug("Purged " + rows + " released or expired leases");
+            }
+        } catch (Throwable th) {
+            s_logger.warn("Unable to purge released leases", th);
+        }
+    }
+
+    /**
+     * Deletes the rows of the released leases and of the leases expired for
+     * longer than expiredMillis.  Their holders can no longer renew them.
+     * @return number of rows deleted
+     */
+    protected int purgeInDb(long expiredMillis) {
+        int total = 0;
+        try (Connection conn = openConnection(); PreparedStatement pstmt = conn.prepareStatement(PURGE_SQL)) {
+            int rows;
+            do {
+                pstmt.setLong(1, expiredMillis * 1000);
+                pstmt.setInt(2, PURGE_BATCH_SIZE);
+                rows = pstmt.executeUpdate();
+                total += rows;
+            } while (rows == PURGE_BATCH_SIZE);
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("Unable to purge the released leases", e);
+        }
+        return total;
+    }
+
+    private void addPending(String key) {
+        if (_pending.add(key)) {
+            _newPending = true;
+            _keys.notifyAll();
+        }
+    }
+
+    private void removeIfIdle(String key, KeyState state) {
+        if (state.holder == null && state.waiters.isEmpty()) {
+            _keys.remove(key);
+            _pending.remove(key);
+        }
+    }
+
+    private void runAcquirer() {
+        long nextPoll = 0;
+        while (true) {
+            try {
+                Map<Long, List<String>> rounds;
+                synchronized (_keys) {
+                    while (true) {
+                        long now = System.currentTimeMillis();
+                        if (!_pending.isEmpty() && (_newPending || now >= nextPoll)) {
+                            break;
+                        }
+                        _keys.wait(_pending.isEmpty() ? 0 : nextPoll - now);
+                    }
+                    _newPending = false;
+                    rounds = collectRounds();
+                }
+
+                for (Map.Entry<Long, List<String>> round : rounds.entrySet()) {
+                    List<String> keys = round.getValue();
+                    for (int i = 0; i < keys.size(); i += _batchSize) {
+                        long startTime = System.currentTimeMillis();
+                        Map<String, Long> granted = acquireInDb(keys.subList(i, Math.min(keys.size(), i + _batchSize)), round.getKey());
+                        grant(granted, startTime + round.getKey());
+                    }
+                }
+            } catch (InterruptedException e) {
+                s_logger.debug("[ignored] interrupted while waiting for lock requests");
+            } catch (Throwable th) {
+                // the acquirer must survive anything, every waiter of this management server depends on it
+                s_logger.warn("Unable to acquire leases", th);
+            }
+            nextPoll = System.currentTimeMillis() + _pollInterval;
+        }
+    }
+
+    /**
+     * Groups the pending keys by the lease time of their first waiter, and
+     * drops the keys nobody is waiting for anymore.  Must hold _keys.
+     */
+    private Map<Long, List<String>> collectRounds() {
+        Map<Long, List<String>> rounds = new LinkedHashMap<Long, List<String>>();
+        for (Iterator<String> it = _pending.iterator(); it.hasNext();) {
+            String key = it.next();
+            KeyState state = _keys.get(key);
+            Waiter head = state == null ? null : state.waiters.peek();
+            if (head == null) {
+                // the waiters timed out while the key was queued
+                it.remove();
+                continue;
+            }
+            rounds.computeIfAbsent(head.leaseMillis, k -> new ArrayList<String>()).add(key);
+        }
+        return rounds;
+    }
+
+    protected Map<String, Long> acquireInDb(List<String> keys, long leaseMillis) {
+        StringBuilder values = new StringBuilder();
+        StringBuilder in = new StringBuilder("(");
+        for (int i = 0; i < keys.size(); i++) {
+            values.append(i == 0 ? "" : ", ").append(CREATE_VALUES_SQL);
+            in.append(i == 0 ? "?" : ", ?");
+        }
+        in.append(")");
+
+        long grantId = _grantIds.incrementAndGet();
+        Map<String, Long> granted = new HashMap<String, Long>();
+        Connection conn = _concierge.conn();
+        try {
+            try (PreparedStatement pstmt = conn.prepareStatement(CREATE_SQL + values)) {
+                int i = 1;
+                for (String key : keys) {
+                    pstmt.setString(i++, key);
+                }
+                pstmt.executeUpdate();
+            }
+            int rows;
+            try (PreparedStatement pstmt = conn.prepareStatement(GRANT_SQL + in)) {
+                int i = 1;
+                pstmt.setLong(i++, _msId);
+                pstmt.setLong(i++, grantId);
+                pstmt.setLong(i++, leaseMillis * 1000);
+                for (String key : keys) {
+                    pstmt.setString(i++, key);
+                }
+                rows = pstmt.executeUpdate();
+            }
+            if (rows > 0) {
+                try (PreparedStatement pstmt = conn.prepareStatement(GRANTED_SQL)) {
+                    pstmt.setLong(1, _msId);
+                    pstmt.setLong(2, grantId);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            granted.put(rs.getString(1), rs.getLong(2));
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("Unable to acquire leases for " + keys.size() + " keys", e);
+        }
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("Acquired " + granted.size() + " of " + keys.size() + " leases in grant " + grantId);
+        }
+        return granted;
+    }
+
+    private void grant(Map<String, Long> granted, long expiresAt) {
+        List<LockLease> orphans = new ArrayList<LockLease>();
+        synchronized (_keys) {
+            for (Map.Entry<String, Long> entry : granted.entrySet()) {
+                String key = entry.getKey();
+                KeyState state = _keys.get(key);
+                Waiter waiter = state == null ? null : state.waiters.poll();
+                if (waiter == null) {
+                    // everyone gave up waiting while the round was running
+                    orphans.add(new LockLease(key, key, entry.getValue(), _msId, expiresAt));
+                    continue;
+                }
+                _pending.remove(key);
+                state.holder = new LockLease(state.name, key, entry.getValue(), _msId, expiresAt);
+                waiter.lease = state.holder;
+                waiter.granted.countDown();
+            }
+        }
+        for (LockLease orphan : orphans) {
+            releaseInDb(orphan);
+        }
+    }
+
+    @Override
+    public String getProvider() {
+        return "database";
+    }
+
+    @Override
+    public int getHeldLeaseCount() {
+        int count = 0;
+        synchronized (_keys) {
+            for (KeyState state : _keys.values()) {
+                if (state.holder != null) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int getWaitingCount() {
+        int count = 0;
+        synchronized (_keys) {
+            for (KeyState state : _keys.values()) {
+                count += state.waiters.size();
+            }
+        }
+        return count;
+    }
+
+    private static class KeyState {
+        final String name;
+        final ArrayDeque<Waiter> waiters = new ArrayDeque<Waiter>();
+        LockLease holder;
+
+        KeyState(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class Waiter {
+        final long leaseMillis;
+        final CountDownLatch granted = new CountDownLatch(1);
+        LockLease lease;
+
+        Waiter(long leaseMillis) {
+            this.leaseMillis = leaseMillis;
+        }
+    }
+}
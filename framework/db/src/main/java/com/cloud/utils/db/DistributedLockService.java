@@ -0,0 +1,61 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.Map;
+
+/**
+ * Cluster wide locks handed out as leases.
+ *
+ * A lease is held until it is released or until it expires, so a lock held
+ * by a management server that died or hung is eventually taken over without
+ * manual cleanup.  Every grant carries a token, larger than the token of any
+ * earlier grant of the same key, which ties renewals and releases to the
+ * grant.  The token is not a fencing token: the resources protected by the
+ * locks do not check it, so a holder must not rely on its lease once it
+ * has expired.
+ */
+public interface DistributedLockService {
+
+    /**
+     * Acquires the lock of the given name and id.
+     * @param name kind of the lock (e.g. the table name), wait times are recorded per name
+     * @param id id of the locked object
+     * @param leaseMillis time the lease is valid for unless renewed
+     * @param timeoutMillis maximum time to wait for the lock
+     * @return the lease, or null if the lock could not be acquired in time
+     */
+    LockLease acquire(String name, String id, long leaseMillis, long timeoutMillis);
+
+    /**
+     * Extends the lease to leaseMillis from now.
+     * @return false if the lease has been lost
+     */
+    boolean renew(LockLease lease, long leaseMillis);
+
+    void release(LockLease lease);
+
+    /**
+     * Releases all the leases held by a management server.
+     */
+    void cleanupForServer(long msId);
+
+    /**
+     * @return wait time histograms, keyed by lock name
+     */
+    Map<String, LockWaitHistogram> getWaitTimeHistograms();
+}
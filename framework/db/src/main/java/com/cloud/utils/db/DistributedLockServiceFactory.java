@@ -0,0 +1,74 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.NumbersUtil;
+import com.cloud.utils.mgmt.JmxUtil;
+
+/**
+ * Creates the lock service of this management server.  The implementation is
+ * picked by db.cloud.lock.service in db.properties: "database" (default) or
+ * "memory" for deployments with a single management server.
+ */
+public class DistributedLockServiceFactory {
+    private static final Logger s_logger = Logger.getLogger(DistributedLockServiceFactory.class);
+
+    public static final String LOCK_SERVICE_PROPERTY = "db.cloud.lock.service";
+    public static final String POLL_INTERVAL_PROPERTY = "db.cloud.lock.service.poll.interval";
+    public static final String BATCH_SIZE_PROPERTY = "db.cloud.lock.service.batch.size";
+
+    private static DistributedLockService s_instance = null;
+
+    public static synchronized DistributedLockService createLockService(long msId) {
+        if (s_instance != null) {
+            return s_instance;
+        }
+        Properties dbProps = DbProperties.getDbProperties();
+        String provider = dbProps.getProperty(LOCK_SERVICE_PROPERTY, "database");
+        AbstractDistributedLockService service;
+        if ("memory".equalsIgnoreCase(provider)) {
+            service = new InMemoryDistributedLockService(msId);
+        } else {
+            service = new DbDistributedLockService(msId,
+                    NumbersUtil.parseLong(dbProps.getProperty(POLL_INTERVAL_PROPERTY), DbDistributedLockService.DEFAULT_POLL_INTERVAL),
+                    NumbersUtil.parseInt(dbProps.getProperty(BATCH_SIZE_PROPERTY), DbDistributedLockService.DEFAULT_BATCH_SIZE));
+        }
+        s_logger.info("Using the " + service.getProvider() + " lock service");
+        try {
+            JmxUtil.registerMBean("Locks", "Leases", service);
+        } catch (Exception e) {
+            s_logger.error("Unable to register for JMX", e);
+        }
+        s_instance = service;
+        return s_instance;
+    }
+
+    /**
+     * @return the lock service, null if it has not been created
+     */
+    public static DistributedLockService getLockService() {
+        return s_instance;
+    }
+
+    static synchronized void setLockService(DistributedLockService service) {
+        s_instance = service;
+    }
+}
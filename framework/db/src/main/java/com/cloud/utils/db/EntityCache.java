@@ -0,0 +1,269 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.NotCompliantMBeanException;
+import javax.management.StandardMBean;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * Size-bounded cache of the entities of a dao, keyed by their id.
+ *
+ * The entries are spread over a number of independently locked LRU segments,
+ * so concurrent lookups of different ids rarely contend, and every segment
+ * evicts its least recently used entry once it holds its share of the maximum
+ * size.  Entries also expire after the time to live.
+ *
+ * Removing an entry because the entity changed is published through
+ * {@link EntityCacheManager}, so that the other management servers drop it as
+ * well; evicting it only affects this server.
+ */
+public class EntityCache extends StandardMBean implements EntityCacheMBean {
+    private static final int MAX_SEGMENTS = 16;
+
+    /**
+     * Id sent to the other management servers when the changed entities are not known by id.
+     */
+    public static final String ALL_ENTITIES = "*";
+
+    private final String _name;
+    private final Class<?> _keyClass;
+    private final int _maxSize;
+    private final long _timeToLiveMillis;
+    private final Segment[] _segments;
+
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _evictions = new AtomicLong();
+    private final AtomicLong _expirations = new AtomicLong();
+    private final AtomicLong _invalidations = new AtomicLong();
+
+    /**
+     * @param name name of the cache, the name of the dao
+     * @param keyClass class of the entity ids, used to parse ids received from other management servers
+     * @param maxSize maximum number of entities cached
+     * @param timeToLiveSeconds seconds an entity is cached for, 0 or less to keep it until evicted
+     */
+    public EntityCache(final String name, final Class<?> keyClass, final int maxSize, final long timeToLiveSeconds) {
+        super(EntityCacheMBean.class, false);
+        _name = name;
+        _keyClass = keyClass;
+        _maxSize = maxSize;
+        _timeToLiveMillis = timeToLiveSeconds > 0 ? timeToLiveSeconds * 1000L : 0;
+
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENTS && segmentCount * MAX_SEGMENTS < maxSize) {
+            segmentCount <<= 1;
+        }
+        _segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            _segments[i] = new Segment(maxSize / segmentCount + (i < maxSize % segmentCount ? 1 : 0));
+        }
+    }
+
+    private Segment segmentFor(final Object key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return _segments[hash & (_segments.length - 1)];
+    }
+
+    public Object get(final Object key) {
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            final CachedEntity cached = segment.get(key);
+            if (cached == null) {
+                _misses.incrementAndGet();
+                return null;
+            }
+            if (cached.expiresAt != 0 && cached.expiresAt < System.currentTimeMillis()) {
+                segment.remove(key);
+                _expirations.incrementAndGet();
+                _misses.incrementAndGet();
+                return null;
+            }
+            _hits.incrementAndGet();
+            return cached.entity;
+        }
+    }
+
+    public void put(final Object key, final Object entity) {
+        final CachedEntity cached = new CachedEntity(entity, _timeToLiveMillis == 0 ? 0 : System.currentTimeMillis() + _timeToLiveMillis);
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, cached);
+        }
+    }
+
+    /**
+     * Removes the entity because it has been changed, on this and the other management servers.
+     */
+    public void remove(final Object key) {
+        evict(key);
+        EntityCacheManager.entityChanged(this, key);
+    }
+
+    /**
+     * Removes all the entities, on this and the other management servers, after a change that
+     * was not made by id.
+     */
+    public void removeAll() {
+        clear();
+        EntityCacheManager.entityChanged(this, ALL_ENTITIES);
+    }
+
+    /**
+     * Removes the entity on this management server only.
+     */
+    public void evict(final Object key) {
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            if (segment.remove(key) != null) {
+                _invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes the entity whose id was received as a string from another management server.
+     */
+    public void evictById(final String id) {
+        if (ALL_ENTITIES.equals(id)) {
+            clear();
+            return;
+        }
+        evict(parseKey(id));
+    }
+
+    protected Object parseKey(final String id) {
+        if (_keyClass == Long.class || _keyClass == long.class) {
+            return Long.valueOf(id);
+        } else if (_keyClass == Integer.class || _keyClass == int.class) {
+            return Integer.valueOf(id);
+        } else if (_keyClass == Short.class || _keyClass == short.class) {
+            return Short.valueOf(id);
+        } else if (_keyClass == String.class) {
+            return id;
+        }
+        throw new CloudRuntimeException("Unable to parse id " + id + " of cache " + _name + " keyed by " + _keyClass);
+    }
+
+    @Override
+    public void clear() {
+        for (final Segment segment : _segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return _name;
+    }
+
+    @Override
+    public int getSize() {
+        int size = 0;
+        for (final Segment segment : _segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public int getMaxSize() {
+        return _maxSize;
+    }
+
+    @Override
+    public long getTimeToLiveSeconds() {
+        return _timeToLiveMillis / 1000L;
+    }
+
+    @Override
+    public long getHitCount() {
+        return _hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return _misses.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+        final long hits = _hits.get();
+        final long lookups = hits + _misses.get();
+        return lookups == 0 ? 0 : (double)hits / lookups;
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return _evictions.get();
+    }
+
+    @Override
+    public long getExpirationCount() {
+        return _expirations.get();
+    }
+
+    @Override
+    public long getInvalidationCount() {
+        return _invalidations.get();
+    }
+
+    @Override
+    public String toString() {
+        return "EntityCache[" + _name + ", max size: " + _maxSize + ", segments: " + _segments.length + ", time to live: " + getTimeToLiveSeconds() + "s]";
+    }
+
+    private static class CachedEntity {
+        final Object entity;
+        final long expiresAt;
+
+        CachedEntity(final Object entity, final long expiresAt) {
+            this.entity = entity;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private class Segment extends LinkedHashMap<Object, CachedEntity> {
+        private static final long serialVersionUID = 1L;
+        private final int _capacity;
+
+        Segment(final int capacity) {
+            super(16, 0.75f, true);
+            _capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Object, CachedEntity> eldest) {
+            if (size() > _capacity) {
+                _evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.mgmt.JmxUtil;
+
+/**
+ * Keeps track of the entity caches of the daos, exposes them over JMX and
+ * relays invalidations between this and the other management servers.
+ */
+public class EntityCacheManager {
+    private static final Logger s_logger = Logger.getLogger(EntityCacheManager.class);
+
+    public interface InvalidationListener {
+        /**
+         * Called when a cached entity has been changed on this management server.
+         * @param cacheName name of the cache holding the entity
+         * @param id id of the entity
+         */
+        void entityChanged(String cacheName, Object id);
+    }
+
+    private static final Map<String, EntityCache> s_caches = new ConcurrentHashMap<String, EntityCache>();
+    private static volatile InvalidationListener s_listener;
+
+    public static void register(final EntityCache cache) {
+        s_caches.put(cache.getName(), cache);
+        try {
+            JmxUtil.registerMBean("EntityCache", cache.getName(), cache);
+        } catch (final Exception e) {
+            s_logger.warn("Unable to register the entity cache " + cache.getName() + " with JMX", e);
+        }
+    }
+
+    public static EntityCache getCache(final String name) {
+        return s_caches.get(name);
+    }
+
+    public static Collection<EntityCache> getCaches() {
+        return s_caches.values();
+    }
+
+    public static void setInvalidationListener(final InvalidationListener listener) {
+        s_listener = listener;
+    }
+
+    static void entityChanged(final EntityCache cache, final Object id) {
+        final InvalidationListener listener = s_listener;
+        if (listener != null) {
+            listener.entityChanged(cache.getName(), id);
+        }
+    }
+
+    /**
+     * Evicts entities changed on another management server from the local cache.
+     */
+    public static void evict(final String cacheName, final Collection<String> ids) {
+        final EntityCache cache = s_caches.get(cacheName);
+        if (cache == null) {
+            return;
+        }
+        for (final String id : ids) {
+            try {
+                cache.evictById(id);
+            } catch (final RuntimeException e) {
+                s_logger.warn("Unable to evict " + id + " from the entity cache " + cacheName, e);
+            }
+        }
+    }
+
+    public static void clearAll() {
+        for (final EntityCache cache : s_caches.values()) {
+            cache.clear();
+        }
+    }
+}
@@ -37,6 +37,9 @@ public class Filter {
     Long _offset;
     Long _limit;
     String _orderBy;
+    String[] _seekFields;
+    Object[] _seekValues;
+    boolean _seekAscending;
 
     /**
      * @param clazz the VO object type
@@ -97,6 +100,34 @@ public class Filter {
         return _orderBy;
     }
 
+    /**
+     * Starts the page after the row having the given values rather than skipping
+     * rows with the offset, so that deep pages cost the same as the first one.
+     * The fields are compared as a row value, so they have to be the fields the
+     * filter is ordered by, in the same direction, ending with a unique one.
+     * @param ascending whether the fields are ordered ascending
+     * @param fields names of the fields
+     * @param values values of the fields in the last row of the previous page
+     */
+    public void setSeek(boolean ascending, String[] fields, Object[] values) {
+        assert (fields.length == values.length) : "Seek needs a value for each of the fields";
+        _seekAscending = ascending;
+        _seekFields = fields;
+        _seekValues = values;
+    }
+
+    public String[] getSeekFields() {
+        return _seekFields;
+    }
+
+    public Object[] getSeekValues() {
+        return _seekValues;
+    }
+
+    public boolean isSeekAscending() {
+        return _seekAscending;
+    }
+
     public void setOffset(Long offset) {
         _offset = offset;
     }
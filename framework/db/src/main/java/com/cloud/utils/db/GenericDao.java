@@ -135,6 +135,15 @@ public interface GenericDao<T, ID extends Serializable> {
 
     int update(T entity, SearchCriteria<T> sc);
 
+    /**
+     * Updates a number of entity beans, obtained from this dao, with the changes made to them.
+     * The updates of the entities which changed the same columns are sent to the database as
+     * one JDBC batch.
+     * @param entities the beans to update.
+     * @return number of rows updated.
+     */
+    int updateBatch(List<T> entities);
+
     /**
      * Look for all active rows.
      * @return list of entity beans.
@@ -199,6 +208,16 @@ public interface GenericDao<T, ID extends Serializable> {
      **/
     T persist(T entity);
 
+    /**
+     * Persist a number of new entity beans.  The inserts into each table of the
+     * entity are sent to the database as one JDBC batch, and the id field of the
+     * entities is updated with the new ids.  Entities are persisted one by one when
+     * only some of them already have their id.
+     * @param entities the beans to persist.
+     * @return The persisted versions of the objects, in the same order.
+     **/
+    List<T> persistBatch(List<T> entities);
+
     /**
      * remove the entity bean.  This will call delete automatically if
      * the entity bean does not have a removed field.
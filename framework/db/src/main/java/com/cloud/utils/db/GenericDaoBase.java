@@ -20,6 +20,7 @@ import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.math.BigInteger;
@@ -40,8 +41,11 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
@@ -78,9 +82,6 @@ import net.sf.cglib.proxy.Enhancer;
 import net.sf.cglib.proxy.Factory;
 import net.sf.cglib.proxy.MethodInterceptor;
 import net.sf.cglib.proxy.NoOp;
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.CacheManager;
-import net.sf.ehcache.Element;
 
 /**
  *  GenericDaoBase is a simple way to implement DAOs.  It DOES NOT
@@ -379,6 +380,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             }
         }
 
+        List<Pair<Attribute, Object>> seekValues = addSeek(str, filter);
         List<Object> groupByValues = addGroupBy(str, sc);
         addFilter(str, filter);
 
@@ -405,6 +407,12 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 i = addJoinAttributes(i, pstmt, joins);
             }
 
+            if (seekValues != null) {
+                for (final Pair<Attribute, Object> value : seekValues) {
+                    prepareAttribute(i++, pstmt, value.first(), value.second());
+                }
+            }
+
             if (groupByValues != null) {
                 for (Object value : groupByValues) {
                     pstmt.setObject(i++, value);
@@ -451,6 +459,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             addJoins(str, joins);
         }
 
+        List<Pair<Attribute, Object>> seekValues = addSeek(str, filter);
         List<Object> groupByValues = addGroupBy(str, sc);
         addFilter(str, filter);
 
@@ -471,6 +480,12 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 i = addJoinAttributes(i, pstmt, joins);
             }
 
+            if (seekValues != null) {
+                for (final Pair<Attribute, Object> value : seekValues) {
+                    prepareAttribute(i++, pstmt, value.first(), value.second());
+                }
+            }
+
             if (groupByValues != null) {
                 for (Object value : groupByValues) {
                     pstmt.setObject(i++, value);
@@ -782,13 +797,11 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     }
 
     protected int update(ID id, UpdateBuilder ub, T entity) {
-        if (_cache != null) {
-            _cache.remove(id);
-        }
         SearchCriteria<T> sc = createSearchCriteria();
         sc.addAnd(_idAttributes.get(_table)[0], SearchCriteria.Op.EQ, id);
         TransactionLegacy txn = TransactionLegacy.currentTxn();
         txn.start();
+        invalidateCachedEntity(id);
 
         try {
             if (ub.getCollectionChanges() != null) {
@@ -798,7 +811,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             throw new CloudRuntimeException("Unable to persist element collection", e);
         }
 
-        int rowsUpdated = update(ub, sc, null);
+        // only the row of the id changes, the rest of the cache stays valid
+        int rowsUpdated = update(ub, sc, null, false);
 
         txn.commit();
 
@@ -806,6 +820,14 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     }
 
     public int update(UpdateBuilder ub, final SearchCriteria<?> sc, Integer rows) {
+        return update(ub, sc, rows, true);
+    }
+
+    /**
+     * @param invalidateCache whether the update may change any cached entity, false when the caller
+     * invalidates the entities it changes itself
+     */
+    private int update(UpdateBuilder ub, final SearchCriteria<?> sc, Integer rows, boolean invalidateCache) {
         StringBuilder sql = null;
         PreparedStatement pstmt = null;
         final TransactionLegacy txn = TransactionLegacy.currentTxn();
@@ -824,6 +846,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             }
 
             txn.start();
+            if (invalidateCache) {
+                invalidateCachedEntities();
+            }
             pstmt = txn.prepareAutoCloseStatement(sql.toString());
 
             Collection<Ternary<Attribute, Boolean, Object>> changes = ub.getChanges();
@@ -943,11 +968,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     public T findById(final ID id) {
         T result = null;
         if (_cache != null) {
-            final Element element = _cache.get(id);
-            if (element == null) {
+            result = getCachedEntity(id);
+            if (result == null) {
                 result = lockRow(id, null);
-            } else {
-                result = (T)element.getObjectValue();
             }
         } else {
             result = lockRow(id, null);
@@ -976,11 +999,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     public T findByIdIncludingRemoved(final ID id) {
         T result = null;
         if (_cache != null) {
-            final Element element = _cache.get(id);
-            if (element == null) {
+            result = getCachedEntity(id);
+            if (result == null) {
                 result = findById(id, true, null);
-            } else {
-                result = (T)element.getObjectValue();
             }
         } else {
             result = findById(id, true, null);
@@ -996,7 +1017,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         }
 
         if (_cache != null) {
-            _cache.remove(id);
+            _cache.evict(id);
         }
         return lockRow(id, null);
     }
@@ -1116,6 +1137,39 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         }
     }
 
+    /**
+     * Appends the keyset condition of the filter, e.g. (created, id) &lt; (?, ?), to the where clause.
+     * @return values to set for the condition, null if the filter doesn't seek
+     */
+    protected List<Pair<Attribute, Object>> addSeek(final StringBuilder sql, final Filter filter) {
+        if (filter == null || filter.getSeekFields() == null) {
+            return null;
+        }
+
+        final String[] fields = filter.getSeekFields();
+        final Object[] values = filter.getSeekValues();
+        final List<Pair<Attribute, Object>> seekValues = new ArrayList<Pair<Attribute, Object>>(fields.length);
+        final StringBuilder columns = new StringBuilder("(");
+        final StringBuilder params = new StringBuilder("(");
+        for (int i = 0; i < fields.length; i++) {
+            final Attribute attr = findAttributeByFieldName(fields[i]);
+            if (attr == null) {
+                throw new CloudRuntimeException("Unable to find " + fields[i] + " in " + _entityBeanType.getName());
+            }
+            if (i > 0) {
+                columns.append(", ");
+                params.append(", ");
+            }
+            columns.append(attr.table).append(".").append(attr.columnName);
+            params.append("?");
+            seekValues.add(new Pair<Attribute, Object>(attr, values[i]));
+        }
+
+        sql.append(sql.lastIndexOf("WHERE") == -1 ? " WHERE " : " AND ");
+        sql.append(columns).append(filter.isSeekAscending() ? ") > " : ") < ").append(params).append(")");
+        return seekValues;
+    }
+
     @Override
     @DB()
     public List<T> listAllIncludingRemoved(final Filter filter) {
@@ -1188,9 +1242,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             }
 
             txn.commit();
-            if (_cache != null) {
-                _cache.remove(id);
-            }
+            invalidateCachedEntity(id);
             return true;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
@@ -1222,7 +1274,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             for (final Pair<Attribute, Object> value : sc.getValues()) {
                 prepareAttribute(++i, pstmt, value.first(), value.second());
             }
-            return pstmt.executeUpdate();
+            final int result = pstmt.executeUpdate();
+            invalidateCachedEntities();
+            return result;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
         } catch (final Throwable e) {
@@ -1457,6 +1511,182 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return _idField != null ? findByIdIncludingRemoved(id) : null;
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<T> persistBatch(final List<T> entities) {
+        boolean batchable = entities.size() > 1 && (_ecAttributes == null || _ecAttributes.isEmpty());
+        int entitiesWithId = 0;
+        for (final T entity : entities) {
+            batchable = batchable && !Enhancer.isEnhanced(entity.getClass());
+            if (hasId(entity)) {
+                entitiesWithId++;
+            }
+        }
+        // the generated keys of a batch can only be matched to its entities when either all or none of them get one
+        batchable = batchable && (entitiesWithId == 0 || entitiesWithId == entities.size());
+        if (!batchable) {
+            // element collections are inserted per entity and enhanced entities are updated, so there is nothing to batch
+            final List<T> persisted = new ArrayList<T>(entities.size());
+            for (final T entity : entities) {
+                persisted.add(persist(entity));
+            }
+            return persisted;
+        }
+
+        final List<ID> ids = new ArrayList<ID>(entities.size());
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        try {
+            txn.start();
+            boolean mainTable = true;
+            for (final Pair<String, Attribute[]> pair : _insertSqls) {
+                pstmt = txn.prepareAutoCloseStatement(pair.first(), Statement.RETURN_GENERATED_KEYS);
+                for (final T entity : entities) {
+                    prepareAttributes(pstmt, entity, pair.second(), 1);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+
+                // the secondary tables are inserted with the ids generated for the main table
+                if (mainTable) {
+                    final ResultSet rs = pstmt.getGeneratedKeys();
+                    for (final T entity : entities) {
+                        ids.add(setGeneratedId(entity, rs));
+                    }
+                    mainTable = false;
+                }
+            }
+            txn.commit();
+        } catch (final SQLException e) {
+            handleEntityExistsException(e);
+            throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("Unable to set the id of the persisted entities", e);
+        }
+
+        if (_idField == null) {
+            return entities;
+        }
+
+        final SearchCriteria<T> sc = createSearchCriteria();
+        sc.addAnd(_idAttributes.get(_table)[0], SearchCriteria.Op.IN, ids.toArray());
+        final Map<ID, T> persistedById = new HashMap<ID, T>(ids.size());
+        try {
+            for (final T persisted : searchIncludingRemoved(sc, null, null, false)) {
+                persistedById.put((ID)_idField.get(persisted), persisted);
+            }
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("Unable to get the id of the persisted entities", e);
+        }
+        final List<T> persisted = new ArrayList<T>(ids.size());
+        for (final ID id : ids) {
+            persisted.add(persistedById.get(id));
+        }
+        return persisted;
+    }
+
+    /**
+     * @return true if the entity already has its id, e.g. from a table generator, so its insert generates no key.
+     */
+    protected boolean hasId(final T entity) {
+        if (_idField == null) {
+            return false;
+        }
+        final Object id;
+        try {
+            id = _idField.get(entity);
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("Unable to get the id of the entity", e);
+        }
+        return id != null && !(id instanceof Number && ((Number)id).longValue() == 0);
+    }
+
+    /**
+     * Sets the next key generated by a batch insert as the id of the entity, unless the entity
+     * already has its id, in which case no key was generated for it.
+     */
+    @SuppressWarnings("unchecked")
+    protected ID setGeneratedId(final T entity, final ResultSet generatedKeys) throws SQLException, IllegalAccessException {
+        if (_idField == null) {
+            return null;
+        }
+        if (hasId(entity)) {
+            return (ID)_idField.get(entity);
+        }
+        if (generatedKeys != null && generatedKeys.next()) {
+            final Object key = generatedKeys.getObject(1);
+            _idField.set(entity, key instanceof BigInteger ? ((BigInteger)key).longValue() : key);
+        }
+        return (ID)_idField.get(entity);
+    }
+
+    @Override
+    @DB()
+    @SuppressWarnings("unchecked")
+    public int updateBatch(final List<T> entities) {
+        // updates changing the same columns share their sql, and are sent in one batch
+        final Map<String, List<Pair<UpdateBuilder, SearchCriteria<T>>>> batches = new LinkedHashMap<String, List<Pair<UpdateBuilder, SearchCriteria<T>>>>();
+        int rowsUpdated = 0;
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        try {
+            txn.start();
+            for (final T entity : entities) {
+                assert Enhancer.isEnhanced(entity.getClass()) : "Entity is not generated by this dao";
+
+                final UpdateBuilder ub = getUpdateBuilder(entity);
+                final ID id = (ID)_idField.get(entity);
+                if (ub.getCollectionChanges() != null) {
+                    rowsUpdated += update(id, ub, entity);
+                    continue;
+                }
+
+                final StringBuilder sql = ub.toSql(_tables);
+                if (sql == null) {
+                    continue;
+                }
+                invalidateCachedEntity(id);
+                final SearchCriteria<T> sc = createSearchCriteria();
+                sc.addAnd(_idAttributes.get(_table)[0], SearchCriteria.Op.EQ, id);
+                sql.append(sc.getWhereClause());
+
+                List<Pair<UpdateBuilder, SearchCriteria<T>>> batch = batches.get(sql.toString());
+                if (batch == null) {
+                    batch = new ArrayList<Pair<UpdateBuilder, SearchCriteria<T>>>();
+                    batches.put(sql.toString(), batch);
+                }
+                batch.add(new Pair<UpdateBuilder, SearchCriteria<T>>(ub, sc));
+            }
+
+            for (final Map.Entry<String, List<Pair<UpdateBuilder, SearchCriteria<T>>>> batch : batches.entrySet()) {
+                pstmt = txn.prepareAutoCloseStatement(batch.getKey());
+                for (final Pair<UpdateBuilder, SearchCriteria<T>> update : batch.getValue()) {
+                    int i = 1;
+                    for (final Ternary<Attribute, Boolean, Object> value : update.first().getChanges()) {
+                        prepareAttribute(i++, pstmt, value.first(), value.third());
+                    }
+                    for (final Pair<Attribute, Object> value : update.second().getValues()) {
+                        prepareAttribute(i++, pstmt, value.first(), value.second());
+                    }
+                    pstmt.addBatch();
+                }
+                for (final int result : pstmt.executeBatch()) {
+                    rowsUpdated += result == Statement.SUCCESS_NO_INFO ? 1 : Math.max(result, 0);
+                }
+                for (final Pair<UpdateBuilder, SearchCriteria<T>> update : batch.getValue()) {
+                    update.first().clear();
+                }
+            }
+            txn.commit();
+            return rowsUpdated;
+        } catch (final SQLException e) {
+            handleEntityExistsException(e);
+            throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("Unable to get the id of the updated entities", e);
+        }
+    }
+
     protected void insertElementCollection(T entity, Attribute idAttribute, ID id, Map<Attribute, Object> ecAttributes) throws SQLException {
         TransactionLegacy txn = TransactionLegacy.currentTxn();
         txn.start();
@@ -1642,12 +1872,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
         toEntityBean(result, entity);
 
-        if (cache && _cache != null) {
-            try {
-                _cache.put(new Element(_idField.get(entity), entity));
-            } catch (final Exception e) {
-                s_logger.debug("Can't put it in the cache", e);
-            }
+        if (cache) {
+            cacheEntity(entity);
         }
 
         return entity;
@@ -1664,12 +1890,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             throw new CloudRuntimeException("Illegal Access", e1);
         }
         toEntityBean(result, entity);
-        if (cache && _cache != null) {
-            try {
-                _cache.put(new Element(_idField.get(entity), entity));
-            } catch (final Exception e) {
-                s_logger.debug("Can't put it in the cache", e);
-            }
+        if (cache) {
+            cacheEntity(entity);
         }
 
         return entity;
@@ -1797,9 +2019,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
             final int result = pstmt.executeUpdate();
             txn.commit();
-            if (_cache != null) {
-                _cache.remove(id);
-            }
+            invalidateCachedEntity(id);
             return result > 0;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
@@ -1840,9 +2060,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
             final int result = pstmt.executeUpdate();
             txn.commit();
-            if (_cache != null) {
-                _cache.remove(id);
-            }
+            invalidateCachedEntity(id);
             return result > 0;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
@@ -1862,19 +2080,154 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return update(ub, sc, null);
     }
 
-    protected Cache _cache;
+    protected EntityCache _cache;
+    private volatile List<Field> _cachedFields;
+
+    /**
+     * Caches a copy of the entity, unless it is removed, as findById() must not find it, or it was read in a
+     * transaction, which may not be committed.
+     */
+    protected void cacheEntity(final T entity) {
+        if (_cache == null || TransactionLegacy.currentTxn().dbTxnStarted()) {
+            return;
+        }
+        try {
+            if (_removed != null && _removed.second().field.get(entity) != null) {
+                return;
+            }
+            _cache.put(_idField.get(entity), copyEntity(entity));
+        } catch (final Exception e) {
+            s_logger.debug("Can't put it in the cache", e);
+        }
+    }
+
+    /**
+     * @return a copy of the cached entity, so callers changing it do not change the one in the cache, or null
+     */
+    @SuppressWarnings("unchecked")
+    protected T getCachedEntity(final ID id) {
+        final T cached = (T)_cache.get(id);
+        if (cached == null) {
+            return null;
+        }
+        try {
+            return copyEntity(cached);
+        } catch (final IllegalAccessException e) {
+            s_logger.debug("Can't copy the cached entity", e);
+            _cache.evict(id);
+            return null;
+        }
+    }
+
+    /**
+     * Evicts the entity now, so this transaction reads its change, and again once the transaction is
+     * complete, as others may have cached the row as it was until then.
+     */
+    protected void invalidateCachedEntity(final ID id) {
+        if (_cache == null) {
+            return;
+        }
+        _cache.remove(id);
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        if (txn.dbTxnStarted()) {
+            txn.runOnCompletion(new Runnable() {
+                @Override
+                public void run() {
+                    _cache.remove(id);
+                }
+            });
+        }
+    }
 
+    /**
+     * Same as {@link #invalidateCachedEntity(Object)}, for changes made by search criteria.
+     */
+    protected void invalidateCachedEntities() {
+        if (_cache == null) {
+            return;
+        }
+        _cache.removeAll();
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        if (txn.dbTxnStarted()) {
+            txn.runOnCompletion(new Runnable() {
+                @Override
+                public void run() {
+                    _cache.removeAll();
+                }
+            });
+        }
+    }
+
+    /**
+     * Invalidates an entity cached by another dao, for daos that write the table of that dao
+     * through an entity class of their own.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected static void invalidateCachedEntity(final GenericDao<?, ?> dao, final Serializable id) {
+        if (dao instanceof GenericDaoBase) {
+            ((GenericDaoBase)dao).invalidateCachedEntity(id);
+        }
+    }
+
+    /**
+     * Same as {@link #invalidateCachedEntity(GenericDao, Serializable)}, for changes made by search criteria.
+     */
+    protected static void invalidateCachedEntities(final GenericDao<?, ?> dao) {
+        if (dao instanceof GenericDaoBase) {
+            ((GenericDaoBase<?, ?>)dao).invalidateCachedEntities();
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected T copyEntity(final T entity) throws IllegalAccessException {
+        final T copy = (T)_factory.newInstance(new Callback[] {NoOp.INSTANCE, new UpdateBuilder(this)});
+        for (final Field field : getCachedFields()) {
+            Object value = field.get(entity);
+            if (value instanceof Date) {
+                value = ((Date)value).clone();
+            } else if (value instanceof List) {
+                value = new ArrayList((List)value);
+            } else if (value instanceof Set) {
+                value = new HashSet((Set)value);
+            } else if (value instanceof Map) {
+                value = new HashMap((Map)value);
+            }
+            field.set(copy, value);
+        }
+        return copy;
+    }
+
+    private List<Field> getCachedFields() {
+        List<Field> fields = _cachedFields;
+        if (fields == null) {
+            fields = new ArrayList<Field>();
+            for (Class<?> clazz = _entityBeanType; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+                for (final Field field : clazz.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers())) {
+                        field.setAccessible(true);
+                        fields.add(field);
+                    }
+                }
+            }
+            _cachedFields = fields;
+        }
+        return fields;
+    }
+
+    /**
+     * Creates the entity cache of the dao when "cache.size" is configured.  The entities
+     * expire after "cache.time.to.live" seconds, -1 keeps them until they are evicted.
+     */
     @DB()
     protected void createCache(final Map<String, ? extends Object> params) {
         final String value = (String)params.get("cache.size");
 
         if (value != null) {
-            final CacheManager cm = CacheManager.create();
             final int maxElements = NumbersUtil.parseInt(value, 0);
             final int live = NumbersUtil.parseInt((String)params.get("cache.time.to.live"), 300);
-            final int idle = NumbersUtil.parseInt((String)params.get("cache.time.to.idle"), 300);
-            _cache = new Cache(getName(), maxElements, false, live == -1, live == -1 ? Integer.MAX_VALUE : live, idle);
-            cm.addCache(_cache);
+            final String name = getName() != null ? getName() : getClass().getSimpleName();
+            _cache = new EntityCache(name, _idField != null ? _idField.getType() : Long.class, maxElements, live);
+            EntityCacheManager.register(_cache);
             s_logger.info("Cache created: " + _cache.toString());
         } else {
             _cache = null;
@@ -0,0 +1,159 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Lock service for deployments with a single management server, the locks
+ * never leave the JVM.
+ */
+public class InMemoryDistributedLockService extends AbstractDistributedLockService {
+    private static final Logger s_logger = Logger.getLogger(InMemoryDistributedLockService.class);
+
+    private final Map<String, KeyState> _keys = new ConcurrentHashMap<String, KeyState>();
+    private final AtomicLong _tokens = new AtomicLong();
+
+    public InMemoryDistributedLockService(long msId) {
+        super(msId);
+    }
+
+    @Override
+    public LockLease acquire(String name, String id, long leaseMillis, long timeoutMillis) {
+        final String key = getLockKey(name, id);
+        final long startTime = System.currentTimeMillis();
+        final long deadline = startTime + timeoutMillis;
+
+        while (true) {
+            KeyState state = _keys.computeIfAbsent(key, k -> new KeyState());
+            synchronized (state) {
+                if (state.removed) {
+                    continue;
+                }
+                state.waiters++;
+                try {
+                    while (true) {
+                        long now = System.currentTimeMillis();
+                        if (state.holder == null || state.holder.getExpiresAt() <= now) {
+                            if (state.holder != null) {
+                                s_logger.warn("Taking over expired " + state.holder);
+                            }
+                            state.holder = new LockLease(name, key, _tokens.incrementAndGet(), _msId, now + leaseMillis);
+                            recordWait(name, key, startTime, state.holder);
+                            return state.holder;
+                        }
+                        if (now >= deadline) {
+                            recordWait(name, key, startTime, null);
+                            return null;
+                        }
+                        state.wait(Math.max(1, Math.min(deadline, state.holder.getExpiresAt()) - now));
+                    }
+                } catch (InterruptedException e) {
+                    s_logger.debug("[ignored] interrupted while acquiring " + key);
+                    Thread.currentThread().interrupt();
+                    recordWait(name, key, startTime, null);
+                    return null;
+                } finally {
+                    state.waiters--;
+                    removeIfIdle(key, state);
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean renew(LockLease lease, long leaseMillis) {
+        KeyState state = _keys.get(lease.getKey());
+        if (state == null) {
+            return false;
+        }
+        synchronized (state) {
+            if (state.holder == null || state.holder.getToken() != lease.getToken()) {
+                return false;
+            }
+            lease.setExpiresAt(System.currentTimeMillis() + leaseMillis);
+            return true;
+        }
+    }
+
+    @Override
+    public void release(LockLease lease) {
+        KeyState state = _keys.get(lease.getKey());
+        if (state == null) {
+            return;
+        }
+        synchronized (state) {
+            if (state.holder == null || state.holder.getToken() != lease.getToken()) {
+                s_logger.warn("Releasing " + lease + " which is no longer held");
+                return;
+            }
+            state.holder = null;
+            state.notifyAll();
+            removeIfIdle(lease.getKey(), state);
+        }
+    }
+
+    private void removeIfIdle(String key, KeyState state) {
+        if (state.waiters == 0 && state.holder == null) {
+            state.removed = true;
+            _keys.remove(key, state);
+        }
+    }
+
+    @Override
+    public void cleanupForServer(long msId) {
+    }
+
+    @Override
+    public String getProvider() {
+        return "memory";
+    }
+
+    @Override
+    public int getHeldLeaseCount() {
+        int count = 0;
+        for (KeyState state : _keys.values()) {
+            synchronized (state) {
+                if (state.holder != null) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int getWaitingCount() {
+        int count = 0;
+        for (KeyState state : _keys.values()) {
+            synchronized (state) {
+                count += state.waiters;
+            }
+        }
+        return count;
+    }
+
+    private static class KeyState {
+        LockLease holder;
+        int waiters;
+        boolean removed;
+    }
+}
@@ -0,0 +1,78 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+/**
+ * A time bounded lock granted by a {@link DistributedLockService}.
+ *
+ * The token increases every time the lock is granted, it identifies the
+ * grant when the lease is renewed or released.
+ */
+public class LockLease {
+    private final String _name;
+    private final String _key;
+    private final long _token;
+    private final long _msId;
+    private volatile long _expiresAt;
+
+    public LockLease(String name, String key, long token, long msId, long expiresAt) {
+        _name = name;
+        _key = key;
+        _token = token;
+        _msId = msId;
+        _expiresAt = expiresAt;
+    }
+
+    /**
+     * @return name of the lock, shared by all the keys of the same kind (e.g. the table name)
+     */
+    public String getName() {
+        return _name;
+    }
+
+    public String getKey() {
+        return _key;
+    }
+
+    public long getToken() {
+        return _token;
+    }
+
+    public long getMsId() {
+        return _msId;
+    }
+
+    /**
+     * @return the time in milliseconds, as seen by this management server, at which the lease expires
+     */
+    public long getExpiresAt() {
+        return _expiresAt;
+    }
+
+    void setExpiresAt(long expiresAt) {
+        _expiresAt = expiresAt;
+    }
+
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= _expiresAt;
+    }
+
+    @Override
+    public String toString() {
+        return "lease-" + _key + "[token=" + _token + ", msid=" + _msId + "]";
+    }
+}
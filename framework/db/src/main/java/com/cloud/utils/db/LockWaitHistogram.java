@@ -0,0 +1,139 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of the time spent waiting for a lock, with fixed exponential buckets.
+ */
+public class LockWaitHistogram {
+    static final long[] BUCKET_BOUNDS = {1, 5, 10, 50, 100, 500, 1000, 5000, 10000, 60000, 300000};
+
+    private final AtomicLongArray _buckets = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+    private final AtomicLong _count = new AtomicLong();
+    private final AtomicLong _timeouts = new AtomicLong();
+    private final AtomicLong _totalWait = new AtomicLong();
+    private final AtomicLong _maxWait = new AtomicLong();
+
+    /**
+     * @param waitMillis time waited for the lock
+     * @param acquired false if the wait timed out
+     */
+    public void record(long waitMillis, boolean acquired) {
+        if (waitMillis < 0) {
+            waitMillis = 0;
+        }
+        _buckets.incrementAndGet(bucketOf(waitMillis));
+        _count.incrementAndGet();
+        if (!acquired) {
+            _timeouts.incrementAndGet();
+        }
+        _totalWait.addAndGet(waitMillis);
+        long max = _maxWait.get();
+        while (waitMillis > max && !_maxWait.compareAndSet(max, waitMillis)) {
+            max = _maxWait.get();
+        }
+    }
+
+    static int bucketOf(long waitMillis) {
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            if (waitMillis <= BUCKET_BOUNDS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS.length;
+    }
+
+    public long getCount() {
+        return _count.get();
+    }
+
+    public long getTimeouts() {
+        return _timeouts.get();
+    }
+
+    public long getMaxWaitMillis() {
+        return _maxWait.get();
+    }
+
+    public double getAverageWaitMillis() {
+        long count = _count.get();
+        return count == 0 ? 0 : (double)_totalWait.get() / count;
+    }
+
+    public long[] getBucketCounts() {
+        long[] counts = new long[_buckets.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = _buckets.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * @return upper bound of the bucket holding the given percentile (0-100) of the waits,
+     *         the maximum wait if it falls in the overflow bucket
+     */
+    public long getPercentileMillis(double percentile) {
+        long[] counts = getBucketCounts();
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long)Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return BUCKET_BOUNDS[i];
+            }
+        }
+        return _maxWait.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < _buckets.length(); i++) {
+            _buckets.set(i, 0);
+        }
+        _count.set(0);
+        _timeouts.set(0);
+        _totalWait.set(0);
+        _maxWait.set(0);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("count=").append(getCount()).append(", timeouts=").append(getTimeouts());
+        sb.append(", avg=").append(String.format("%.1f", getAverageWaitMillis())).append("ms");
+        sb.append(", p50=").append(getPercentileMillis(50)).append("ms");
+        sb.append(", p99=").append(getPercentileMillis(99)).append("ms");
+        sb.append(", max=").append(getMaxWaitMillis()).append("ms, buckets={");
+        long[] counts = getBucketCounts();
+        for (int i = 0; i < counts.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(i < BUCKET_BOUNDS.length ? "<=" + BUCKET_BOUNDS[i] : ">" + BUCKET_BOUNDS[BUCKET_BOUNDS.length - 1]).append(":").append(counts[i]);
+        }
+        return sb.append("}").toString();
+    }
+}
@@ -25,6 +25,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Savepoint;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -96,6 +97,7 @@ public class TransactionLegacy implements Closeable {
     private long _id;
 
     private final LinkedList<Pair<String, Long>> _lockTimes = new LinkedList<Pair<String, Long>>();
+    private final List<Runnable> _completionTasks = new ArrayList<Runnable>();
 
     private String _name;
     private Connection _conn;
@@ -207,6 +209,33 @@ public class TransactionLegacy implements Closeable {
         return _txn;
     }
 
+    /**
+     * Runs the task once the database transaction in progress has been committed or rolled back,
+     * or right away if there is none.
+     */
+    public void runOnCompletion(final Runnable task) {
+        if (!_txn) {
+            task.run();
+            return;
+        }
+        _completionTasks.add(task);
+    }
+
+    protected void runCompletionTasks() {
+        if (_completionTasks.isEmpty()) {
+            return;
+        }
+        final List<Runnable> tasks = new ArrayList<Runnable>(_completionTasks);
+        _completionTasks.clear();
+        for (final Runnable task : tasks) {
+            try {
+                task.run();
+            } catch (final RuntimeException e) {
+                s_logger.warn("Unable to run task on completion of the transaction", e);
+            }
+        }
+    }
+
     public static Connection getStandaloneConnectionWithException() throws SQLException {
         Connection conn = s_ds.getConnection();
         if (s_connLogger.isTraceEnabled()) {
@@ -639,6 +668,7 @@ public class TransactionLegacy implements Closeable {
             rollbackTransaction();
         }
         _txn = false;
+        runCompletionTasks();
         _name = null;
 
         closeConnection();
@@ -737,6 +767,8 @@ public class TransactionLegacy implements Closeable {
         } catch (final SQLException e) {
             rollbackTransaction();
             throw new CloudRuntimeException("Unable to commit or close the connection. ", e);
+        } finally {
+            runCompletionTasks();
         }
     }
 
@@ -853,6 +885,8 @@ public class TransactionLegacy implements Closeable {
             closeConnection();
         } catch (final SQLException e) {
             s_logger.warn("Unable to rollback", e);
+        } finally {
+            runCompletionTasks();
         }
     }
 
@@ -868,6 +902,7 @@ public class TransactionLegacy implements Closeable {
         if (!hasTxnInStack()) {
             _txn = false;
             closeConnection();
+            runCompletionTasks();
         }
     }
 
@@ -919,6 +954,7 @@ public class TransactionLegacy implements Closeable {
         if (!hasTxnInStack()) {
             _txn = false;
             closeConnection();
+            runCompletionTasks();
         }
     }
 
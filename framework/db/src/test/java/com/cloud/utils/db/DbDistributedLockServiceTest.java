@@ -0,0 +1,117 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+public class DbDistributedLockServiceTest {
+
+    /**
+     * Keeps the op_lease table in memory, a lease can be granted until it is
+     * released.
+     */
+    private static class TestLockService extends DbDistributedLockService {
+        final Map<String, Long> held = new ConcurrentHashMap<String, Long>();
+        final AtomicLong tokens = new AtomicLong();
+        final AtomicInteger failures = new AtomicInteger();
+
+        TestLockService() {
+            super(1L, 10, 100, null);
+        }
+
+        @Override
+        protected Map<String, Long> acquireInDb(List<String> keys, long leaseMillis) {
+            if (failures.getAndDecrement() > 0) {
+                throw new CloudRuntimeException("Database is down");
+            }
+            Map<String, Long> granted = new HashMap<String, Long>();
+            for (String key : keys) {
+                long token = tokens.incrementAndGet();
+                if (held.putIfAbsent(key, token) == null) {
+                    granted.put(key, token);
+                }
+            }
+            return granted;
+        }
+
+        @Override
+        protected void releaseInDb(LockLease lease) {
+            held.remove(lease.getKey(), lease.getToken());
+        }
+
+        @Override
+        public void cleanupForServer(long msId) {
+            // called by the constructor, nothing is held yet
+        }
+    }
+
+    @Test
+    public void testAcquireAndRelease() {
+        final TestLockService service = new TestLockService();
+        final LockLease lease = service.acquire("vm_instance", "1", 60000, 1000);
+        Assert.assertNotNull(lease);
+        Assert.assertEquals(1, service.getHeldLeaseCount());
+        Assert.assertNull(service.acquire("vm_instance", "1", 60000, 50));
+
+        service.release(lease);
+        Assert.assertEquals(0, service.getHeldLeaseCount());
+        Assert.assertNotNull(service.acquire("vm_instance", "1", 60000, 1000));
+    }
+
+    @Test
+    public void testKeysOfNameAndIdAreSeparated() {
+        final TestLockService service = new TestLockService();
+
+        Assert.assertNotNull(service.acquire("vm1", "23", 60000, 1000));
+        Assert.assertNotNull(service.acquire("vm12", "3", 60000, 1000));
+    }
+
+    @Test
+    public void testAcquirerSurvivesPendingKeyWithoutWaiters() throws InterruptedException {
+        final TestLockService service = new TestLockService();
+        // the local lease expires right away, but the database keeps it held
+        final LockLease lease = service.acquire("vm_instance", "1", 1, 1000);
+        Assert.assertNotNull(lease);
+
+        // the waiter queues the key and times out, the key stays pending without waiters
+        Assert.assertNull(service.acquire("vm_instance", "1", 60000, 50));
+        Assert.assertEquals(0, service.getWaitingCount());
+        // let the acquirer run a few rounds over it
+        Thread.sleep(100);
+
+        service.release(lease);
+        Assert.assertNotNull(service.acquire("vm_instance", "1", 60000, 1000));
+        Assert.assertNotNull(service.acquire("vm_instance", "2", 60000, 1000));
+    }
+
+    @Test
+    public void testAcquirerSurvivesDatabaseFailure() {
+        final TestLockService service = new TestLockService();
+        service.failures.set(2);
+        Assert.assertNotNull(service.acquire("vm_instance", "1", 60000, 1000));
+    }
+}
@@ -51,6 +51,14 @@ public class DbTestVO {
         return fieldLong;
     }
 
+    public void setFieldInt(int fieldInt) {
+        this.fieldInt = fieldInt;
+    }
+
+    public void setFieldString(String fieldString) {
+        this.fieldString = fieldString;
+    }
+
     public DbTestVO() {
     }
 }
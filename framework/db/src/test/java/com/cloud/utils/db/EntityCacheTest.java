@@ -0,0 +1,126 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EntityCacheTest {
+
+    @After
+    public void tearDown() {
+        EntityCacheManager.setInvalidationListener(null);
+    }
+
+    @Test
+    public void testGetAndPut() {
+        final EntityCache cache = new EntityCache("testGetAndPut", Long.class, 10, -1);
+        Assert.assertNull(cache.get(1L));
+        cache.put(1L, "one");
+        Assert.assertEquals("one", cache.get(1L));
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(0.5, cache.getHitRatio(), 0.0001);
+    }
+
+    @Test
+    public void testSizeIsBounded() {
+        final EntityCache cache = new EntityCache("testSizeIsBounded", Long.class, 100, -1);
+        for (long i = 0; i < 1000; i++) {
+            cache.put(i, i);
+        }
+        Assert.assertTrue(cache.getSize() <= 100);
+        Assert.assertEquals(1000 - cache.getSize(), cache.getEvictionCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        final EntityCache cache = new EntityCache("testLeastRecentlyUsedIsEvicted", Long.class, 2, -1);
+        cache.put(1L, "one");
+        cache.put(2L, "two");
+        cache.get(1L);
+        cache.put(3L, "three");
+        Assert.assertEquals("one", cache.get(1L));
+        Assert.assertNull(cache.get(2L));
+        Assert.assertEquals("three", cache.get(3L));
+    }
+
+    @Test
+    public void testExpiredEntityIsNotReturned() throws InterruptedException {
+        final EntityCache cache = new EntityCache("testExpiredEntityIsNotReturned", Long.class, 10, 1);
+        cache.put(1L, "one");
+        Assert.assertEquals("one", cache.get(1L));
+        Thread.sleep(1100);
+        Assert.assertNull(cache.get(1L));
+        Assert.assertEquals(1, cache.getExpirationCount());
+    }
+
+    @Test
+    public void testRemoveNotifiesListener() {
+        final List<String> changed = new ArrayList<String>();
+        EntityCacheManager.setInvalidationListener(new EntityCacheManager.InvalidationListener() {
+            @Override
+            public void entityChanged(final String cacheName, final Object id) {
+                changed.add(cacheName + ":" + id);
+            }
+        });
+        final EntityCache cache = new EntityCache("testRemoveNotifiesListener", Long.class, 10, -1);
+        cache.put(1L, "one");
+        cache.remove(1L);
+        cache.evict(2L);
+        Assert.assertNull(cache.get(1L));
+        Assert.assertEquals(Arrays.asList("testRemoveNotifiesListener:1"), changed);
+    }
+
+    @Test
+    public void testEvictRemoteInvalidation() {
+        final EntityCache cache = new EntityCache("testEvictRemoteInvalidation", Long.class, 10, -1);
+        EntityCacheManager.register(cache);
+        cache.put(1L, "one");
+        cache.put(2L, "two");
+        EntityCacheManager.evict("testEvictRemoteInvalidation", Arrays.asList("1"));
+        Assert.assertNull(cache.get(1L));
+        Assert.assertEquals("two", cache.get(2L));
+        Assert.assertEquals(1, cache.getInvalidationCount());
+    }
+
+    @Test
+    public void testRemoveAllNotifiesListenerAndClearsPeers() {
+        final List<String> changed = new ArrayList<String>();
+        EntityCacheManager.setInvalidationListener(new EntityCacheManager.InvalidationListener() {
+            @Override
+            public void entityChanged(final String cacheName, final Object id) {
+                changed.add(cacheName + ":" + id);
+            }
+        });
+        final EntityCache cache = new EntityCache("testRemoveAllNotifiesListenerAndClearsPeers", Long.class, 10, -1);
+        EntityCacheManager.register(cache);
+        cache.put(1L, "one");
+        cache.removeAll();
+        Assert.assertEquals(0, cache.getSize());
+        Assert.assertEquals(Arrays.asList("testRemoveAllNotifiesListenerAndClearsPeers:" + EntityCache.ALL_ENTITIES), changed);
+
+        cache.put(2L, "two");
+        EntityCacheManager.evict("testRemoveAllNotifiesListenerAndClearsPeers", Arrays.asList(EntityCache.ALL_ENTITIES));
+        Assert.assertNull(cache.get(2L));
+    }
+}
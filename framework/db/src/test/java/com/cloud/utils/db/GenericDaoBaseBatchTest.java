@@ -0,0 +1,157 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigInteger;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.PrimaryKeyJoinColumn;
+import javax.persistence.Table;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(TransactionLegacy.class)
+@PowerMockIgnore("javax.management.*")
+public class GenericDaoBaseBatchTest {
+
+    @Entity
+    @Table(name = "test_derived")
+    @PrimaryKeyJoinColumn(name = "id")
+    public static class DerivedTestVO extends DbTestVO {
+        @Column(name = "fld_derived")
+        String fieldDerived;
+
+        public DerivedTestVO() {
+        }
+    }
+
+    public static class DerivedTestDao extends GenericDaoBase<DerivedTestVO, Long> {
+        public DerivedTestDao() {
+        }
+    }
+
+    @Mock
+    private TransactionLegacy txn;
+    @Mock
+    private PreparedStatement mainPstmt;
+    @Mock
+    private PreparedStatement derivedPstmt;
+    @Mock
+    private PreparedStatement updatePstmt;
+    @Mock
+    private ResultSet generatedKeys;
+
+    @Before
+    public void setUp() throws Exception {
+        PowerMockito.mockStatic(TransactionLegacy.class);
+        when(TransactionLegacy.currentTxn()).thenReturn(txn);
+    }
+
+    @Test
+    public void persistBatchTestAssignsGeneratedIdsToAllTables() throws Exception {
+        final DerivedTestDao dao = spy(new DerivedTestDao());
+        final DerivedTestVO first = new DerivedTestVO();
+        final DerivedTestVO second = new DerivedTestVO();
+        when(txn.prepareAutoCloseStatement(startsWith("INSERT INTO test ("), eq(Statement.RETURN_GENERATED_KEYS))).thenReturn(mainPstmt);
+        when(txn.prepareAutoCloseStatement(startsWith("INSERT INTO test_derived ("), eq(Statement.RETURN_GENERATED_KEYS))).thenReturn(derivedPstmt);
+        when(mainPstmt.getGeneratedKeys()).thenReturn(generatedKeys);
+        when(generatedKeys.next()).thenReturn(true, true, false);
+        when(generatedKeys.getObject(1)).thenReturn(BigInteger.valueOf(7), BigInteger.valueOf(8));
+        doReturn(Arrays.asList(second, first)).when(dao).searchIncludingRemoved(any(SearchCriteria.class), any(), any(), anyBoolean());
+
+        final List<DerivedTestVO> persisted = dao.persistBatch(Arrays.asList(first, second));
+
+        Assert.assertEquals(7, first.id);
+        Assert.assertEquals(8, second.id);
+        Assert.assertEquals(Arrays.asList(first, second), persisted);
+        verify(mainPstmt, times(2)).addBatch();
+        verify(mainPstmt).executeBatch();
+        // the rows of the derived table are inserted with the generated ids
+        verify(derivedPstmt).setObject(anyInt(), eq(7L));
+        verify(derivedPstmt).setObject(anyInt(), eq(8L));
+        verify(derivedPstmt, times(2)).addBatch();
+        verify(derivedPstmt).executeBatch();
+    }
+
+    @Test
+    public void persistBatchTestPersistsEachEntityWhenOnlySomeHaveIds() throws Exception {
+        final DerivedTestDao dao = spy(new DerivedTestDao());
+        final DerivedTestVO withId = new DerivedTestVO();
+        withId.id = 5;
+        final DerivedTestVO withoutId = new DerivedTestVO();
+        doReturn(withId).when(dao).persist(withId);
+        doReturn(withoutId).when(dao).persist(withoutId);
+
+        Assert.assertEquals(Arrays.asList(withId, withoutId), dao.persistBatch(Arrays.asList(withId, withoutId)));
+
+        verify(dao).persist(withId);
+        verify(dao).persist(withoutId);
+        verify(txn, never()).prepareAutoCloseStatement(anyString(), anyInt());
+    }
+
+    @Test
+    public void updateBatchTestGroupsUpdatesOfTheSameColumns() throws Exception {
+        final DbTestDao dao = new DbTestDao();
+        final DbTestVO first = dao.createForUpdate(1L);
+        first.setFieldInt(1);
+        final DbTestVO second = dao.createForUpdate(2L);
+        second.setFieldInt(2);
+        final DbTestVO third = dao.createForUpdate(3L);
+        third.setFieldString("test");
+        final DbTestVO unchanged = dao.createForUpdate(4L);
+        when(txn.prepareAutoCloseStatement(anyString())).thenReturn(updatePstmt);
+        when(updatePstmt.executeBatch()).thenReturn(new int[] {1, 1}, new int[] {Statement.SUCCESS_NO_INFO});
+
+        Assert.assertEquals(3, dao.updateBatch(Arrays.asList(first, second, third, unchanged)));
+
+        final ArgumentCaptor<String> sqls = ArgumentCaptor.forClass(String.class);
+        verify(txn, times(2)).prepareAutoCloseStatement(sqls.capture());
+        Assert.assertTrue(sqls.getAllValues().get(0).contains("fld_int"));
+        Assert.assertTrue(sqls.getAllValues().get(1).contains("fld_string"));
+        verify(updatePstmt, times(3)).addBatch();
+        verify(updatePstmt, times(2)).executeBatch();
+    }
+}
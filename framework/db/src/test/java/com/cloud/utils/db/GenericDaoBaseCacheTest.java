@@ -0,0 +1,96 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.when;
+
+import java.sql.PreparedStatement;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(TransactionLegacy.class)
+@PowerMockIgnore("javax.management.*")
+public class GenericDaoBaseCacheTest {
+
+    @Mock
+    private TransactionLegacy txn;
+    @Mock
+    private PreparedStatement pstmt;
+
+    private DbTestDao dao;
+
+    @Before
+    public void setUp() throws Exception {
+        PowerMockito.mockStatic(TransactionLegacy.class);
+        when(TransactionLegacy.currentTxn()).thenReturn(txn);
+        when(txn.prepareAutoCloseStatement(anyString())).thenReturn(pstmt);
+        when(pstmt.executeUpdate()).thenReturn(1);
+
+        dao = new DbTestDao();
+        final Map<String, Object> params = new HashMap<String, Object>();
+        params.put("cache.size", "10");
+        dao.configure("GenericDaoBaseCacheTest", params);
+        dao._cache.put(1L, new DbTestVO());
+        dao._cache.put(2L, new DbTestVO());
+    }
+
+    @After
+    public void tearDown() {
+        EntityCacheManager.setInvalidationListener(null);
+    }
+
+    private UpdateBuilder createUpdateBuilder(final DbTestVO entity) {
+        final UpdateBuilder ub = new UpdateBuilder(dao);
+        ub.set(entity, "fieldInt", 5);
+        return ub;
+    }
+
+    @Test
+    public void updateByIdKeepsUnrelatedCachedEntities() {
+        final DbTestVO entity = new DbTestVO();
+
+        Assert.assertEquals(1, dao.update(1L, createUpdateBuilder(entity), entity));
+
+        Assert.assertNull(dao._cache.get(1L));
+        Assert.assertNotNull(dao._cache.get(2L));
+    }
+
+    @Test
+    public void updateBySearchCriteriaInvalidatesAllCachedEntities() {
+        final DbTestVO entity = new DbTestVO();
+        final SearchCriteria<DbTestVO> sc = dao.createSearchCriteria();
+        sc.addAnd("fieldString", SearchCriteria.Op.EQ, "test");
+
+        Assert.assertEquals(1, dao.update(createUpdateBuilder(entity), sc, null));
+
+        Assert.assertNull(dao._cache.get(1L));
+        Assert.assertNull(dao._cache.get(2L));
+    }
+}
@@ -16,8 +16,10 @@
 // under the License.
 package com.cloud.utils.db;
 
+import java.math.BigInteger;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -29,6 +31,8 @@ import org.mockito.junit.MockitoJUnitRunner;
 
 import javax.persistence.EntityExistsException;
 
+import com.cloud.utils.Pair;
+
 @RunWith(MockitoJUnitRunner.class)
 public class GenericDaoBaseTest {
     @Mock
@@ -182,4 +186,45 @@ public class GenericDaoBaseTest {
         GenericDaoBase.handleEntityExistsException(mockedSQLException);
     }
 
+    @Test
+    public void setGeneratedIdTestNewEntity() throws SQLException, IllegalAccessException {
+        Mockito.when(resultSet.next()).thenReturn(true);
+        Mockito.when(resultSet.getObject(1)).thenReturn(BigInteger.valueOf(42));
+        DbTestVO entity = new DbTestVO();
+
+        Assert.assertEquals(Long.valueOf(42), new DbTestDao().setGeneratedId(entity, resultSet));
+        Assert.assertEquals(42, entity.id);
+    }
+
+    @Test
+    public void setGeneratedIdTestEntityWithId() throws SQLException, IllegalAccessException {
+        DbTestVO entity = new DbTestVO();
+        entity.id = 7;
+
+        Assert.assertEquals(Long.valueOf(7), new DbTestDao().setGeneratedId(entity, resultSet));
+        Assert.assertEquals(7, entity.id);
+        Mockito.verify(resultSet, Mockito.never()).next();
+    }
+
+    @Test
+    public void addSeekTest() {
+        Filter filter = new Filter(DbTestVO.class, "fieldLong", false, 0L, 10L);
+        filter.addOrderBy(DbTestVO.class, "id", false);
+        filter.setSeek(false, new String[] {"fieldLong", "id"}, new Object[] {5L, 7L});
+        StringBuilder sql = new StringBuilder("SELECT test.id FROM test");
+
+        List<Pair<Attribute, Object>> values = new DbTestDao().addSeek(sql, filter);
+
+        Assert.assertTrue(sql.toString().endsWith(" WHERE (test.fld_long, test.id) < (?, ?)"));
+        Assert.assertEquals(2, values.size());
+        Assert.assertEquals(7L, values.get(1).second());
+    }
+
+    @Test
+    public void addSeekTestWithoutSeek() {
+        StringBuilder sql = new StringBuilder("SELECT test.id FROM test");
+
+        Assert.assertNull(new DbTestDao().addSeek(sql, new Filter(DbTestVO.class, "id", true, 0L, 10L)));
+        Assert.assertEquals("SELECT test.id FROM test", sql.toString());
+    }
 }
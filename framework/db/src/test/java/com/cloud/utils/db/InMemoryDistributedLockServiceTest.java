@@ -0,0 +1,110 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InMemoryDistributedLockServiceTest {
+
+    @Test
+    public void testAcquireAndRelease() {
+        final InMemoryDistributedLockService service = new InMemoryDistributedLockService(1L);
+        final LockLease lease = service.acquire("vm_instance", "1", 60000, 1000);
+        Assert.assertNotNull(lease);
+        Assert.assertEquals("vm_instance:1", lease.getKey());
+        Assert.assertEquals(1, service.getHeldLeaseCount());
+
+        service.release(lease);
+        Assert.assertEquals(0, service.getHeldLeaseCount());
+
+        final LockLease next = service.acquire("vm_instance", "1", 60000, 1000);
+        Assert.assertNotNull(next);
+        Assert.assertTrue(next.getToken() > lease.getToken());
+    }
+
+    @Test
+    public void testAcquireTimesOutWhileHeld() {
+        final InMemoryDistributedLockService service = new InMemoryDistributedLockService(1L);
+        Assert.assertNotNull(service.acquire("vm_instance", "1", 60000, 1000));
+        Assert.assertNull(service.acquire("vm_instance", "1", 60000, 50));
+        Assert.assertNotNull(service.acquire("vm_instance", "2", 60000, 50));
+
+        final LockWaitHistogram histogram = service.getWaitTimeHistograms().get("vm_instance");
+        Assert.assertEquals(3, histogram.getCount());
+        Assert.assertEquals(1, histogram.getTimeouts());
+        Assert.assertTrue(histogram.getMaxWaitMillis() >= 50);
+    }
+
+    @Test
+    public void testExpiredLeaseIsTakenOver() {
+        final InMemoryDistributedLockService service = new InMemoryDistributedLockService(1L);
+        final LockLease lease = service.acquire("vm_instance", "1", 50, 1000);
+        final LockLease next = service.acquire("vm_instance", "1", 60000, 1000);
+        Assert.assertNotNull(next);
+        Assert.assertTrue(next.getToken() > lease.getToken());
+        Assert.assertFalse(service.renew(lease, 60000));
+
+        // releasing the lost lease must not release the new holder
+        service.release(lease);
+        Assert.assertNull(service.acquire("vm_instance", "1", 60000, 10));
+    }
+
+    @Test
+    public void testMutualExclusion() throws Exception {
+        final InMemoryDistributedLockService service = new InMemoryDistributedLockService(1L);
+        final AtomicInteger holders = new AtomicInteger();
+        final AtomicInteger violations = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final Future<?>[] futures = new Future<?>[8];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = executor.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < 100; j++) {
+                        LockLease lease = service.acquire("vm_instance", "1", 60000, 10000);
+                        Assert.assertNotNull(lease);
+                        if (holders.incrementAndGet() != 1) {
+                            violations.incrementAndGet();
+                        }
+                        holders.decrementAndGet();
+                        service.release(lease);
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(0, violations.get());
+        Assert.assertEquals(0, service.getHeldLeaseCount());
+        Assert.assertEquals(0, service.getWaitingCount());
+        Assert.assertEquals(800, service.getWaitTimeHistograms().get("vm_instance").getCount());
+    }
+}
@@ -0,0 +1,64 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LockWaitHistogramTest {
+
+    @Test
+    public void testRecord() {
+        final LockWaitHistogram histogram = new LockWaitHistogram();
+        histogram.record(0, true);
+        histogram.record(3, true);
+        histogram.record(700, true);
+        histogram.record(400000, false);
+
+        final long[] buckets = histogram.getBucketCounts();
+        Assert.assertEquals(1, buckets[0]);
+        Assert.assertEquals(1, buckets[1]);
+        Assert.assertEquals(1, buckets[LockWaitHistogram.bucketOf(1000)]);
+        Assert.assertEquals(1, buckets[buckets.length - 1]);
+        Assert.assertEquals(4, histogram.getCount());
+        Assert.assertEquals(1, histogram.getTimeouts());
+        Assert.assertEquals(400000, histogram.getMaxWaitMillis());
+    }
+
+    @Test
+    public void testPercentile() {
+        final LockWaitHistogram histogram = new LockWaitHistogram();
+        Assert.assertEquals(0, histogram.getPercentileMillis(50));
+        for (int i = 0; i < 99; i++) {
+            histogram.record(2, true);
+        }
+        histogram.record(8000, true);
+        Assert.assertEquals(5, histogram.getPercentileMillis(50));
+        Assert.assertEquals(5, histogram.getPercentileMillis(99));
+        Assert.assertEquals(10000, histogram.getPercentileMillis(100));
+    }
+
+    @Test
+    public void testReset() {
+        final LockWaitHistogram histogram = new LockWaitHistogram();
+        histogram.record(10, true);
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMaxWaitMillis());
+        Assert.assertEquals(0, histogram.getBucketCounts()[2]);
+    }
+}
@@ -31,6 +31,7 @@ public interface AsyncJob extends JobInfo {
         public static final String JOB_HEARTBEAT = "job.heartbeat";
         public static final String JOB_STATE = "job.state";
         public static final String JOB_EVENT_PUBLISH = "job.eventpublish";
+        public static final String JOB_QUEUE_WAKEUP = "job.queue.wakeup";
     }
 
     public static interface Constants {
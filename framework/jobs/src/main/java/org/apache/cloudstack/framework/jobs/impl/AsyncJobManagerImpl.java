@@ -18,12 +18,15 @@
 package org.apache.cloudstack.framework.jobs.impl;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
@@ -55,6 +58,7 @@ import org.apache.cloudstack.framework.jobs.dao.AsyncJobJournalDao;
 import org.apache.cloudstack.framework.jobs.dao.SyncQueueItemDao;
 import org.apache.cloudstack.framework.messagebus.MessageBus;
 import org.apache.cloudstack.framework.messagebus.MessageDetector;
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
 import org.apache.cloudstack.framework.messagebus.PublishScope;
 import org.apache.cloudstack.jobs.JobInfo;
 import org.apache.cloudstack.jobs.JobInfo.Status;
@@ -78,10 +82,13 @@ import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.DB;
 import com.cloud.utils.db.DbProperties;
+import com.cloud.utils.db.DistributedLockService;
+import com.cloud.utils.db.DistributedLockServiceFactory;
 import com.cloud.utils.db.GenericDao;
 import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.GenericSearchBuilder;
 import com.cloud.utils.db.GlobalLock;
+import com.cloud.utils.db.LockLease;
 import com.cloud.utils.db.SearchBuilder;
 import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.SearchCriteria.Op;
@@ -106,6 +113,16 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     private static final ConfigKey<Integer> VmJobLockTimeout = new ConfigKey<Integer>("Advanced",
             Integer.class, "vm.job.lock.timeout", "1800",
             "Time in seconds to wait in acquiring lock to submit a vm worker job", false);
+    private static final ConfigKey<Integer> VmJobLockLease = new ConfigKey<Integer>("Advanced",
+            Integer.class, "vm.job.lock.lease", "300",
+            "Time in seconds after which the lock taken to submit a vm worker job is considered lost if it has not been released", false);
+    private static final ConfigKey<Boolean> VmJobLockServiceEnabled = new ConfigKey<Boolean>("Advanced",
+            Boolean.class, "vm.job.lock.service.enabled", "false",
+            "If true, the lock taken to submit a vm worker job is a lease of the lock service instead of a row lock of the lock table."
+            + " Enable only once all management servers support it, as servers using different locks do not exclude each other", false);
+    private static final ConfigKey<Integer> JobQueuePollInterval = new ConfigKey<Integer>("Advanced",
+            Integer.class, "job.queue.poll.interval", "10000",
+            "Interval in milliseconds of the scan for runnable sync queue items which were not picked up when they were queued or their queue was released", false);
     private static final ConfigKey<Boolean> HidePassword = new ConfigKey<Boolean>("Advanced", Boolean.class, "log.hide.password", "true", "If set to true, the password is hidden", true, ConfigKey.Scope.Global);
 
     private static final Logger s_logger = Logger.getLogger(AsyncJobManagerImpl.class);
@@ -113,8 +130,9 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     private static final int ACQUIRE_GLOBAL_LOCK_TIMEOUT_FOR_COOPERATION = 3;     // 3 seconds
 
     private static final int MAX_ONETIME_SCHEDULE_SIZE = 50;
-    private static final int HEARTBEAT_INTERVAL = 2000;
+    private static final String VM_JOB_LOCK_NAME = "vm_instance";
     private static final int GC_INTERVAL = 10000;                // 10 seconds
+    private static final int WAKEUP_SCAN_INTERVAL = 2000;        // 2 seconds
 
     @Inject
     private SyncQueueItemDao _queueItemDao;
@@ -152,6 +170,8 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     private volatile long _executionRunNumber = 1;
 
     private final ScheduledExecutorService _heartbeatScheduler = Executors.newScheduledThreadPool(1, new NamedThreadFactory("AsyncJobMgr-Heartbeat"));
+    private final ExecutorService _queueWakeupExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("AsyncJobMgr-QueueWakeup"));
+    private final Set<Long> _queuesToWakeup = ConcurrentHashMap.newKeySet();
     private ExecutorService _apiJobExecutor;
     private ExecutorService _workerJobExecutor;
 
@@ -162,7 +182,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {JobExpireMinutes, JobCancelThresholdMinutes, VmJobLockTimeout, HidePassword};
+        return new ConfigKey<?>[] {JobExpireMinutes, JobCancelThresholdMinutes, VmJobLockTimeout, VmJobLockLease, VmJobLockServiceEnabled, JobQueuePollInterval, HidePassword};
     }
 
     @Override
@@ -228,24 +248,37 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
             publishOnEventBus(job, "submit");
 
-            if (!_vmInstanceDao.lockInLockTable(String.valueOf(syncObjId), VmJobLockTimeout.value())){
+            final String lockId = String.valueOf(syncObjId);
+            final DistributedLockService lockService = VmJobLockServiceEnabled.value() ? DistributedLockServiceFactory.getLockService() : null;
+            LockLease lease = null;
+            if (lockService != null) {
+                lease = lockService.acquire(VM_JOB_LOCK_NAME, lockId, VmJobLockLease.value() * 1000L, VmJobLockTimeout.value() * 1000L);
+                if (lease == null) {
+                    throw new CloudRuntimeException("Failed to acquire lock in submitting async job: " + job.getCmd() + " with timeout value = " + VmJobLockTimeout.value());
+                }
+            } else if (!_vmInstanceDao.lockInLockTable(lockId, VmJobLockTimeout.value())){
                 throw new CloudRuntimeException("Failed to acquire lock in submitting async job: " + job.getCmd() + " with timeout value = " + VmJobLockTimeout.value());
             }
 
             try {
                 // lock is acquired
-                return Transaction.execute(new TransactionCallback<Long>() {
+                final SyncQueueVO queue = Transaction.execute(new TransactionCallback<SyncQueueVO>() {
                     @Override
-                    public Long doInTransaction(TransactionStatus status) {
+                    public SyncQueueVO doInTransaction(TransactionStatus status) {
                         job.setInitMsid(getMsid());
                         dao.persist(job);
 
-                        syncAsyncJobExecution(job, syncObjType, syncObjId, 1);
-                        return job.getId();
+                        return queueAsyncJob(job, syncObjType, syncObjId, 1);
                     }
                 });
+                wakeupQueue(queue.getId());
+                return job.getId();
             } finally {
-                _vmInstanceDao.unlockFromLockTable(String.valueOf(syncObjId));
+                if (lease != null) {
+                    lockService.release(lease);
+                } else {
+                    _vmInstanceDao.unlockFromLockTable(lockId);
+                }
             }
         } catch (Exception e) {
             String errMsg = "Unable to schedule async job for command " + job.getCmd() + ", unexpected exception.";
@@ -271,7 +304,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                     resultObj);
             }
             // still purge item from queue to avoid any blocking
-            _queueMgr.purgeAsyncJobQueueItemId(jobId);
+            wakeupQueue(_queueMgr.purgeAsyncJobQueueItemId(jobId));
             return;
         }
 
@@ -280,7 +313,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                 s_logger.debug("job-" + jobId + " is already completed.");
             }
             // still purge item from queue to avoid any blocking
-            _queueMgr.purgeAsyncJobQueueItemId(jobId);
+            wakeupQueue(_queueMgr.purgeAsyncJobQueueItemId(jobId));
             return;
         }
 
@@ -295,9 +328,9 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Wake up jobs related to job-" + jobId);
         }
-        final List<Long> wakeupList = Transaction.execute(new TransactionCallback<List<Long>>() {
+        final Pair<List<Long>, Long> wakeups = Transaction.execute(new TransactionCallback<Pair<List<Long>, Long>>() {
             @Override
-            public List<Long> doInTransaction(final TransactionStatus status) {
+            public Pair<List<Long>, Long> doInTransaction(final TransactionStatus status) {
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug("Update db status for job-" + jobId);
                 }
@@ -324,19 +357,22 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                 _joinMapDao.disjoinAllJobs(jobId);
 
                 // purge the job sync item from queue
-                _queueMgr.purgeAsyncJobQueueItemId(jobId);
+                final Long queueId = _queueMgr.purgeAsyncJobQueueItemId(jobId);
 
-                return wakeupList;
+                return new Pair<List<Long>, Long>(wakeupList, queueId);
             }
         });
 
+        // let the next item of the queue run right away instead of waiting for the queue scan
+        wakeupQueue(wakeups.second());
+
         publishOnEventBus(job, "complete"); // publish before the instance type and ID are wiped out
 
         //
         // disable wakeup scheduling now, since all API jobs are currently using block-waiting for sub-jobs
         //
         /*
-                for (Long id : wakeupList) {
+                for (Long id : wakeups.first()) {
                     // TODO, we assume that all jobs in this category is API job only
                     AsyncJobVO jobToWakeup = _jobDao.findById(id);
                     if (jobToWakeup != null && (jobToWakeup.getPendingSignals() & AsyncJob.Constants.SIGNAL_MASK_WAKEUP) != 0)
@@ -454,6 +490,11 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
     @Override
     public void syncAsyncJobExecution(AsyncJob job, String syncObjType, long syncObjId, long queueSizeLimit) {
+        SyncQueueVO queue = queueAsyncJob(job, syncObjType, syncObjId, queueSizeLimit);
+        wakeupQueue(queue.getId());
+    }
+
+    private SyncQueueVO queueAsyncJob(AsyncJob job, String syncObjType, long syncObjId, long queueSizeLimit) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Sync job-" + job.getId() + " execution on object " + syncObjType + "." + syncObjId);
         }
@@ -462,6 +503,36 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         queue = _queueMgr.queue(syncObjType, syncObjId, SyncQueueItem.AsyncJobContentType, job.getId(), queueSizeLimit);
         if (queue == null)
             throw new CloudRuntimeException("Unable to insert queue item into database, DB is full?");
+        return queue;
+    }
+
+    /**
+     * Asks for the queue to be checked for a runnable item once the caller's changes are visible.
+     * Any management server may run the next item, so the one which filled or freed the queue does it.
+     */
+    private void wakeupQueue(Long queueId) {
+        if (queueId != null) {
+            _messageBus.publish(null, AsyncJob.Topics.JOB_QUEUE_WAKEUP, PublishScope.LOCAL, queueId);
+        }
+    }
+
+    private void onQueueWakeup(final long queueId) {
+        if (!_queuesToWakeup.add(queueId)) {
+            // a check of the queue is already pending
+            return;
+        }
+        try {
+            _queueWakeupExecutor.submit(new ManagedContextRunnable() {
+                @Override
+                protected void runInContext() {
+                    _queuesToWakeup.remove(queueId);
+                    checkQueue(queueId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            _queuesToWakeup.remove(queueId);
+            s_logger.debug("Wakeup of sync queue-" + queueId + " is rejected, leave it to the queue scan");
+        }
     }
 
     @Override
@@ -836,7 +907,38 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                             executeQueueItem(item, false);
                         }
                     }
+                } catch (Throwable e) {
+                    s_logger.error("Unexpected exception when trying to execute queue item, ", e);
+                }
+            }
+        };
+    }
 
+    /**
+     * Resumes the jobs woken up by a signal.  Unlike queue items these are not handed over
+     * when they become runnable, so the scan keeps its own short interval.
+     */
+    private Runnable getWakeupScanTask() {
+        return new ManagedContextRunnable() {
+
+            @Override
+            protected void runInContext() {
+                GlobalLock scanLock = GlobalLock.getInternLock("AsyncJobManagerWakeupScan");
+                try {
+                    if (scanLock.lock(ACQUIRE_GLOBAL_LOCK_TIMEOUT_FOR_COOPERATION)) {
+                        try {
+                            reallyRun();
+                        } finally {
+                            scanLock.unlock();
+                        }
+                    }
+                } finally {
+                    scanLock.releaseRef();
+                }
+            }
+
+            protected void reallyRun() {
+                try {
                     List<Long> standaloneWakeupJobs = wakeupScan();
                     for (Long jobId : standaloneWakeupJobs) {
                         // TODO, we assume that all jobs in this category is API job only
@@ -845,7 +947,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                             scheduleExecution(job, false);
                     }
                 } catch (Throwable e) {
-                    s_logger.error("Unexpected exception when trying to execute queue item, ", e);
+                    s_logger.error("Unexpected exception when trying to resume woken up jobs, ", e);
                 }
             }
         };
@@ -1056,10 +1158,18 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         AsyncJobExecutionContext.init(this, _joinMapDao);
         OutcomeImpl.init(this);
 
+        _messageBus.subscribe(AsyncJob.Topics.JOB_QUEUE_WAKEUP, new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(String senderAddress, String subject, Object args) {
+                onQueueWakeup((Long)args);
+            }
+        });
+
         return true;
     }
 
     private void cleanupLeftOverJobs(final long msid) {
+        final List<Long> queueIds = new ArrayList<Long>();
         try {
             Transaction.execute(new TransactionCallbackNoReturn() {
                 @Override
@@ -1083,7 +1193,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                         if (s_logger.isDebugEnabled()) {
                             s_logger.debug("Purge queue item for cancelled job-" + job.getId());
                         }
-                        _queueMgr.purgeAsyncJobQueueItemId(job.getId());
+                        queueIds.add(_queueMgr.purgeAsyncJobQueueItemId(job.getId()));
                         if (ApiCommandJobType.Volume.toString().equals(job.getInstanceType())) {
 
                             try {
@@ -1106,6 +1216,9 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                     }
                 }
             });
+            for (Long queueId : queueIds) {
+                wakeupQueue(queueId);
+            }
         } catch (Throwable e) {
             s_logger.warn("Unexpected exception in cleaning up left over jobs for mamagement server node " + msid, e);
         }
@@ -1130,7 +1243,8 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     public boolean start() {
         cleanupLeftOverJobs(getMsid());
 
-        _heartbeatScheduler.scheduleAtFixedRate(getHeartbeatTask(), HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+        _heartbeatScheduler.scheduleAtFixedRate(getHeartbeatTask(), JobQueuePollInterval.value(), JobQueuePollInterval.value(), TimeUnit.MILLISECONDS);
+        _heartbeatScheduler.scheduleAtFixedRate(getWakeupScanTask(), WAKEUP_SCAN_INTERVAL, WAKEUP_SCAN_INTERVAL, TimeUnit.MILLISECONDS);
         _heartbeatScheduler.scheduleAtFixedRate(getGCTask(), GC_INTERVAL, GC_INTERVAL, TimeUnit.MILLISECONDS);
 
         return true;
@@ -1139,6 +1253,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     @Override
     public boolean stop() {
         _heartbeatScheduler.shutdown();
+        _queueWakeupExecutor.shutdown();
         _apiJobExecutor.shutdown();
         _workerJobExecutor.shutdown();
         return true;
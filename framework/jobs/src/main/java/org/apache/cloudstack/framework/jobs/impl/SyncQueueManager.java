@@ -35,7 +35,10 @@ public interface SyncQueueManager extends Manager {
 
     public List<SyncQueueItemVO> getBlockedQueueItems(long thresholdMs, boolean exclusive);
 
-    void purgeAsyncJobQueueItemId(long asyncJobId);
+    /**
+     * @return id of the queue the job was removed from, null if the job was not queued
+     */
+    Long purgeAsyncJobQueueItemId(long asyncJobId);
 
     public void cleanupActiveQueueItems(Long msid, boolean exclusive);
 }
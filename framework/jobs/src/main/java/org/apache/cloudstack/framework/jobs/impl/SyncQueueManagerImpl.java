@@ -19,8 +19,10 @@ package org.apache.cloudstack.framework.jobs.impl;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
+import javax.naming.ConfigurationException;
 
 import org.apache.log4j.Logger;
 
@@ -34,6 +36,7 @@ import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
 import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
 
 public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManager {
     public static final Logger s_logger = Logger.getLogger(SyncQueueManagerImpl.class.getName());
@@ -43,6 +46,18 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
     @Inject
     private SyncQueueItemDao _syncQueueItemDao;
 
+    private final SyncQueueStatsMBeanImpl _stats = new SyncQueueStatsMBeanImpl();
+
+    @Override
+    public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
+        try {
+            JmxUtil.registerMBean("AsyncJobManager", "Sync Queue Stats", _stats);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register sync queue stats for JMX", e);
+        }
+        return super.configure(name, params);
+    }
+
     @Override
     @DB
     public SyncQueueVO queue(final String syncObjType, final long syncObjId, final String itemType, final long itemId, final long queueSizeLimit) {
@@ -107,6 +122,7 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
                             itemVO.setLastProcessTime(dt);
                             _syncQueueItemDao.update(itemVO.getId(), itemVO);
 
+                            recordDequeue(queueVO, itemVO, dt, false);
                             return itemVO;
                         } else {
                             if (s_logger.isDebugEnabled())
@@ -160,6 +176,7 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
                                 itemVO.setLastProcessTime(dt);
                                 _syncQueueItemDao.update(item.getId(), itemVO);
 
+                                recordDequeue(queueVO, itemVO, dt, true);
                                 resultList.add(itemVO);
                             }
                         }
@@ -175,33 +192,49 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
         return null;
     }
 
+    private void recordDequeue(SyncQueueVO queueVO, SyncQueueItemVO itemVO, Date dt, boolean polled) {
+        if (itemVO.getCreated() != null) {
+            _stats.recordDequeue(queueVO.getSyncObjType(), dt.getTime() - itemVO.getCreated().getTime(), polled);
+        }
+    }
+
     @Override
     @DB
     public void purgeItem(final long queueItemId) {
+        doPurgeItem(queueItemId);
+    }
+
+    /**
+     * @return id of the queue the item was removed from, null if the item no longer exists
+     */
+    private Long doPurgeItem(final long queueItemId) {
         try {
-            Transaction.execute(new TransactionCallbackNoReturn() {
+            return Transaction.execute(new TransactionCallback<Long>() {
                 @Override
-                public void doInTransactionWithoutResult(TransactionStatus status) {
+                public Long doInTransaction(TransactionStatus status) {
                     SyncQueueItemVO itemVO = _syncQueueItemDao.findById(queueItemId);
-                    if(itemVO != null) {
-                        SyncQueueVO queueVO = _syncQueueDao.findById(itemVO.getQueueId());
+                    if (itemVO == null) {
+                        return null;
+                    }
+                    SyncQueueVO queueVO = _syncQueueDao.findById(itemVO.getQueueId());
 
-                        _syncQueueItemDao.expunge(itemVO.getId());
+                    _syncQueueItemDao.expunge(itemVO.getId());
 
-                        // if item is active, reset queue information
-                        if (itemVO.getLastProcessMsid() != null) {
-                            queueVO.setLastUpdated(DateUtil.currentGMTTime());
-                            // decrement the count
-                            assert (queueVO.getQueueSize() > 0) : "Count reduce happens when it's already <= 0!";
-                            queueVO.setQueueSize(queueVO.getQueueSize() - 1);
-                            _syncQueueDao.update(queueVO.getId(), queueVO);
-                        }
+                    // if item is active, reset queue information
+                    if (itemVO.getLastProcessMsid() != null) {
+                        queueVO.setLastUpdated(DateUtil.currentGMTTime());
+                        // decrement the count
+                        assert (queueVO.getQueueSize() > 0) : "Count reduce happens when it's already <= 0!";
+                        queueVO.setQueueSize(queueVO.getQueueSize() - 1);
+                        _syncQueueDao.update(queueVO.getId(), queueVO);
                     }
+                    return queueVO.getId();
                 }
             });
         } catch (Exception e) {
             s_logger.error("Unexpected exception: ", e);
         }
+        return null;
     }
 
     @Override
@@ -255,11 +288,12 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
     }
 
     @Override
-    public void purgeAsyncJobQueueItemId(long asyncJobId) {
+    public Long purgeAsyncJobQueueItemId(long asyncJobId) {
         Long itemId = _syncQueueItemDao.getQueueItemIdByContentIdAndType(asyncJobId, SyncQueueItem.AsyncJobContentType);
         if (itemId != null) {
-            purgeItem(itemId);
+            return doPurgeItem(itemId);
         }
+        return null;
     }
 
     @Override
@@ -0,0 +1,107 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import org.apache.cloudstack.framework.jobs.SyncQueueStatsMBean;
+
+public class SyncQueueStatsMBeanImpl extends StandardMBean implements SyncQueueStatsMBean {
+    private final Map<String, Latency> _latencies = new ConcurrentHashMap<String, Latency>();
+
+    public SyncQueueStatsMBeanImpl() {
+        super(SyncQueueStatsMBean.class, false);
+    }
+
+    /**
+     * Records the time a queue item waited between being queued and being picked up for processing.
+     * @param polled true if the item was picked up by the periodic scan
+     */
+    public void recordDequeue(String syncObjType, long latencyMillis, boolean polled) {
+        _latencies.computeIfAbsent(syncObjType, k -> new Latency()).record(Math.max(0, latencyMillis), polled);
+    }
+
+    public long getCount(String syncObjType) {
+        Latency latency = _latencies.get(syncObjType);
+        return latency == null ? 0 : latency.count.get();
+    }
+
+    public long getMaxLatencyMillis(String syncObjType) {
+        Latency latency = _latencies.get(syncObjType);
+        return latency == null ? 0 : latency.max.get();
+    }
+
+    public long getPolledCount(String syncObjType) {
+        Latency latency = _latencies.get(syncObjType);
+        return latency == null ? 0 : latency.polled.get();
+    }
+
+    @Override
+    public Map<String, String> getQueueLatencies() {
+        Map<String, String> latencies = new TreeMap<String, String>();
+        for (Map.Entry<String, Latency> entry : _latencies.entrySet()) {
+            latencies.put(entry.getKey(), entry.getValue().toString());
+        }
+        return latencies;
+    }
+
+    @Override
+    public Map<String, Long> getPolledItemCounts() {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (Map.Entry<String, Latency> entry : _latencies.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().polled.get());
+        }
+        return counts;
+    }
+
+    @Override
+    public void reset() {
+        _latencies.clear();
+    }
+
+    private static class Latency {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong polled = new AtomicLong();
+        final AtomicLong total = new AtomicLong();
+        final AtomicLong max = new AtomicLong();
+        volatile long last;
+
+        void record(long latencyMillis, boolean wasPolled) {
+            count.incrementAndGet();
+            if (wasPolled) {
+                polled.incrementAndGet();
+            }
+            total.addAndGet(latencyMillis);
+            last = latencyMillis;
+            long current = max.get();
+            while (latencyMillis > current && !max.compareAndSet(current, latencyMillis)) {
+                current = max.get();
+            }
+        }
+
+        @Override
+        public String toString() {
+            long n = count.get();
+            return "count=" + n + ", avg=" + (n == 0 ? 0 : total.get() / n) + "ms, max=" + max.get() + "ms, last=" + last + "ms, polled=" + polled.get();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SyncQueueStatsMBeanImplTest {
+
+    @Test
+    public void testRecordDequeue() {
+        final SyncQueueStatsMBeanImpl stats = new SyncQueueStatsMBeanImpl();
+        stats.recordDequeue("VmWorkJobQueue", 20, false);
+        stats.recordDequeue("VmWorkJobQueue", 3000, true);
+        stats.recordDequeue("snapshothost", -5, false);
+
+        Assert.assertEquals(2, stats.getCount("VmWorkJobQueue"));
+        Assert.assertEquals(3000, stats.getMaxLatencyMillis("VmWorkJobQueue"));
+        Assert.assertEquals(1, stats.getPolledCount("VmWorkJobQueue"));
+        Assert.assertEquals(0, stats.getMaxLatencyMillis("snapshothost"));
+        Assert.assertEquals(Long.valueOf(1), stats.getPolledItemCounts().get("VmWorkJobQueue"));
+        Assert.assertEquals("count=2, avg=1510ms, max=3000ms, last=3000ms, polled=1", stats.getQueueLatencies().get("VmWorkJobQueue"));
+    }
+
+    @Test
+    public void testReset() {
+        final SyncQueueStatsMBeanImpl stats = new SyncQueueStatsMBeanImpl();
+        stats.recordDequeue("VmWorkJobQueue", 20, false);
+        stats.reset();
+        Assert.assertEquals(0, stats.getCount("VmWorkJobQueue"));
+        Assert.assertTrue(stats.getQueueLatencies().isEmpty());
+    }
+}
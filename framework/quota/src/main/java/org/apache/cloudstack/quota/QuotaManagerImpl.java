@@ -23,11 +23,16 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
 
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
+import org.apache.cloudstack.quota.constant.QuotaConfig;
 import org.apache.cloudstack.quota.constant.QuotaTypes;
 import org.apache.cloudstack.quota.dao.QuotaAccountDao;
 import org.apache.cloudstack.quota.dao.QuotaBalanceDao;
@@ -47,8 +52,14 @@ import com.cloud.usage.UsageVO;
 import com.cloud.usage.dao.UsageDao;
 import com.cloud.user.AccountVO;
 import com.cloud.user.dao.AccountDao;
+import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.Pair;
 import com.cloud.utils.component.ManagerBase;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.db.Transaction;
+import com.cloud.utils.db.TransactionCallbackNoReturn;
+import com.cloud.utils.db.TransactionLegacy;
+import com.cloud.utils.db.TransactionStatus;
 
 @Component
 public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
@@ -73,6 +84,13 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
 
     private TimeZone _usageTimezone;
     private int _aggregationDuration = 0;
+    private int _calculationParallelism = 1;
+    private ExecutorService _calculationExecutor = null;
+
+    /**
+     * Quota records of the account being calculated on this thread, written once all of its usage records are aggregated.
+     */
+    private static final ThreadLocal<PendingQuotaRecords> s_pendingRecords = new ThreadLocal<PendingQuotaRecords>();
 
     final static BigDecimal s_hoursInMonth = new BigDecimal(30 * 24);
     final static BigDecimal s_minutesInMonth = new BigDecimal(30 * 24 * 60);
@@ -111,7 +129,8 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
             s_logger.warn("Usage stats job aggregation range is to small, using the minimum value of " + UsageUtils.USAGE_AGGREGATION_RANGE_MIN);
             _aggregationDuration = UsageUtils.USAGE_AGGREGATION_RANGE_MIN;
         }
-        s_logger.info("Usage timezone = " + _usageTimezone + " AggregationDuration=" + _aggregationDuration);
+        _calculationParallelism = NumbersUtil.parseInt(configs.get(QuotaConfig.QuotaCalculationParallelism.key()), 1);
+        s_logger.info("Usage timezone = " + _usageTimezone + " AggregationDuration=" + _aggregationDuration + " CalculationParallelism=" + _calculationParallelism);
 
         return true;
     }
@@ -121,6 +140,9 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
         if (s_logger.isInfoEnabled()) {
             s_logger.info("Starting Quota Manager");
         }
+        if (_calculationParallelism > 1) {
+            _calculationExecutor = Executors.newFixedThreadPool(_calculationParallelism, new NamedThreadFactory("Quota-Calculation"));
+        }
         return true;
     }
 
@@ -129,6 +151,9 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
         if (s_logger.isInfoEnabled()) {
             s_logger.info("Stopping Quota Manager");
         }
+        if (_calculationExecutor != null) {
+            _calculationExecutor.shutdownNow();
+        }
         return true;
     }
 
@@ -242,17 +267,11 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
             if (startDate.compareTo(entry.getStartDate()) != 0) {
                 saveQuotaBalance(account, aggrUsage, endDate);
 
-                //New balance entry
-                aggrUsage = new BigDecimal(0);
+                //New balance entry, running on from the balance just saved rather than reading it back
+                Date lastBalanceDate = endDate;
                 startDate = entry.getStartDate();
                 endDate = entry.getEndDate();
 
-                QuotaBalanceVO lastRealBalanceEntry = _quotaBalanceDao.findLastBalanceEntry(account.getAccountId(), account.getDomainId(), endDate);
-                Date lastBalanceDate = new Date(0);
-                if (lastRealBalanceEntry != null) {
-                    lastBalanceDate = lastRealBalanceEntry.getUpdatedOn();
-                    aggrUsage = aggrUsage.add(lastRealBalanceEntry.getCreditBalance());
-                }
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug("Getting Balance" + account.getAccountName() + ",Balance entry=" + aggrUsage + " on Date=" + endDate);
                 }
@@ -318,24 +337,134 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
 
     @Override
     public boolean calculateQuotaUsage() {
-        List<AccountVO> accounts = _accountDao.listAll();
+        final List<AccountVO> accounts = _accountDao.listAll();
+        final QuotaTariffCache tariffCache = loadTariffs();
+        if (_calculationExecutor == null || accounts.size() < 2) {
+            return calculateQuotaUsage(accounts, tariffCache);
+        }
+
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(_calculationParallelism);
+        for (int i = 0; i < _calculationParallelism; i++) {
+            final List<AccountVO> partition = partition(accounts, i, _calculationParallelism);
+            if (!partition.isEmpty()) {
+                results.add(_calculationExecutor.submit(() -> calculateQuotaUsage(partition, tariffCache)));
+            }
+        }
+        boolean success = true;
+        for (Future<Boolean> result : results) {
+            try {
+                success &= result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                s_logger.warn("Interrupted while waiting for the quota calculation of " + accounts.size() + " accounts");
+                return false;
+            } catch (ExecutionException e) {
+                s_logger.error("Quota calculation failed", e.getCause());
+                success = false;
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Calculates the quota of the accounts one after another, a failure of one account does not stop the others.
+     */
+    protected boolean calculateQuotaUsage(final List<AccountVO> accounts, final QuotaTariffCache tariffCache) {
+        boolean success = true;
         for (AccountVO account : accounts) {
-            Pair<List<? extends UsageVO>, Integer> usageRecords = _usageDao.getUsageRecordsPendingQuotaAggregation(account.getAccountId(), account.getDomainId());
-            if (s_logger.isDebugEnabled()) {
-                s_logger.debug("Usage entries size = " + usageRecords.second().intValue() + ", accId" + account.getAccountId() + ", domId" + account.getDomainId());
+            try {
+                calculateQuotaUsageForAccount(account, tariffCache);
+            } catch (Exception e) {
+                s_logger.error("Unable to calculate quota of account " + account.getAccountName() + " (id=" + account.getAccountId() + ")", e);
+                success = false;
             }
-            List<QuotaUsageVO> quotaListForAccount = aggregatePendingQuotaRecordsForAccount(account, usageRecords);
-            if (s_logger.isDebugEnabled()) {
-                s_logger.debug("Quota entries size = " + quotaListForAccount.size() + ", accId" + account.getAccountId() + ", domId" + account.getDomainId());
+        }
+        return success;
+    }
+
+    protected void calculateQuotaUsageForAccount(final AccountVO account, final QuotaTariffCache tariffCache) {
+        Pair<List<? extends UsageVO>, Integer> usageRecords = _usageDao.getUsageRecordsPendingQuotaAggregation(account.getAccountId(), account.getDomainId());
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Usage entries size = " + usageRecords.second().intValue() + ", accId" + account.getAccountId() + ", domId" + account.getDomainId());
+        }
+        final PendingQuotaRecords pendingRecords = new PendingQuotaRecords(tariffCache);
+        List<QuotaUsageVO> quotaListForAccount;
+        s_pendingRecords.set(pendingRecords);
+        try {
+            quotaListForAccount = aggregatePendingQuotaRecordsForAccount(account, usageRecords);
+        } finally {
+            s_pendingRecords.remove();
+        }
+        savePendingQuotaRecords(pendingRecords);
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Quota entries size = " + quotaListForAccount.size() + ", accId" + account.getAccountId() + ", domId" + account.getDomainId());
+        }
+        processQuotaBalanceForAccount(account, quotaListForAccount);
+    }
+
+    /**
+     * Writes the quota usage rows and flags their usage records as calculated in one transaction,
+     * so a failure never leaves usage records which are flagged but not charged or the other way round.
+     */
+    private void savePendingQuotaRecords(final PendingQuotaRecords pendingRecords) {
+        if (pendingRecords.quotaUsages.isEmpty() && pendingRecords.usageRecordIds.isEmpty()) {
+            return;
+        }
+        Transaction.execute(TransactionLegacy.USAGE_DB, new TransactionCallbackNoReturn() {
+            @Override
+            public void doInTransactionWithoutResult(final TransactionStatus status) {
+                _quotaUsageDao.persistQuotaUsages(pendingRecords.quotaUsages);
+                _usageDao.markQuotaCalculated(pendingRecords.usageRecordIds);
             }
-            processQuotaBalanceForAccount(account, quotaListForAccount);
+        });
+    }
+
+    private QuotaTariffCache loadTariffs() {
+        Pair<List<QuotaTariffVO>, Integer> tariffs = _quotaTariffDao.listAllTariffPlans();
+        return new QuotaTariffCache(tariffs != null ? tariffs.first() : null);
+    }
+
+    /**
+     * Every partitions-th item of the list, starting at index, so accounts are spread evenly over the calculation threads.
+     */
+    protected static <T> List<T> partition(List<T> items, int index, int partitions) {
+        List<T> partition = new ArrayList<T>(items.size() / partitions + 1);
+        for (int i = index; i < items.size(); i += partitions) {
+            partition.add(items.get(i));
+        }
+        return partition;
+    }
+
+    private QuotaTariffVO findTariffPlanByUsageType(final int quotaType, final Date effectiveDate) {
+        PendingQuotaRecords pendingRecords = s_pendingRecords.get();
+        if (pendingRecords != null) {
+            return pendingRecords.tariffCache.findTariffPlanByUsageType(quotaType, effectiveDate);
+        }
+        return _quotaTariffDao.findTariffPlanByUsageType(quotaType, effectiveDate);
+    }
+
+    private void persistQuotaUsage(final QuotaUsageVO quotaUsage) {
+        PendingQuotaRecords pendingRecords = s_pendingRecords.get();
+        if (pendingRecords != null) {
+            pendingRecords.quotaUsages.add(quotaUsage);
+        } else {
+            _quotaUsageDao.persistQuotaUsage(quotaUsage);
+        }
+    }
+
+    private void markQuotaCalculated(final UsageVO usageRecord) {
+        usageRecord.setQuotaCalculated(1);
+        PendingQuotaRecords pendingRecords = s_pendingRecords.get();
+        if (pendingRecords != null) {
+            pendingRecords.usageRecordIds.add(usageRecord.getId());
+        } else {
+            _usageDao.persistUsage(usageRecord);
         }
-        return true;
     }
 
     public QuotaUsageVO updateQuotaDiskUsage(UsageVO usageRecord, final BigDecimal aggregationRatio, final int quotaType) {
         QuotaUsageVO quota_usage = null;
-        QuotaTariffVO tariff = _quotaTariffDao.findTariffPlanByUsageType(quotaType, usageRecord.getEndDate());
+        QuotaTariffVO tariff = findTariffPlanByUsageType(quotaType, usageRecord.getEndDate());
         if (tariff != null && tariff.getCurrencyValue().compareTo(BigDecimal.ZERO) != 0) {
             BigDecimal quotaUsgage;
             BigDecimal onehourcostpergb;
@@ -345,10 +474,9 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
             quotaUsgage = new BigDecimal(usageRecord.getRawUsage()).multiply(onehourcostpergb).multiply(noofgbinuse);
             quota_usage = new QuotaUsageVO(usageRecord.getId(), usageRecord.getZoneId(), usageRecord.getAccountId(), usageRecord.getDomainId(), usageRecord.getUsageType(),
                     quotaUsgage, usageRecord.getStartDate(), usageRecord.getEndDate());
-            _quotaUsageDao.persistQuotaUsage(quota_usage);
+            persistQuotaUsage(quota_usage);
         }
-        usageRecord.setQuotaCalculated(1);
-        _usageDao.persistUsage(usageRecord);
+        markQuotaCalculated(usageRecord);
         return quota_usage;
     }
 
@@ -365,54 +493,53 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
         }
         rawusage = new BigDecimal(usageRecord.getRawUsage());
 
-        QuotaTariffVO tariff = _quotaTariffDao.findTariffPlanByUsageType(QuotaTypes.CPU_NUMBER, usageRecord.getEndDate());
+        QuotaTariffVO tariff = findTariffPlanByUsageType(QuotaTypes.CPU_NUMBER, usageRecord.getEndDate());
         if (tariff != null && tariff.getCurrencyValue().compareTo(BigDecimal.ZERO) != 0 && serviceoffering.getCpu() != null) {
             BigDecimal cpu = new BigDecimal(serviceoffering.getCpu());
             onehourcostpercpu = tariff.getCurrencyValue().multiply(aggregationRatio);
             cpuquotausgage = rawusage.multiply(onehourcostpercpu).multiply(cpu);
             quota_usage = new QuotaUsageVO(usageRecord.getId(), usageRecord.getZoneId(), usageRecord.getAccountId(), usageRecord.getDomainId(), QuotaTypes.CPU_NUMBER,
                     cpuquotausgage, usageRecord.getStartDate(), usageRecord.getEndDate());
-            _quotaUsageDao.persistQuotaUsage(quota_usage);
+            persistQuotaUsage(quota_usage);
             quotalist.add(quota_usage);
         }
-        tariff = _quotaTariffDao.findTariffPlanByUsageType(QuotaTypes.CPU_CLOCK_RATE, usageRecord.getEndDate());
+        tariff = findTariffPlanByUsageType(QuotaTypes.CPU_CLOCK_RATE, usageRecord.getEndDate());
         if (tariff != null && tariff.getCurrencyValue().compareTo(BigDecimal.ZERO) != 0 && serviceoffering.getSpeed() != null) {
             BigDecimal speed = new BigDecimal(serviceoffering.getSpeed() / 100.00);
             onehourcostper100mhz = tariff.getCurrencyValue().multiply(aggregationRatio);
             speedquotausage = rawusage.multiply(onehourcostper100mhz).multiply(speed);
             quota_usage = new QuotaUsageVO(usageRecord.getId(), usageRecord.getZoneId(), usageRecord.getAccountId(), usageRecord.getDomainId(), QuotaTypes.CPU_CLOCK_RATE,
                     speedquotausage, usageRecord.getStartDate(), usageRecord.getEndDate());
-            _quotaUsageDao.persistQuotaUsage(quota_usage);
+            persistQuotaUsage(quota_usage);
             quotalist.add(quota_usage);
         }
-        tariff = _quotaTariffDao.findTariffPlanByUsageType(QuotaTypes.MEMORY, usageRecord.getEndDate());
+        tariff = findTariffPlanByUsageType(QuotaTypes.MEMORY, usageRecord.getEndDate());
         if (tariff != null && tariff.getCurrencyValue().compareTo(BigDecimal.ZERO) != 0 && serviceoffering.getRamSize() != null) {
             BigDecimal memory = new BigDecimal(serviceoffering.getRamSize());
             onehourcostper1mb = tariff.getCurrencyValue().multiply(aggregationRatio);
             memoryquotausage = rawusage.multiply(onehourcostper1mb).multiply(memory);
             quota_usage = new QuotaUsageVO(usageRecord.getId(), usageRecord.getZoneId(), usageRecord.getAccountId(), usageRecord.getDomainId(), QuotaTypes.MEMORY, memoryquotausage,
                     usageRecord.getStartDate(), usageRecord.getEndDate());
-            _quotaUsageDao.persistQuotaUsage(quota_usage);
+            persistQuotaUsage(quota_usage);
             quotalist.add(quota_usage);
         }
-        tariff = _quotaTariffDao.findTariffPlanByUsageType(QuotaTypes.RUNNING_VM, usageRecord.getEndDate());
+        tariff = findTariffPlanByUsageType(QuotaTypes.RUNNING_VM, usageRecord.getEndDate());
         if (tariff != null && tariff.getCurrencyValue().compareTo(BigDecimal.ZERO) != 0) {
             onehourcostforvmusage = tariff.getCurrencyValue().multiply(aggregationRatio);
             vmusage = rawusage.multiply(onehourcostforvmusage);
             quota_usage = new QuotaUsageVO(usageRecord.getId(), usageRecord.getZoneId(), usageRecord.getAccountId(), usageRecord.getDomainId(), QuotaTypes.RUNNING_VM, vmusage,
                     usageRecord.getStartDate(), usageRecord.getEndDate());
-            _quotaUsageDao.persistQuotaUsage(quota_usage);
+            persistQuotaUsage(quota_usage);
             quotalist.add(quota_usage);
         }
 
-        usageRecord.setQuotaCalculated(1);
-        _usageDao.persistUsage(usageRecord);
+        markQuotaCalculated(usageRecord);
         return quotalist;
     }
 
     public QuotaUsageVO updateQuotaAllocatedVMUsage(UsageVO usageRecord, final BigDecimal aggregationRatio) {
         QuotaUsageVO quota_usage = null;
-        QuotaTariffVO tariff = _quotaTariffDao.findTariffPlanByUsageType(QuotaTypes.ALLOCATED_VM, usageRecord.getEndDate());
+        QuotaTariffVO tariff = findTariffPlanByUsageType(QuotaTypes.ALLOCATED_VM, usageRecord.getEndDate());
         if (tariff != null && tariff.getCurrencyValue().compareTo(BigDecimal.ZERO) != 0) {
             BigDecimal vmusage;
             BigDecimal onehourcostforvmusage;
@@ -420,17 +547,16 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
             vmusage = new BigDecimal(usageRecord.getRawUsage()).multiply(onehourcostforvmusage);
             quota_usage = new QuotaUsageVO(usageRecord.getId(), usageRecord.getZoneId(), usageRecord.getAccountId(), usageRecord.getDomainId(), QuotaTypes.ALLOCATED_VM, vmusage,
                     usageRecord.getStartDate(), usageRecord.getEndDate());
-            _quotaUsageDao.persistQuotaUsage(quota_usage);
+            persistQuotaUsage(quota_usage);
         }
 
-        usageRecord.setQuotaCalculated(1);
-        _usageDao.persistUsage(usageRecord);
+        markQuotaCalculated(usageRecord);
         return quota_usage;
     }
 
     public QuotaUsageVO updateQuotaRaw(UsageVO usageRecord, final BigDecimal aggregationRatio, final int ruleType) {
         QuotaUsageVO quota_usage = null;
-        QuotaTariffVO tariff = _quotaTariffDao.findTariffPlanByUsageType(ruleType, usageRecord.getEndDate());
+        QuotaTariffVO tariff = findTariffPlanByUsageType(ruleType, usageRecord.getEndDate());
         if (tariff != null && tariff.getCurrencyValue().compareTo(BigDecimal.ZERO) != 0) {
             BigDecimal ruleusage;
             BigDecimal onehourcost;
@@ -438,17 +564,16 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
             ruleusage = new BigDecimal(usageRecord.getRawUsage()).multiply(onehourcost);
             quota_usage = new QuotaUsageVO(usageRecord.getId(), usageRecord.getZoneId(), usageRecord.getAccountId(), usageRecord.getDomainId(), ruleType, ruleusage,
                     usageRecord.getStartDate(), usageRecord.getEndDate());
-            _quotaUsageDao.persistQuotaUsage(quota_usage);
+            persistQuotaUsage(quota_usage);
         }
 
-        usageRecord.setQuotaCalculated(1);
-        _usageDao.persistUsage(usageRecord);
+        markQuotaCalculated(usageRecord);
         return quota_usage;
     }
 
     public QuotaUsageVO updateQuotaNetwork(UsageVO usageRecord, final int transferType) {
         QuotaUsageVO quota_usage = null;
-        QuotaTariffVO tariff = _quotaTariffDao.findTariffPlanByUsageType(transferType, usageRecord.getEndDate());
+        QuotaTariffVO tariff = findTariffPlanByUsageType(transferType, usageRecord.getEndDate());
         if (tariff != null && tariff.getCurrencyValue().compareTo(BigDecimal.ZERO) != 0) {
             BigDecimal onegbcost;
             BigDecimal rawusageingb;
@@ -458,11 +583,10 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
             networkusage = rawusageingb.multiply(onegbcost);
             quota_usage = new QuotaUsageVO(usageRecord.getId(), usageRecord.getZoneId(), usageRecord.getAccountId(), usageRecord.getDomainId(), transferType, networkusage,
                     usageRecord.getStartDate(), usageRecord.getEndDate());
-            _quotaUsageDao.persistQuotaUsage(quota_usage);
+            persistQuotaUsage(quota_usage);
         }
 
-        usageRecord.setQuotaCalculated(1);
-        _usageDao.persistUsage(usageRecord);
+        markQuotaCalculated(usageRecord);
         return quota_usage;
     }
 
@@ -471,4 +595,14 @@ public class QuotaManagerImpl extends ManagerBase implements QuotaManager {
         return (account.getType() == AccountVO.ACCOUNT_TYPE_NORMAL || account.getType() == AccountVO.ACCOUNT_TYPE_DOMAIN_ADMIN);
     }
 
+    private static class PendingQuotaRecords {
+        final QuotaTariffCache tariffCache;
+        final List<QuotaUsageVO> quotaUsages = new ArrayList<QuotaUsageVO>();
+        final List<Long> usageRecordIds = new ArrayList<Long>();
+
+        PendingQuotaRecords(QuotaTariffCache tariffCache) {
+            this.tariffCache = tariffCache;
+        }
+    }
+
 }
@@ -0,0 +1,71 @@
+//Licensed to the Apache Software Foundation (ASF) under one
+//or more contributor license agreements.  See the NOTICE file
+//distributed with this work for additional information
+//regarding copyright ownership.  The ASF licenses this file
+//to you under the Apache License, Version 2.0 (the
+//"License"); you may not use this file except in compliance
+//with the License.  You may obtain a copy of the License at
+//
+//http://www.apache.org/licenses/LICENSE-2.0
+//
+//Unless required by applicable law or agreed to in writing,
+//software distributed under the License is distributed on an
+//"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+//KIND, either express or implied.  See the License for the
+//specific language governing permissions and limitations
+//under the License.
+package org.apache.cloudstack.quota;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.cloudstack.quota.vo.QuotaTariffVO;
+
+/**
+ * Snapshot of the quota tariffs taken once per quota calculation run. Resolves the tariff in effect
+ * for a usage type on a date the same way QuotaTariffDao.findTariffPlanByUsageType does (latest
+ * updated tariff effective on or before the date), and remembers the answer for each usage type and
+ * date since all the usage records of an aggregation period share the same end date.
+ */
+public class QuotaTariffCache {
+    private final Map<Integer, List<QuotaTariffVO>> _tariffsByUsageType = new HashMap<Integer, List<QuotaTariffVO>>();
+    private final Map<String, Optional<QuotaTariffVO>> _activeTariffs = new ConcurrentHashMap<String, Optional<QuotaTariffVO>>();
+
+    public QuotaTariffCache(List<QuotaTariffVO> tariffs) {
+        if (tariffs != null) {
+            for (QuotaTariffVO tariff : tariffs) {
+                _tariffsByUsageType.computeIfAbsent(tariff.getUsageType(), k -> new ArrayList<QuotaTariffVO>()).add(tariff);
+            }
+        }
+        for (List<QuotaTariffVO> tariffsOfType : _tariffsByUsageType.values()) {
+            tariffsOfType.sort(Comparator.comparing(QuotaTariffVO::getUpdatedOn, Comparator.nullsLast(Comparator.reverseOrder())));
+        }
+    }
+
+    public QuotaTariffVO findTariffPlanByUsageType(final int usageType, final Date effectiveDate) {
+        if (effectiveDate == null) {
+            return null;
+        }
+        return _activeTariffs.computeIfAbsent(usageType + ":" + effectiveDate.getTime(), k -> Optional.ofNullable(findActiveTariff(usageType, effectiveDate))).orElse(null);
+    }
+
+    private QuotaTariffVO findActiveTariff(final int usageType, final Date effectiveDate) {
+        List<QuotaTariffVO> tariffsOfType = _tariffsByUsageType.get(usageType);
+        if (tariffsOfType == null) {
+            return null;
+        }
+        for (QuotaTariffVO tariff : tariffsOfType) {
+            if (tariff.getEffectiveOn() != null && !tariff.getEffectiveOn().after(effectiveDate)) {
+                return tariff;
+            }
+        }
+        return null;
+    }
+
+}
@@ -57,6 +57,9 @@ public interface QuotaConfig {
     public static final ConfigKey<String> QuotaSmtpUseStartTLS = new ConfigKey<String>("Advanced", String.class, "quota.usage.smtp.useStartTLS", "false",
             "If set to true and if we enable security via quota.usage.smtp.useAuth, this will enable StartTLS to secure the conection.", true);
 
+    public static final ConfigKey<Integer> QuotaCalculationParallelism = new ConfigKey<Integer>("Advanced", Integer.class, "quota.calculation.parallelism", "1",
+            "Number of threads calculating the quota of accounts in parallel, accounts are split evenly between them. Requires a restart of the usage server.", false);
+
     enum QuotaEmailTemplateTypes {
         QUOTA_LOW, QUOTA_EMPTY, QUOTA_UNLOCK_ACCOUNT, QUOTA_STATEMENT
     }
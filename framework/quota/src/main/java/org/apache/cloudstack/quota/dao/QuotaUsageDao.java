@@ -27,6 +27,8 @@ public interface QuotaUsageDao extends GenericDao<QuotaUsageVO, Long> {
 
     QuotaUsageVO persistQuotaUsage(QuotaUsageVO quotaUsage);
 
+    void persistQuotaUsages(List<QuotaUsageVO> quotaUsages);
+
     List<QuotaUsageVO> findQuotaUsage(Long accountId, Long domainId, Integer usageType, Date startDate, Date endDate);
 
     BigDecimal findTotalQuotaUsage(Long accountId, Long domainId, Integer usageType, Date startDate, Date endDate);
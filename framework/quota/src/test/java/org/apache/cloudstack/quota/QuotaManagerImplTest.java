@@ -202,6 +202,22 @@ public class QuotaManagerImplTest extends TestCase {
         Mockito.verify(quotaAcc, Mockito.times(1)).persistQuotaAccount(Mockito.any(QuotaAccountVO.class));
     }
 
+    @Test
+    public void testPartition() {
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            items.add(i);
+        }
+        List<Integer> all = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            List<Integer> partition = QuotaManagerImpl.partition(items, i, 3);
+            assertTrue(partition.size() == 2 || partition.size() == 3);
+            all.addAll(partition);
+        }
+        assertEquals(items.size(), all.size());
+        assertTrue(all.containsAll(items));
+    }
+
     private AccountVO accountVO = new AccountVO();
 
     @Test
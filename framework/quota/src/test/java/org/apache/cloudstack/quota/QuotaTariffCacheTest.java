@@ -0,0 +1,78 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.quota;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.cloudstack.quota.constant.QuotaTypes;
+import org.apache.cloudstack.quota.vo.QuotaTariffVO;
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class QuotaTariffCacheTest extends TestCase {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private QuotaTariffVO createTariff(int usageType, long effectiveOn, long updatedOn, int value) {
+        QuotaTariffVO tariff = new QuotaTariffVO(usageType);
+        tariff.setEffectiveOn(new Date(effectiveOn));
+        tariff.setUpdatedOn(new Date(updatedOn));
+        tariff.setCurrencyValue(new BigDecimal(value));
+        return tariff;
+    }
+
+    @Test
+    public void testFindTariffPlanByUsageType() {
+        List<QuotaTariffVO> tariffs = new ArrayList<>();
+        QuotaTariffVO initial = createTariff(QuotaTypes.RUNNING_VM, 0, DAY, 1);
+        QuotaTariffVO future = createTariff(QuotaTypes.RUNNING_VM, 10 * DAY, 2 * DAY, 2);
+        QuotaTariffVO volume = createTariff(QuotaTypes.VOLUME, 0, 3 * DAY, 3);
+        tariffs.add(initial);
+        tariffs.add(future);
+        tariffs.add(volume);
+        QuotaTariffCache cache = new QuotaTariffCache(tariffs);
+
+        assertSame(initial, cache.findTariffPlanByUsageType(QuotaTypes.RUNNING_VM, new Date(5 * DAY)));
+        assertSame(future, cache.findTariffPlanByUsageType(QuotaTypes.RUNNING_VM, new Date(10 * DAY)));
+        assertSame(volume, cache.findTariffPlanByUsageType(QuotaTypes.VOLUME, new Date(10 * DAY)));
+        assertNull(cache.findTariffPlanByUsageType(QuotaTypes.TEMPLATE, new Date(10 * DAY)));
+    }
+
+    @Test
+    public void testLatestUpdatedTariffWins() {
+        List<QuotaTariffVO> tariffs = new ArrayList<>();
+        QuotaTariffVO older = createTariff(QuotaTypes.VOLUME, 0, DAY, 1);
+        QuotaTariffVO newer = createTariff(QuotaTypes.VOLUME, 0, 2 * DAY, 2);
+        tariffs.add(older);
+        tariffs.add(newer);
+        QuotaTariffCache cache = new QuotaTariffCache(tariffs);
+
+        assertSame(newer, cache.findTariffPlanByUsageType(QuotaTypes.VOLUME, new Date(5 * DAY)));
+        assertSame(newer, cache.findTariffPlanByUsageType(QuotaTypes.VOLUME, new Date(5 * DAY)));
+    }
+
+    @Test
+    public void testNoTariffs() {
+        QuotaTariffCache cache = new QuotaTariffCache(null);
+        assertNull(cache.findTariffPlanByUsageType(QuotaTypes.VOLUME, new Date()));
+        assertNull(cache.findTariffPlanByUsageType(QuotaTypes.VOLUME, null));
+    }
+}
@@ -30,6 +30,7 @@ import javax.naming.ConfigurationException;
 
 import com.cloud.utils.net.NetUtils;
 import com.cloud.utils.script.OutputInterpreter;
+import org.apache.cloudstack.utils.linux.NetStat;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 import org.libvirt.LibvirtException;
@@ -145,10 +146,9 @@ public class BridgeVifDriver extends VifDriverBase {
 
     private String getPif(final String bridge) {
         String pif = matchPifFileInDirectory(bridge);
-        final File vlanfile = new File("/proc/net/vlan/" + pif);
-
-        if (vlanfile.isFile()) {
-            pif = Script.runSimpleBashScript("grep ^Device\\: /proc/net/vlan/" + pif + " | awk {'print $2'}");
+        final String rawDevice = NetStat.getVlanRawDevice(pif);
+        if (rawDevice != null) {
+            pif = rawDevice;
         }
 
         return pif;
@@ -328,11 +328,11 @@ public class BridgeVifDriver extends VifDriverBase {
 
     private void deleteVnetBr(String brName, boolean deleteBr) {
         synchronized (_vnetBridgeMonitor) {
-            String cmdout = Script.runSimpleBashScript("ls /sys/class/net/" + brName);
-            if (cmdout == null)
+            if (!NetStat.interfaceExists(brName))
                 // Bridge does not exist
                 return;
-            cmdout = Script.runSimpleBashScript("ls /sys/class/net/" + brName + "/brif | tr '\n' ' '");
+            final List<String> ports = NetStat.getBridgePorts(brName);
+            String cmdout = ports.isEmpty() ? null : String.join(" ", ports);
             if (cmdout != null && cmdout.contains("vnet")) {
                 // Active VM remains on that bridge
                 return;
@@ -55,6 +55,7 @@ import org.apache.cloudstack.utils.hypervisor.HypervisorUtils;
 import org.apache.cloudstack.utils.linux.CPUStat;
 import org.apache.cloudstack.utils.linux.KVMHostInfo;
 import org.apache.cloudstack.utils.linux.MemStat;
+import org.apache.cloudstack.utils.linux.NetStat;
 import org.apache.cloudstack.utils.qemu.QemuImg;
 import org.apache.cloudstack.utils.qemu.QemuImgException;
 import org.apache.cloudstack.utils.qemu.QemuImgFile;
@@ -86,6 +87,7 @@ import org.xml.sax.SAXException;
 
 import com.cloud.agent.api.Answer;
 import com.cloud.agent.api.Command;
+import com.cloud.agent.api.HostStatsEntry;
 import com.cloud.agent.api.HostVmStateReportEntry;
 import com.cloud.agent.api.PingCommand;
 import com.cloud.agent.api.PingRoutingCommand;
@@ -180,6 +182,7 @@ import com.cloud.utils.net.NetUtils;
 import com.cloud.utils.script.OutputInterpreter;
 import com.cloud.utils.script.OutputInterpreter.AllLinesParser;
 import com.cloud.utils.script.Script;
+import com.cloud.utils.script.ScriptStats;
 import com.cloud.utils.ssh.SshHelper;
 import com.cloud.vm.VirtualMachine;
 import com.cloud.vm.VirtualMachine.PowerState;
@@ -306,6 +309,11 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
     private Duration _timeout;
     private static final int NUMMEMSTATS =13;
 
+    /**
+     * Period (in milliseconds) a sample of the counters of a domain is reused for by the VM, disk and network stats commands.
+     */
+    private static final long DOMAIN_STATS_SAMPLE_MAX_AGE = 5000L;
+
     private KVMHAMonitor _monitor;
     public static final String SSHKEYSPATH = "/root/.ssh";
     public static final String SSHPRVKEYPATH = SSHKEYSPATH + File.separator + "id_rsa.cloud";
@@ -392,6 +400,8 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
 
     private final Map <String, String> _pifs = new HashMap<String, String>();
     private final Map<String, VmStats> _vmStats = new ConcurrentHashMap<String, VmStats>();
+    private final Map<String, DomainDevices> _domainDevices = new ConcurrentHashMap<String, DomainDevices>();
+    private final Map<String, LibvirtDomainStats> _domainStatsSamples = new ConcurrentHashMap<String, LibvirtDomainStats>();
 
     protected static final HashMap<DomainState, PowerState> s_powerStatesTable;
     static {
@@ -422,6 +432,13 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
 
     protected Boolean enableManuallySettingCpuTopologyOnKvmVm = AgentPropertiesFileHandler.getPropertyValue(AgentProperties.ENABLE_MANUALLY_SETTING_CPU_TOPOLOGY_ON_KVM_VM);
 
+    protected int _statsPushInterval = AgentPropertiesFileHandler.getPropertyValue(AgentProperties.STATS_PUSH_INTERVAL);
+    private long _lastStatsPush;
+
+    protected boolean _libvirtEventsEnabled = AgentPropertiesFileHandler.getPropertyValue(AgentProperties.LIBVIRT_EVENTS_ENABLED);
+    protected int _vmStateFullReportInterval = AgentPropertiesFileHandler.getPropertyValue(AgentProperties.VM_STATE_FULL_REPORT_INTERVAL);
+    private LibvirtDomainEventMonitor _domainEventMonitor;
+
     protected long getHypervisorLibvirtVersion() {
         return _hypervisorLibvirtVersion;
     }
@@ -773,6 +790,9 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
             s_logger.error("uefi properties file not found due to: " + e.getLocalizedMessage());
         }
 
+        Script.setMaxConcurrentProcesses(AgentPropertiesFileHandler.getPropertyValue(AgentProperties.SCRIPT_MAX_CONCURRENT_PROCESSES));
+        ScriptStats.scheduleLogging(AgentPropertiesFileHandler.getPropertyValue(AgentProperties.SCRIPT_STATS_LOG_INTERVAL));
+
         _storage = new JavaStorageLayer();
         _storage.configure("StorageLayer", params);
 
@@ -1101,6 +1121,15 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
             _watchDogAction = WatchDogAction.valueOf(value.toUpperCase());
         }
 
+        if (_libvirtEventsEnabled) {
+            try {
+                LibvirtDomainEventMonitor.startEventLoop();
+                _domainEventMonitor = new LibvirtDomainEventMonitor(this, _vmStateFullReportInterval);
+            } catch (final LibvirtException e) {
+                s_logger.warn("Unable to start the libvirt event loop, VM states will be reported in full on every ping: " + e.getMessage());
+            }
+        }
+
         LibvirtConnection.initialize(_hypervisorURI);
         Connect conn = null;
         try {
@@ -1235,7 +1264,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
 
         _canBridgeFirewall = canBridgeFirewall(_pifs.get("public"));
 
-        _localGateway = Script.runSimpleBashScript("ip route show default 0.0.0.0/0|head -1|awk '{print $3}'");
+        _localGateway = NetStat.getDefaultGateway();
         if (_localGateway == null) {
             s_logger.warn("No default IPv4 gateway found");
         }
@@ -1261,17 +1290,10 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
         if (_migrateSpeed == -1) {
             //get guest network device speed
             _migrateSpeed = 0;
-            final String speed = Script.runSimpleBashScript("ethtool " + _pifs.get("public") + " |grep Speed | cut -d \\  -f 2");
-            if (speed != null) {
-                final String[] tokens = speed.split("M");
-                if (tokens.length == 2) {
-                    try {
-                        _migrateSpeed = Integer.parseInt(tokens[0]);
-                    } catch (final NumberFormatException e) {
-                        s_logger.trace("Ignoring migrateSpeed extraction error.", e);
-                    }
-                    s_logger.debug("device " + _pifs.get("public") + " has speed: " + String.valueOf(_migrateSpeed));
-                }
+            final int speed = NetStat.getLinkSpeed(_pifs.get("public"));
+            if (speed > 0) {
+                _migrateSpeed = speed;
+                s_logger.debug("device " + _pifs.get("public") + " has speed: " + String.valueOf(_migrateSpeed));
             }
             params.put("vm.migrate.speed", String.valueOf(_migrateSpeed));
         }
@@ -1589,10 +1611,9 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
 
     private String getPif(final String bridge) {
         String pif = matchPifFileInDirectory(bridge);
-        final File vlanfile = new File("/proc/net/vlan/" + pif);
-
-        if (vlanfile.isFile()) {
-            pif = Script.runSimpleBashScript("grep ^Device\\: /proc/net/vlan/" + pif + " | awk {'print $2'}");
+        final String rawDevice = NetStat.getVlanRawDevice(pif);
+        if (rawDevice != null) {
+            pif = rawDevice;
         }
 
         return pif;
@@ -1757,6 +1778,9 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
 
     @Override
     public boolean stop() {
+        if (_domainEventMonitor != null) {
+            _domainEventMonitor.stop();
+        }
         try {
             final Connect conn = LibvirtConnection.getConnection();
             conn.close();
@@ -1974,6 +1998,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
 
         final Domain vm = getDomain(conn, vmName);
         vm.attachDevice(getVifDriver(nicTO.getType()).plug(nicTO, "Other PV", "", null).toString());
+        invalidateDomainDevices(vmName);
     }
 
 
@@ -1985,6 +2010,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
         for (final InterfaceDef pluggedNic : pluggedNics) {
             if (pluggedNic.getMacAddress().equalsIgnoreCase(macAddr)) {
                 vm.detachDevice(pluggedNic.toString());
+                invalidateDomainDevices(vmName);
                 // We don't know which "traffic type" is associated with
                 // each interface at this point, so inform all vif drivers
                 for (final VifDriver vifDriver : getAllVifDrivers()) {
@@ -3231,6 +3257,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
                 s_logger.debug("Detaching device: " + xml);
                 dm.detachDevice(xml);
             }
+            invalidateDomainDevices(vmName);
         } catch (final LibvirtException e) {
             if (attach) {
                 s_logger.warn("Failed to attach device to " + vmName + ": " + e.getMessage());
@@ -3253,13 +3280,85 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
 
     @Override
     public PingCommand getCurrentStatus(final long id) {
+        // with libvirt events, state changes are reported as they happen and the full report is only sent for reconciliation
+        final HashMap<String, HostVmStateReportEntry> hostVmStateReport = isFullVmStateReportDue() ? this.getHostVmStateReport() : null;
+        final PingRoutingCommand ping;
 
         if (!_canBridgeFirewall) {
-            return new PingRoutingCommand(com.cloud.host.Host.Type.Routing, id, this.getHostVmStateReport());
+            ping = new PingRoutingCommand(com.cloud.host.Host.Type.Routing, id, hostVmStateReport);
         } else {
             final HashMap<String, Pair<Long, Long>> nwGrpStates = syncNetworkGroups(id);
-            return new PingRoutingWithNwGroupsCommand(getType(), id, this.getHostVmStateReport(), nwGrpStates);
+            ping = new PingRoutingWithNwGroupsCommand(getType(), id, hostVmStateReport, nwGrpStates);
+        }
+        addPushedStats(ping, id, hostVmStateReport);
+        return ping;
+    }
+
+    private boolean isFullVmStateReportDue() {
+        if (_domainEventMonitor == null) {
+            return true;
+        }
+        final List<Connect> connections = new ArrayList<Connect>();
+        try {
+            if (_hypervisorType == HypervisorType.LXC) {
+                connections.add(LibvirtConnection.getConnectionByType(HypervisorType.LXC.toString()));
+            }
+            connections.add(LibvirtConnection.getConnectionByType(HypervisorType.KVM.toString()));
+        } catch (final LibvirtException e) {
+            s_logger.debug("Failed to get connection: " + e.getMessage());
+            return true;
+        }
+        return _domainEventMonitor.isFullReportDue(connections);
+    }
+
+    /**
+     * Attaches the host stats and the stats of the running VMs to the ping when stats pushing is enabled
+     * and the push interval has elapsed, so that the management server does not have to poll this host.
+     */
+    protected void addPushedStats(final PingRoutingCommand ping, final long hostId, final Map<String, HostVmStateReportEntry> hostVmStateReport) {
+        if (_statsPushInterval <= 0) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        if (now - _lastStatsPush < _statsPushInterval * 1000L) {
+            return;
+        }
+        _lastStatsPush = now;
+
+        final HostStatsEntry hostStats;
+        try {
+            hostStats = getHostStatsEntry(hostId);
+        } catch (final Exception e) {
+            s_logger.warn("Unable to sample host stats to push: " + e.getMessage());
+            return;
+        }
+
+        final HashMap<String, VmStatsEntry> vmStats = new HashMap<String, VmStatsEntry>();
+        final Map<String, HostVmStateReportEntry> vmStates = hostVmStateReport != null ? hostVmStateReport : getHostVmStateReport();
+        for (final Map.Entry<String, HostVmStateReportEntry> entry : vmStates.entrySet()) {
+            if (entry.getValue().getState() != PowerState.PowerOn) {
+                continue;
+            }
+            final String vmName = entry.getKey();
+            try {
+                final Connect conn = LibvirtConnection.getConnectionByVmName(vmName);
+                final VmStatsEntry statEntry = getVmStat(conn, vmName);
+                if (statEntry != null) {
+                    vmStats.put(vmName, statEntry);
+                }
+            } catch (final LibvirtException e) {
+                s_logger.warn("Can't get vm stats of " + vmName + " to push: " + e.toString() + ", continue");
+            }
         }
+        ping.setPushedStats(hostStats, vmStats, _statsPushInterval);
+    }
+
+    public HostStatsEntry getHostStatsEntry(final long hostId) {
+        final CPUStat cpuStat = getCPUStat();
+        final MemStat memStat = getMemStat();
+        final Pair<Double, Double> nicStats = getNicStats(getPublicBridgeName());
+        return new HostStatsEntry(hostId, cpuStat.getCpuUsedPercent(), nicStats.first() / 1024, nicStats.second() / 1024, "host",
+                memStat.getTotal() / 1024, memStat.getAvailable() / 1024, 0, cpuStat.getCpuLoadAverage());
     }
 
     @Override
@@ -3851,23 +3950,63 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
         return command.execute();
     }
 
-    public List<VmNetworkStatsEntry> getVmNetworkStat(Connect conn, String vmName) throws LibvirtException {
-        Domain dm = null;
-        try {
-            dm = getDomain(conn, vmName);
+    /**
+     * Interfaces and disks parsed from the XML of a domain. They only change when the domain is defined again, which
+     * gives it a new id, or when devices are hot plugged, which invalidates them explicitly.
+     */
+    private static class DomainDevices {
+        final int domainId;
+        final List<InterfaceDef> interfaces;
+        final List<DiskDef> disks;
 
-            List<VmNetworkStatsEntry> stats = new ArrayList<VmNetworkStatsEntry>();
+        DomainDevices(final int domainId, final List<InterfaceDef> interfaces, final List<DiskDef> disks) {
+            this.domainId = domainId;
+            this.interfaces = interfaces;
+            this.disks = disks;
+        }
+    }
 
-            List<InterfaceDef> nics = getInterfaces(conn, vmName);
+    private DomainDevices getDomainDevices(final Domain dm, final String vmName) throws LibvirtException {
+        final int domainId = dm.getID();
+        DomainDevices devices = _domainDevices.get(vmName);
+        if (devices == null || devices.domainId != domainId) {
+            final LibvirtDomainXMLParser parser = new LibvirtDomainXMLParser();
+            parser.parseDomainXML(dm.getXMLDesc(0));
+            devices = new DomainDevices(domainId, parser.getInterfaces(), parser.getDisks());
+            _domainDevices.put(vmName, devices);
+        }
+        return devices;
+    }
 
-            for (InterfaceDef nic : nics) {
-                DomainInterfaceStats nicStats = dm.interfaceStats(nic.getDevName());
-                String macAddress = nic.getMacAddress();
-                VmNetworkStatsEntry stat = new VmNetworkStatsEntry(vmName, macAddress, nicStats.tx_bytes, nicStats.rx_bytes);
-                stats.add(stat);
-            }
+    /**
+     * Drops the cached devices and stats sample of the domain; to be called when its NICs or disks are plugged or unplugged,
+     * and when the domain is stopped, undefined or migrated away.
+     */
+    public void invalidateDomainDevices(final String vmName) {
+        _domainDevices.remove(vmName);
+        _domainStatsSamples.remove(vmName);
+    }
 
-            return stats;
+    /**
+     * Returns a sample of the counters of the domain, reusing the last one if it was read less than
+     * {@link #DOMAIN_STATS_SAMPLE_MAX_AGE} milliseconds ago.
+     */
+    protected LibvirtDomainStats getDomainStats(final Connect conn, final String vmName) throws LibvirtException {
+        final LibvirtDomainStats cached = _domainStatsSamples.get(vmName);
+        if (cached != null && System.currentTimeMillis() - cached.getTimestamp() < DOMAIN_STATS_SAMPLE_MAX_AGE) {
+            return cached;
+        }
+
+        Domain dm = null;
+        try {
+            dm = getDomain(conn, vmName);
+            if (dm == null) {
+                return null;
+            }
+            final DomainDevices devices = getDomainDevices(dm, vmName);
+            final LibvirtDomainStats sample = new LibvirtDomainStats(dm, devices.interfaces, devices.disks, NUMMEMSTATS);
+            _domainStatsSamples.put(vmName, sample);
+            return sample;
         } finally {
             if (dm != null) {
                 dm.free();
@@ -3875,38 +4014,48 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
         }
     }
 
-    public List<VmDiskStatsEntry> getVmDiskStat(final Connect conn, final String vmName) throws LibvirtException {
-        Domain dm = null;
-        try {
-            dm = getDomain(conn, vmName);
-
-            final List<VmDiskStatsEntry> stats = new ArrayList<VmDiskStatsEntry>();
+    public List<VmNetworkStatsEntry> getVmNetworkStat(Connect conn, String vmName) throws LibvirtException {
+        final LibvirtDomainStats sample = getDomainStats(conn, vmName);
+        List<VmNetworkStatsEntry> stats = new ArrayList<VmNetworkStatsEntry>();
+        if (sample == null) {
+            return stats;
+        }
 
-            final List<DiskDef> disks = getDisks(conn, vmName);
+        for (Map.Entry<InterfaceDef, DomainInterfaceStats> nic : sample.getInterfaceStats().entrySet()) {
+            DomainInterfaceStats nicStats = nic.getValue();
+            String macAddress = nic.getKey().getMacAddress();
+            VmNetworkStatsEntry stat = new VmNetworkStatsEntry(vmName, macAddress, nicStats.tx_bytes, nicStats.rx_bytes);
+            stats.add(stat);
+        }
 
-            for (final DiskDef disk : disks) {
-                if (disk.getDeviceType() != DeviceType.DISK) {
-                    break;
-                }
-                final DomainBlockStats blockStats = dm.blockStats(disk.getDiskLabel());
-                final String path = disk.getDiskPath(); // for example, path = /mnt/pool_uuid/disk_path/
-                String diskPath = null;
-                if (path != null) {
-                    final String[] token = path.split("/");
-                    if (token.length > 3) {
-                        diskPath = token[3];
-                        final VmDiskStatsEntry stat = new VmDiskStatsEntry(vmName, diskPath, blockStats.wr_req, blockStats.rd_req, blockStats.wr_bytes, blockStats.rd_bytes);
-                        stats.add(stat);
-                    }
-                }
-            }
+        return stats;
+    }
 
+    public List<VmDiskStatsEntry> getVmDiskStat(final Connect conn, final String vmName) throws LibvirtException {
+        final LibvirtDomainStats sample = getDomainStats(conn, vmName);
+        final List<VmDiskStatsEntry> stats = new ArrayList<VmDiskStatsEntry>();
+        if (sample == null) {
             return stats;
-        } finally {
-            if (dm != null) {
-                dm.free();
+        }
+
+        for (final DiskDef disk : sample.getDisks()) {
+            if (disk.getDeviceType() != DeviceType.DISK) {
+                break;
+            }
+            final DomainBlockStats blockStats = sample.getBlockStats(disk);
+            final String path = disk.getDiskPath(); // for example, path = /mnt/pool_uuid/disk_path/
+            String diskPath = null;
+            if (path != null) {
+                final String[] token = path.split("/");
+                if (token.length > 3) {
+                    diskPath = token[3];
+                    final VmDiskStatsEntry stat = new VmDiskStatsEntry(vmName, diskPath, blockStats.wr_req, blockStats.rd_req, blockStats.wr_bytes, blockStats.rd_bytes);
+                    stats.add(stat);
+                }
             }
         }
+
+        return stats;
     }
 
     private class VmStats {
@@ -3918,119 +4067,114 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
         long _bytesRead;
         long _bytesWrote;
         Calendar _timestamp;
+        LibvirtDomainStats _sample;
+        VmStatsEntry _entry;
     }
 
     public VmStatsEntry getVmStat(final Connect conn, final String vmName) throws LibvirtException {
-        Domain dm = null;
-        try {
-            dm = getDomain(conn, vmName);
-            if (dm == null) {
-                return null;
-            }
-            DomainInfo info = dm.getInfo();
-            final VmStatsEntry stats = new VmStatsEntry();
+        final LibvirtDomainStats sample = getDomainStats(conn, vmName);
+        if (sample == null) {
+            return null;
+        }
 
-            stats.setNumCPUs(info.nrVirtCpu);
-            stats.setEntityType("vm");
+        /* the deltas of this sample were already reported, they must not be counted twice */
+        VmStats oldStats = _vmStats.get(vmName);
+        if (oldStats != null && oldStats._sample == sample) {
+            final VmStatsEntry entry = oldStats._entry;
+            return new VmStatsEntry(entry.getMemoryKBs(), entry.getIntFreeMemoryKBs(), entry.getTargetMemoryKBs(), entry.getIntUsableMemoryKBs(),
+                    entry.getCPUUtilization(), 0, 0, entry.getNumCPUs(), entry.getEntityType());
+        }
 
-            stats.setMemoryKBs(info.maxMem);
-            stats.setTargetMemoryKBs(info.memory);
-            stats.setIntFreeMemoryKBs(getMemoryFreeInKBs(dm));
-            stats.setIntUsableMemoryKBs(getMemoryUsableInKBs(dm));
+        DomainInfo info = sample.getInfo();
+        final VmStatsEntry stats = new VmStatsEntry();
 
-            /* get cpu utilization */
-            VmStats oldStats = null;
+        stats.setNumCPUs(info.nrVirtCpu);
+        stats.setEntityType("vm");
 
-            final Calendar now = Calendar.getInstance();
+        stats.setMemoryKBs(info.maxMem);
+        stats.setTargetMemoryKBs(info.memory);
+        stats.setIntFreeMemoryKBs(getMemoryFreeInKBs(sample.getMemoryStats()));
+        stats.setIntUsableMemoryKBs(getMemoryUsableInKBs(sample.getMemoryStats()));
 
-            oldStats = _vmStats.get(vmName);
+        /* get cpu utilization */
+        final Calendar now = Calendar.getInstance();
+        now.setTimeInMillis(sample.getTimestamp());
 
-            long elapsedTime = 0;
-            if (oldStats != null) {
-                elapsedTime = now.getTimeInMillis() - oldStats._timestamp.getTimeInMillis();
-                double utilization = (info.cpuTime - oldStats._usedTime) / ((double)elapsedTime * 1000000);
+        long elapsedTime = 0;
+        if (oldStats != null && now.getTimeInMillis() > oldStats._timestamp.getTimeInMillis()) {
+            elapsedTime = now.getTimeInMillis() - oldStats._timestamp.getTimeInMillis();
+            double utilization = (info.cpuTime - oldStats._usedTime) / ((double)elapsedTime * 1000000);
 
-                utilization = utilization / info.nrVirtCpu;
-                if (utilization > 0) {
-                    stats.setCPUUtilization(utilization * 100);
-                }
+            utilization = utilization / info.nrVirtCpu;
+            if (utilization > 0) {
+                stats.setCPUUtilization(utilization * 100);
             }
+        }
 
-            /* get network stats */
+        /* get network stats */
+        long rx = 0;
+        long tx = 0;
+        for (final DomainInterfaceStats ifStats : sample.getInterfaceStats().values()) {
+            rx += ifStats.rx_bytes;
+            tx += ifStats.tx_bytes;
+        }
 
-            final List<InterfaceDef> vifs = getInterfaces(conn, vmName);
-            long rx = 0;
-            long tx = 0;
-            for (final InterfaceDef vif : vifs) {
-                final DomainInterfaceStats ifStats = dm.interfaceStats(vif.getDevName());
-                rx += ifStats.rx_bytes;
-                tx += ifStats.tx_bytes;
+        if (oldStats != null) {
+            final double deltarx = rx - oldStats._rx;
+            if (deltarx > 0) {
+                stats.setNetworkReadKBs(deltarx / 1024);
             }
-
-            if (oldStats != null) {
-                final double deltarx = rx - oldStats._rx;
-                if (deltarx > 0) {
-                    stats.setNetworkReadKBs(deltarx / 1024);
-                }
-                final double deltatx = tx - oldStats._tx;
-                if (deltatx > 0) {
-                    stats.setNetworkWriteKBs(deltatx / 1024);
-                }
+            final double deltatx = tx - oldStats._tx;
+            if (deltatx > 0) {
+                stats.setNetworkWriteKBs(deltatx / 1024);
             }
+        }
 
-            /* get disk stats */
-            final List<DiskDef> disks = getDisks(conn, vmName);
-            long io_rd = 0;
-            long io_wr = 0;
-            long bytes_rd = 0;
-            long bytes_wr = 0;
-            for (final DiskDef disk : disks) {
-                if (disk.getDeviceType() == DeviceType.CDROM || disk.getDeviceType() == DeviceType.FLOPPY) {
-                    continue;
-                }
-                final DomainBlockStats blockStats = dm.blockStats(disk.getDiskLabel());
-                io_rd += blockStats.rd_req;
-                io_wr += blockStats.wr_req;
-                bytes_rd += blockStats.rd_bytes;
-                bytes_wr += blockStats.wr_bytes;
-            }
+        /* get disk stats */
+        long io_rd = 0;
+        long io_wr = 0;
+        long bytes_rd = 0;
+        long bytes_wr = 0;
+        for (final DomainBlockStats blockStats : sample.getBlockStats().values()) {
+            io_rd += blockStats.rd_req;
+            io_wr += blockStats.wr_req;
+            bytes_rd += blockStats.rd_bytes;
+            bytes_wr += blockStats.wr_bytes;
+        }
 
-            if (oldStats != null) {
-                final long deltaiord = io_rd - oldStats._ioRead;
-                if (deltaiord > 0) {
-                    stats.setDiskReadIOs(deltaiord);
-                }
-                final long deltaiowr = io_wr - oldStats._ioWrote;
-                if (deltaiowr > 0) {
-                    stats.setDiskWriteIOs(deltaiowr);
-                }
-                final double deltabytesrd = bytes_rd - oldStats._bytesRead;
-                if (deltabytesrd > 0) {
-                    stats.setDiskReadKBs(deltabytesrd / 1024);
-                }
-                final double deltabyteswr = bytes_wr - oldStats._bytesWrote;
-                if (deltabyteswr > 0) {
-                    stats.setDiskWriteKBs(deltabyteswr / 1024);
-                }
+        if (oldStats != null) {
+            final long deltaiord = io_rd - oldStats._ioRead;
+            if (deltaiord > 0) {
+                stats.setDiskReadIOs(deltaiord);
             }
-
-            /* save to Hashmap */
-            final VmStats newStat = new VmStats();
-            newStat._usedTime = info.cpuTime;
-            newStat._rx = rx;
-            newStat._tx = tx;
-            newStat._ioRead = io_rd;
-            newStat._ioWrote = io_wr;
-            newStat._bytesRead = bytes_rd;
-            newStat._bytesWrote = bytes_wr;
-            newStat._timestamp = now;
-            _vmStats.put(vmName, newStat);
-            return stats;
-        } finally {
-            if (dm != null) {
-                dm.free();
+            final long deltaiowr = io_wr - oldStats._ioWrote;
+            if (deltaiowr > 0) {
+                stats.setDiskWriteIOs(deltaiowr);
+            }
+            final double deltabytesrd = bytes_rd - oldStats._bytesRead;
+            if (deltabytesrd > 0) {
+                stats.setDiskReadKBs(deltabytesrd / 1024);
+            }
+            final double deltabyteswr = bytes_wr - oldStats._bytesWrote;
+            if (deltabyteswr > 0) {
+                stats.setDiskWriteKBs(deltabyteswr / 1024);
             }
         }
+
+        /* save to Hashmap */
+        final VmStats newStat = new VmStats();
+        newStat._usedTime = info.cpuTime;
+        newStat._rx = rx;
+        newStat._tx = tx;
+        newStat._ioRead = io_rd;
+        newStat._ioWrote = io_wr;
+        newStat._bytesRead = bytes_rd;
+        newStat._bytesWrote = bytes_wr;
+        newStat._timestamp = now;
+        newStat._sample = sample;
+        newStat._entry = stats;
+        _vmStats.put(vmName, newStat);
+        return stats;
     }
 
     /**
@@ -4041,7 +4185,10 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
      * @return the amount of free memory in KBs
      */
     protected long getMemoryFreeInKBs(Domain dm) throws LibvirtException {
-        MemoryStatistic[] mems = dm.memoryStats(NUMMEMSTATS);
+        return getMemoryFreeInKBs(dm.memoryStats(NUMMEMSTATS));
+    }
+
+    protected long getMemoryFreeInKBs(MemoryStatistic[] mems) {
         if (ArrayUtils.isEmpty(mems)) {
             return NumberUtils.LONG_ZERO;
         }
@@ -4056,7 +4203,10 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
     }
 
     protected long getMemoryUsableInKBs(Domain dm) throws LibvirtException {
-        MemoryStatistic[] mems = dm.memoryStats(NUMMEMSTATS);
+        return getMemoryUsableInKBs(dm.memoryStats(NUMMEMSTATS));
+    }
+
+    protected long getMemoryUsableInKBs(MemoryStatistic[] mems) {
         if (ArrayUtils.isEmpty(mems)) {
             return NumberUtils.LONG_ZERO;
         }
@@ -0,0 +1,251 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.kvm.resource;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+import org.libvirt.Connect;
+import org.libvirt.Domain;
+import org.libvirt.Library;
+import org.libvirt.LibvirtException;
+import org.libvirt.event.DomainEvent;
+import org.libvirt.event.DomainEventDetail;
+import org.libvirt.event.DomainEventType;
+import org.libvirt.event.LifecycleListener;
+import org.libvirt.event.StoppedReason;
+
+import com.cloud.agent.IAgentControl;
+import com.cloud.agent.api.HostVmStateChangeReportCommand;
+import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.exception.AgentControlChannelException;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.vm.VirtualMachine.PowerState;
+
+/**
+ * Listens to the libvirt domain lifecycle events and reports the VMs which started or stopped to the management server
+ * right away, through {@link HostVmStateChangeReportCommand}. The full VM state report is then only needed in the pings
+ * once per reconciliation interval, or whenever events may have been missed: the event loop died, the libvirtd connection
+ * was reopened, or a change report could not be sent.
+ * <p>
+ * The management server does not order the change reports against the pings, so a full report taken before an event may
+ * be processed after the change and overwrite it with the old state. The ping following an event therefore carries a new
+ * full report, taken after the event, which corrects the state as the pings did before the events were used.
+ */
+public class LibvirtDomainEventMonitor implements LifecycleListener {
+    private static final Logger s_logger = Logger.getLogger(LibvirtDomainEventMonitor.class);
+
+    private static volatile boolean s_eventLoopRunning = false;
+
+    private final LibvirtComputingResource _resource;
+    private final long _fullReportInterval;
+    private final ExecutorService _sender = Executors.newSingleThreadExecutor(new NamedThreadFactory("LibvirtDomainEventSender"));
+
+    /* connections the listener is registered on, compared by identity as a reopened connection is a new object */
+    private final Set<Connect> _connections = Collections.newSetFromMap(new IdentityHashMap<Connect, Boolean>());
+    private final Map<String, HostVmStateReportEntry> _pendingChanges = new HashMap<String, HostVmStateReportEntry>();
+    private boolean _fullReportPending = true;
+    private long _lastFullReport;
+
+    public LibvirtDomainEventMonitor(final LibvirtComputingResource resource, final long fullReportIntervalInSeconds) {
+        _resource = resource;
+        _fullReportInterval = fullReportIntervalInSeconds * 1000L;
+    }
+
+    /**
+     * Registers the libvirt default event loop implementation and runs it in a daemon thread. It has to be called before the
+     * first libvirtd connection is opened, as libvirt only dispatches events on connections opened after that.
+     */
+    public static synchronized void startEventLoop() throws LibvirtException {
+        if (s_eventLoopRunning) {
+            return;
+        }
+        Library.initEventLoop();
+        final Thread eventLoop = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Library.runEventLoop();
+                } catch (final Exception e) {
+                    s_logger.error("The libvirt event loop stopped, VM states will be reported in full on every ping: " + e.getMessage(), e);
+                } finally {
+                    s_eventLoopRunning = false;
+                }
+            }
+        }, "LibvirtEventLoop");
+        eventLoop.setDaemon(true);
+        s_eventLoopRunning = true;
+        eventLoop.start();
+    }
+
+    /**
+     * Makes sure the listener is registered on the given connections and tells whether the ping has to carry the full VM
+     * state report.
+     * @return true when the reconciliation interval elapsed or events may have been missed since the last full report.
+     */
+    public synchronized boolean isFullReportDue(final List<Connect> connections) {
+        boolean due = _fullReportPending || !isEventLoopRunning();
+
+        _connections.retainAll(connections);
+        for (final Connect conn : connections) {
+            if (_connections.contains(conn)) {
+                continue;
+            }
+            try {
+                conn.addLifecycleListener(this);
+                _connections.add(conn);
+            } catch (final LibvirtException e) {
+                s_logger.warn("Unable to listen to the domain lifecycle events of libvirtd: " + e.getMessage());
+            }
+            due = true;
+        }
+
+        final long now = System.currentTimeMillis();
+        if (due || now - _lastFullReport >= _fullReportInterval) {
+            _fullReportPending = false;
+            _lastFullReport = now;
+            return true;
+        }
+        return false;
+    }
+
+    protected boolean isEventLoopRunning() {
+        return s_eventLoopRunning;
+    }
+
+    @Override
+    public int onLifecycleChange(final Domain domain, final DomainEvent event) {
+        final PowerState state = getPowerState(event.getType(), event.getDetail());
+        if (state != null) {
+            reportPowerState(domain, state);
+        }
+        if (isDomainGone(event.getType(), event.getDetail())) {
+            forgetDomain(domain);
+        }
+        return 0;
+    }
+
+    /**
+     * @return whether the domain is no longer defined on this host after the event
+     */
+    protected static boolean isDomainGone(final DomainEventType type, final DomainEventDetail detail) {
+        return type == DomainEventType.UNDEFINED || (type == DomainEventType.STOPPED && StoppedReason.MIGRATED.equals(detail));
+    }
+
+    /**
+     * Drops what the resource cached about the domain, it would otherwise be kept until the agent restarts.
+     */
+    protected void forgetDomain(final Domain domain) {
+        try {
+            _resource.invalidateDomainDevices(domain.getName());
+        } catch (final LibvirtException e) {
+            s_logger.debug("Unable to get the name of an undefined domain: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the power state the domain is in after the event, null if the event is not to be reported
+     */
+    protected static PowerState getPowerState(final DomainEventType type, final DomainEventDetail detail) {
+        switch (type) {
+        case STARTED:
+        case RESUMED:
+        case SUSPENDED:
+        case PMSUSPENDED:
+            return PowerState.PowerOn;
+        case STOPPED:
+            // the domain now runs on the destination host, which reports it
+            if (StoppedReason.MIGRATED.equals(detail)) {
+                return null;
+            }
+            return PowerState.PowerOff;
+        case CRASHED:
+            return PowerState.PowerOff;
+        default:
+            return null;
+        }
+    }
+
+    protected void reportPowerState(final Domain domain, final PowerState state) {
+        try {
+            final String vmName = domain.getName();
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Domain " + vmName + " changed state, reporting power state " + state);
+            }
+            synchronized (this) {
+                _pendingChanges.put(vmName, new HostVmStateReportEntry(state, domain.getConnect().getHostName()));
+                // a full report taken before the event may still be on its way, the next one corrects it
+                _fullReportPending = true;
+            }
+            _sender.execute(this::sendPendingChanges);
+        } catch (final LibvirtException e) {
+            s_logger.warn("Unable to report the power state " + state + " of a domain: " + e.getMessage());
+            requestFullReport();
+        }
+    }
+
+    /**
+     * Sends the changes collected so far in one report; events coming in a burst, e.g. on host shutdown, are coalesced.
+     */
+    private void sendPendingChanges() {
+        final Map<String, HostVmStateReportEntry> changes;
+        synchronized (this) {
+            if (_pendingChanges.isEmpty()) {
+                return;
+            }
+            changes = new HashMap<String, HostVmStateReportEntry>(_pendingChanges);
+            _pendingChanges.clear();
+        }
+
+        final IAgentControl agentControl = _resource.getAgentControl();
+        if (agentControl == null) {
+            requestFullReport();
+            return;
+        }
+        try {
+            agentControl.postRequest(new HostVmStateChangeReportCommand(changes));
+        } catch (final AgentControlChannelException e) {
+            s_logger.warn("Unable to report VM state changes " + changes.keySet() + ", they will be part of the next full report: " + e.getMessage());
+            requestFullReport();
+        }
+    }
+
+    private synchronized void requestFullReport() {
+        _fullReportPending = true;
+    }
+
+    public void stop() {
+        _sender.shutdownNow();
+        synchronized (this) {
+            for (final Connect conn : _connections) {
+                try {
+                    conn.removeLifecycleListener(this);
+                } catch (final LibvirtException e) {
+                    s_logger.trace("Ignoring libvirt error.", e);
+                }
+            }
+            _connections.clear();
+        }
+    }
+}
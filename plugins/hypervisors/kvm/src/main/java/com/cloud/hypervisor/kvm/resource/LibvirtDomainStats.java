@@ -0,0 +1,96 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.kvm.resource;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.libvirt.Domain;
+import org.libvirt.DomainBlockStats;
+import org.libvirt.DomainInfo;
+import org.libvirt.DomainInterfaceStats;
+import org.libvirt.LibvirtException;
+import org.libvirt.MemoryStatistic;
+
+import com.cloud.hypervisor.kvm.resource.LibvirtVMDef.DiskDef;
+import com.cloud.hypervisor.kvm.resource.LibvirtVMDef.DiskDef.DeviceType;
+import com.cloud.hypervisor.kvm.resource.LibvirtVMDef.InterfaceDef;
+
+/**
+ * Counters of one domain read from libvirt in one pass: domain info, balloon stats and the stats of every NIC and
+ * disk. GetVmStatsCommand, GetVmDiskStatsCommand and GetVmNetworkStatsCommand received close together are served
+ * from the same sample instead of each querying libvirtd again.
+ */
+public class LibvirtDomainStats {
+    private final long timestamp;
+    private final DomainInfo info;
+    private final MemoryStatistic[] memoryStats;
+    private final List<DiskDef> disks;
+    private final Map<InterfaceDef, DomainInterfaceStats> interfaceStats = new LinkedHashMap<InterfaceDef, DomainInterfaceStats>();
+    private final Map<DiskDef, DomainBlockStats> blockStats = new LinkedHashMap<DiskDef, DomainBlockStats>();
+
+    /**
+     * Reads the counters of the domain; CD-ROM and floppy drives are skipped as they have no block stats worth reporting.
+     */
+    public LibvirtDomainStats(final Domain dm, final List<InterfaceDef> interfaces, final List<DiskDef> disks, final int memoryStatsCount) throws LibvirtException {
+        this.timestamp = System.currentTimeMillis();
+        this.info = dm.getInfo();
+        this.memoryStats = dm.memoryStats(memoryStatsCount);
+        this.disks = disks;
+        for (final InterfaceDef vif : interfaces) {
+            interfaceStats.put(vif, dm.interfaceStats(vif.getDevName()));
+        }
+        for (final DiskDef disk : disks) {
+            if (disk.getDeviceType() == DeviceType.CDROM || disk.getDeviceType() == DeviceType.FLOPPY) {
+                continue;
+            }
+            blockStats.put(disk, dm.blockStats(disk.getDiskLabel()));
+        }
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public DomainInfo getInfo() {
+        return info;
+    }
+
+    public MemoryStatistic[] getMemoryStats() {
+        return memoryStats;
+    }
+
+    /**
+     * All the disks of the domain, in the order of the domain XML, including the ones without block stats.
+     */
+    public List<DiskDef> getDisks() {
+        return disks;
+    }
+
+    public Map<InterfaceDef, DomainInterfaceStats> getInterfaceStats() {
+        return interfaceStats;
+    }
+
+    public DomainBlockStats getBlockStats(final DiskDef disk) {
+        return blockStats.get(disk);
+    }
+
+    public Map<DiskDef, DomainBlockStats> getBlockStats() {
+        return blockStats;
+    }
+}
@@ -302,6 +302,9 @@ public final class LibvirtMigrateCommandWrapper extends CommandWrapper<MigrateCo
                     }
                     dm.free();
                 }
+                if (result == null) {
+                    libvirtComputingResource.invalidateDomainDevices(vmName);
+                }
                 if (dconn != null) {
                     dconn.close();
                 }
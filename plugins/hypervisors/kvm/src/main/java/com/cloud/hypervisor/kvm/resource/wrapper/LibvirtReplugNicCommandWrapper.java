@@ -82,6 +82,7 @@ public final class LibvirtReplugNicCommandWrapper extends CommandWrapper<ReplugN
 
             s_logger.debug("ReplugNic: Attaching interface" + interfaceDef);
             vm.attachDevice(interfaceDef.toString());
+            libvirtComputingResource.invalidateDomainDevices(vmName);
 
             interfaceDef.setLinkStateUp(true);
             s_logger.debug("ReplugNic: Updating interface" + interfaceDef);
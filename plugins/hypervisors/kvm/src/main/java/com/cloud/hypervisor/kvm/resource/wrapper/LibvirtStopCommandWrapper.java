@@ -96,6 +96,7 @@ public final class LibvirtStopCommandWrapper extends CommandWrapper<StopCommand,
             performAgentStopHook(vmName, libvirtComputingResource);
 
             if (result == null) {
+                libvirtComputingResource.invalidateDomainDevices(vmName);
                 if (disks != null && disks.size() > 0) {
                     for (final DiskDef disk : disks) {
                         libvirtComputingResource.cleanupDisk(disk);
@@ -1196,9 +1196,11 @@ public class KVMStorageProcessor implements StorageProcessor {
             if (attach) {
                 s_logger.debug("Attaching device: " + xml);
                 dm.attachDevice(xml);
+                resource.invalidateDomainDevices(vmName);
             } else {
                 s_logger.debug("Detaching device: " + xml);
                 dm.detachDevice(xml);
+                resource.invalidateDomainDevices(vmName);
                 LibvirtDomainXMLParser parser = new LibvirtDomainXMLParser();
                 parser.parseDomainXML(dm.getXMLDesc(0));
                 List<DiskDef> disks = parser.getDisks();
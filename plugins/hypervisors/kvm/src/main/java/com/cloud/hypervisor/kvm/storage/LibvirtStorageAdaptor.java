@@ -17,12 +17,22 @@
 package com.cloud.hypervisor.kvm.storage;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.function.DoubleConsumer;
 
 import org.apache.cloudstack.utils.qemu.QemuImg;
 import org.apache.cloudstack.utils.qemu.QemuImg.PhysicalDiskFormat;
@@ -46,6 +56,8 @@ import com.ceph.rbd.RbdException;
 import com.ceph.rbd.RbdImage;
 import com.ceph.rbd.jna.RbdImageInfo;
 import com.ceph.rbd.jna.RbdSnapInfo;
+import com.cloud.agent.properties.AgentProperties;
+import com.cloud.agent.properties.AgentPropertiesFileHandler;
 import com.cloud.exception.InternalErrorException;
 import com.cloud.hypervisor.kvm.resource.LibvirtConnection;
 import com.cloud.hypervisor.kvm.resource.LibvirtSecretDef;
@@ -60,6 +72,7 @@ import com.cloud.hypervisor.kvm.resource.LibvirtStorageVolumeXMLParser;
 import com.cloud.storage.Storage;
 import com.cloud.storage.Storage.StoragePoolType;
 import com.cloud.storage.StorageLayer;
+import com.cloud.utils.FileUtil;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.script.Script;
 
@@ -74,6 +87,8 @@ public class LibvirtStorageAdaptor implements StorageAdaptor {
     private StorageLayer _storageLayer;
     private String _mountPoint = "/mnt";
     private String _manageSnapshotPath;
+    private int _convertCoroutines;
+    private boolean _convertOutOfOrderWrites;
 
     private String rbdTemplateSnapName = "cloudstack-base-snap";
     private static final int RBD_FEATURE_LAYERING = 1;
@@ -90,6 +105,39 @@ public class LibvirtStorageAdaptor implements StorageAdaptor {
     public LibvirtStorageAdaptor(StorageLayer storage) {
         _storageLayer = storage;
         _manageSnapshotPath = Script.findScript("scripts/storage/qcow2/", "managesnapshot.sh");
+        _convertCoroutines = AgentPropertiesFileHandler.getPropertyValue(AgentProperties.QEMU_IMG_CONVERT_COROUTINES);
+        _convertOutOfOrderWrites = AgentPropertiesFileHandler.getPropertyValue(AgentProperties.QEMU_IMG_CONVERT_OUT_OF_ORDER_WRITES);
+    }
+
+    /**
+     * Returns a QemuImg for copying disks, tuned through the agent properties and logging the progress of the conversion
+     */
+    private QemuImg createConvertingQemuImg(int timeout, String description) {
+        QemuImg qemu = new QemuImg(timeout);
+        qemu.setConvertCoroutines(_convertCoroutines);
+        qemu.setConvertOutOfOrderWrites(_convertOutOfOrderWrites);
+        qemu.setProgressListener(new ConvertProgressLogger(description));
+        return qemu;
+    }
+
+    private static class ConvertProgressLogger implements DoubleConsumer {
+        private static final int STEP_PERCENT = 10;
+
+        private final String _description;
+        private int _lastStep = -1;
+
+        ConvertProgressLogger(String description) {
+            _description = description;
+        }
+
+        @Override
+        public void accept(double progress) {
+            int step = (int)progress / STEP_PERCENT;
+            if (step > _lastStep) {
+                _lastStep = step;
+                s_logger.debug(String.format("qemu-img progress of %s: %.0f%%", _description, progress));
+            }
+        }
     }
 
     @Override
@@ -142,8 +190,18 @@ public class LibvirtStorageAdaptor implements StorageAdaptor {
      * @return true if it should be extracted, false if not
      */
     private boolean isTemplateExtractable(String templatePath) {
-        String type = Script.runSimpleBashScript("file " + templatePath + " | awk -F' ' '{print $2}'");
-        return type.equalsIgnoreCase("bzip2") || type.equalsIgnoreCase("gzip") || type.equalsIgnoreCase("zip");
+        byte[] magic = new byte[4];
+        int read;
+        try (InputStream in = new FileInputStream(templatePath)) {
+            read = in.read(magic);
+        } catch (IOException e) {
+            s_logger.warn("Unable to read the header of template " + templatePath + ": " + e.getMessage());
+            return false;
+        }
+        boolean gzip = read >= 2 && magic[0] == (byte)0x1f && magic[1] == (byte)0x8b;
+        boolean bzip2 = read >= 3 && magic[0] == 'B' && magic[1] == 'Z' && magic[2] == 'h';
+        boolean zip = read >= 4 && magic[0] == 'P' && magic[1] == 'K' && magic[2] == 3 && magic[3] == 4;
+        return gzip || bzip2 || zip;
     }
 
     /**
@@ -169,7 +227,42 @@ public class LibvirtStorageAdaptor implements StorageAdaptor {
     private void extractDownloadedTemplate(String downloadedTemplateFile, KVMStoragePool destPool, String destinationFile) {
         String extractCommand = getExtractCommandForDownloadedFile(downloadedTemplateFile, destinationFile);
         Script.runSimpleBashScript(extractCommand);
-        Script.runSimpleBashScript("rm -f " + downloadedTemplateFile);
+        try {
+            Files.deleteIfExists(Paths.get(downloadedTemplateFile));
+        } catch (IOException e) {
+            s_logger.warn("Failed to remove downloaded template file " + downloadedTemplateFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Checks /proc/mounts for the path instead of forking mountpoint(1)
+     */
+    private boolean isMountPoint(String path) {
+        String target;
+        try {
+            target = new File(path).getCanonicalPath();
+            for (String line : Files.readAllLines(Paths.get("/proc/mounts"), StandardCharsets.UTF_8)) {
+                String[] fields = line.split(" ");
+                if (fields.length > 1 && target.equals(fields[1].replace("\\040", " "))) {
+                    return true;
+                }
+            }
+        } catch (IOException e) {
+            s_logger.debug("Unable to check whether " + path + " is mounted: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Creates the directory (and its parents) with 755 permissions
+     */
+    private void createDirectory(String path) {
+        try {
+            Path dir = Files.createDirectories(Paths.get(path));
+            Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwxr-xr-x"));
+        } catch (IOException e) {
+            throw new CloudRuntimeException("Failed to create directory " + path, e);
+        }
     }
 
     @Override
@@ -189,7 +282,11 @@ public class LibvirtStorageAdaptor implements StorageAdaptor {
             if (!Storage.ImageFormat.ISO.equals(format) && isTemplateExtractable(templateFilePath)) {
                 extractDownloadedTemplate(templateFilePath, destPool, destinationFile);
             } else {
-                Script.runSimpleBashScript("mv " + templateFilePath + " " + destinationFile);
+                try {
+                    Files.move(Paths.get(templateFilePath), Paths.get(destinationFile), StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException e) {
+                    throw new CloudRuntimeException("Failed to move direct download template " + templateFilePath + " to " + destinationFile, e);
+                }
             }
         }
         return destPool.getPhysicalDisk(templateUuid);
@@ -253,9 +350,8 @@ public class LibvirtStorageAdaptor implements StorageAdaptor {
         try {
             s_logger.debug(spd.toString());
             // check whether the pool is already mounted
-            int mountpointResult = Script.runSimpleBashScriptForExitValue("mountpoint -q " + targetPath);
             // if the pool is mounted, try to unmount it
-            if(mountpointResult == 0) {
+            if (isMountPoint(targetPath)) {
                 s_logger.info("Attempting to unmount old mount at " + targetPath);
                 String result = Script.runSimpleBashScript("umount -l " + targetPath);
                 if (result == null) {
@@ -407,7 +503,11 @@ public class LibvirtStorageAdaptor implements StorageAdaptor {
         StorageVol vol = destPool.storageVolCreateXML(destVol.toString(), 0);
         String srcPath = srcVol.getKey();
         String destPath = vol.getKey();
-        Script.runSimpleBashScript("cp " + srcPath + " " + destPath, timeout);
+        try {
+            FileUtil.copySparseFile(new File(srcPath), new File(destPath), timeout);
+        } catch (IOException e) {
+            s_logger.error("Failed to copy volume " + srcPath + " to " + destPath + ": " + e.getMessage());
+        }
         return vol;
     }
 
@@ -416,8 +516,13 @@ public class LibvirtStorageAdaptor implements StorageAdaptor {
         if (!_storageLayer.exists(srcPath)) {
             throw new InternalErrorException("volume:" + srcPath + " is not exits");
         }
-        String result = Script.runSimpleBashScript("cp " + srcPath + " " + destPath + File.separator + volumeName, timeout);
-        return result == null;
+        try {
+            FileUtil.copySparseFile(new File(srcPath), new File(destPath + File.separator + volumeName), timeout);
+        } catch (IOException e) {
+            s_logger.error("Failed to copy volume " + srcPath + " to " + destPath + ": " + e.getMessage());
+            return false;
+        }
+        return true;
     }
 
     public LibvirtStoragePoolDef getStoragePoolDef(Connect conn, StoragePool pool) throws LibvirtException {
@@ -994,11 +1099,10 @@ public class LibvirtStorageAdaptor implements StorageAdaptor {
                 if (template.getFormat() == PhysicalDiskFormat.TAR) {
                     Script.runSimpleBashScript("tar -x -f " + template.getPath() + " -C " + disk.getPath(), timeout); // TO BE FIXED to aware provisioningType
                 } else if (template.getFormat() == PhysicalDiskFormat.DIR) {
-                    Script.runSimpleBashScript("mkdir -p " + disk.getPath());
-                    Script.runSimpleBashScript("chmod 755 " + disk.getPath());
+                    createDirectory(disk.getPath());
                     Script.runSimpleBashScript("tar -x -f " + template.getPath() + "/*.tar -C " + disk.getPath(), timeout);
                 } else if (format == PhysicalDiskFormat.QCOW2) {
-                    QemuImg qemu = new QemuImg(timeout);
+                    QemuImg qemu = createConvertingQemuImg(timeout, "creation of " + name + " from template " + template.getName());
                     QemuImgFile destFile = new QemuImgFile(disk.getPath(), format);
                     if (size > template.getVirtualSize()) {
                         destFile.setSize(size);
@@ -1026,7 +1130,14 @@ public class LibvirtStorageAdaptor implements StorageAdaptor {
                     } else {
                         destFile.setSize(template.getVirtualSize());
                     }
-                    QemuImg qemu = new QemuImg(timeout);
+                    QemuImg qemu = createConvertingQemuImg(timeout, "creation of " + name + " from template " + template.getName());
+                    // on file based pools the raw disk was just created by qemu-img create, either sparse (off, metadata) or
+                    // preallocated with zeros (full), so it reads as zeros and qemu-img can skip writing them into it; when
+                    // the creation failed the file is missing and qemu-img creates it as before
+                    if ((destPool.getType() == StoragePoolType.NetworkFilesystem || destPool.getType() == StoragePoolType.Filesystem)
+                            && new File(disk.getPath()).isFile()) {
+                        qemu.setSkipTargetCreation(true, true);
+                    }
                     Map<String, String> options = new HashMap<String, String>();
                     qemu.convert(sourceFile, destFile, options, null);
                 }
@@ -1067,7 +1178,7 @@ public class LibvirtStorageAdaptor implements StorageAdaptor {
         }
 
 
-        QemuImg qemu = new QemuImg(timeout);
+        QemuImg qemu = createConvertingQemuImg(timeout, "creation of " + name + " from template " + template.getName());
         QemuImgFile srcFile;
         QemuImgFile destFile = new QemuImgFile(KVMPhysicalDisk.RBDStringBuilder(destPool.getSourceHost(),
                 destPool.getSourcePort(),
@@ -1283,7 +1394,7 @@ public class LibvirtStorageAdaptor implements StorageAdaptor {
         String destPath = newDisk.getPath();
         PhysicalDiskFormat destFormat = newDisk.getFormat();
 
-        QemuImg qemu = new QemuImg(timeout);
+        QemuImg qemu = createConvertingQemuImg(timeout, "copy of " + disk.getName() + " to " + name);
         QemuImgFile srcFile = null;
         QemuImgFile destFile = null;
 
@@ -1293,8 +1404,7 @@ public class LibvirtStorageAdaptor implements StorageAdaptor {
             } else if (sourceFormat == PhysicalDiskFormat.TAR) {
                 Script.runSimpleBashScript("tar -x -f " + sourcePath + " -C " + destPath, timeout);
             } else if (sourceFormat == PhysicalDiskFormat.DIR) {
-                Script.runSimpleBashScript("mkdir -p " + destPath);
-                Script.runSimpleBashScript("chmod 755 " + destPath);
+                createDirectory(destPath);
                 Script.runSimpleBashScript("cp -p -r " + sourcePath + "/* " + destPath, timeout);
             } else {
                 srcFile = new QemuImgFile(sourcePath, sourceFormat);
@@ -1303,9 +1413,10 @@ public class LibvirtStorageAdaptor implements StorageAdaptor {
                     String backingFile = info.get(QemuImg.BACKING_FILE);
                     // qcow2 templates can just be copied into place
                     if (sourceFormat.equals(destFormat) && backingFile == null && sourcePath.endsWith(".qcow2")) {
-                        String result = Script.runSimpleBashScript("cp -f " + sourcePath + " " + destPath, timeout);
-                        if (result != null) {
-                            throw new CloudRuntimeException("Failed to create disk: " + result);
+                        try {
+                            FileUtil.copySparseFile(new File(sourcePath), new File(destPath), timeout);
+                        } catch (IOException e) {
+                            throw new CloudRuntimeException("Failed to create disk: " + e.getMessage(), e);
                         }
                     } else {
                         destFile = new QemuImgFile(destPath, destFormat);
@@ -1415,7 +1526,7 @@ public class LibvirtStorageAdaptor implements StorageAdaptor {
         if (destPool.getType() == StoragePoolType.NetworkFilesystem) {
             try {
                 if (format == PhysicalDiskFormat.QCOW2) {
-                    QemuImg qemu = new QemuImg(timeout);
+                    QemuImg qemu = createConvertingQemuImg(timeout, "creation of " + name + " from snapshot " + snapshotName);
                     QemuImgFile destFile = new QemuImgFile(destPath, format);
                     if (size > snapshot.getVirtualSize()) {
                         destFile.setSize(size);
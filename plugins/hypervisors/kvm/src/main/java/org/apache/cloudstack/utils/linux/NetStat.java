@@ -0,0 +1,135 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.utils.linux;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Reads network information straight from procfs/sysfs, replacing the
+ * ip/ethtool/grep pipelines the agent used to fork for it.
+ */
+public class NetStat {
+    private static final Logger s_logger = Logger.getLogger(NetStat.class);
+
+    private static final String PROC_NET_VLAN_DIR = "/proc/net/vlan";
+    private static final String PROC_NET_ROUTE = "/proc/net/route";
+    private static final String SYS_CLASS_NET_DIR = "/sys/class/net";
+
+    private NetStat() {
+    }
+
+    /**
+     * @return the raw device the vlan interface sits on, null if it is not a vlan interface
+     */
+    public static String getVlanRawDevice(final String iface) {
+        final List<String> lines = readLines(new File(PROC_NET_VLAN_DIR, iface));
+        for (final String line : lines) {
+            if (line.startsWith("Device:")) {
+                final String[] tokens = line.trim().split("\\s+");
+                if (tokens.length >= 2) {
+                    return tokens[1];
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the IPv4 default gateway with the lowest metric, null if there is none
+     */
+    public static String getDefaultGateway() {
+        return parseDefaultGateway(readLines(new File(PROC_NET_ROUTE)));
+    }
+
+    protected static String parseDefaultGateway(final List<String> routeLines) {
+        String gateway = null;
+        long bestMetric = Long.MAX_VALUE;
+        for (final String line : routeLines) {
+            // Iface Destination Gateway Flags RefCnt Use Metric Mask MTU Window IRTT
+            final String[] tokens = line.trim().split("\\s+");
+            if (tokens.length < 8 || !"00000000".equals(tokens[1]) || !"00000000".equals(tokens[7])) {
+                continue;
+            }
+            try {
+                final long address = Long.parseLong(tokens[2], 16);
+                final long metric = Long.parseLong(tokens[6]);
+                if (address == 0 || metric >= bestMetric) {
+                    continue;
+                }
+                // the kernel prints the address in host (little endian) byte order
+                gateway = (address & 0xff) + "." + (address >> 8 & 0xff) + "." + (address >> 16 & 0xff) + "." + (address >> 24 & 0xff);
+                bestMetric = metric;
+            } catch (final NumberFormatException e) {
+                s_logger.trace("Ignoring unparsable route entry: " + line);
+            }
+        }
+        return gateway;
+    }
+
+    /**
+     * @return the link speed of the interface in Mbit/s, 0 if unknown
+     */
+    public static int getLinkSpeed(final String iface) {
+        final List<String> lines = readLines(new File(new File(SYS_CLASS_NET_DIR, iface), "speed"));
+        if (lines.isEmpty()) {
+            return 0;
+        }
+        try {
+            final int speed = Integer.parseInt(lines.get(0).trim());
+            return speed > 0 ? speed : 0;
+        } catch (final NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public static boolean interfaceExists(final String iface) {
+        return new File(SYS_CLASS_NET_DIR, iface).exists();
+    }
+
+    /**
+     * @return the names of the interfaces enslaved to the bridge, empty if it is not a bridge
+     */
+    public static List<String> getBridgePorts(final String bridge) {
+        final String[] ports = new File(new File(SYS_CLASS_NET_DIR, bridge), "brif").list();
+        if (ports == null) {
+            return Collections.emptyList();
+        }
+        final List<String> result = new ArrayList<String>(ports.length);
+        Collections.addAll(result, ports);
+        return result;
+    }
+
+    private static List<String> readLines(final File file) {
+        if (!file.isFile()) {
+            return Collections.emptyList();
+        }
+        try {
+            return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        } catch (final IOException e) {
+            s_logger.debug("Failed to read " + file.getAbsolutePath() + ": " + e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+}
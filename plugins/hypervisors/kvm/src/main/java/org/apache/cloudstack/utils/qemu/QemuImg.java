@@ -19,6 +19,7 @@ package org.apache.cloudstack.utils.qemu;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.function.DoubleConsumer;
 
 import com.cloud.hypervisor.kvm.resource.LibvirtConnection;
 import com.cloud.storage.Storage;
@@ -40,6 +41,11 @@ public class QemuImg {
     public String _qemuImgPath = "qemu-img";
     private String cloudQemuImgPath = "cloud-qemu-img";
     private int timeout;
+    private int convertCoroutines;
+    private boolean convertOutOfOrderWrites;
+    private boolean skipTargetCreation;
+    private boolean targetIsZero;
+    private DoubleConsumer progressListener;
 
     private String getQemuImgPathScript = String.format("which %s >& /dev/null; " +
                     "if [ $? -gt 0 ]; then echo \"%s\"; else echo \"%s\"; fi",
@@ -110,6 +116,36 @@ public class QemuImg {
         _qemuImgPath = qemuImgPath;
     }
 
+    /**
+     * Number of coroutines qemu-img convert runs in parallel (-m), 0 keeps the qemu-img default.
+     */
+    public void setConvertCoroutines(final int convertCoroutines) {
+        this.convertCoroutines = convertCoroutines;
+    }
+
+    /**
+     * Lets qemu-img convert write out of order (-W) when the destination is raw.
+     */
+    public void setConvertOutOfOrderWrites(final boolean convertOutOfOrderWrites) {
+        this.convertOutOfOrderWrites = convertOutOfOrderWrites;
+    }
+
+    /**
+     * Converts into the existing destination (-n) instead of creating it; options are then ignored.
+     * @param targetIsZero if the existing destination is known to read as zeros, so qemu-img can skip writing them
+     */
+    public void setSkipTargetCreation(final boolean skipTargetCreation, final boolean targetIsZero) {
+        this.skipTargetCreation = skipTargetCreation;
+        this.targetIsZero = skipTargetCreation && targetIsZero;
+    }
+
+    /**
+     * Receives the progress of qemu-img convert, in percent, while it is running (-p).
+     */
+    public void setProgressListener(final DoubleConsumer progressListener) {
+        this.progressListener = progressListener;
+    }
+
     /* These are all methods supported by the qemu-img tool */
 
     /* Perform a consistency check on the disk image */
@@ -249,6 +285,8 @@ public class QemuImg {
             String qemuPath = Script.runSimpleBashScript(getQemuImgPathScript);
             script = new Script(qemuPath, timeout);
         }
+        // a conversion may take hours, it must not hold one of the slots the short commands wait for
+        script.setLongRunning(true);
 
         script.add("convert");
         Long version  = LibvirtConnection.getConnection().getVersion();
@@ -256,6 +294,32 @@ public class QemuImg {
             script.add("-U");
         }
 
+        if (version >= 2009000) {
+            if (convertCoroutines > 0) {
+                script.add("-m");
+                script.add(String.valueOf(convertCoroutines));
+            }
+            if (convertOutOfOrderWrites && destFile.getFormat() == PhysicalDiskFormat.RAW) {
+                script.add("-W");
+            }
+        }
+
+        if (skipTargetCreation) {
+            script.add("-n");
+            if (targetIsZero && version >= 5000000) {
+                script.add("--target-is-zero");
+            }
+        }
+
+        QemuImgProgressParser progressParser = null;
+        OutputInterpreter.AllLinesParser errorParser = null;
+        if (progressListener != null) {
+            script.add("-p");
+            progressParser = new QemuImgProgressParser(progressListener);
+            errorParser = new OutputInterpreter.AllLinesParser();
+            script.setErrorInterpreter(errorParser);
+        }
+
         // autodetect source format unless specified explicitly
         if (forceSourceFormat) {
             script.add("-f");
@@ -265,7 +329,7 @@ public class QemuImg {
         script.add("-O");
         script.add(destFile.getFormat().toString());
 
-        if (options != null && !options.isEmpty()) {
+        if (options != null && !options.isEmpty() && !skipTargetCreation) {
             script.add("-o");
             final StringBuffer optionsBuffer = new StringBuffer();
             for (final Map.Entry<String, String> option : options.entrySet()) {
@@ -288,8 +352,11 @@ public class QemuImg {
         script.add(srcFile.getFileName());
         script.add(destFile.getFileName());
 
-        final String result = script.execute();
+        final String result = progressParser != null ? script.execute(progressParser) : script.execute();
         if (result != null) {
+            if (errorParser != null && StringUtils.isNotBlank(errorParser.getLines())) {
+                throw new QemuImgException(errorParser.getLines().trim());
+            }
             throw new QemuImgException(result);
         }
 
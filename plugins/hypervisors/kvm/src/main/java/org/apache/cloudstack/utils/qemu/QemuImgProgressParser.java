@@ -0,0 +1,80 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.utils.qemu;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.function.DoubleConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.cloud.utils.script.OutputInterpreter;
+
+/**
+ * Follows the "(12.34/100%)" progress updates qemu-img prints with -p while it is running
+ * and hands them to the listener as they arrive.
+ */
+public class QemuImgProgressParser extends OutputInterpreter {
+    private static final Pattern PROGRESS_PATTERN = Pattern.compile("\\((\\d+(?:\\.\\d+)?)/100%\\)");
+
+    private final DoubleConsumer _listener;
+    private volatile double _progress;
+
+    public QemuImgProgressParser(DoubleConsumer listener) {
+        _listener = listener;
+    }
+
+    @Override
+    public boolean drain() {
+        return true;
+    }
+
+    @Override
+    public String interpret(BufferedReader reader) throws IOException {
+        String line;
+        // qemu-img separates the updates with carriage returns only, which readLine() also splits on
+        while ((line = reader.readLine()) != null) {
+            double progress = parseProgress(line);
+            if (progress >= 0 && progress != _progress) {
+                _progress = progress;
+                _listener.accept(progress);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String processError(BufferedReader reader) throws IOException {
+        // the output is consumed by interpret(), the error message is read from stderr by the caller
+        return "";
+    }
+
+    public double getProgress() {
+        return _progress;
+    }
+
+    /**
+     * @return the percentage in the progress update, -1 if the line is not one
+     */
+    protected static double parseProgress(String line) {
+        Matcher matcher = PROGRESS_PATTERN.matcher(line);
+        if (!matcher.find()) {
+            return -1;
+        }
+        return Double.parseDouble(matcher.group(1));
+    }
+}
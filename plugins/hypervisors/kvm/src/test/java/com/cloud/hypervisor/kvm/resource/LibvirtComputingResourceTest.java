@@ -67,10 +67,10 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.libvirt.Connect;
 import org.libvirt.Domain;
-//import org.libvirt.DomainBlockStats;
+import org.libvirt.DomainBlockStats;
 import org.libvirt.DomainInfo;
 import org.libvirt.DomainInfo.DomainState;
-//import org.libvirt.DomainInterfaceStats;
+import org.libvirt.DomainInterfaceStats;
 import org.libvirt.LibvirtException;
 //import org.libvirt.MemoryStatistic;
 //import org.libvirt.NodeInfo;
@@ -144,7 +144,9 @@ import com.cloud.agent.api.UnPlugNicCommand;
 import com.cloud.agent.api.UnsupportedAnswer;
 import com.cloud.agent.api.UpdateHostPasswordCommand;
 import com.cloud.agent.api.UpgradeSnapshotCommand;
-//import com.cloud.agent.api.VmStatsEntry;
+import com.cloud.agent.api.VmDiskStatsEntry;
+import com.cloud.agent.api.VmNetworkStatsEntry;
+import com.cloud.agent.api.VmStatsEntry;
 import com.cloud.agent.api.check.CheckSshCommand;
 import com.cloud.agent.api.proxy.CheckConsoleProxyLoadCommand;
 import com.cloud.agent.api.proxy.WatchConsoleProxyLoadCommand;
@@ -1422,6 +1424,7 @@ public class LibvirtComputingResourceTest {
         final String uuid = "e8d6b4d0-bc6d-4613-b8bb-cb9e0600f3c6";
         final GetHostStatsCommand command = new GetHostStatsCommand(uuid, "summer", 1l);
 
+        when(libvirtComputingResource.getHostStatsEntry(1L)).thenCallRealMethod();
         when(libvirtComputingResource.getCPUStat()).thenReturn(cpuStat);
         when(libvirtComputingResource.getMemStat()).thenReturn(memStat);
         when(libvirtComputingResource.getNicStats(nullable(String.class))).thenReturn(new Pair<Double, Double>(1.0d, 1.0d));
@@ -5555,6 +5558,76 @@ public class LibvirtComputingResourceTest {
         }
     }
 
+    @Test
+    public void testVmStatsAreServedFromOneDomainStatsSample() throws LibvirtException {
+        final LibvirtComputingResource lcr = new LibvirtComputingResource();
+        final String vmName = "i-2-3-VM";
+        final String domainXml = "<domain type='kvm' id='3'><name>" + vmName + "</name><devices>"
+                + "<disk type='file' device='disk'><driver name='qemu' type='qcow2'/><source file='/mnt/pool-uuid/volume-uuid'/><target dev='vda' bus='virtio'/></disk>"
+                + "<interface type='bridge'><mac address='02:00:0a:00:00:01'/><source bridge='cloudbr0'/><target dev='vnet0'/><model type='virtio'/></interface>"
+                + "</devices></domain>";
+        final Connect conn = Mockito.mock(Connect.class);
+        final Domain dm = Mockito.mock(Domain.class);
+        final DomainInterfaceStats nicStats = new DomainInterfaceStats();
+        nicStats.rx_bytes = 2048;
+        nicStats.tx_bytes = 1024;
+        final DomainBlockStats blockStats = new DomainBlockStats();
+        blockStats.rd_req = 10;
+        blockStats.wr_req = 20;
+        when(conn.domainLookupByName(vmName)).thenReturn(dm);
+        when(dm.getID()).thenReturn(3);
+        when(dm.getXMLDesc(0)).thenReturn(domainXml);
+        when(dm.getInfo()).thenReturn(new DomainInfo());
+        when(dm.interfaceStats("vnet0")).thenReturn(nicStats);
+        when(dm.blockStats("vda")).thenReturn(blockStats);
+
+        final VmStatsEntry vmStats = lcr.getVmStat(conn, vmName);
+        final List<VmDiskStatsEntry> diskStats = lcr.getVmDiskStat(conn, vmName);
+        final List<VmNetworkStatsEntry> networkStats = lcr.getVmNetworkStat(conn, vmName);
+
+        assertNotNull(vmStats);
+        Assert.assertEquals(1, diskStats.size());
+        Assert.assertEquals("volume-uuid", diskStats.get(0).getPath());
+        Assert.assertEquals(10, diskStats.get(0).getIORead());
+        Assert.assertEquals(1, networkStats.size());
+        Assert.assertEquals(2048, networkStats.get(0).getBytesReceived());
+        Assert.assertNotSame(vmStats, lcr.getVmStat(conn, vmName));
+        verify(conn, times(1)).domainLookupByName(vmName);
+        verify(dm, times(1)).getXMLDesc(0);
+        verify(dm, times(1)).interfaceStats("vnet0");
+        verify(dm, times(1)).blockStats("vda");
+    }
+
+    @Test
+    public void testVmStatsOfARepeatedSampleHaveNoDeltas() throws LibvirtException {
+        final LibvirtComputingResource lcr = new LibvirtComputingResource();
+        final String vmName = "i-2-3-VM";
+        final String domainXml = "<domain type='kvm' id='3'><name>" + vmName + "</name><devices>"
+                + "<interface type='bridge'><mac address='02:00:0a:00:00:01'/><source bridge='cloudbr0'/><target dev='vnet0'/><model type='virtio'/></interface>"
+                + "</devices></domain>";
+        final Connect conn = Mockito.mock(Connect.class);
+        final Domain dm = Mockito.mock(Domain.class);
+        final DomainInterfaceStats nicStats = new DomainInterfaceStats();
+        final DomainInfo info = new DomainInfo();
+        info.maxMem = 1048576;
+        when(conn.domainLookupByName(vmName)).thenReturn(dm);
+        when(dm.getID()).thenReturn(3);
+        when(dm.getXMLDesc(0)).thenReturn(domainXml);
+        when(dm.getInfo()).thenReturn(info);
+        when(dm.interfaceStats("vnet0")).thenReturn(nicStats);
+
+        lcr.getVmStat(conn, vmName);
+        nicStats.rx_bytes = 2048;
+        lcr.invalidateDomainDevices(vmName);
+        final VmStatsEntry vmStats = lcr.getVmStat(conn, vmName);
+        final VmStatsEntry repeated = lcr.getVmStat(conn, vmName);
+
+        Assert.assertEquals(2, vmStats.getNetworkReadKBs(), 0);
+        Assert.assertEquals(0, repeated.getNetworkReadKBs(), 0);
+        Assert.assertEquals(1048576, repeated.getMemoryKBs(), 0);
+        verify(conn, times(2)).domainLookupByName(vmName);
+    }
+
     // @Test
     // public void testMemoryFreeInKBsDomainReturningOfSomeMemoryStatistics() throws LibvirtException {
     //     LibvirtComputingResource libvirtComputingResource = new LibvirtComputingResource();
@@ -0,0 +1,153 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.kvm.resource;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.libvirt.Connect;
+import org.libvirt.Domain;
+import org.libvirt.LibvirtException;
+import org.libvirt.event.DomainEventType;
+import org.libvirt.event.StoppedReason;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.cloud.agent.IAgentControl;
+import com.cloud.agent.api.HostVmStateChangeReportCommand;
+import com.cloud.vm.VirtualMachine.PowerState;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LibvirtDomainEventMonitorTest {
+
+    @Mock
+    private LibvirtComputingResource resource;
+    @Mock
+    private IAgentControl agentControl;
+    @Mock
+    private Connect conn;
+    @Mock
+    private Domain domain;
+
+    private LibvirtDomainEventMonitor monitor;
+    private List<Connect> connections;
+
+    @Before
+    public void setUp() {
+        monitor = spy(new LibvirtDomainEventMonitor(resource, 600));
+        doReturn(true).when(monitor).isEventLoopRunning();
+        connections = Collections.singletonList(conn);
+    }
+
+    @After
+    public void tearDown() {
+        monitor.stop();
+    }
+
+    @Test
+    public void isFullReportDueTestFirstPingThenInterval() throws LibvirtException {
+        Assert.assertTrue(monitor.isFullReportDue(connections));
+        Assert.assertFalse(monitor.isFullReportDue(connections));
+        verify(conn).addLifecycleListener(monitor);
+    }
+
+    @Test
+    public void isFullReportDueTestNewConnection() throws LibvirtException {
+        final Connect reopenedConn = mock(Connect.class);
+        monitor.isFullReportDue(connections);
+
+        Assert.assertTrue(monitor.isFullReportDue(Arrays.asList(reopenedConn)));
+        verify(reopenedConn).addLifecycleListener(monitor);
+    }
+
+    @Test
+    public void isFullReportDueTestEventLoopNotRunning() {
+        doReturn(false).when(monitor).isEventLoopRunning();
+
+        Assert.assertTrue(monitor.isFullReportDue(connections));
+        Assert.assertTrue(monitor.isFullReportDue(connections));
+    }
+
+    @Test
+    public void reportPowerStateTestSendsChangeAndFullReportOnNextPing() throws Exception {
+        when(resource.getAgentControl()).thenReturn(agentControl);
+        when(domain.getName()).thenReturn("i-2-10-VM");
+        when(domain.getConnect()).thenReturn(conn);
+        when(conn.getHostName()).thenReturn("kvm1");
+        monitor.isFullReportDue(connections);
+
+        monitor.reportPowerState(domain, PowerState.PowerOff);
+
+        final ArgumentCaptor<HostVmStateChangeReportCommand> command = ArgumentCaptor.forClass(HostVmStateChangeReportCommand.class);
+        verify(agentControl, timeout(5000)).postRequest(command.capture());
+        Assert.assertEquals(PowerState.PowerOff, command.getValue().getHostVmStateChanges().get("i-2-10-VM").getState());
+        // the full report of the previous ping may be processed after the change, the next one corrects it
+        Assert.assertTrue(monitor.isFullReportDue(connections));
+        Assert.assertFalse(monitor.isFullReportDue(connections));
+    }
+
+    @Test
+    public void reportPowerStateTestDomainUnavailable() throws LibvirtException {
+        when(domain.getName()).thenThrow(LibvirtException.class);
+        monitor.isFullReportDue(connections);
+
+        monitor.reportPowerState(domain, PowerState.PowerOn);
+
+        Assert.assertTrue(monitor.isFullReportDue(connections));
+    }
+
+    @Test
+    public void getPowerStateTest() {
+        Assert.assertEquals(PowerState.PowerOn, LibvirtDomainEventMonitor.getPowerState(DomainEventType.STARTED, null));
+        Assert.assertEquals(PowerState.PowerOn, LibvirtDomainEventMonitor.getPowerState(DomainEventType.SUSPENDED, null));
+        Assert.assertEquals(PowerState.PowerOff, LibvirtDomainEventMonitor.getPowerState(DomainEventType.STOPPED, StoppedReason.SHUTDOWN));
+        Assert.assertEquals(PowerState.PowerOff, LibvirtDomainEventMonitor.getPowerState(DomainEventType.CRASHED, null));
+        Assert.assertNull(LibvirtDomainEventMonitor.getPowerState(DomainEventType.STOPPED, StoppedReason.MIGRATED));
+        Assert.assertNull(LibvirtDomainEventMonitor.getPowerState(DomainEventType.DEFINED, null));
+    }
+
+    @Test
+    public void isDomainGoneTest() {
+        Assert.assertTrue(LibvirtDomainEventMonitor.isDomainGone(DomainEventType.UNDEFINED, null));
+        Assert.assertTrue(LibvirtDomainEventMonitor.isDomainGone(DomainEventType.STOPPED, StoppedReason.MIGRATED));
+        Assert.assertFalse(LibvirtDomainEventMonitor.isDomainGone(DomainEventType.STOPPED, StoppedReason.SHUTDOWN));
+        Assert.assertFalse(LibvirtDomainEventMonitor.isDomainGone(DomainEventType.STARTED, null));
+    }
+
+    @Test
+    public void forgetDomainTestDropsCachedDevices() throws LibvirtException {
+        when(domain.getName()).thenReturn("i-2-10-VM");
+
+        monitor.forgetDomain(domain);
+
+        verify(resource).invalidateDomainDevices("i-2-10-VM");
+    }
+}
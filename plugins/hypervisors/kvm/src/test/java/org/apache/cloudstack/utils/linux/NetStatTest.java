@@ -0,0 +1,42 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.utils.linux;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NetStatTest {
+    final List<String> routes = Arrays.asList(
+            "Iface\tDestination\tGateway \tFlags\tRefCnt\tUse\tMetric\tMask\t\tMTU\tWindow\tIRTT",
+            "cloudbr1\t00000000\t0100A8C0\t0003\t0\t0\t200\t00000000\t0\t0\t0",
+            "cloudbr0\t00000000\t01010A0A\t0003\t0\t0\t100\t00000000\t0\t0\t0",
+            "cloudbr0\t00010A0A\t00000000\t0001\t0\t0\t0\t00FFFFFF\t0\t0\t0");
+
+    @Test
+    public void parseDefaultGatewayTestLowestMetric() {
+        Assert.assertEquals("10.10.1.1", NetStat.parseDefaultGateway(routes));
+    }
+
+    @Test
+    public void parseDefaultGatewayTestNoDefaultRoute() {
+        Assert.assertNull(NetStat.parseDefaultGateway(Collections.singletonList(routes.get(3))));
+    }
+}
@@ -0,0 +1,47 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.utils.qemu;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class QemuImgProgressParserTest {
+
+    @Test
+    public void interpretTestReportsEachProgressUpdate() throws IOException {
+        List<Double> updates = new ArrayList<>();
+        QemuImgProgressParser parser = new QemuImgProgressParser(updates::add);
+
+        String output = "    (0.00/100%)\r    (0.00/100%)\r    (42.50/100%)\r    (100.00/100%)\r\n";
+        Assert.assertNull(parser.interpret(new BufferedReader(new StringReader(output))));
+
+        Assert.assertEquals(Arrays.asList(42.5, 100.0), updates);
+        Assert.assertEquals(100.0, parser.getProgress(), 0);
+    }
+
+    @Test
+    public void parseProgressTestNotAProgressLine() {
+        Assert.assertEquals(-1, QemuImgProgressParser.parseProgress("qemu-img: Could not open 'x': No such file"), 0);
+    }
+}
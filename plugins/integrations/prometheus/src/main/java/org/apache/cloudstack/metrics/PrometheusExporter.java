@@ -18,7 +18,15 @@ package org.apache.cloudstack.metrics;
 
 public interface PrometheusExporter {
 
+    /**
+     * Refreshes every metric family right away, regardless of its refresh interval.
+     */
     void updateMetrics();
 
     String getMetrics();
+
+    /**
+     * Latest rendering of the metrics registry, the registry is refreshed in the background.
+     */
+    PrometheusMetricsSnapshot getMetricsSnapshot();
 }
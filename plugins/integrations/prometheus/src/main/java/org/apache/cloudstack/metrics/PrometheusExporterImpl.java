@@ -18,7 +18,15 @@ package org.apache.cloudstack.metrics;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
@@ -28,10 +36,13 @@ import com.cloud.dc.dao.DedicatedResourceDao;
 import com.cloud.user.Account;
 import com.cloud.user.dao.AccountDao;
 import org.apache.cloudstack.engine.subsystem.api.storage.ZoneScope;
+import org.apache.cloudstack.framework.config.ConfigKey;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.storage.datastore.db.ImageStoreDao;
 import org.apache.log4j.Logger;
 
-import com.cloud.alert.AlertManager;
 import com.cloud.api.ApiDBUtils;
 import com.cloud.api.query.dao.DomainJoinDao;
 import com.cloud.api.query.dao.HostJoinDao;
@@ -58,8 +69,13 @@ import com.cloud.storage.StorageStats;
 import com.cloud.storage.Volume;
 import com.cloud.storage.VolumeVO;
 import com.cloud.storage.dao.VolumeDao;
+import com.cloud.user.DomainManager;
 import com.cloud.utils.component.Manager;
 import com.cloud.utils.component.ManagerBase;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.fsm.StateListener;
+import com.cloud.utils.fsm.StateMachine2;
+import com.cloud.vm.VirtualMachine;
 import com.cloud.vm.VirtualMachine.State;
 import com.cloud.vm.dao.VMInstanceDao;
 import org.apache.commons.lang3.StringUtils;
@@ -74,7 +90,39 @@ public class PrometheusExporterImpl extends ManagerBase implements PrometheusExp
     private static final String ONLINE = "online";
     private static final String OFFLINE = "offline";
 
-    private static List<Item> metricsItems = new ArrayList<>();
+    /**
+     * Delay in seconds between two checks for families due for a refresh, it also bounds how often
+     * a burst of events can refresh the same family.
+     */
+    private static final int REFRESH_CHECK_INTERVAL = 5;
+
+    /**
+     * Groups of metrics refreshed together, each on its own interval.
+     */
+    enum MetricsFamily {
+        HOSTS(PrometheusExporterServer.PrometheusExporterHostMetricsInterval),
+        VMS(PrometheusExporterServer.PrometheusExporterVmMetricsInterval),
+        VOLUMES(PrometheusExporterServer.PrometheusExporterVolumeMetricsInterval),
+        STORAGE(PrometheusExporterServer.PrometheusExporterStorageMetricsInterval),
+        NETWORK(PrometheusExporterServer.PrometheusExporterNetworkMetricsInterval),
+        DOMAINS(PrometheusExporterServer.PrometheusExporterDomainMetricsInterval);
+
+        private final ConfigKey<Integer> refreshInterval;
+
+        MetricsFamily(final ConfigKey<Integer> refreshInterval) {
+            this.refreshInterval = refreshInterval;
+        }
+
+        long getRefreshIntervalMillis() {
+            return refreshInterval.value() * 1000L;
+        }
+    }
+
+    private final Map<MetricsFamily, List<Item>> familyItems = new EnumMap<>(MetricsFamily.class);
+    private final Map<MetricsFamily, Long> familyRefreshedAt = new EnumMap<>(MetricsFamily.class);
+    private final Set<MetricsFamily> changedFamilies = ConcurrentHashMap.newKeySet();
+    private volatile PrometheusMetricsSnapshot metricsSnapshot;
+    private ScheduledExecutorService refreshExecutor;
 
     @Inject
     private DataCenterDao dcDao;
@@ -99,23 +147,189 @@ public class PrometheusExporterImpl extends ManagerBase implements PrometheusExp
     @Inject
     private DomainJoinDao domainDao;
     @Inject
-    private AlertManager alertManager;
-    @Inject
     DedicatedResourceDao _dedicatedDao;
     @Inject
     private AccountDao _accountDao;
     @Inject
     private ResourceCountDao _resourceCountDao;
+    @Inject
+    private MessageBus messageBus;
 
     public PrometheusExporterImpl() {
         super();
     }
 
-    private void addHostMetrics(final List<Item> metricsList, final long dcId, final String zoneName, final String zoneUuid) {
+    @Override
+    public boolean start() {
+        if (PrometheusExporterServer.EnablePrometheusExporter.value()) {
+            subscribeToChanges();
+            refreshExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("PrometheusExporter-Refresh"));
+            refreshExecutor.scheduleWithFixedDelay(new ManagedContextRunnable() {
+                @Override
+                protected void runInContext() {
+                    refreshDueFamilies();
+                }
+            }, 0, REFRESH_CHECK_INTERVAL, TimeUnit.SECONDS);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+        return true;
+    }
+
+    /**
+     * Marks the families affected by VM, volume, capacity and domain changes, so they are refreshed on the
+     * next check instead of waiting for their interval.
+     */
+    private void subscribeToChanges() {
+        VirtualMachine.State.getStateMachine().registerListener(new StateListener<State, VirtualMachine.Event, VirtualMachine>() {
+            @Override
+            public boolean preStateTransitionEvent(State oldState, VirtualMachine.Event event, State newState, VirtualMachine vo, boolean status, Object opaque) {
+                return true;
+            }
+
+            @Override
+            public boolean postStateTransitionEvent(StateMachine2.Transition<State, VirtualMachine.Event> transition, VirtualMachine vo, boolean status, Object opaque) {
+                if (status) {
+                    markChanged(MetricsFamily.VMS);
+                    markChanged(MetricsFamily.HOSTS);
+                }
+                return true;
+            }
+        });
+        Volume.State.getStateMachine().registerListener(new StateListener<Volume.State, Volume.Event, Volume>() {
+            @Override
+            public boolean preStateTransitionEvent(Volume.State oldState, Volume.Event event, Volume.State newState, Volume vo, boolean status, Object opaque) {
+                return true;
+            }
+
+            @Override
+            public boolean postStateTransitionEvent(StateMachine2.Transition<Volume.State, Volume.Event> transition, Volume vo, boolean status, Object opaque) {
+                if (status) {
+                    markChanged(MetricsFamily.VOLUMES);
+                }
+                return true;
+            }
+        });
+        messageBus.subscribe("VM_ReservedCapacity_Free", new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(String senderAddress, String subject, Object args) {
+                markChanged(MetricsFamily.HOSTS);
+            }
+        });
+        final MessageSubscriber domainSubscriber = new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(String senderAddress, String subject, Object args) {
+                markChanged(MetricsFamily.DOMAINS);
+            }
+        };
+        messageBus.subscribe(DomainManager.MESSAGE_ADD_DOMAIN_EVENT, domainSubscriber);
+        messageBus.subscribe(DomainManager.MESSAGE_REMOVE_DOMAIN_EVENT, domainSubscriber);
+    }
+
+    protected void markChanged(final MetricsFamily family) {
+        changedFamilies.add(family);
+    }
+
+    /**
+     * Refreshes the families which changed or whose interval elapsed, then renders a new snapshot if any was refreshed.
+     */
+    protected synchronized void refreshDueFamilies() {
+        final long now = System.currentTimeMillis();
+        final List<MetricsFamily> dueFamilies = new ArrayList<>();
+        for (final MetricsFamily family : MetricsFamily.values()) {
+            final Long refreshedAt = familyRefreshedAt.get(family);
+            if (changedFamilies.remove(family) || refreshedAt == null || now - refreshedAt >= family.getRefreshIntervalMillis()) {
+                dueFamilies.add(family);
+            }
+        }
+        if (dueFamilies.isEmpty()) {
+            return;
+        }
+        for (final MetricsFamily family : dueFamilies) {
+            refreshFamily(family);
+        }
+        metricsSnapshot = renderSnapshot();
+    }
+
+    private void refreshFamily(final MetricsFamily family) {
+        final List<Item> items = new ArrayList<>();
+        try {
+            switch (family) {
+            case HOSTS:
+                // the host capacity is read as kept up to date by the capacity manager, recalculating it here
+                // would run the full recalculation on every VM state change
+                final List<HostVO> hosts = hostDao.listAll();
+                for (final DataCenterVO dc : dcDao.listAll()) {
+                    addHostMetrics(items, hosts, dc.getId(), dc.getName(), dc.getUuid());
+                }
+                break;
+            case VMS:
+                for (final DataCenterVO dc : dcDao.listAll()) {
+                    addVMMetrics(items, dc.getId(), dc.getName(), dc.getUuid());
+                }
+                break;
+            case VOLUMES:
+                for (final DataCenterVO dc : dcDao.listAll()) {
+                    addVolumeMetrics(items, dc.getId(), dc.getName(), dc.getUuid());
+                }
+                break;
+            case STORAGE:
+                final List<StoragePoolJoinVO> pools = storagePoolJoinDao.listAll();
+                for (final DataCenterVO dc : dcDao.listAll()) {
+                    addStorageMetrics(items, pools, dc.getId(), dc.getName(), dc.getUuid());
+                }
+                break;
+            case NETWORK:
+                for (final DataCenterVO dc : dcDao.listAll()) {
+                    addIpAddressMetrics(items, dc.getId(), dc.getName(), dc.getUuid());
+                    addVlanMetrics(items, dc.getId(), dc.getName(), dc.getUuid());
+                }
+                break;
+            case DOMAINS:
+                final List<DomainJoinVO> domains = domainDao.listAll();
+                addDomainLimits(items, domains);
+                addDomainResourceCount(items, domains);
+                break;
+            default:
+                break;
+            }
+        } catch (Exception e) {
+            LOG.warn("Getting " + family + " metrics failed, keeping the previous ones", e);
+            return;
+        } finally {
+            familyRefreshedAt.put(family, System.currentTimeMillis());
+        }
+        familyItems.put(family, items);
+    }
+
+    /**
+     * Renders the metrics with all the samples of a metric next to each other, as the exposition formats expect.
+     */
+    private PrometheusMetricsSnapshot renderSnapshot() {
+        final Map<String, StringBuilder> metrics = new LinkedHashMap<>();
+        for (final List<Item> items : familyItems.values()) {
+            for (final Item item : items) {
+                metrics.computeIfAbsent(item.name, k -> new StringBuilder()).append(item.toMetricsString()).append("\n");
+            }
+        }
+        final StringBuilder metricLines = new StringBuilder();
+        for (final StringBuilder lines : metrics.values()) {
+            metricLines.append(lines);
+        }
+        return new PrometheusMetricsSnapshot(metricLines.toString());
+    }
+
+    private void addHostMetrics(final List<Item> metricsList, final List<HostVO> hosts, final long dcId, final String zoneName, final String zoneUuid) {
         int total = 0;
         int up = 0;
         int down = 0;
-        for (final HostVO host : hostDao.listAll()) {
+        for (final HostVO host : hosts) {
             if (host == null || host.getType() != Host.Type.Routing || host.getDataCenterId() != dcId) {
                 continue;
             }
@@ -223,8 +437,8 @@ public class PrometheusExporterImpl extends ManagerBase implements PrometheusExp
         metricsList.add(new ItemVolume(zoneName, zoneUuid, TOTAL, total));
     }
 
-    private void addStorageMetrics(final List<Item> metricsList, final long dcId, final String zoneName, final String zoneUuid) {
-        for (final StoragePoolJoinVO pool: storagePoolJoinDao.listAll()) {
+    private void addStorageMetrics(final List<Item> metricsList, final List<StoragePoolJoinVO> pools, final long dcId, final String zoneName, final String zoneUuid) {
+        for (final StoragePoolJoinVO pool: pools) {
             if (pool == null || pool.getZoneId() != dcId) {
                 continue;
             }
@@ -270,11 +484,11 @@ public class PrometheusExporterImpl extends ManagerBase implements PrometheusExp
         metricsList.add(new ItemVlan(zoneName, zoneUuid, TOTAL, dcDao.countZoneVlans(dcId, false)));
     }
 
-    private void addDomainLimits(final List<Item> metricsList) {
+    private void addDomainLimits(final List<Item> metricsList, final List<DomainJoinVO> domains) {
         Long totalCpuLimit = 0L;
         Long totalMemoryLimit = 0L;
 
-        for (final DomainJoinVO domain: domainDao.listAll()) {
+        for (final DomainJoinVO domain: domains) {
             if (domain == null || domain.getLevel() != 1) {
                 continue;
             }
@@ -309,9 +523,10 @@ public class PrometheusExporterImpl extends ManagerBase implements PrometheusExp
      * Function to export the domain level resource count for specified resource type
      *
      * @param metricsList
+     * @param domains
      */
-    private void addDomainResourceCount(final List<Item> metricsList) {
-        for (final DomainJoinVO domain: domainDao.listAll()) {
+    private void addDomainResourceCount(final List<Item> metricsList, final List<DomainJoinVO> domains) {
+        for (final DomainJoinVO domain: domains) {
             // Display stats for ROOT domain also
             if (domain == null) {
                 continue;
@@ -336,36 +551,25 @@ public class PrometheusExporterImpl extends ManagerBase implements PrometheusExp
     }
 
     @Override
-    public void updateMetrics() {
-        final List<Item> latestMetricsItems = new ArrayList<Item>();
-        try {
-            for (final DataCenterVO dc : dcDao.listAll()) {
-                final String zoneName = dc.getName();
-                final String zoneUuid = dc.getUuid();
-                alertManager.recalculateCapacity();
-                addHostMetrics(latestMetricsItems, dc.getId(), zoneName, zoneUuid);
-                addVMMetrics(latestMetricsItems, dc.getId(), zoneName, zoneUuid);
-                addVolumeMetrics(latestMetricsItems, dc.getId(), zoneName, zoneUuid);
-                addStorageMetrics(latestMetricsItems, dc.getId(), zoneName, zoneUuid);
-                addIpAddressMetrics(latestMetricsItems, dc.getId(), zoneName, zoneUuid);
-                addVlanMetrics(latestMetricsItems, dc.getId(), zoneName, zoneUuid);
-            }
-            addDomainLimits(latestMetricsItems);
-            addDomainResourceCount(latestMetricsItems);
-        } catch (Exception e) {
-            LOG.warn("Getting metrics failed ", e);
+    public synchronized void updateMetrics() {
+        for (final MetricsFamily family : MetricsFamily.values()) {
+            changedFamilies.remove(family);
+            refreshFamily(family);
         }
-        metricsItems = latestMetricsItems;
+        metricsSnapshot = renderSnapshot();
     }
 
     @Override
     public String getMetrics() {
-        final StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append("# Cloudstack Prometheus Metrics\n");
-        for (final Item item : metricsItems) {
-            stringBuilder.append(item.toMetricsString()).append("\n");
+        return getMetricsSnapshot().getText();
+    }
+
+    @Override
+    public PrometheusMetricsSnapshot getMetricsSnapshot() {
+        if (metricsSnapshot == null || refreshExecutor == null) {
+            refreshDueFamilies();
         }
-        return stringBuilder.toString();
+        return metricsSnapshot;
     }
 
     private abstract class Item {
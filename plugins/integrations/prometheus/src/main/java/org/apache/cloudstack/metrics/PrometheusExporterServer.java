@@ -30,4 +30,22 @@ public interface PrometheusExporterServer extends Manager {
 
     ConfigKey<String> PrometheusExporterAllowedAddresses = new ConfigKey<>("Advanced", String.class, "prometheus.exporter.allowed.ips", "127.0.0.1",
             "List of comma separated prometheus server ips (with no spaces) that should be allowed to access the URLs", true);
+
+    ConfigKey<Integer> PrometheusExporterHostMetricsInterval = new ConfigKey<>("Advanced", Integer.class, "prometheus.exporter.host.metrics.interval", "30",
+            "Interval in seconds between refreshes of the host and host capacity metrics, host capacity changes refresh them earlier", true);
+
+    ConfigKey<Integer> PrometheusExporterVmMetricsInterval = new ConfigKey<>("Advanced", Integer.class, "prometheus.exporter.vm.metrics.interval", "30",
+            "Interval in seconds between refreshes of the VM metrics, VM state changes refresh them earlier", true);
+
+    ConfigKey<Integer> PrometheusExporterVolumeMetricsInterval = new ConfigKey<>("Advanced", Integer.class, "prometheus.exporter.volume.metrics.interval", "60",
+            "Interval in seconds between refreshes of the volume metrics, volume state changes refresh them earlier", true);
+
+    ConfigKey<Integer> PrometheusExporterStorageMetricsInterval = new ConfigKey<>("Advanced", Integer.class, "prometheus.exporter.storage.metrics.interval", "60",
+            "Interval in seconds between refreshes of the primary and secondary storage metrics", true);
+
+    ConfigKey<Integer> PrometheusExporterNetworkMetricsInterval = new ConfigKey<>("Advanced", Integer.class, "prometheus.exporter.network.metrics.interval", "300",
+            "Interval in seconds between refreshes of the IP address and VLAN metrics", true);
+
+    ConfigKey<Integer> PrometheusExporterDomainMetricsInterval = new ConfigKey<>("Advanced", Integer.class, "prometheus.exporter.domain.metrics.interval", "300",
+            "Interval in seconds between refreshes of the domain resource limit and count metrics, domain changes refresh them earlier", true);
 }
@@ -28,6 +28,7 @@ import javax.inject.Inject;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 public class PrometheusExporterServerImpl extends ManagerBase implements PrometheusExporterServer, Configurable {
@@ -50,19 +51,30 @@ public class PrometheusExporterServerImpl extends ManagerBase implements Prometh
         public void handle(final HttpExchange httpExchange) throws IOException {
             final String remoteClientAddress = httpExchange.getRemoteAddress().getAddress().toString().replace("/", "");
             LOG.debug("Prometheus exporter received client request from: " + remoteClientAddress);
-            String response = "Forbidden";
+            byte[] response = "Forbidden".getBytes(StandardCharsets.UTF_8);
+            String contentType = "text/plain";
             int responseCode = 403;
             if (Arrays.asList(PrometheusExporterAllowedAddresses.value().split(",")).contains(remoteClientAddress)) {
-                prometheusExporter.updateMetrics();
-                response = prometheusExporter.getMetrics();
+                // the metrics are refreshed in the background, scrapes only serve the latest rendering
+                final boolean openMetrics = accepts(httpExchange.getRequestHeaders().getFirst("Accept"), "application/openmetrics-text");
+                final boolean gzip = accepts(httpExchange.getRequestHeaders().getFirst("Accept-Encoding"), "gzip");
+                response = prometheusExporter.getMetricsSnapshot().getBytes(openMetrics, gzip);
+                contentType = PrometheusMetricsSnapshot.getContentType(openMetrics);
+                if (gzip) {
+                    httpExchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
                 responseCode = 200;
             }
-            httpExchange.getResponseHeaders().set("Content-Type", "text/plain");
-            httpExchange.sendResponseHeaders(responseCode, response.length());
+            httpExchange.getResponseHeaders().set("Content-Type", contentType);
+            httpExchange.sendResponseHeaders(responseCode, response.length);
             final OutputStream os = httpExchange.getResponseBody();
-            os.write(response.getBytes());
+            os.write(response);
             os.close();
         }
+
+        private static boolean accepts(final String header, final String value) {
+            return header != null && header.toLowerCase().contains(value);
+        }
     }
 
     @Override
@@ -112,7 +124,13 @@ public class PrometheusExporterServerImpl extends ManagerBase implements Prometh
         return new ConfigKey<?>[] {
                 EnablePrometheusExporter,
                 PrometheusExporterServerPort,
-                PrometheusExporterAllowedAddresses
+                PrometheusExporterAllowedAddresses,
+                PrometheusExporterHostMetricsInterval,
+                PrometheusExporterVmMetricsInterval,
+                PrometheusExporterVolumeMetricsInterval,
+                PrometheusExporterStorageMetricsInterval,
+                PrometheusExporterNetworkMetricsInterval,
+                PrometheusExporterDomainMetricsInterval
         };
     }
 }
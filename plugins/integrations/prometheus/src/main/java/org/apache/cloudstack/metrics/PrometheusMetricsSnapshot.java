@@ -0,0 +1,89 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * Rendered metrics as served to the scrapers. The metric lines are rendered once per refresh of the
+ * registry, the OpenMetrics variant and the gzip compressed bodies are built on first use and then
+ * shared by all the scrapes until the next refresh.
+ */
+public class PrometheusMetricsSnapshot {
+    public static final String TEXT_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    public static final String OPENMETRICS_CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private static final String HEADER = "# Cloudstack Prometheus Metrics\n";
+    private static final String OPENMETRICS_EOF = "# EOF\n";
+
+    private final String metricLines;
+
+    private byte[] text;
+    private byte[] gzippedText;
+    private byte[] openMetrics;
+    private byte[] gzippedOpenMetrics;
+
+    public PrometheusMetricsSnapshot(final String metricLines) {
+        this.metricLines = metricLines;
+    }
+
+    public String getText() {
+        return HEADER + metricLines;
+    }
+
+    public static String getContentType(final boolean openMetrics) {
+        return openMetrics ? OPENMETRICS_CONTENT_TYPE : TEXT_CONTENT_TYPE;
+    }
+
+    /**
+     * Body of the response, OpenMetrics does not allow free form comments so the header is left out and
+     * the mandatory EOF marker is appended instead.
+     */
+    public synchronized byte[] getBytes(final boolean openMetricsFormat, final boolean gzip) {
+        if (openMetricsFormat) {
+            if (openMetrics == null) {
+                openMetrics = (metricLines + OPENMETRICS_EOF).getBytes(StandardCharsets.UTF_8);
+            }
+            if (gzip && gzippedOpenMetrics == null) {
+                gzippedOpenMetrics = compress(openMetrics);
+            }
+            return gzip ? gzippedOpenMetrics : openMetrics;
+        }
+        if (text == null) {
+            text = getText().getBytes(StandardCharsets.UTF_8);
+        }
+        if (gzip && gzippedText == null) {
+            gzippedText = compress(text);
+        }
+        return gzip ? gzippedText : text;
+    }
+
+    protected static byte[] compress(final byte[] data) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(data);
+        } catch (IOException e) {
+            throw new CloudRuntimeException("Unable to compress the prometheus metrics", e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,120 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.metrics;
+
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+
+import org.apache.cloudstack.storage.datastore.db.ImageStoreDao;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.cloud.api.query.dao.DomainJoinDao;
+import com.cloud.api.query.dao.StoragePoolJoinDao;
+import com.cloud.capacity.dao.CapacityDao;
+import com.cloud.dc.DataCenterVO;
+import com.cloud.dc.dao.DataCenterDao;
+import com.cloud.dc.dao.DataCenterIpAddressDao;
+import com.cloud.host.dao.HostDao;
+import com.cloud.network.dao.IPAddressDao;
+import com.cloud.storage.dao.VolumeDao;
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.vm.VirtualMachine.State;
+import com.cloud.vm.dao.VMInstanceDao;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PrometheusExporterImplTest {
+
+    private static final String RUNNING_VMS = "cloudstack_vms_total{zone=\"zone1\",filter=\"running\"} 3";
+
+    @Mock
+    private DataCenterDao dcDao;
+    @Mock
+    private HostDao hostDao;
+    @Mock
+    private VMInstanceDao vmDao;
+    @Mock
+    private VolumeDao volumeDao;
+    @Mock
+    private IPAddressDao publicIpAddressDao;
+    @Mock
+    private DataCenterIpAddressDao privateIpAddressDao;
+    @Mock
+    private CapacityDao capacityDao;
+    @Mock
+    private StoragePoolJoinDao storagePoolJoinDao;
+    @Mock
+    private ImageStoreDao imageStoreDao;
+    @Mock
+    private DomainJoinDao domainDao;
+    @Mock
+    private DataCenterVO zone;
+
+    @InjectMocks
+    private PrometheusExporterImpl prometheusExporter = new PrometheusExporterImpl();
+
+    @Before
+    public void setUp() {
+        when(dcDao.listAll()).thenReturn(Collections.singletonList(zone));
+        when(zone.getId()).thenReturn(1L);
+        when(zone.getName()).thenReturn("zone1");
+    }
+
+    @Test
+    public void refreshDueFamiliesTestRefreshesFamiliesOnTheirInterval() {
+        when(vmDao.countByZoneAndState(1L, State.Running)).thenReturn(3L);
+
+        prometheusExporter.refreshDueFamilies();
+        prometheusExporter.refreshDueFamilies();
+
+        Assert.assertTrue(prometheusExporter.getMetrics().contains(RUNNING_VMS));
+        verify(hostDao, times(1)).listAll();
+        verify(storagePoolJoinDao, times(1)).listAll();
+        verify(domainDao, times(1)).listAll();
+    }
+
+    @Test
+    public void refreshDueFamiliesTestRefreshesChangedFamily() {
+        prometheusExporter.refreshDueFamilies();
+        prometheusExporter.markChanged(PrometheusExporterImpl.MetricsFamily.HOSTS);
+        prometheusExporter.refreshDueFamilies();
+
+        // only the host metrics are read again, from the capacity kept in the database
+        verify(hostDao, times(2)).listAll();
+        verify(storagePoolJoinDao, times(1)).listAll();
+        verify(domainDao, times(1)).listAll();
+    }
+
+    @Test
+    public void refreshDueFamiliesTestKeepsSamplesOfFailedFamily() {
+        when(vmDao.countByZoneAndState(1L, State.Running)).thenReturn(3L).thenThrow(new CloudRuntimeException("database unavailable"));
+
+        prometheusExporter.refreshDueFamilies();
+        prometheusExporter.markChanged(PrometheusExporterImpl.MetricsFamily.VMS);
+        prometheusExporter.refreshDueFamilies();
+
+        Assert.assertTrue(prometheusExporter.getMetrics().contains(RUNNING_VMS));
+    }
+}
@@ -0,0 +1,80 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.metrics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PrometheusMetricsSnapshotTest {
+
+    private static final String METRIC_LINES = "cloudstack_vms_total{zone=\"zone1\",filter=\"running\"} 3\n";
+
+    private final PrometheusMetricsSnapshot snapshot = new PrometheusMetricsSnapshot(METRIC_LINES);
+
+    private static String gunzip(final byte[] data) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void getBytesTestText() {
+        final String text = new String(snapshot.getBytes(false, false), StandardCharsets.UTF_8);
+
+        Assert.assertEquals(snapshot.getText(), text);
+        Assert.assertTrue(text.startsWith("# Cloudstack Prometheus Metrics\n"));
+        Assert.assertTrue(text.endsWith(METRIC_LINES));
+    }
+
+    @Test
+    public void getBytesTestOpenMetrics() {
+        final String openMetrics = new String(snapshot.getBytes(true, false), StandardCharsets.UTF_8);
+
+        Assert.assertEquals(METRIC_LINES + "# EOF\n", openMetrics);
+    }
+
+    @Test
+    public void getBytesTestGzip() throws IOException {
+        Assert.assertEquals(snapshot.getText(), gunzip(snapshot.getBytes(false, true)));
+        Assert.assertEquals(METRIC_LINES + "# EOF\n", gunzip(snapshot.getBytes(true, true)));
+    }
+
+    @Test
+    public void getBytesTestBuiltOnce() {
+        Assert.assertSame(snapshot.getBytes(false, true), snapshot.getBytes(false, true));
+        Assert.assertSame(snapshot.getBytes(true, false), snapshot.getBytes(true, false));
+    }
+
+    @Test
+    public void getContentTypeTest() {
+        Assert.assertEquals(PrometheusMetricsSnapshot.OPENMETRICS_CONTENT_TYPE, PrometheusMetricsSnapshot.getContentType(true));
+        Assert.assertEquals(PrometheusMetricsSnapshot.TEXT_CONTENT_TYPE, PrometheusMetricsSnapshot.getContentType(false));
+    }
+}
@@ -38,6 +38,15 @@ public class ListHostsMetricsCmd extends ListHostsCmd {
     @Inject
     private MetricsService metricsService;
 
+    @Parameter(name = "historywindow", type = CommandType.INTEGER, since = "4.17.0",
+            description = "if set, includes the minimum, average, maximum and 95th percentile of the stats collected over the last given number of minutes, "
+                    + "limited by stats.history.retention")
+    private Integer historyWindow;
+
+    public Integer getHistoryWindow() {
+        return historyWindow;
+    }
+
     @Override
     public String getCommandName() {
         return APINAME.toLowerCase() + BaseCmd.RESPONSE_SUFFIX;
@@ -47,7 +56,7 @@ public class ListHostsMetricsCmd extends ListHostsCmd {
     public void execute() {
         setType(Host.Type.Routing.toString());
         ListResponse<HostResponse> hosts = getHostResponses();
-        final List<HostMetricsResponse> metricsResponses = metricsService.listHostMetrics(hosts.getResponses());
+        final List<HostMetricsResponse> metricsResponses = metricsService.listHostMetrics(hosts.getResponses(), getHistoryWindow());
         ListResponse<HostMetricsResponse> response = new ListResponse<>();
         response.setResponses(metricsResponses, hosts.getCount());
         response.setResponseName(getCommandName());
@@ -36,6 +36,15 @@ public class ListVMsMetricsCmd extends ListVMsCmd {
     @Inject
     private MetricsService metricsService;
 
+    @Parameter(name = "historywindow", type = CommandType.INTEGER, since = "4.17.0",
+            description = "if set, includes the minimum, average, maximum and 95th percentile of the stats collected over the last given number of minutes, "
+                    + "limited by stats.history.retention")
+    private Integer historyWindow;
+
+    public Integer getHistoryWindow() {
+        return historyWindow;
+    }
+
     @Override
     public String getCommandName() {
         return APINAME.toLowerCase() + BaseCmd.RESPONSE_SUFFIX;
@@ -45,9 +54,10 @@ public class ListVMsMetricsCmd extends ListVMsCmd {
     public void execute() {
         ListResponse<UserVmResponse> userVms = _queryService.searchForUserVMs(this);
         updateVMResponse(userVms.getResponses());
-        final List<VmMetricsResponse> metricsResponses = metricsService.listVmMetrics(userVms.getResponses());
+        final List<VmMetricsResponse> metricsResponses = metricsService.listVmMetrics(userVms.getResponses(), getHistoryWindow());
         ListResponse<VmMetricsResponse> response = new ListResponse<>();
         response.setResponses(metricsResponses, userVms.getCount());
+        response.setNextPageToken(userVms.getNextPageToken());
         response.setResponseName(getCommandName());
         setResponseObject(response);
     }
@@ -52,6 +52,7 @@ public class ListVolumesMetricsCmd extends ListVolumesCmd {
         final List<VolumeMetricsResponse> metricsResponses = metricsService.listVolumeMetrics(volumes.getResponses());
         ListResponse<VolumeMetricsResponse> response = new ListResponse<>();
         response.setResponses(metricsResponses, volumes.getCount());
+        response.setNextPageToken(volumes.getNextPageToken());
         response.setResponseName(getCommandName());
         setResponseObject(response);
     }
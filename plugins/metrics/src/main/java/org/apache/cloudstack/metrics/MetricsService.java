@@ -39,9 +39,9 @@ public interface MetricsService extends PluggableService {
     InfrastructureResponse listInfrastructure();
 
     List<VolumeMetricsResponse> listVolumeMetrics(List<VolumeResponse> volumeResponses);
-    List<VmMetricsResponse> listVmMetrics(List<UserVmResponse> vmResponses);
+    List<VmMetricsResponse> listVmMetrics(List<UserVmResponse> vmResponses, Integer historyWindow);
     List<StoragePoolMetricsResponse> listStoragePoolMetrics(List<StoragePoolResponse> poolResponses);
-    List<HostMetricsResponse> listHostMetrics(List<HostResponse> poolResponses);
+    List<HostMetricsResponse> listHostMetrics(List<HostResponse> poolResponses, Integer historyWindow);
     List<ClusterMetricsResponse> listClusterMetrics(Pair<List<ClusterResponse>, Integer> clusterResponses);
     List<ZoneMetricsResponse> listZoneMetrics(List<ZoneResponse> poolResponses);
 }
@@ -20,6 +20,7 @@ package org.apache.cloudstack.metrics;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 
@@ -42,6 +43,7 @@ import org.apache.cloudstack.context.CallContext;
 import org.apache.cloudstack.response.ClusterMetricsResponse;
 import org.apache.cloudstack.response.HostMetricsResponse;
 import org.apache.cloudstack.response.InfrastructureResponse;
+import org.apache.cloudstack.response.StatsHistoryResponse;
 import org.apache.cloudstack.response.StoragePoolMetricsResponse;
 import org.apache.cloudstack.response.VmMetricsResponse;
 import org.apache.cloudstack.response.VolumeMetricsResponse;
@@ -64,6 +66,7 @@ import com.cloud.dc.DataCenter;
 import com.cloud.dc.dao.ClusterDao;
 import com.cloud.dc.dao.DataCenterDao;
 import com.cloud.dc.dao.HostPodDao;
+import com.cloud.exception.InvalidParameterValueException;
 import com.cloud.deploy.DeploymentClusterPlanner;
 import com.cloud.host.Host;
 import com.cloud.host.HostStats;
@@ -73,6 +76,7 @@ import com.cloud.network.router.VirtualRouter;
 import com.cloud.org.Cluster;
 import com.cloud.org.Grouping;
 import com.cloud.org.Managed;
+import com.cloud.server.StatsHistory;
 import com.cloud.user.Account;
 import com.cloud.user.AccountManager;
 import com.cloud.utils.Pair;
@@ -184,7 +188,8 @@ public class MetricsServiceImpl extends ComponentLifecycleBase implements Metric
     }
 
     @Override
-    public List<VmMetricsResponse> listVmMetrics(List<UserVmResponse> vmResponses) {
+    public List<VmMetricsResponse> listVmMetrics(List<UserVmResponse> vmResponses, Integer historyWindow) {
+        validateHistoryWindow(historyWindow);
         final List<VmMetricsResponse> metricsResponses = new ArrayList<>();
         for (final UserVmResponse vmResponse: vmResponses) {
             VmMetricsResponse metricsResponse = new VmMetricsResponse();
@@ -205,11 +210,32 @@ public class MetricsServiceImpl extends ComponentLifecycleBase implements Metric
             metricsResponse.setDiskWrite(vmResponse.getDiskKbsWrite());
             metricsResponse.setDiskIopsTotal(vmResponse.getDiskIORead(), vmResponse.getDiskIOWrite());
             metricsResponse.setLastUpdated(vmResponse.getLastUpdated());
+            if (historyWindow != null) {
+                metricsResponse.setStatsHistory(getStatsHistoryResponses(ApiDBUtils.getVmStatisticsHistory(vmResponse.getId(), historyWindow * 60000L)));
+            }
             metricsResponses.add(metricsResponse);
         }
         return metricsResponses;
     }
 
+    private void validateHistoryWindow(final Integer historyWindow) {
+        if (historyWindow != null && historyWindow <= 0) {
+            throw new InvalidParameterValueException("The history window must be a positive number of minutes");
+        }
+    }
+
+    private List<StatsHistoryResponse> getStatsHistoryResponses(final Map<String, StatsHistory.Summary> summaries) {
+        if (summaries == null) {
+            return null;
+        }
+        final List<StatsHistoryResponse> responses = new ArrayList<>();
+        for (final Map.Entry<String, StatsHistory.Summary> summary : summaries.entrySet()) {
+            final StatsHistory.Summary value = summary.getValue();
+            responses.add(new StatsHistoryResponse(summary.getKey(), value.getSamples(), value.getMin(), value.getAvg(), value.getMax(), value.getP95()));
+        }
+        return responses;
+    }
+
     @Override
     public List<StoragePoolMetricsResponse> listStoragePoolMetrics(List<StoragePoolResponse> poolResponses) {
         final List<StoragePoolMetricsResponse> metricsResponses = new ArrayList<>();
@@ -245,7 +271,8 @@ public class MetricsServiceImpl extends ComponentLifecycleBase implements Metric
     }
 
     @Override
-    public List<HostMetricsResponse> listHostMetrics(List<HostResponse> hostResponses) {
+    public List<HostMetricsResponse> listHostMetrics(List<HostResponse> hostResponses, Integer historyWindow) {
+        validateHistoryWindow(historyWindow);
         final List<HostMetricsResponse> metricsResponses = new ArrayList<>();
         for (final HostResponse hostResponse: hostResponses) {
             HostMetricsResponse metricsResponse = new HostMetricsResponse();
@@ -303,6 +330,9 @@ public class MetricsServiceImpl extends ComponentLifecycleBase implements Metric
             metricsResponse.setMemoryUsageDisableThreshold(hostResponse.getMemoryUsed(), hostResponse.getMemoryTotal(), memoryDisableThreshold);
             metricsResponse.setMemoryAllocatedThreshold(hostResponse.getMemoryAllocated(), hostResponse.getMemoryTotal(), memoryThreshold);
             metricsResponse.setMemoryAllocatedDisableThreshold(hostResponse.getMemoryAllocated(), hostResponse.getMemoryTotal(), memoryDisableThreshold);
+            if (historyWindow != null) {
+                metricsResponse.setStatsHistory(getStatsHistoryResponses(ApiDBUtils.getHostStatisticsHistory(hostId, historyWindow * 60000L)));
+            }
             metricsResponses.add(metricsResponse);
             metricsResponse.setHasAnnotation(hostResponse.hasAnnotation());
         }
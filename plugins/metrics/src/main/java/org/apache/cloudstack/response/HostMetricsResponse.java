@@ -19,6 +19,7 @@ package org.apache.cloudstack.response;
 
 import java.text.DecimalFormat;
 import java.text.ParseException;
+import java.util.List;
 
 import org.apache.cloudstack.api.response.HostResponse;
 import org.apache.cloudstack.outofbandmanagement.OutOfBandManagement;
@@ -104,6 +105,10 @@ public class HostMetricsResponse extends HostResponse {
     @Param(description = "memory allocated disable threshold exceeded")
     private Boolean memoryAllocatedDisableThresholdExceeded;
 
+    @SerializedName("statshistory")
+    @Param(description = "the minimum, average, maximum and 95th percentile of the stats collected over the history window", responseObject = StatsHistoryResponse.class, since = "4.17.0")
+    private List<StatsHistoryResponse> statsHistory;
+
     public void setPowerState(final OutOfBandManagement.PowerState powerState) {
         this.powerState = powerState;
     }
@@ -220,6 +225,10 @@ public class HostMetricsResponse extends HostResponse {
         }
     }
 
+    public void setStatsHistory(final List<StatsHistoryResponse> statsHistory) {
+        this.statsHistory = statsHistory;
+    }
+
     private Double parseCPU(String cpu) {
         DecimalFormat decimalFormat = new DecimalFormat("#.##");
         try {
@@ -0,0 +1,59 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.response;
+
+import com.cloud.serializer.Param;
+import com.google.gson.annotations.SerializedName;
+import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.BaseResponse;
+
+public class StatsHistoryResponse extends BaseResponse {
+
+    @SerializedName(ApiConstants.NAME)
+    @Param(description = "the name of the metric")
+    private String name;
+
+    @SerializedName("samples")
+    @Param(description = "the number of samples collected in the window")
+    private Integer samples;
+
+    @SerializedName("min")
+    @Param(description = "the minimum value collected in the window")
+    private Double min;
+
+    @SerializedName("avg")
+    @Param(description = "the average value collected in the window")
+    private Double avg;
+
+    @SerializedName("max")
+    @Param(description = "the maximum value collected in the window")
+    private Double max;
+
+    @SerializedName("p95")
+    @Param(description = "the 95th percentile of the values collected in the window")
+    private Double p95;
+
+    public StatsHistoryResponse(final String name, final int samples, final double min, final double avg, final double max, final double p95) {
+        this.name = name;
+        this.samples = samples;
+        this.min = min;
+        this.avg = avg;
+        this.max = max;
+        this.p95 = p95;
+        setObjectName("statshistory");
+    }
+}
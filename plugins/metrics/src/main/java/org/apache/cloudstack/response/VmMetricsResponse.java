@@ -17,6 +17,7 @@
 
 package org.apache.cloudstack.response;
 
+import java.util.List;
 import java.util.Set;
 
 import org.apache.cloudstack.api.ApiConstants;
@@ -59,6 +60,10 @@ public class VmMetricsResponse extends UserVmResponse {
     @Param(description = "the total disk iops")
     private Long diskIopsTotal;
 
+    @SerializedName("statshistory")
+    @Param(description = "the minimum, average, maximum and 95th percentile of the stats collected over the history window", responseObject = StatsHistoryResponse.class, since = "4.17.0")
+    private List<StatsHistoryResponse> statsHistory;
+
     public void setIpAddress(final Set<NicResponse> nics) {
         if (nics != null && nics.size() > 0) {
             this.ipAddress = nics.iterator().next().getIpaddress();
@@ -106,4 +111,8 @@ public class VmMetricsResponse extends UserVmResponse {
             this.diskIopsTotal = diskIoRead + diskIoWrite;
         }
     }
+
+    public void setStatsHistory(final List<StatsHistoryResponse> statsHistory) {
+        this.statsHistory = statsHistory;
+    }
 }
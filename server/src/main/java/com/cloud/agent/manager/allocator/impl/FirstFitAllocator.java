@@ -31,6 +31,8 @@ import org.springframework.stereotype.Component;
 
 import com.cloud.agent.manager.allocator.HostAllocator;
 import com.cloud.capacity.CapacityManager;
+import com.cloud.capacity.HostCapacityIndex;
+import com.cloud.capacity.HostCapacitySnapshot;
 import com.cloud.capacity.CapacityVO;
 import com.cloud.capacity.dao.CapacityDao;
 import com.cloud.configuration.Config;
@@ -303,7 +305,14 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
 
         long serviceOfferingId = offering.getId();
         List<Host> suitableHosts = new ArrayList<Host>();
-        ServiceOfferingDetailsVO offeringDetails = null;
+        HostCapacityIndex capacityIndex = _capacityMgr.getHostCapacityIndex();
+
+        // The GPU requirements only depend on the offering, look them up once instead of for every host
+        ServiceOfferingDetailsVO offeringDetails = _serviceOfferingDetailsDao.findDetail(serviceOfferingId, GPU.Keys.vgpuType.toString());
+        ServiceOfferingDetailsVO groupName = null;
+        if (offeringDetails != null) {
+            groupName = _serviceOfferingDetailsDao.findDetail(serviceOfferingId, GPU.Keys.pciDevice.toString());
+        }
 
         for (Host host : hosts) {
             if (suitableHosts.size() == returnUpTo) {
@@ -316,8 +325,10 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
                 continue;
             }
 
+            HostCapacitySnapshot snapshot = getHostCapacitySnapshot(capacityIndex, host);
+
             //find number of guest VMs occupying capacity on this host.
-            if (_capacityMgr.checkIfHostReachMaxGuestLimit(host)) {
+            if (snapshot != null ? snapshot.hasReachedMaxGuestLimit() : _capacityMgr.checkIfHostReachMaxGuestLimit(host)) {
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug("Host name: " + host.getName() + ", hostId: " + host.getId() +
                         " already has max Running VMs(count includes system VMs), skipping this and trying other available hosts");
@@ -327,15 +338,20 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
             }
 
             // Check if GPU device is required by offering and host has the availability
-            if ((offeringDetails   = _serviceOfferingDetailsDao.findDetail(serviceOfferingId, GPU.Keys.vgpuType.toString())) != null) {
-                ServiceOfferingDetailsVO groupName = _serviceOfferingDetailsDao.findDetail(serviceOfferingId, GPU.Keys.pciDevice.toString());
+            if (offeringDetails != null) {
                 if(!_resourceMgr.isGPUDeviceAvailable(host.getId(), groupName.getValue(), offeringDetails.getValue())){
                     s_logger.info("Host name: " + host.getName() + ", hostId: "+ host.getId() +" does not have required GPU devices available");
                     avoid.addHost(host.getId());
                     continue;
                 }
             }
-            Pair<Boolean, Boolean> cpuCapabilityAndCapacity = _capacityMgr.checkIfHostHasCpuCapabilityAndCapacity(host, offering, considerReservedCapacity);
+            Pair<Boolean, Boolean> cpuCapabilityAndCapacity;
+            if (snapshot != null) {
+                cpuCapabilityAndCapacity = new Pair<>(snapshot.hasCpuCapability(offering.getCpu(), offering.getSpeed()),
+                        snapshot.hasCapacity(offering.getCpu() * offering.getSpeed(), offering.getRamSize() * 1024L * 1024L, considerReservedCapacity));
+            } else {
+                cpuCapabilityAndCapacity = _capacityMgr.checkIfHostHasCpuCapabilityAndCapacity(host, offering, considerReservedCapacity);
+            }
             if (cpuCapabilityAndCapacity.first() && cpuCapabilityAndCapacity.second()) {
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug("Found a suitable host, adding to list: " + host.getId());
@@ -435,6 +451,7 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
 
         List<Host> prioritizedHosts = new ArrayList<Host>();
         List<Host> noHvmHosts = new ArrayList<Host>();
+        HostCapacityIndex capacityIndex = _capacityMgr.getHostCapacityIndex();
 
         // If a template requires HVM and a host doesn't support HVM, remove it from consideration
         List<Host> hostsToCheck = new ArrayList<Host>();
@@ -460,7 +477,8 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
         List<Host> highPriorityHosts = new ArrayList<Host>();
         List<Host> lowPriorityHosts = new ArrayList<Host>();
         for (Host host : hostsToCheck) {
-            String hostGuestOSCategory = getHostGuestOSCategory(host);
+            HostCapacitySnapshot snapshot = getHostCapacitySnapshot(capacityIndex, host);
+            String hostGuestOSCategory = snapshot != null ? snapshot.getGuestOSCategory() : getHostGuestOSCategory(host);
             if (hostGuestOSCategory == null) {
                 continue;
             } else if (templateGuestOSCategory != null && templateGuestOSCategory.equals(hostGuestOSCategory)) {
@@ -494,7 +512,8 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
             List<Host> gpuEnabledHosts = new ArrayList<Host>();
             // Check for GPU enabled hosts.
             for (Host host : prioritizedHosts) {
-                if (_resourceMgr.isHostGpuEnabled(host.getId())) {
+                HostCapacitySnapshot snapshot = getHostCapacitySnapshot(capacityIndex, host);
+                if (snapshot != null ? snapshot.isGpuEnabled() : _resourceMgr.isHostGpuEnabled(host.getId())) {
                     gpuEnabledHosts.add(host);
                 }
             }
@@ -526,6 +545,13 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
         return false;
     }
 
+    private HostCapacitySnapshot getHostCapacitySnapshot(HostCapacityIndex capacityIndex, Host host) {
+        if (capacityIndex == null) {
+            return null;
+        }
+        return capacityIndex.getHost(host.getDataCenterId(), host.getId());
+    }
+
     protected String getHostGuestOSCategory(Host host) {
         DetailVO hostDetail = _hostDetailsDao.findDetail(host.getId(), "guest.os.category.id");
         if (hostDetail != null) {
@@ -62,13 +62,9 @@ import com.cloud.dc.dao.HostPodDao;
 import com.cloud.event.ActionEvent;
 import com.cloud.event.AlertGenerator;
 import com.cloud.event.EventTypes;
-import com.cloud.host.Host;
-import com.cloud.host.HostVO;
 import com.cloud.network.dao.IPAddressDao;
 import com.cloud.org.Grouping.AllocationState;
 import com.cloud.resource.ResourceManager;
-import com.cloud.service.ServiceOfferingVO;
-import com.cloud.service.dao.ServiceOfferingDao;
 import com.cloud.storage.StorageManager;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.concurrency.NamedThreadFactory;
@@ -117,8 +113,6 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
     private ConfigurationManager _configMgr;
     @Inject
     protected ConfigDepot _configDepot;
-    @Inject
-    ServiceOfferingDao _offeringsDao;
 
     private Timer _timer = null;
     private long _capacityCheckPeriod = 60L * 60L * 1000L; // One hour by default.
@@ -253,6 +247,14 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
 
     @Override
     public void recalculateCapacity() {
+        recalculateCapacity(true);
+    }
+
+    /**
+     * @param force fully recalculate the cpu and memory capacity of the hosts, otherwise it is only
+     * reconciled every capacity.reconcile.interval
+     */
+    protected void recalculateCapacity(boolean force) {
         // FIXME: the right way to do this is to register a listener (see RouterStatsListener, VMSyncListener)
         //        for the vm sync state.  The listener model has connects/disconnects to keep things in sync much better
         //        than this model right now, so when a VM is started, we update the amount allocated, and when a VM
@@ -267,20 +269,9 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
                 logger.debug("Executing cpu/ram capacity update");
             }
 
-            // Calculate CPU and RAM capacities
-            //     get all hosts...even if they are not in 'UP' state
-            List<HostVO> hosts = _resourceMgr.listAllNotInMaintenanceHostsInOneZone(Host.Type.Routing, null);
-            if (hosts != null) {
-                // prepare the service offerings
-                List<ServiceOfferingVO> offerings = _offeringsDao.listAllIncludingRemoved();
-                Map<Long, ServiceOfferingVO> offeringsMap = new HashMap<Long, ServiceOfferingVO>();
-                for (ServiceOfferingVO offering : offerings) {
-                    offeringsMap.put(offering.getId(), offering);
-                }
-                for (HostVO host : hosts) {
-                    _capacityMgr.updateCapacityForHost(host, offeringsMap);
-                }
-            }
+            // CPU and RAM capacities are tracked on vm state transitions, unless forced only
+            // release expired reservations and periodically reconcile all hosts
+            _capacityMgr.updateHostCapacities(force);
             if (logger.isDebugEnabled()) {
                 logger.debug("Done executing cpu/ram capacity update");
                 logger.debug("Executing storage capacity update");
@@ -431,7 +422,7 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
 
     public void checkForAlerts() {
 
-        recalculateCapacity();
+        recalculateCapacity(false);
 
         if (mailSender == null) {
             return;
@@ -17,6 +17,8 @@
 package com.cloud.api;
 
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import javax.inject.Inject;
@@ -85,6 +87,13 @@ public class ApiAsyncJobDispatcher extends AdapterBase implements AsyncJobDispat
                 BaseAsyncCreateCmd create = (BaseAsyncCreateCmd)cmdObj;
                 create.setEntityId(Long.parseLong(params.get("id")));
                 create.setEntityUuid(params.get("uuid"));
+                if (params.get("ids") != null) {
+                    List<Long> ids = new ArrayList<Long>();
+                    for (String id : params.get("ids").split(",")) {
+                        ids.add(Long.parseLong(id));
+                    }
+                    create.setEntityIds(ids);
+                }
             }
 
             User user = null;
@@ -195,6 +195,7 @@ import com.cloud.server.ResourceMetaDataService;
 import com.cloud.server.ResourceTag;
 import com.cloud.server.ResourceTag.ResourceObjectType;
 import com.cloud.server.StatsCollector;
+import com.cloud.server.StatsHistory;
 import com.cloud.server.TaggedResourceService;
 import com.cloud.service.ServiceOfferingDetailsVO;
 import com.cloud.service.ServiceOfferingVO;
@@ -998,6 +999,14 @@ public class ApiDBUtils {
         return s_statsCollector.getVmStats(hostId);
     }
 
+    public static Map<String, StatsHistory.Summary> getHostStatisticsHistory(long hostId, long windowMillis) {
+        return s_statsCollector.getHostStatsHistory(hostId, windowMillis);
+    }
+
+    public static Map<String, StatsHistory.Summary> getVmStatisticsHistory(String vmUuid, long windowMillis) {
+        return s_statsCollector.getVmStatsHistory(vmUuid, windowMillis);
+    }
+
     public static VolumeStats getVolumeStatistics(String volumeUuid) {
         return s_statsCollector.getVolumeStats(volumeUuid);
     }
@@ -19,6 +19,7 @@ package com.cloud.api;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.io.Writer;
 import java.lang.reflect.Field;
 import java.lang.reflect.Type;
 import java.net.InetAddress;
@@ -282,6 +283,15 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             , true
             , ConfigKey.Scope.Global);
 
+    static final ConfigKey<Integer> ApiResponseStreamingThreshold = new ConfigKey<Integer>("Advanced"
+            , Integer.class
+            , "api.response.streaming.threshold"
+            , "1000"
+            , "List responses having at least this many entries are written to the client while they are serialized, instead of being built in memory first. "
+            + "Only their count is logged in the access log. Set it to 0 to disable streaming."
+            , true
+            , ConfigKey.Scope.Global);
+
     @Override
     public boolean configure(final String name, final Map<String, Object> params) throws ConfigurationException {
         messageBus.subscribe(AsyncJob.Topics.JOB_EVENT_PUBLISH, MessageDispatcher.getDispatcher(this));
@@ -697,6 +707,9 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                 objectId = createCmd.getEntityId();
                 objectUuid = createCmd.getEntityUuid();
                 params.put("id", objectId.toString());
+                if (createCmd.getEntityIds().size() > 1) {
+                    params.put("ids", org.apache.commons.lang3.StringUtils.join(createCmd.getEntityIds(), ","));
+                }
                 Class entityClass = EventTypes.getEntityClassForEvent(createCmd.getEventType());
                 if (entityClass != null)
                     ctx.putContextParameter(entityClass, objectUuid);
@@ -785,8 +798,38 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             }
 
             SerializationContext.current().setUuidTranslation(true);
-            return ApiResponseSerializer.toSerializedStringWithSecureLogs((ResponseObject)cmdObj.getResponseObject(), cmdObj.getResponseType(), log);
+            final ResponseObject responseObject = (ResponseObject)cmdObj.getResponseObject();
+            final HttpServletResponse streamingResponse = SerializationContext.current().getStreamingResponse();
+            if (streamingResponse != null && isStreamable(responseObject)) {
+                writeStreamedResponse(streamingResponse, responseObject, cmdObj.getResponseType(), log);
+                return null;
+            }
+            return ApiResponseSerializer.toSerializedStringWithSecureLogs(responseObject, cmdObj.getResponseType(), log);
+        }
+    }
+
+    private boolean isStreamable(final ResponseObject responseObject) {
+        final int threshold = ApiResponseStreamingThreshold.value();
+        if (threshold <= 0 || !(responseObject instanceof ListResponse)) {
+            return false;
+        }
+        final List<?> responses = ((ListResponse<?>)responseObject).getResponses();
+        return responses != null && responses.size() >= threshold;
+    }
+
+    /**
+     * Writes a large list response to the client while serializing it. The servlet container sends
+     * it with chunked transfer encoding, as its length isn't known upfront.
+     */
+    private void writeStreamedResponse(final HttpServletResponse resp, final ResponseObject responseObject, final String responseType, final StringBuilder log) throws IOException {
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Streaming " + ((ListResponse<?>)responseObject).getResponses().size() + " entries of " + responseObject.getResponseName());
         }
+        HttpUtils.prepareHttpResponse(resp, HttpServletResponse.SC_OK, responseType, JSONcontentType.value());
+        SerializationContext.current().setStreamed(true);
+        final Writer out = resp.getWriter();
+        ApiResponseSerializer.writeSerializedResponse(responseObject, responseType, out, log);
+        out.flush();
     }
 
     @SuppressWarnings("unchecked")
@@ -1460,7 +1503,8 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                 ConcurrentSnapshotsThresholdPerHost,
                 EncodeApiResponse,
                 EnableSecureSessionCookie,
-                JSONDefaultContentType
+                JSONDefaultContentType,
+                ApiResponseStreamingThreshold
         };
     }
 }
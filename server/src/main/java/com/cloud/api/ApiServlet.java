@@ -318,8 +318,12 @@ public class ApiServlet extends HttpServlet {
                 // Add the HTTP method (GET/POST/PUT/DELETE) as well into the params map.
                 params.put("httpmethod", new String[]{req.getMethod()});
                 setProjectContext(params);
+                // large list responses are written to resp while being serialized rather than returned
+                SerializationContext.current().setStreamingResponse(resp);
                 final String response = apiServer.handleRequest(params, responseType, auditTrailSb);
-                HttpUtils.writeHttpResponse(resp, response != null ? response : "", HttpServletResponse.SC_OK, responseType, ApiServer.JSONcontentType.value());
+                if (!SerializationContext.current().isStreamed()) {
+                    HttpUtils.writeHttpResponse(resp, response != null ? response : "", HttpServletResponse.SC_OK, responseType, ApiServer.JSONcontentType.value());
+                }
             } else {
                 if (session != null) {
                     try {
@@ -336,9 +340,12 @@ public class ApiServlet extends HttpServlet {
 
             }
         } catch (final ServerApiException se) {
-            final String serializedResponseText = apiServer.getSerializedApiError(se, params, responseType);
-            resp.setHeader("X-Description", se.getDescription());
-            HttpUtils.writeHttpResponse(resp, serializedResponseText, se.getErrorCode().getHttpCode(), responseType, ApiServer.JSONcontentType.value());
+            // the status and part of the response may already have been sent when streaming failed
+            if (!SerializationContext.current().isStreamed()) {
+                final String serializedResponseText = apiServer.getSerializedApiError(se, params, responseType);
+                resp.setHeader("X-Description", se.getDescription());
+                HttpUtils.writeHttpResponse(resp, serializedResponseText, se.getErrorCode().getHttpCode(), responseType, ApiServer.JSONcontentType.value());
+            }
             auditTrailSb.append(" " + se.getErrorCode() + " " + se.getDescription());
         } catch (final Exception ex) {
             s_logger.error("unknown exception writing api response", ex);
@@ -350,6 +357,7 @@ public class ApiServlet extends HttpServlet {
             }
             // cleanup user context to prevent from being peeked in other request context
             CallContext.unregister();
+            SerializationContext.current().setStreamingResponse(null);
         }
     }
 
@@ -16,10 +16,14 @@
 // under the License.
 package com.cloud.api;
 
+import javax.servlet.http.HttpServletResponse;
+
 public class SerializationContext {
     private static ThreadLocal<SerializationContext> s_currentContext = new ThreadLocal<SerializationContext>();
 
     private boolean _doUuidTranslation = false;
+    private HttpServletResponse _streamingResponse;
+    private boolean _streamed = false;
 
     public SerializationContext() {
     }
@@ -40,4 +44,28 @@ public class SerializationContext {
     public void setUuidTranslation(boolean value) {
         _doUuidTranslation = value;
     }
+
+    /**
+     * @return the http response large list responses may be written to as they are serialized,
+     * null if the response of the current request has to be returned as a string
+     */
+    public HttpServletResponse getStreamingResponse() {
+        return _streamingResponse;
+    }
+
+    public void setStreamingResponse(HttpServletResponse response) {
+        _streamingResponse = response;
+        _streamed = false;
+    }
+
+    /**
+     * @return whether the response of the current request has been written to the streaming response
+     */
+    public boolean isStreamed() {
+        return _streamed;
+    }
+
+    public void setStreamed(boolean streamed) {
+        _streamed = streamed;
+    }
 }
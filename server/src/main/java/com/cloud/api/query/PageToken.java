@@ -0,0 +1,69 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.query;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+import org.apache.cloudstack.api.ApiConstants;
+
+import com.cloud.exception.InvalidParameterValueException;
+
+/**
+ * Opaque token handed out as nextpagetoken by the list APIs supporting keyset
+ * pagination.  It holds the sort values of the last row of a page, which the
+ * following request seeks past instead of skipping rows with an offset.
+ */
+public class PageToken {
+    private static final String VERSION = "1";
+    private static final String SEPARATOR = ":";
+
+    public static String encode(Object... values) {
+        final StringBuilder token = new StringBuilder(VERSION);
+        for (Object value : values) {
+            if (value == null) {
+                return null;
+            }
+            token.append(SEPARATOR).append(value instanceof Date ? ((Date)value).getTime() : value);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param token the token returned by {@link #encode(Object...)}
+     * @param types types of the encoded values, Date or Long
+     * @return the encoded values
+     */
+    public static Object[] decode(String token, Class<?>... types) {
+        try {
+            final String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(SEPARATOR);
+            if (parts.length != types.length + 1 || !VERSION.equals(parts[0])) {
+                throw new InvalidParameterValueException("Invalid " + ApiConstants.PAGE_TOKEN + ": " + token);
+            }
+
+            final Object[] values = new Object[types.length];
+            for (int i = 0; i < types.length; i++) {
+                final long value = Long.parseLong(parts[i + 1]);
+                values[i] = types[i] == Date.class ? new Date(value) : Long.valueOf(value);
+            }
+            return values;
+        } catch (IllegalArgumentException e) {
+            throw new InvalidParameterValueException("Invalid " + ApiConstants.PAGE_TOKEN + ": " + token);
+        }
+    }
+}
@@ -19,6 +19,7 @@ package com.cloud.api.query;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -40,6 +41,7 @@ import org.apache.cloudstack.affinity.dao.AffinityGroupDomainMapDao;
 import org.apache.cloudstack.affinity.dao.AffinityGroupVMMapDao;
 import org.apache.cloudstack.api.ApiConstants;
 import org.apache.cloudstack.api.BaseListProjectAndAccountResourcesCmd;
+import org.apache.cloudstack.api.IBaseListCmd;
 import org.apache.cloudstack.api.ResourceDetail;
 import org.apache.cloudstack.api.ResponseGenerator;
 import org.apache.cloudstack.api.ResponseObject.ResponseView;
@@ -664,9 +666,21 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         ListResponse<EventResponse> response = new ListResponse<EventResponse>();
         List<EventResponse> eventResponses = ViewResponseHelper.createEventResponse(result.first().toArray(new EventJoinVO[result.first().size()]));
         response.setResponses(eventResponses, result.second());
+        if (isFullPage(cmd, result.first().size())) {
+            EventJoinVO last = result.first().get(result.first().size() - 1);
+            response.setNextPageToken(PageToken.encode(last.getCreateDate(), last.getId()));
+        }
         return response;
     }
 
+    /**
+     * Whether the page holds as many entries as were asked for, so that a following page may exist.
+     */
+    private boolean isFullPage(IBaseListCmd cmd, int entries) {
+        Long pageSize = cmd.getPageSizeVal();
+        return pageSize != null && entries > 0 && entries == pageSize.longValue();
+    }
+
     private Pair<List<EventJoinVO>, Integer> searchForEventsInternal(ListEventsCmd cmd) {
         Account caller = CallContext.current().getCallingAccount();
         List<Long> permittedAccounts = new ArrayList<Long>();
@@ -688,6 +702,10 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         ListProjectResourcesCriteria listProjectResourcesCriteria = domainIdRecursiveListProject.third();
 
         Filter searchFilter = new Filter(EventJoinVO.class, "createDate", false, cmd.getStartIndex(), cmd.getPageSizeVal());
+        searchFilter.addOrderBy(EventJoinVO.class, "id", false);
+        if (cmd.getPageToken() != null) {
+            searchFilter.setSeek(false, new String[] {"createDate", "id"}, PageToken.decode(cmd.getPageToken(), Date.class, Long.class));
+        }
         SearchBuilder<EventJoinVO> sb = _eventJoinDao.createSearchBuilder();
         _accountMgr.buildACLViewSearchBuilder(sb, domainId, isRecursive, permittedAccounts, listProjectResourcesCriteria);
 
@@ -931,6 +949,10 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         List<UserVmResponse> vmResponses = ViewResponseHelper.createUserVmResponse(respView, "virtualmachine", cmd.getDetails(), result.first().toArray(new UserVmJoinVO[result.first().size()]));
 
         response.setResponses(vmResponses, result.second());
+        if (isFullPage(cmd, vmResponses.size())) {
+            UserVmJoinVO last = Collections.max(result.first(), Comparator.comparingLong(UserVmJoinVO::getId));
+            response.setNextPageToken(PageToken.encode(last.getId()));
+        }
         return response;
     }
 
@@ -950,6 +972,9 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         ListProjectResourcesCriteria listProjectResourcesCriteria = domainIdRecursiveListProject.third();
 
         Filter searchFilter = new Filter(UserVmJoinVO.class, "id", true, cmd.getStartIndex(), cmd.getPageSizeVal());
+        if (cmd.getPageToken() != null) {
+            searchFilter.setSeek(true, new String[] {"id"}, PageToken.decode(cmd.getPageToken(), Long.class));
+        }
 
         List<Long> ids = null;
         if (cmd.getId() != null) {
@@ -2025,6 +2050,11 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
             }
         }
         response.setResponses(volumeResponses, result.second());
+        if (isFullPage(cmd, volumeResponses.size())) {
+            VolumeJoinVO last = Collections.min(result.first(), Comparator.comparing(VolumeJoinVO::getCreated, Comparator.nullsFirst(Comparator.naturalOrder()))
+                    .thenComparingLong(VolumeJoinVO::getId));
+            response.setNextPageToken(PageToken.encode(last.getCreated(), last.getId()));
+        }
         return response;
     }
 
@@ -2056,6 +2086,10 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         Boolean isRecursive = domainIdRecursiveListProject.second();
         ListProjectResourcesCriteria listProjectResourcesCriteria = domainIdRecursiveListProject.third();
         Filter searchFilter = new Filter(VolumeJoinVO.class, "created", false, cmd.getStartIndex(), cmd.getPageSizeVal());
+        searchFilter.addOrderBy(VolumeJoinVO.class, "id", false);
+        if (cmd.getPageToken() != null) {
+            searchFilter.setSeek(false, new String[] {"created", "id"}, PageToken.decode(cmd.getPageToken(), Date.class, Long.class));
+        }
 
         // hack for now, this should be done better but due to needing a join I
         // opted to
@@ -41,6 +41,8 @@ import org.apache.cloudstack.api.response.SuccessResponse;
 import org.apache.cloudstack.context.CallContext;
 import org.apache.log4j.Logger;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
@@ -72,6 +74,82 @@ public class ApiResponseSerializer {
         }
     }
 
+    /**
+     * Writes the response to the writer while serializing it, one entry of a list response
+     * at a time, so that large list responses are never held in memory as a whole. Only the
+     * count of list responses is appended to the log.
+     */
+    public static void writeSerializedResponse(ResponseObject result, String responseType, Writer out, StringBuilder log) throws IOException {
+        s_logger.trace("===Serializing Response===");
+        if (!(result instanceof ListResponse)) {
+            out.write(toSerializedStringWithSecureLogs(result, responseType, log));
+            return;
+        }
+
+        ListResponse<?> listResponse = (ListResponse<?>)result;
+        if (HttpUtils.RESPONSE_TYPE_JSON.equalsIgnoreCase(responseType)) {
+            writeJSONListResponse(listResponse, out);
+        } else {
+            writeXMLListResponse(listResponse, out);
+        }
+        log.append("{\"").append(result.getResponseName()).append("\":{\"").append(ApiConstants.COUNT).append("\":").append(listResponse.getCount()).append("}}");
+    }
+
+    private static void writeJSONListResponse(ListResponse<?> result, Writer out) throws IOException {
+        Gson responseBuilder = ApiResponseGsonHelper.getBuilder().excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
+        List<? extends ResponseObject> responses = result.getResponses();
+        Integer count = result.getCount();
+        boolean nonZeroCount = (count != null && count.longValue() != 0);
+
+        out.write("{\"" + result.getResponseName() + "\":{");
+        if (nonZeroCount) {
+            out.write("\"" + ApiConstants.COUNT + "\":" + count);
+        }
+        if ((responses != null) && !responses.isEmpty()) {
+            out.write((nonZeroCount ? ",\"" : "\"") + responses.get(0).getObjectName() + "\":[");
+            for (int i = 0; i < responses.size(); i++) {
+                if (i > 0) {
+                    out.write(",");
+                }
+                out.write(unescape(responseBuilder.toJson(responses.get(i))));
+            }
+            out.write("]");
+
+            String nextPageToken = result.getNextPageToken();
+            if (nextPageToken != null) {
+                out.write(",\"" + ApiConstants.NEXT_PAGE_TOKEN + "\":\"" + nextPageToken + "\"");
+            }
+        }
+        out.write("}}");
+    }
+
+    private static void writeXMLListResponse(ListResponse<?> result, Writer out) throws IOException {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        out.write("<" + result.getResponseName() + " cloud-stack-version=\"" + ApiDBUtils.getVersion() + "\">");
+
+        Integer count = result.getCount();
+        if (count != null && count != 0) {
+            out.write("<" + ApiConstants.COUNT + ">" + count + "</" + ApiConstants.COUNT + ">");
+        }
+        String nextPageToken = result.getNextPageToken();
+        if (nextPageToken != null) {
+            out.write("<" + ApiConstants.NEXT_PAGE_TOKEN + ">" + nextPageToken + "</" + ApiConstants.NEXT_PAGE_TOKEN + ">");
+        }
+        List<? extends ResponseObject> responses = result.getResponses();
+        if ((responses != null) && !responses.isEmpty()) {
+            StringBuilder sb = new StringBuilder();
+            StringBuilder log = new StringBuilder();
+            for (ResponseObject obj : responses) {
+                serializeResponseObjXML(sb, log, obj);
+                out.append(sb);
+                sb.setLength(0);
+                log.setLength(0);
+            }
+        }
+
+        out.write("</" + result.getResponseName() + ">");
+    }
+
     private static final Pattern s_unicodeEscapePattern = Pattern.compile("\\\\u([0-9A-Fa-f]{4})");
 
     public static String unescape(String escaped) {
@@ -120,8 +198,16 @@ public class ApiResponseSerializer {
                         sb.append(",").append(jsonStr);
                         log.append(",").append(logStr);
                     }
-                    sb.append("]}");
-                    log.append("]}");
+                    sb.append("]");
+                    log.append("]");
+
+                    String nextPageToken = ((ListResponse)result).getNextPageToken();
+                    if (nextPageToken != null) {
+                        sb.append(",\"").append(ApiConstants.NEXT_PAGE_TOKEN).append("\":\"").append(nextPageToken).append("\"");
+                        log.append(",\"").append(ApiConstants.NEXT_PAGE_TOKEN).append("\":\"").append(nextPageToken).append("\"");
+                    }
+                    sb.append("}");
+                    log.append("}");
                 } else  {
                     if (!nonZeroCount) {
                         sb.append("{");
@@ -181,6 +267,11 @@ public class ApiResponseSerializer {
                     sb.append("<").append(ApiConstants.COUNT).append(">").append(((ListResponse)result).getCount()).append("</").append(ApiConstants.COUNT).append(">");
                     log.append("<").append(ApiConstants.COUNT).append(">").append(((ListResponse)result).getCount()).append("</").append(ApiConstants.COUNT).append(">");
                 }
+                String nextPageToken = ((ListResponse)result).getNextPageToken();
+                if (nextPageToken != null) {
+                    sb.append("<").append(ApiConstants.NEXT_PAGE_TOKEN).append(">").append(nextPageToken).append("</").append(ApiConstants.NEXT_PAGE_TOKEN).append(">");
+                    log.append("<").append(ApiConstants.NEXT_PAGE_TOKEN).append(">").append(nextPageToken).append("</").append(ApiConstants.NEXT_PAGE_TOKEN).append(">");
+                }
                 List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
                 if ((responses != null) && !responses.isEmpty()) {
                     for (ResponseObject obj : responses) {
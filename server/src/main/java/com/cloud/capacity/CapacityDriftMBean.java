@@ -0,0 +1,62 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.capacity;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Drift between the incrementally tracked host capacity and the full recalculation.
+ * Cpu drift is in MHz, memory drift in bytes; both are absolute values summed over the hosts.
+ */
+public interface CapacityDriftMBean {
+
+    long getReconciliationCount();
+
+    Date getLastReconciliationTime();
+
+    long getLastReconciliationDurationMillis();
+
+    int getLastHostsChecked();
+
+    int getLastHostsDrifted();
+
+    long getLastUsedCpuDrift();
+
+    long getLastReservedCpuDrift();
+
+    long getLastUsedMemoryDrift();
+
+    long getLastReservedMemoryDrift();
+
+    /**
+     * @return drift of the hosts found off in the last reconciliation, keyed by host id
+     */
+    Map<Long, String> getLastHostDrifts();
+
+    /**
+     * @return number of host recalculations, in or out of a reconciliation, which found the host off
+     */
+    long getTotalHostsDrifted();
+
+    /**
+     * @return number of stopped vm reservations released incrementally once they expired
+     */
+    long getExpiredReservationsReleased();
+
+    void reset();
+}
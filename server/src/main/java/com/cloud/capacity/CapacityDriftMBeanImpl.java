@@ -0,0 +1,188 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.capacity;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+public class CapacityDriftMBeanImpl extends StandardMBean implements CapacityDriftMBean {
+    // bounds the per host details kept of a reconciliation
+    private static final int MAX_HOST_DRIFTS = 100;
+
+    private final AtomicLong _reconciliations = new AtomicLong();
+    private final AtomicLong _totalHostsDrifted = new AtomicLong();
+    private final AtomicLong _expiredReservationsReleased = new AtomicLong();
+
+    private Run _currentRun;
+    private volatile Run _lastRun;
+
+    public CapacityDriftMBeanImpl() {
+        super(CapacityDriftMBean.class, false);
+    }
+
+    public synchronized void startReconciliation() {
+        _currentRun = new Run(new Date());
+    }
+
+    public synchronized void endReconciliation() {
+        if (_currentRun == null) {
+            return;
+        }
+        _currentRun.durationMillis = System.currentTimeMillis() - _currentRun.startedAt.getTime();
+        _lastRun = _currentRun;
+        _currentRun = null;
+        _reconciliations.incrementAndGet();
+    }
+
+    /**
+     * Records the difference between the recalculated capacity of a host and the tracked one.
+     */
+    public synchronized void recordHost(long hostId, long usedCpuDrift, long reservedCpuDrift, long usedMemoryDrift, long reservedMemoryDrift) {
+        boolean drifted = usedCpuDrift != 0 || reservedCpuDrift != 0 || usedMemoryDrift != 0 || reservedMemoryDrift != 0;
+        if (drifted) {
+            _totalHostsDrifted.incrementAndGet();
+        }
+        if (_currentRun == null) {
+            return;
+        }
+        _currentRun.hostsChecked++;
+        if (drifted) {
+            _currentRun.hostsDrifted++;
+            _currentRun.usedCpuDrift += Math.abs(usedCpuDrift);
+            _currentRun.reservedCpuDrift += Math.abs(reservedCpuDrift);
+            _currentRun.usedMemoryDrift += Math.abs(usedMemoryDrift);
+            _currentRun.reservedMemoryDrift += Math.abs(reservedMemoryDrift);
+            if (_currentRun.hostDrifts.size() < MAX_HOST_DRIFTS) {
+                _currentRun.hostDrifts.put(hostId, "usedCpu=" + usedCpuDrift + ", reservedCpu=" + reservedCpuDrift + ", usedMemory=" + usedMemoryDrift
+                        + ", reservedMemory=" + reservedMemoryDrift);
+            }
+        }
+    }
+
+    public void recordExpiredReservationReleased() {
+        _expiredReservationsReleased.incrementAndGet();
+    }
+
+    @Override
+    public long getReconciliationCount() {
+        return _reconciliations.get();
+    }
+
+    @Override
+    public Date getLastReconciliationTime() {
+        Run run = _lastRun;
+        return run == null ? null : run.startedAt;
+    }
+
+    @Override
+    public long getLastReconciliationDurationMillis() {
+        Run run = _lastRun;
+        return run == null ? 0 : run.durationMillis;
+    }
+
+    @Override
+    public int getLastHostsChecked() {
+        Run run = _lastRun;
+        return run == null ? 0 : run.hostsChecked;
+    }
+
+    @Override
+    public int getLastHostsDrifted() {
+        Run run = _lastRun;
+        return run == null ? 0 : run.hostsDrifted;
+    }
+
+    @Override
+    public long getLastUsedCpuDrift() {
+        Run run = _lastRun;
+        return run == null ? 0 : run.usedCpuDrift;
+    }
+
+    @Override
+    public long getLastReservedCpuDrift() {
+        Run run = _lastRun;
+        return run == null ? 0 : run.reservedCpuDrift;
+    }
+
+    @Override
+    public long getLastUsedMemoryDrift() {
+        Run run = _lastRun;
+        return run == null ? 0 : run.usedMemoryDrift;
+    }
+
+    @Override
+    public long getLastReservedMemoryDrift() {
+        Run run = _lastRun;
+        return run == null ? 0 : run.reservedMemoryDrift;
+    }
+
+    @Override
+    public Map<Long, String> getLastHostDrifts() {
+        Run run = _lastRun;
+        return run == null ? Collections.<Long, String>emptyMap() : Collections.unmodifiableMap(run.hostDrifts);
+    }
+
+    @Override
+    public long getTotalHostsDrifted() {
+        return _totalHostsDrifted.get();
+    }
+
+    @Override
+    public long getExpiredReservationsReleased() {
+        return _expiredReservationsReleased.get();
+    }
+
+    @Override
+    public synchronized void reset() {
+        _reconciliations.set(0);
+        _totalHostsDrifted.set(0);
+        _expiredReservationsReleased.set(0);
+        _lastRun = null;
+    }
+
+    @Override
+    public synchronized String toString() {
+        Run run = _lastRun;
+        if (run == null) {
+            return "no reconciliation yet";
+        }
+        return "hosts checked: " + run.hostsChecked + ", hosts drifted: " + run.hostsDrifted + ", used cpu drift: " + run.usedCpuDrift + " MHz, reserved cpu drift: "
+                + run.reservedCpuDrift + " MHz, used memory drift: " + run.usedMemoryDrift + " bytes, reserved memory drift: " + run.reservedMemoryDrift + " bytes, took "
+                + run.durationMillis + " ms";
+    }
+
+    private static class Run {
+        final Date startedAt;
+        final Map<Long, String> hostDrifts = new TreeMap<Long, String>();
+        long durationMillis;
+        int hostsChecked;
+        int hostsDrifted;
+        long usedCpuDrift;
+        long reservedCpuDrift;
+        long usedMemoryDrift;
+        long reservedMemoryDrift;
+
+        Run(Date startedAt) {
+            this.startedAt = startedAt;
+        }
+    }
+}
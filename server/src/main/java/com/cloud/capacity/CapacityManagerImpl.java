@@ -19,9 +19,12 @@ package com.cloud.capacity;
 import static com.cloud.utils.NumbersUtil.toHumanReadableSize;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
@@ -55,10 +58,12 @@ import com.cloud.dc.dao.ClusterDao;
 import com.cloud.deploy.DeploymentClusterPlanner;
 import com.cloud.event.UsageEventVO;
 import com.cloud.exception.ConnectionException;
+import com.cloud.gpu.dao.HostGpuGroupsDao;
 import com.cloud.host.Host;
 import com.cloud.host.HostVO;
 import com.cloud.host.Status;
 import com.cloud.host.dao.HostDao;
+import com.cloud.host.dao.HostDetailsDao;
 import com.cloud.hypervisor.Hypervisor.HypervisorType;
 import com.cloud.hypervisor.dao.HypervisorCapabilitiesDao;
 import com.cloud.offering.ServiceOffering;
@@ -72,6 +77,7 @@ import com.cloud.service.dao.ServiceOfferingDao;
 import com.cloud.storage.StorageManager;
 import com.cloud.storage.VMTemplateStoragePoolVO;
 import com.cloud.storage.VMTemplateVO;
+import com.cloud.storage.dao.GuestOSCategoryDao;
 import com.cloud.storage.dao.VMTemplatePoolDao;
 import com.cloud.storage.dao.VolumeDao;
 import com.cloud.utils.DateUtil;
@@ -79,13 +85,16 @@ import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.Pair;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.db.DB;
+import com.cloud.utils.db.GlobalLock;
 import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.Transaction;
+import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
 import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.fsm.StateListener;
 import com.cloud.utils.fsm.StateMachine2;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.vm.UserVmDetailVO;
 import com.cloud.vm.UserVmVO;
 import com.cloud.vm.VMInstanceVO;
@@ -101,6 +110,8 @@ import com.cloud.vm.snapshot.dao.VMSnapshotDao;
 public class CapacityManagerImpl extends ManagerBase implements CapacityManager, StateListener<State, VirtualMachine.Event, VirtualMachine>, Listener, ResourceListener,
         Configurable {
     private static final Logger s_logger = Logger.getLogger(CapacityManagerImpl.class);
+    private static final String RESERVED_CAPACITY_LOCK = "capacitymgr.reservedcapacity";
+    private static final int RESERVED_CAPACITY_LOCK_TIMEOUT = 30; // seconds
     @Inject
     CapacityDao _capacityDao;
     @Inject
@@ -136,7 +147,17 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
 
     @Inject
     ClusterDetailsDao _clusterDetailsDao;
+    @Inject
+    HostDetailsDao _hostDetailsDao;
+    @Inject
+    GuestOSCategoryDao _guestOSCategoryDao;
+    @Inject
+    HostGpuGroupsDao _hostGpuGroupsDao;
     private int _vmCapacityReleaseInterval;
+    private final CapacityDriftMBeanImpl _capacityDrift = new CapacityDriftMBeanImpl();
+    private Date _lastHostCapacityUpdate;
+    private long _lastHostCapacityReconcile;
+    private HostCapacityIndexImpl _hostCapacityIndex;
     long _extraBytesPerVolume = 0;
 
     @Inject
@@ -150,6 +171,14 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
         _agentManager.registerForHostEvents(new StorageCapacityListener(_capacityDao, _storageMgr), true, false, false);
         _agentManager.registerForHostEvents(new ComputeCapacityListener(_capacityDao, this), true, false, false);
 
+        _hostCapacityIndex = new HostCapacityIndexImpl(_hostDao, _capacityDao, _clusterDetailsDao, _hostDetailsDao, _guestOSCategoryDao, _hostGpuGroupsDao, _vmDao,
+                _hypervisorCapabilitiesDao, HostCapacityIndexTtl.value() * 1000L);
+        try {
+            JmxUtil.registerMBean("CapacityManager", "Capacity Drift", _capacityDrift);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register capacity drift stats for JMX", e);
+        }
+
         return true;
     }
 
@@ -157,6 +186,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
     public boolean start() {
         _resourceMgr.registerResourceEvent(ResourceListener.EVENT_PREPARE_MAINTENANCE_AFTER, this);
         _resourceMgr.registerResourceEvent(ResourceListener.EVENT_CANCEL_MAINTENANCE_AFTER, this);
+        _resourceMgr.registerResourceEvent(ResourceListener.EVENT_DELETE_HOST_AFTER, this);
         return true;
     }
 
@@ -269,6 +299,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
                     _capacityDao.update(capacityCpuCore.getId(), capacityCpuCore);
                 }
             });
+            invalidateHostCapacityIndex(hostId);
 
             return true;
         } catch (Exception e) {
@@ -337,30 +368,31 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
                         s_logger.debug("Current Used CPU: " + usedCpu + " , Free CPU:" + freeCpu + " ,Requested CPU: " + cpu);
                         s_logger.debug("Current Used RAM: " + toHumanReadableSize(usedMem) + " , Free RAM:" + toHumanReadableSize(freeMem) + " ,Requested RAM: " + toHumanReadableSize(ram));
                     }
+                    if (!checkIfHostHasCpuCapability(hostId, cpucore, cpuspeed)) {
+                        throw new CloudRuntimeException("Host " + hostId + " does not have the cpu capability for vm " + vmId);
+                    }
+
+                    // the hosts were picked from a possibly stale view of the capacity, decide on the locked rows
+                    boolean allocFromReserved = fromLastHost && reservedCpu >= cpu && reservedMem >= ram;
+                    if (!allocFromReserved && !((reservedCpu + usedCpu + cpu <= totalCpu) && (reservedMem + usedMem + ram <= totalMem))) {
+                        throw new CloudRuntimeException("Host " + hostId + " does not have enough capacity for vm " + vmId + ", free CPU: " + freeCpu + ", requested CPU: " + cpu
+                                + ", free RAM: " + toHumanReadableSize(freeMem) + ", requested RAM: " + toHumanReadableSize(ram));
+                    }
+
                     capacityCpu.setUsedCapacity(usedCpu + cpu);
                     capacityMem.setUsedCapacity(usedMem + ram);
                     capacityCpuCore.setUsedCapacity(usedCpuCore + cpucore);
 
-                    if (fromLastHost) {
+                    if (allocFromReserved) {
                         /* alloc from reserved */
                         if (s_logger.isDebugEnabled()) {
-                            s_logger.debug("We are allocating VM to the last host again, so adjusting the reserved capacity if it is not less than required");
+                            s_logger.debug("We are allocating VM to the last host again, so adjusting the reserved capacity");
                             s_logger.debug("Reserved CPU: " + reservedCpu + " , Requested CPU: " + cpu);
                             s_logger.debug("Reserved RAM: " + toHumanReadableSize(reservedMem) + " , Requested RAM: " + toHumanReadableSize(ram));
                         }
-                        if (reservedCpu >= cpu && reservedMem >= ram) {
-                            capacityCpu.setReservedCapacity(reservedCpu - cpu);
-                            capacityMem.setReservedCapacity(reservedMem - ram);
-                            capacityCpuCore.setReservedCapacity(reservedCpuCore - cpucore);
-                        }
-                    } else {
-                        /* alloc from free resource */
-                        if (!((reservedCpu + usedCpu + cpu <= totalCpu) && (reservedMem + usedMem + ram <= totalMem))) {
-                            if (s_logger.isDebugEnabled()) {
-                                s_logger.debug("Host doesnt seem to have enough free capacity, but increasing the used capacity anyways, " +
-                                    "since the VM is already starting on this host ");
-                            }
-                        }
+                        capacityCpu.setReservedCapacity(reservedCpu - cpu);
+                        capacityMem.setReservedCapacity(reservedMem - ram);
+                        capacityCpuCore.setReservedCapacity(reservedCpuCore - cpucore);
                     }
 
                     s_logger.debug("CPU STATS after allocation: for host: " + hostId + ", old used: " + usedCpu + ", old reserved: " + reservedCpu + ", actual total: " +
@@ -371,33 +403,12 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
                             toHumanReadableSize(totalMem) + "; new used: " + toHumanReadableSize(capacityMem.getUsedCapacity()) + ", reserved: " + toHumanReadableSize(capacityMem.getReservedCapacity()) + "; requested mem: " + toHumanReadableSize(ram) +
                         ",alloc_from_last:" + fromLastHost);
 
-                    long cluster_id = host.getClusterId();
-                    ClusterDetailsVO cluster_detail_cpu = _clusterDetailsDao.findDetail(cluster_id, "cpuOvercommitRatio");
-                    ClusterDetailsVO cluster_detail_ram = _clusterDetailsDao.findDetail(cluster_id, "memoryOvercommitRatio");
-                    Float cpuOvercommitRatio = Float.parseFloat(cluster_detail_cpu.getValue());
-                    Float memoryOvercommitRatio = Float.parseFloat(cluster_detail_ram.getValue());
-
-                    boolean hostHasCpuCapability, hostHasCapacity = false;
-                    hostHasCpuCapability = checkIfHostHasCpuCapability(host.getId(), cpucore, cpuspeed);
-
-                    if (hostHasCpuCapability) {
-                        // first check from reserved capacity
-                        hostHasCapacity = checkIfHostHasCapacity(host.getId(), cpu, ram, true, cpuOvercommitRatio, memoryOvercommitRatio, true);
-
-                        // if not reserved, check the free capacity
-                        if (!hostHasCapacity)
-                            hostHasCapacity = checkIfHostHasCapacity(host.getId(), cpu, ram, false, cpuOvercommitRatio, memoryOvercommitRatio, true);
-                    }
-
-                    if (!hostHasCapacity || !hostHasCpuCapability) {
-                        throw new CloudRuntimeException("Host does not have enough capacity for vm " + vmId);
-                    }
-
                     _capacityDao.update(capacityCpu.getId(), capacityCpu);
                     _capacityDao.update(capacityMem.getId(), capacityMem);
                     _capacityDao.update(capacityCpuCore.getId(), capacityCpuCore);
                 }
             });
+            invalidateHostCapacityIndex(hostId);
         } catch (Exception e) {
             s_logger.error("Exception allocating VM capacity", e);
             if (e instanceof CloudRuntimeException) {
@@ -407,6 +418,81 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
         }
     }
 
+    @DB
+    @Override
+    public boolean reserveVmCapacity(ServiceOffering offering, final Map<Long, List<Long>> vmIdsByHost) {
+        final int cpu = offering.getCpu() * offering.getSpeed();
+        final int cpucore = offering.getCpu();
+        final long ram = offering.getRamSize() * 1024L * 1024L;
+        // capacity rows are locked in host order so that concurrent batches can not deadlock
+        final Map<Long, List<Long>> sortedVmIdsByHost = new TreeMap<Long, List<Long>>(vmIdsByHost);
+
+        try {
+            return Transaction.execute(new TransactionCallback<Boolean>() {
+                @Override
+                public Boolean doInTransaction(TransactionStatus status) {
+                    List<CapacityVO> lockedCapacities = new ArrayList<CapacityVO>();
+                    for (Map.Entry<Long, List<Long>> entry : sortedVmIdsByHost.entrySet()) {
+                        long hostId = entry.getKey();
+                        int vmCount = entry.getValue().size();
+                        HostVO host = _hostDao.findById(hostId);
+                        CapacityVO capacityCpu = _capacityDao.findByHostIdType(hostId, Capacity.CAPACITY_TYPE_CPU);
+                        CapacityVO capacityMem = _capacityDao.findByHostIdType(hostId, Capacity.CAPACITY_TYPE_MEMORY);
+                        CapacityVO capacityCpuCore = _capacityDao.findByHostIdType(hostId, Capacity.CAPACITY_TYPE_CPU_CORE);
+                        if (host == null || capacityCpu == null || capacityMem == null || capacityCpuCore == null) {
+                            s_logger.debug("Unable to reserve capacity on host " + hostId + ", it has no capacity records");
+                            return false;
+                        }
+                        capacityCpu = _capacityDao.lockRow(capacityCpu.getId(), true);
+                        capacityMem = _capacityDao.lockRow(capacityMem.getId(), true);
+                        capacityCpuCore = _capacityDao.lockRow(capacityCpuCore.getId(), true);
+
+                        float cpuOvercommitRatio = Float.parseFloat(_clusterDetailsDao.findDetail(host.getClusterId(), "cpuOvercommitRatio").getValue());
+                        float memoryOvercommitRatio = Float.parseFloat(_clusterDetailsDao.findDetail(host.getClusterId(), "memoryOvercommitRatio").getValue());
+                        long totalCpu = (long)(capacityCpu.getTotalCapacity() * cpuOvercommitRatio);
+                        long totalMem = (long)(capacityMem.getTotalCapacity() * memoryOvercommitRatio);
+                        long requestedCpu = (long)cpu * vmCount;
+                        long requestedMem = ram * vmCount;
+                        if (capacityCpu.getUsedCapacity() + capacityCpu.getReservedCapacity() + requestedCpu > totalCpu
+                                || capacityMem.getUsedCapacity() + capacityMem.getReservedCapacity() + requestedMem > totalMem) {
+                            s_logger.debug("Unable to reserve capacity for " + vmCount + " vms on host " + hostId + ", requested cpu: " + requestedCpu + ", requested ram: "
+                                    + toHumanReadableSize(requestedMem) + ", used cpu: " + capacityCpu.getUsedCapacity() + ", reserved cpu: " + capacityCpu.getReservedCapacity()
+                                    + ", used ram: " + toHumanReadableSize(capacityMem.getUsedCapacity()) + ", reserved ram: " + toHumanReadableSize(capacityMem.getReservedCapacity()));
+                            return false;
+                        }
+
+                        capacityCpu.setReservedCapacity(capacityCpu.getReservedCapacity() + requestedCpu);
+                        capacityMem.setReservedCapacity(capacityMem.getReservedCapacity() + requestedMem);
+                        capacityCpuCore.setReservedCapacity(capacityCpuCore.getReservedCapacity() + (long)cpucore * vmCount);
+                        lockedCapacities.add(capacityCpu);
+                        lockedCapacities.add(capacityMem);
+                        lockedCapacities.add(capacityCpuCore);
+                    }
+
+                    // every host fits, only now the reservation is written
+                    for (CapacityVO capacity : lockedCapacities) {
+                        _capacityDao.update(capacity.getId(), capacity);
+                    }
+                    // the reservation is held for capacity.skipcounting.hours from now, as for a stopped vm
+                    Date now = DateUtil.currentGMTTime();
+                    for (Map.Entry<Long, List<Long>> entry : sortedVmIdsByHost.entrySet()) {
+                        for (Long vmId : entry.getValue()) {
+                            VMInstanceVO vm = _vmDao.createForUpdate();
+                            vm.setLastHostId(entry.getKey());
+                            vm.setUpdateTime(now);
+                            _vmDao.update(vmId, vm);
+                        }
+                    }
+                    return true;
+                }
+            });
+        } finally {
+            for (Long hostId : sortedVmIdsByHost.keySet()) {
+                invalidateHostCapacityIndex(hostId);
+            }
+        }
+    }
+
     @Override
     public boolean checkIfHostHasCpuCapability(long hostId, Integer cpuNum, Integer cpuSpeed) {
 
@@ -634,13 +720,156 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
     @DB
     @Override
     public void updateCapacityForHost(final Host host) {
-        // prepare the service offerings
+        updateCapacityForHost(host, getServiceOfferingsMap());
+    }
+
+    private Map<Long, ServiceOfferingVO> getServiceOfferingsMap() {
         List<ServiceOfferingVO> offerings = _offeringsDao.listAllIncludingRemoved();
         Map<Long, ServiceOfferingVO> offeringsMap = new HashMap<Long, ServiceOfferingVO>();
         for (ServiceOfferingVO offering : offerings) {
             offeringsMap.put(offering.getId(), offering);
         }
-        updateCapacityForHost(host, offeringsMap);
+        return offeringsMap;
+    }
+
+    @Override
+    public synchronized void updateHostCapacities(boolean force) {
+        Date now = DateUtil.currentGMTTime();
+        long reconcileIntervalMillis = CapacityReconcileInterval.value() * 1000L;
+        if (force || _lastHostCapacityUpdate == null || reconcileIntervalMillis <= 0 || now.getTime() - _lastHostCapacityReconcile >= reconcileIntervalMillis) {
+            reconcileHostCapacities();
+            _lastHostCapacityReconcile = now.getTime();
+        } else if (!releaseExpiredReservations(_lastHostCapacityUpdate, now)) {
+            // keep the period, the reservations expired in it are released on the next run
+            return;
+        }
+        _lastHostCapacityUpdate = now;
+    }
+
+    /**
+     * Fully recalculates the capacity of every host which is not in maintenance, recording the drift from the tracked capacity.
+     */
+    protected void reconcileHostCapacities() {
+        List<HostVO> hosts = _resourceMgr.listAllNotInMaintenanceHostsInOneZone(Host.Type.Routing, null);
+        if (hosts == null) {
+            return;
+        }
+        Map<Long, ServiceOfferingVO> offeringsMap = getServiceOfferingsMap();
+        _capacityDrift.startReconciliation();
+        try {
+            for (HostVO host : hosts) {
+                updateCapacityForHost(host, offeringsMap);
+            }
+        } finally {
+            _capacityDrift.endReconciliation();
+        }
+        if (_capacityDrift.getLastHostsDrifted() > 0) {
+            s_logger.info("Reconciled host capacity, found drift: " + _capacityDrift);
+        } else if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Reconciled host capacity, no drift: " + _capacityDrift);
+        }
+    }
+
+    /**
+     * Releases the capacity reserved for the stopped vms whose reservation expired between from and to,
+     * i.e. the vms which have been stopped for capacity.skipcounting.hours in that period. Every management
+     * server runs this, the release is done under a global lock so that a reservation is only released once.
+     * @return false if the lock could not be acquired and nothing was released
+     */
+    protected boolean releaseExpiredReservations(Date from, Date to) {
+        long releaseIntervalMillis = _vmCapacityReleaseInterval * 1000L;
+        List<VMInstanceVO> vms = _vmDao.listStoppedWithLastHostUpdatedBetween(VirtualMachine.Type.User, new Date(from.getTime() - releaseIntervalMillis),
+                new Date(to.getTime() - releaseIntervalMillis));
+        if (vms.isEmpty()) {
+            return true;
+        }
+        GlobalLock lock = getReservedCapacityLock();
+        try {
+            if (!lock.lock(RESERVED_CAPACITY_LOCK_TIMEOUT)) {
+                s_logger.warn("Unable to acquire the lock to release expired capacity reservations, retrying on the next run");
+                return false;
+            }
+            try {
+                for (VMInstanceVO vm : vms) {
+                    // a recalculation of the host or another management server may have dropped the reservation already
+                    if (markReservedCapacityFreed(vm)) {
+                        releaseVmCapacity(vm, true, false, vm.getLastHostId());
+                        _capacityDrift.recordExpiredReservationReleased();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            lock.releaseRef();
+        }
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Checked " + vms.size() + " stopped vms for expired capacity reservations");
+        }
+        return true;
+    }
+
+    protected GlobalLock getReservedCapacityLock() {
+        return GlobalLock.getInternLock(RESERVED_CAPACITY_LOCK);
+    }
+
+    /**
+     * @return whether the capacity of the stopped vm is still reserved on its last host, a vm which was
+     * never started (no update time) only has its last host set when capacity was just reserved for it
+     */
+    protected boolean isCapacityReserved(VMInstanceVO vm, Date now) {
+        if (vm.getUpdateTime() == null) {
+            return true;
+        }
+        long secondsSinceLastUpdate = (now.getTime() - vm.getUpdateTime().getTime()) / 1000;
+        return secondsSinceLastUpdate < _vmCapacityReleaseInterval;
+    }
+
+    /**
+     * Signals, once per stop of the vm, that the capacity reserved for it on its last host is freed.
+     */
+    private void signalReservedCapacityFreed(VMInstanceVO vm) {
+        if (isReservedCapacityFreedSignalled(vm)) {
+            return;
+        }
+        GlobalLock lock = getReservedCapacityLock();
+        try {
+            if (!lock.lock(RESERVED_CAPACITY_LOCK_TIMEOUT)) {
+                s_logger.debug("Unable to acquire the lock to signal the freed capacity of " + vm + ", retrying on the next recalculation");
+                return;
+            }
+            try {
+                markReservedCapacityFreed(vm);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            lock.releaseRef();
+        }
+    }
+
+    /**
+     * Marks the capacity reserved for the stopped vm as freed, the caller must hold the reserved capacity lock.
+     * @return false if it was marked already
+     */
+    protected boolean markReservedCapacityFreed(VMInstanceVO vm) {
+        if (isReservedCapacityFreedSignalled(vm)) {
+            return false;
+        }
+        _messageBus.publish(_name, "VM_ReservedCapacity_Free", PublishScope.LOCAL, vm);
+
+        if (vm.getType() == VirtualMachine.Type.User) {
+            UserVmVO userVM = _userVMDao.findById(vm.getId());
+            _userVMDao.loadDetails(userVM);
+            userVM.setDetail(VmDetailConstants.MESSAGE_RESERVED_CAPACITY_FREED_FLAG, "true");
+            _userVMDao.saveDetails(userVM);
+        }
+        return true;
+    }
+
+    private boolean isReservedCapacityFreedSignalled(VMInstanceVO vm) {
+        UserVmDetailVO messageSentFlag = _userVmDetailsDao.findDetail(vm.getId(), VmDetailConstants.MESSAGE_RESERVED_CAPACITY_FREED_FLAG);
+        return messageSentFlag != null && Boolean.valueOf(messageSentFlag.getValue());
     }
 
     @DB
@@ -711,8 +940,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
         for (VMInstanceVO vm : vmsByLastHostId) {
             Float cpuOvercommitRatio = 1.0f;
             Float ramOvercommitRatio = 1.0f;
-            long secondsSinceLastUpdate = (DateUtil.currentGMTTime().getTime() - vm.getUpdateTime().getTime()) / 1000;
-            if (secondsSinceLastUpdate < _vmCapacityReleaseInterval) {
+            if (isCapacityReserved(vm, DateUtil.currentGMTTime())) {
                 UserVmDetailVO vmDetailCpu = _userVmDetailsDao.findDetail(vm.getId(), VmDetailConstants.CPU_OVER_COMMIT_RATIO);
                 UserVmDetailVO vmDetailRam = _userVmDetailsDao.findDetail(vm.getId(), VmDetailConstants.MEMORY_OVER_COMMIT_RATIO);
                 if (vmDetailCpu != null) {
@@ -747,17 +975,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
             } else {
                 // signal if not done already, that the VM has been stopped for skip.counting.hours,
                 // hence capacity will not be reserved anymore.
-                UserVmDetailVO messageSentFlag = _userVmDetailsDao.findDetail(vm.getId(), VmDetailConstants.MESSAGE_RESERVED_CAPACITY_FREED_FLAG);
-                if (messageSentFlag == null || !Boolean.valueOf(messageSentFlag.getValue())) {
-                    _messageBus.publish(_name, "VM_ReservedCapacity_Free", PublishScope.LOCAL, vm);
-
-                    if (vm.getType() == VirtualMachine.Type.User) {
-                        UserVmVO userVM = _userVMDao.findById(vm.getId());
-                        _userVMDao.loadDetails(userVM);
-                        userVM.setDetail(VmDetailConstants.MESSAGE_RESERVED_CAPACITY_FREED_FLAG, "true");
-                        _userVMDao.saveDetails(userVM);
-                    }
-                }
+                signalReservedCapacityFreed(vm);
             }
         }
 
@@ -811,6 +1029,8 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
         }
 
         if (cpuCap != null && memCap != null) {
+            _capacityDrift.recordHost(host.getId(), usedCpu - cpuCap.getUsedCapacity(), reservedCpu - cpuCap.getReservedCapacity(),
+                    usedMemory - memCap.getUsedCapacity(), reservedMemory - memCap.getReservedCapacity());
             if (host.getTotalMemory() != null) {
                 memCap.setTotalCapacity(host.getTotalMemory());
             }
@@ -906,7 +1126,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
             });
 
         }
-
+        invalidateHostCapacityIndex(host.getId());
     }
 
     @Override
@@ -978,6 +1198,10 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
         allocateVmCapacity(vm, fromLastHost);
       }
 
+      // active VM counts of the hosts involved have changed
+      invalidateHostCapacityIndex(oldHostId);
+      invalidateHostCapacityIndex(vm.getHostId());
+
       if (newState == State.Stopped) {
         if (vm.getType() == VirtualMachine.Type.User) {
 
@@ -1122,6 +1346,25 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
         return new Pair<>(hostHasCpuCapability, hostHasCapacity);
     }
 
+    @Override
+    public HostCapacityIndex getHostCapacityIndex() {
+        if (_hostCapacityIndex == null) {
+            return null;
+        }
+        int ttl = HostCapacityIndexTtl.value();
+        if (ttl <= 0) {
+            return null;
+        }
+        _hostCapacityIndex.setTtlMillis(ttl * 1000L);
+        return _hostCapacityIndex;
+    }
+
+    private void invalidateHostCapacityIndex(Long hostId) {
+        if (_hostCapacityIndex != null && hostId != null) {
+            _hostCapacityIndex.invalidateHost(hostId);
+        }
+    }
+
     @Override
     public boolean processAnswers(long agentId, long seq, Answer[] answers) {
         // TODO Auto-generated method stub
@@ -1195,8 +1438,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
 
     @Override
     public void processDeletHostEventAfter(Host host) {
-        // TODO Auto-generated method stub
-
+        invalidateHostCapacityIndex(host.getId());
     }
 
     @Override
@@ -1222,6 +1464,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
         _capacityDao.removeBy(Capacity.CAPACITY_TYPE_MEMORY, null, null, null, hostId);
         _capacityDao.removeBy(Capacity.CAPACITY_TYPE_CPU, null, null, null, hostId);
         _capacityDao.removeBy(Capacity.CAPACITY_TYPE_CPU_CORE, null, null, null, hostId);
+        invalidateHostCapacityIndex(hostId);
     }
 
     @Override
@@ -1256,6 +1499,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
     @Override
     public ConfigKey<?>[] getConfigKeys() {
         return new ConfigKey<?>[] {CpuOverprovisioningFactor, MemOverprovisioningFactor, StorageCapacityDisableThreshold, StorageOverprovisioningFactor,
-            StorageAllocatedCapacityDisableThreshold, StorageOperationsExcludeCluster, VmwareCreateCloneFull, ImageStoreNFSVersion, SecondaryStorageCapacityThreshold};
+            StorageAllocatedCapacityDisableThreshold, StorageOperationsExcludeCluster, VmwareCreateCloneFull, ImageStoreNFSVersion, SecondaryStorageCapacityThreshold,
+            HostCapacityIndexTtl, CapacityReconcileInterval};
     }
 }
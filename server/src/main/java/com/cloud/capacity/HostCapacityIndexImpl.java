@@ -0,0 +1,333 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.capacity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.capacity.dao.CapacityDao;
+import com.cloud.dc.ClusterDetailsDao;
+import com.cloud.dc.ClusterDetailsVO;
+import com.cloud.gpu.dao.HostGpuGroupsDao;
+import com.cloud.host.DetailVO;
+import com.cloud.host.Host;
+import com.cloud.host.HostVO;
+import com.cloud.host.Status;
+import com.cloud.host.dao.HostDao;
+import com.cloud.host.dao.HostDetailsDao;
+import com.cloud.hypervisor.Hypervisor.HypervisorType;
+import com.cloud.hypervisor.dao.HypervisorCapabilitiesDao;
+import com.cloud.resource.ResourceState;
+import com.cloud.storage.GuestOSCategoryVO;
+import com.cloud.storage.dao.GuestOSCategoryDao;
+import com.cloud.utils.db.SearchCriteria;
+import com.cloud.vm.dao.VMInstanceDao;
+
+/**
+ * {@link HostCapacityIndex} that bulk loads the Up and Enabled routing hosts
+ * of a zone with a fixed number of queries, independent of the number of
+ * hosts. A zone is fully reloaded once it is older than the configured time
+ * to live; hosts invalidated in between (capacity allocated or released,
+ * capacity recalculated, maintenance) are reloaded together on the next
+ * lookup in the zone.
+ */
+public class HostCapacityIndexImpl implements HostCapacityIndex {
+    private static final Logger s_logger = Logger.getLogger(HostCapacityIndexImpl.class);
+
+    static final String GUEST_OS_CATEGORY_DETAIL = "guest.os.category.id";
+    static final String CPU_OVERCOMMIT_RATIO = "cpuOvercommitRatio";
+    static final String MEMORY_OVERCOMMIT_RATIO = "memoryOvercommitRatio";
+
+    private final HostDao _hostDao;
+    private final CapacityDao _capacityDao;
+    private final ClusterDetailsDao _clusterDetailsDao;
+    private final HostDetailsDao _hostDetailsDao;
+    private final GuestOSCategoryDao _guestOSCategoryDao;
+    private final HostGpuGroupsDao _hostGpuGroupsDao;
+    private final VMInstanceDao _vmDao;
+    private final HypervisorCapabilitiesDao _hypervisorCapabilitiesDao;
+
+    private final Map<Long, ZoneIndex> _zones = new ConcurrentHashMap<Long, ZoneIndex>();
+    private final Map<Long, Long> _hostZones = new ConcurrentHashMap<Long, Long>();
+    private final AtomicLong _zoneLoads = new AtomicLong();
+    private final AtomicLong _hostReloads = new AtomicLong();
+    private volatile long _ttlMillis;
+
+    public HostCapacityIndexImpl(HostDao hostDao, CapacityDao capacityDao, ClusterDetailsDao clusterDetailsDao, HostDetailsDao hostDetailsDao,
+            GuestOSCategoryDao guestOSCategoryDao, HostGpuGroupsDao hostGpuGroupsDao, VMInstanceDao vmDao, HypervisorCapabilitiesDao hypervisorCapabilitiesDao,
+            long ttlMillis) {
+        _hostDao = hostDao;
+        _capacityDao = capacityDao;
+        _clusterDetailsDao = clusterDetailsDao;
+        _hostDetailsDao = hostDetailsDao;
+        _guestOSCategoryDao = guestOSCategoryDao;
+        _hostGpuGroupsDao = hostGpuGroupsDao;
+        _vmDao = vmDao;
+        _hypervisorCapabilitiesDao = hypervisorCapabilitiesDao;
+        _ttlMillis = ttlMillis;
+    }
+
+    public void setTtlMillis(long ttlMillis) {
+        _ttlMillis = ttlMillis;
+    }
+
+    @Override
+    public HostCapacitySnapshot getHost(long zoneId, long hostId) {
+        ZoneIndex zone = _zones.computeIfAbsent(zoneId, k -> new ZoneIndex());
+        if (zone.needsRefresh(System.currentTimeMillis(), _ttlMillis)) {
+            synchronized (zone) {
+                long now = System.currentTimeMillis();
+                if (now - zone.loadedAt >= _ttlMillis) {
+                    reloadZone(zoneId, zone, now);
+                } else if (!zone.staleHosts.isEmpty()) {
+                    reloadStaleHosts(zoneId, zone, now);
+                }
+            }
+        }
+        return zone.hosts.get(hostId);
+    }
+
+    @Override
+    public void invalidateHost(long hostId) {
+        Long zoneId = _hostZones.get(hostId);
+        if (zoneId == null) {
+            return;
+        }
+        ZoneIndex zone = _zones.get(zoneId);
+        if (zone != null) {
+            zone.staleHosts.add(hostId);
+        }
+    }
+
+    @Override
+    public void invalidateZone(long zoneId) {
+        ZoneIndex zone = _zones.get(zoneId);
+        if (zone != null) {
+            zone.loadedAt = 0;
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        for (ZoneIndex zone : _zones.values()) {
+            zone.loadedAt = 0;
+        }
+    }
+
+    public long getZoneLoads() {
+        return _zoneLoads.get();
+    }
+
+    public long getHostReloads() {
+        return _hostReloads.get();
+    }
+
+    private void reloadZone(long zoneId, ZoneIndex zone, long now) {
+        // invalidations arriving while the zone is being loaded stay queued and are picked up on the next lookup
+        zone.staleHosts.clear();
+        List<HostVO> hosts = _hostDao.listByDataCenterId(zoneId);
+        Map<Long, HostCapacitySnapshot> snapshots = loadSnapshots(zoneId, hosts, false, now);
+        for (Long hostId : zone.hosts.keySet()) {
+            if (!snapshots.containsKey(hostId)) {
+                _hostZones.remove(hostId);
+            }
+        }
+        zone.hosts = Collections.unmodifiableMap(snapshots);
+        zone.loadedAt = now;
+        _zoneLoads.incrementAndGet();
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Loaded capacity index of zone " + zoneId + " with " + snapshots.size() + " hosts in " + (System.currentTimeMillis() - now) + " ms");
+        }
+    }
+
+    private void reloadStaleHosts(long zoneId, ZoneIndex zone, long now) {
+        List<Long> hostIds = new ArrayList<Long>(zone.staleHosts);
+        zone.staleHosts.removeAll(hostIds);
+
+        SearchCriteria<HostVO> sc = _hostDao.createSearchCriteria();
+        sc.addAnd("id", SearchCriteria.Op.IN, hostIds.toArray());
+        List<HostVO> hosts = new ArrayList<HostVO>();
+        for (HostVO host : _hostDao.search(sc, null)) {
+            // keep the same hosts a full reload would, see HostDao.listByDataCenterId
+            if (host.getType() == Host.Type.Routing && host.getStatus() == Status.Up && host.getResourceState() == ResourceState.Enabled) {
+                hosts.add(host);
+            }
+        }
+
+        Map<Long, HostCapacitySnapshot> snapshots = new HashMap<Long, HostCapacitySnapshot>(zone.hosts);
+        for (Long hostId : hostIds) {
+            snapshots.remove(hostId);
+            _hostZones.remove(hostId);
+        }
+        snapshots.putAll(loadSnapshots(zoneId, hosts, true, now));
+        zone.hosts = Collections.unmodifiableMap(snapshots);
+        _hostReloads.addAndGet(hostIds.size());
+    }
+
+    protected Map<Long, HostCapacitySnapshot> loadSnapshots(long zoneId, List<HostVO> hosts, boolean filterByHost, long now) {
+        Map<Long, HostCapacitySnapshot> snapshots = new HashMap<Long, HostCapacitySnapshot>(hosts.size() * 2);
+        if (hosts.isEmpty()) {
+            return snapshots;
+        }
+
+        Set<Long> clusterIds = new HashSet<Long>();
+        Object[] hostIds = new Object[hosts.size()];
+        boolean needsVmCount = false;
+        for (int i = 0; i < hosts.size(); i++) {
+            HostVO host = hosts.get(i);
+            hostIds[i] = host.getId();
+            if (host.getClusterId() != null) {
+                clusterIds.add(host.getClusterId());
+            }
+            if (host.getHypervisorType() != HypervisorType.KVM) {
+                needsVmCount = true;
+            }
+        }
+
+        SearchCriteria<CapacityVO> capacitySC = _capacityDao.createSearchCriteria();
+        capacitySC.addAnd("dataCenterId", SearchCriteria.Op.EQ, zoneId);
+        capacitySC.addAnd("capacityType", SearchCriteria.Op.IN, Capacity.CAPACITY_TYPE_CPU, Capacity.CAPACITY_TYPE_MEMORY);
+        if (filterByHost) {
+            capacitySC.addAnd("hostOrPoolId", SearchCriteria.Op.IN, hostIds);
+        }
+        Map<Long, CapacityVO> cpuCapacities = new HashMap<Long, CapacityVO>();
+        Map<Long, CapacityVO> memoryCapacities = new HashMap<Long, CapacityVO>();
+        for (CapacityVO capacity : _capacityDao.search(capacitySC, null)) {
+            if (capacity.getCapacityType() == Capacity.CAPACITY_TYPE_CPU) {
+                cpuCapacities.put(capacity.getHostOrPoolId(), capacity);
+            } else {
+                memoryCapacities.put(capacity.getHostOrPoolId(), capacity);
+            }
+        }
+
+        Map<Long, Float> cpuOvercommitRatios = new HashMap<Long, Float>();
+        Map<Long, Float> memoryOvercommitRatios = new HashMap<Long, Float>();
+        if (!clusterIds.isEmpty()) {
+            SearchCriteria<ClusterDetailsVO> clusterSC = _clusterDetailsDao.createSearchCriteria();
+            clusterSC.addAnd("clusterId", SearchCriteria.Op.IN, clusterIds.toArray());
+            clusterSC.addAnd("name", SearchCriteria.Op.IN, CPU_OVERCOMMIT_RATIO, MEMORY_OVERCOMMIT_RATIO);
+            for (ClusterDetailsVO detail : _clusterDetailsDao.search(clusterSC, null)) {
+                Map<Long, Float> ratios = CPU_OVERCOMMIT_RATIO.equals(detail.getName()) ? cpuOvercommitRatios : memoryOvercommitRatios;
+                try {
+                    ratios.put(detail.getClusterId(), Float.parseFloat(detail.getValue()));
+                } catch (NumberFormatException e) {
+                    s_logger.warn("Invalid " + detail.getName() + " '" + detail.getValue() + "' for cluster " + detail.getClusterId());
+                }
+            }
+        }
+
+        SearchCriteria<DetailVO> detailSC = _hostDetailsDao.createSearchCriteria();
+        detailSC.addAnd("hostId", SearchCriteria.Op.IN, hostIds);
+        detailSC.addAnd("name", SearchCriteria.Op.IN, GUEST_OS_CATEGORY_DETAIL, Host.HOST_UEFI_ENABLE);
+        Map<Long, Long> guestOSCategoryIds = new HashMap<Long, Long>();
+        Set<Long> uefiHosts = new HashSet<Long>();
+        for (DetailVO detail : _hostDetailsDao.search(detailSC, null)) {
+            if (Host.HOST_UEFI_ENABLE.equals(detail.getName())) {
+                if ("Yes".equalsIgnoreCase(detail.getValue())) {
+                    uefiHosts.add(detail.getHostId());
+                }
+            } else {
+                try {
+                    guestOSCategoryIds.put(detail.getHostId(), Long.parseLong(detail.getValue()));
+                } catch (NumberFormatException e) {
+                    // same as FirstFitAllocator, an unparsable category means no category
+                }
+            }
+        }
+
+        Map<Long, String> guestOSCategories = new HashMap<Long, String>();
+        if (!guestOSCategoryIds.isEmpty()) {
+            for (GuestOSCategoryVO category : _guestOSCategoryDao.listAll()) {
+                guestOSCategories.put(category.getId(), category.getName());
+            }
+        }
+
+        Set<Long> gpuHosts = new HashSet<Long>(_hostGpuGroupsDao.listHostIds());
+        Map<Long, Long> vmCounts = needsVmCount ? _vmDao.countActiveByHostIdsInZone(zoneId) : Collections.<Long, Long>emptyMap();
+        Map<String, Long> maxGuestsLimits = new HashMap<String, Long>();
+
+        for (HostVO host : hosts) {
+            long hostId = host.getId();
+            CapacityVO cpu = cpuCapacities.get(hostId);
+            CapacityVO memory = memoryCapacities.get(hostId);
+            Float cpuOvercommitRatio = cpuOvercommitRatios.get(host.getClusterId());
+            Float memoryOvercommitRatio = memoryOvercommitRatios.get(host.getClusterId());
+            if (cpu == null || memory == null || cpuOvercommitRatio == null || memoryOvercommitRatio == null) {
+                // leave the host to the database checks, which report the missing entries
+                continue;
+            }
+
+            HostCapacitySnapshot snapshot = new HostCapacitySnapshot(hostId);
+            snapshot.setClusterId(host.getClusterId());
+            snapshot.setPodId(host.getPodId());
+            snapshot.setHypervisorType(host.getHypervisorType());
+            snapshot.setCpus(host.getCpus() == null ? 0 : host.getCpus());
+            snapshot.setSpeed(host.getSpeed() == null ? 0 : host.getSpeed().intValue());
+            snapshot.setUsedCpu(cpu.getUsedCapacity());
+            snapshot.setReservedCpu(cpu.getReservedCapacity());
+            snapshot.setTotalCpu(cpu.getTotalCapacity());
+            snapshot.setUsedMemory(memory.getUsedCapacity());
+            snapshot.setReservedMemory(memory.getReservedCapacity());
+            snapshot.setTotalMemory(memory.getTotalCapacity());
+            snapshot.setCpuOvercommitRatio(cpuOvercommitRatio);
+            snapshot.setMemoryOvercommitRatio(memoryOvercommitRatio);
+            Long guestOSCategoryId = guestOSCategoryIds.get(hostId);
+            snapshot.setGuestOSCategory(guestOSCategoryId == null ? null : guestOSCategories.get(guestOSCategoryId));
+            snapshot.setUefiEnabled(uefiHosts.contains(hostId));
+            snapshot.setGpuEnabled(gpuHosts.contains(hostId));
+            if (host.getHypervisorType() != HypervisorType.KVM) {
+                Long vmCount = vmCounts.get(hostId);
+                snapshot.setActiveVmCount(vmCount == null ? 0 : vmCount);
+                snapshot.setMaxGuestsLimit(getMaxGuestsLimit(maxGuestsLimits, host.getHypervisorType(), host.getHypervisorVersion()));
+            }
+            snapshot.setLoadedAt(now);
+
+            snapshots.put(hostId, snapshot);
+            _hostZones.put(hostId, zoneId);
+        }
+        return snapshots;
+    }
+
+    private Long getMaxGuestsLimit(Map<String, Long> maxGuestsLimits, HypervisorType hypervisorType, String hypervisorVersion) {
+        String key = hypervisorType + ":" + hypervisorVersion;
+        Long limit = maxGuestsLimits.get(key);
+        if (limit == null) {
+            limit = _hypervisorCapabilitiesDao.getMaxGuestsLimit(hypervisorType, hypervisorVersion);
+            maxGuestsLimits.put(key, limit);
+        }
+        return limit;
+    }
+
+    private static class ZoneIndex {
+        volatile Map<Long, HostCapacitySnapshot> hosts = Collections.emptyMap();
+        volatile long loadedAt;
+        final Set<Long> staleHosts = ConcurrentHashMap.newKeySet();
+
+        boolean needsRefresh(long now, long ttlMillis) {
+            return now - loadedAt >= ttlMillis || !staleHosts.isEmpty();
+        }
+    }
+}
@@ -1222,6 +1222,32 @@ public enum Config {
             "Interval (in days) to check sanity of usage data. To disable set it to 0 or negative.",
             null),
     UsageAggregationTimezone("Usage", ManagementServer.class, String.class, "usage.aggregation.timezone", "GMT", "The timezone to use for usage stats aggregation", null),
+    UsageParseParallelism(
+            "Usage",
+            ManagementServer.class,
+            Integer.class,
+            "usage.parse.parallelism",
+            "1",
+            "Number of threads the usage server parses accounts on, 1 parses them sequentially. With more than 1, the usage server checkpoints how far each account "
+                    + "has been parsed, so that a failed job can be re-run without duplicating usage records. Requires a restart of the usage server.",
+            null),
+    UsageParseBatchSize(
+            "Usage",
+            ManagementServer.class,
+            Integer.class,
+            "usage.parse.batch.size",
+            "500",
+            "Number of usage records the usage server writes to the database in one batch. Requires a restart of the usage server.",
+            null),
+    UsageParseIncremental(
+            "Usage",
+            ManagementServer.class,
+            Boolean.class,
+            "usage.parse.incremental",
+            "false",
+            "If true, the usage server checkpoints how far each account has been parsed and skips the accounts with nothing to bill since their last usage event, "
+                    + "which makes short usage.stats.job.aggregation.range values affordable. Requires a restart of the usage server.",
+            null),
     TrafficSentinelIncludeZones(
             "Usage",
             ManagementServer.class,
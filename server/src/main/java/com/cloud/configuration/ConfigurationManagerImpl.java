@@ -119,12 +119,15 @@ import org.apache.commons.collections.MapUtils;
 import org.apache.log4j.Logger;
 
 import com.cloud.agent.AgentManager;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.InvalidateConfigCacheCommand;
 import com.cloud.alert.AlertManager;
 import com.cloud.api.ApiDBUtils;
 import com.cloud.api.query.dao.NetworkOfferingJoinDao;
 import com.cloud.api.query.vo.NetworkOfferingJoinVO;
 import com.cloud.capacity.CapacityManager;
 import com.cloud.capacity.dao.CapacityDao;
+import com.cloud.cluster.ClusterManager;
 import com.cloud.configuration.Resource.ResourceType;
 import com.cloud.dc.AccountVlanMapVO;
 import com.cloud.dc.ClusterDetailsDao;
@@ -216,6 +219,7 @@ import com.cloud.org.Grouping;
 import com.cloud.org.Grouping.AllocationState;
 import com.cloud.projects.Project;
 import com.cloud.projects.ProjectManager;
+import com.cloud.serializer.GsonHelper;
 import com.cloud.server.ConfigurationServer;
 import com.cloud.server.ManagementService;
 import com.cloud.service.ServiceOfferingDetailsVO;
@@ -403,6 +407,8 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
     @Inject
     AgentManager _agentManager;
     @Inject
+    ClusterManager _clusterMgr;
+    @Inject
     IndirectAgentLB _indirectAgentLB;
     @Inject
     private VMTemplateZoneDao templateZoneDao;
@@ -710,6 +716,7 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
             default:
                 throw new InvalidParameterValueException("Scope provided is invalid");
             }
+            invalidateConfigCache(name);
             return value;
         }
 
@@ -800,10 +807,28 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
         }
 
         txn.commit();
+        invalidateConfigCache(name);
         messageBus.publish(_name, EventTypes.EVENT_CONFIGURATION_VALUE_EDIT, PublishScope.GLOBAL, name);
         return _configDao.getValue(name);
     }
 
+    /**
+     * Drops the cached values of the configuration on this management server and notifies
+     * the peers to do the same, so that ConfigKey lookups observe the new value right away.
+     */
+    protected void invalidateConfigCache(final String name) {
+        _configDepot.invalidateConfigCache(name);
+        if (_clusterMgr == null) {
+            return;
+        }
+        try {
+            final Command[] cmds = new Command[] {new InvalidateConfigCacheCommand(name)};
+            _clusterMgr.broadcast(0, GsonHelper.getGson().toJson(cmds));
+        } catch (final Exception e) {
+            s_logger.warn("Unable to notify management server peers to invalidate cached values of configuration " + name, e);
+        }
+    }
+
     @Override
     @ActionEvent(eventType = EventTypes.EVENT_CONFIGURATION_VALUE_EDIT, eventDescription = "updating configuration")
     public Configuration updateConfiguration(final UpdateCfgCmd cmd) throws InvalidParameterValueException {
@@ -960,8 +985,6 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
                     throw new InvalidParameterValueException("unable to find zone by id " + id);
                 }
                 _dcDetailsDao.removeDetail(id, name);
-                optionalValue = Optional.ofNullable(configKey.valueIn(id));
-                newValue = optionalValue.isPresent() ? optionalValue.get().toString() : defaultValue;
                 break;
 
             case Cluster:
@@ -976,8 +999,6 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
                 } else if (clusterDetailsVO != null) {
                     _clusterDetailsDao.remove(clusterDetailsVO.getId());
                 }
-                optionalValue = Optional.ofNullable(configKey.valueIn(id));
-                newValue = optionalValue.isPresent() ? optionalValue.get().toString() : defaultValue;
                 break;
 
             case StoragePool:
@@ -986,8 +1007,6 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
                     throw new InvalidParameterValueException("unable to find storage pool by id " + id);
                 }
                 _storagePoolDetailsDao.removeDetail(id, name);
-                optionalValue = Optional.ofNullable(configKey.valueIn(id));
-                newValue = optionalValue.isPresent() ? optionalValue.get().toString() : defaultValue;
                 break;
 
             case Domain:
@@ -999,8 +1018,6 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
                 if (domainDetailVO != null) {
                     _domainDetailsDao.remove(domainDetailVO.getId());
                 }
-                optionalValue = Optional.ofNullable(configKey.valueIn(id));
-                newValue = optionalValue.isPresent() ? optionalValue.get().toString() : defaultValue;
                 break;
 
             case Account:
@@ -1012,8 +1029,6 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
                 if (accountDetailVO != null) {
                     _accountDetailsDao.remove(accountDetailVO.getId());
                 }
-                optionalValue = Optional.ofNullable(configKey.valueIn(id));
-                newValue = optionalValue.isPresent() ? optionalValue.get().toString() : defaultValue;
                 break;
 
             case ImageStore:
@@ -1025,8 +1040,6 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
                 if (imageStoreDetailVO != null) {
                     _imageStoreDetailsDao.remove(imageStoreDetailVO.getId());
                 }
-                optionalValue = Optional.ofNullable(configKey.valueIn(id));
-                newValue = optionalValue.isPresent() ? optionalValue.get().toString() : defaultValue;
                 break;
 
             default:
@@ -1034,10 +1047,12 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
                     s_logger.error("Failed to reset configuration option, name: " + name + ", defaultValue:" + defaultValue);
                     throw new CloudRuntimeException("Failed to reset configuration value. Please contact Cloud Support.");
                 }
-                optionalValue = Optional.ofNullable(configKey.value());
-                newValue = optionalValue.isPresent() ? optionalValue.get().toString() : defaultValue;
         }
 
+        // read the value only once it is reset and the cached one dropped
+        invalidateConfigCache(name);
+        optionalValue = Optional.ofNullable(id != null ? configKey.valueIn(id) : configKey.value());
+        newValue = optionalValue.isPresent() ? optionalValue.get().toString() : defaultValue;
         CallContext.current().setEventDetails(" Name: " + name + " New Value: " + (name.toLowerCase().contains("password") ? "*****" : defaultValue == null ? "" : defaultValue));
         return new Pair<Configuration, String>(_configDao.findByName(name), newValue);
     }
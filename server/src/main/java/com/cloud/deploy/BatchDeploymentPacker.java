@@ -0,0 +1,97 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.deploy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Places a batch of identical vms onto a list of candidate hosts. Every host offers a number of
+ * vm slots, i.e. how many more vms of the requested size it can take. The hosts are expected in
+ * the order the host allocator ranked them.
+ */
+public class BatchDeploymentPacker {
+
+    public static class HostSlots {
+        private final long hostId;
+        private final int slots;
+
+        public HostSlots(long hostId, int slots) {
+            this.hostId = hostId;
+            this.slots = slots;
+        }
+
+        public long getHostId() {
+            return hostId;
+        }
+
+        public int getSlots() {
+            return slots;
+        }
+    }
+
+    /**
+     * @param hosts candidate hosts in allocator order
+     * @param count number of vms to place
+     * @param fillHostsFirst true to fill every host before moving on to the next one (first fit),
+     *                       false to spread the vms over the hosts with the most slots left
+     * @return the host of every vm, or null if the hosts do not have enough slots for the whole batch
+     */
+    public static List<Long> pack(List<HostSlots> hosts, int count, boolean fillHostsFirst) {
+        long totalSlots = 0;
+        for (HostSlots host : hosts) {
+            totalSlots += Math.max(host.getSlots(), 0);
+        }
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+        if (totalSlots < count) {
+            return null;
+        }
+
+        List<Long> placement = new ArrayList<Long>(count);
+        if (fillHostsFirst) {
+            for (HostSlots host : hosts) {
+                for (int i = 0; i < host.getSlots() && placement.size() < count; i++) {
+                    placement.add(host.getHostId());
+                }
+                if (placement.size() == count) {
+                    break;
+                }
+            }
+            return placement;
+        }
+
+        // most free slots first, allocator order breaks ties
+        PriorityQueue<int[]> queue = new PriorityQueue<int[]>(hosts.size(), (a, b) -> a[1] != b[1] ? Integer.compare(b[1], a[1]) : Integer.compare(a[0], b[0]));
+        for (int i = 0; i < hosts.size(); i++) {
+            if (hosts.get(i).getSlots() > 0) {
+                queue.add(new int[] {i, hosts.get(i).getSlots()});
+            }
+        }
+        while (placement.size() < count) {
+            int[] host = queue.poll();
+            placement.add(hosts.get(host[0]).getHostId());
+            if (--host[1] > 0) {
+                queue.add(host);
+            }
+        }
+        return placement;
+    }
+}
@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -74,7 +75,11 @@ import com.cloud.agent.api.Command;
 import com.cloud.agent.api.StartupCommand;
 import com.cloud.agent.api.StartupRoutingCommand;
 import com.cloud.agent.manager.allocator.HostAllocator;
+import com.cloud.capacity.Capacity;
 import com.cloud.capacity.CapacityManager;
+import com.cloud.capacity.CapacityVO;
+import com.cloud.capacity.HostCapacityIndex;
+import com.cloud.capacity.HostCapacitySnapshot;
 import com.cloud.capacity.dao.CapacityDao;
 import com.cloud.configuration.Config;
 import com.cloud.configuration.ConfigurationManagerImpl;
@@ -388,15 +393,7 @@ StateListener<State, VirtualMachine.Event, VirtualMachine>, Configurable {
         }
 
         if (planner == null) {
-            String plannerName = offering.getDeploymentPlanner();
-            if (plannerName == null) {
-                if (vm.getHypervisorType() == HypervisorType.BareMetal) {
-                    plannerName = "BareMetalPlanner";
-                } else {
-                    plannerName = _configDao.getValue(Config.VmDeploymentPlanner.key());
-                }
-            }
-            planner = getDeploymentPlannerByName(plannerName);
+            planner = getDefaultDeploymentPlanner(offering, vm);
         }
 
         if (vm.getLastHostId() != null && haVmTag == null) {
@@ -659,6 +656,21 @@ StateListener<State, VirtualMachine.Event, VirtualMachine>, Configurable {
         }
     }
 
+    /**
+     * @return the planner of the service offering, the configured vm deployment planner if the offering has none
+     */
+    protected DeploymentPlanner getDefaultDeploymentPlanner(ServiceOffering offering, VirtualMachine vm) {
+        String plannerName = offering.getDeploymentPlanner();
+        if (plannerName == null) {
+            if (vm.getHypervisorType() == HypervisorType.BareMetal) {
+                plannerName = "BareMetalPlanner";
+            } else {
+                plannerName = _configDao.getValue(Config.VmDeploymentPlanner.key());
+            }
+        }
+        return getDeploymentPlannerByName(plannerName);
+    }
+
     @Override
     public DeploymentPlanner getDeploymentPlannerByName(String plannerName) {
         if (plannerName != null) {
@@ -1147,6 +1159,162 @@ StateListener<State, VirtualMachine.Event, VirtualMachine>, Configurable {
         return true;
     }
 
+    @Override
+    public Map<Long, Long> planBatchDeployment(List<VirtualMachineProfile> vmProfiles, DeploymentPlan plan, ExcludeList avoids, DeploymentPlanner planner)
+            throws InsufficientServerCapacityException {
+        Map<Long, Long> plannedHosts = new LinkedHashMap<Long, Long>();
+        if (vmProfiles.isEmpty()) {
+            return plannedHosts;
+        }
+
+        // the vms of a batch only differ in name, the first one stands for all of them
+        VirtualMachineProfile vmProfile = vmProfiles.get(0);
+        VirtualMachine vm = vmProfile.getVirtualMachine();
+        ServiceOffering offering = vmProfile.getServiceOffering();
+        int cpuRequested = offering.getCpu() * offering.getSpeed();
+        long ramRequested = offering.getRamSize() * 1024L * 1024L;
+        DataCenter dc = _dcDao.findById(plan.getDataCenterId());
+
+        if (planner == null) {
+            planner = getDefaultDeploymentPlanner(offering, vm);
+        }
+        if (!(planner instanceof DeploymentClusterPlanner) || !planner.canHandle(vmProfile, plan, avoids)) {
+            throw new InsufficientServerCapacityException("The deployment planner " + (planner == null ? null : planner.getName()) + " can not plan a batch of vms",
+                    DataCenter.class, plan.getDataCenterId());
+        }
+
+        checkForNonDedicatedResources(vmProfile, dc, avoids);
+        avoidDisabledResources(vmProfile, dc, avoids);
+
+        // the planner orders the clusters and drops those crossing the disable thresholds for a single vm
+        List<Long> clusterList = ((DeploymentClusterPlanner)planner).orderClusters(vmProfile, plan, avoids);
+        HostCapacityIndex capacityIndex = _capacityMgr.getHostCapacityIndex();
+        List<BatchDeploymentPacker.HostSlots> hostSlots = new ArrayList<BatchDeploymentPacker.HostSlots>();
+        int totalSlots = 0;
+        if (clusterList != null) {
+            for (Long clusterId : clusterList) {
+                if (totalSlots >= vmProfiles.size()) {
+                    break;
+                }
+                ClusterVO cluster = _clusterDao.findById(clusterId);
+                if (cluster.getHypervisorType() != vmProfile.getHypervisorType()) {
+                    s_logger.debug("Cluster: " + clusterId + " has HyperVisorType that does not match the VM, skipping this cluster");
+                    continue;
+                }
+                if (CollectionUtils.isNotEmpty(avoids.getPodsToAvoid()) && avoids.getPodsToAvoid().contains(cluster.getPodId())) {
+                    continue;
+                }
+                DataCenterDeployment clusterPlan = new DataCenterDeployment(plan.getDataCenterId(), cluster.getPodId(), clusterId, null, plan.getPoolId(), null,
+                        plan.getReservationContext());
+                List<Host> suitableHosts = findSuitableHosts(vmProfile, clusterPlan, avoids, HostAllocator.RETURN_UPTO_ALL);
+                if (suitableHosts.isEmpty() || !hasSuitableStorage(vmProfile, clusterPlan, avoids)) {
+                    continue;
+                }
+                // the whole batch must keep the cluster below the disable thresholds, not only its first vm
+                int clusterSlots = getClusterVmSlots(clusterId, cpuRequested, ramRequested, vmProfiles.size() - totalSlots);
+                for (Host host : suitableHosts) {
+                    if (clusterSlots <= 0) {
+                        break;
+                    }
+                    int slots = Math.min(getFreeVmSlots(capacityIndex, host, cpuRequested, ramRequested), clusterSlots);
+                    if (slots > 0) {
+                        hostSlots.add(new BatchDeploymentPacker.HostSlots(host.getId(), slots));
+                        clusterSlots -= slots;
+                        totalSlots += slots;
+                    }
+                }
+            }
+        }
+
+        String allocationAlgorithm = _configDao.getValue(Config.VmAllocationAlgorithm.key());
+        boolean fillHostsFirst = allocationAlgorithm != null && allocationAlgorithm.endsWith("firstfit");
+        List<Long> placement = BatchDeploymentPacker.pack(hostSlots, vmProfiles.size(), fillHostsFirst);
+        if (placement == null) {
+            throw new InsufficientServerCapacityException("Unable to place " + vmProfiles.size() + " vms, the suitable hosts only have room for " + totalSlots,
+                    DataCenter.class, plan.getDataCenterId());
+        }
+
+        Map<Long, List<Long>> vmIdsByHost = new HashMap<Long, List<Long>>();
+        for (int i = 0; i < vmProfiles.size(); i++) {
+            long vmId = vmProfiles.get(i).getId();
+            plannedHosts.put(vmId, placement.get(i));
+            vmIdsByHost.computeIfAbsent(placement.get(i), k -> new ArrayList<Long>()).add(vmId);
+        }
+        if (!_capacityMgr.reserveVmCapacity(offering, vmIdsByHost)) {
+            throw new InsufficientServerCapacityException("Unable to reserve capacity for " + vmProfiles.size() + " vms on hosts " + vmIdsByHost.keySet(),
+                    DataCenter.class, plan.getDataCenterId());
+        }
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Planned batch of " + vmProfiles.size() + " vms over " + vmIdsByHost.size() + " hosts: " + plannedHosts);
+        }
+        return plannedHosts;
+    }
+
+    /**
+     * Checks that the cluster of the plan has storage pools for every volume of the vm. The pools
+     * themselves are picked, and their capacity allocated, when each vm of the batch starts.
+     */
+    protected boolean hasSuitableStorage(VirtualMachineProfile vmProfile, DataCenterDeployment clusterPlan, ExcludeList avoids) {
+        if (vmProfile.getHypervisorType() == HypervisorType.BareMetal) {
+            return true;
+        }
+        Map<Volume, List<StoragePool>> suitableVolumeStoragePools = findSuitablePoolsForVolumes(vmProfile, clusterPlan, avoids, StoragePoolAllocator.RETURN_UPTO_ALL).first();
+        if (suitableVolumeStoragePools.isEmpty()) {
+            s_logger.debug("No suitable storage pools found in cluster " + clusterPlan.getClusterId() + ", skipping its hosts for the batch deployment");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns how many of maxVms vms of the requested size the cluster takes before its cpu or memory
+     * consumption crosses the disable threshold.
+     */
+    protected int getClusterVmSlots(long clusterId, int cpuRequested, long ramRequested, int maxVms) {
+        int low = 0;
+        int high = maxVms;
+        while (low < high) {
+            int vms = (low + high + 1) / 2;
+            if (_capacityMgr.checkIfClusterCrossesThreshold(clusterId, cpuRequested * vms, ramRequested * vms)) {
+                high = vms - 1;
+            } else {
+                low = vms;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns how many more vms of the requested size fit on the host, counting reserved capacity as taken.
+     */
+    protected int getFreeVmSlots(HostCapacityIndex capacityIndex, Host host, int cpuRequested, long ramRequested) {
+        long freeCpu;
+        long freeMem;
+        long guestSlots = Integer.MAX_VALUE;
+        HostCapacitySnapshot snapshot = capacityIndex == null ? null : capacityIndex.getHost(host.getDataCenterId(), host.getId());
+        if (snapshot != null) {
+            freeCpu = (long)(snapshot.getTotalCpu() * snapshot.getCpuOvercommitRatio()) - snapshot.getUsedCpu() - snapshot.getReservedCpu();
+            freeMem = (long)(snapshot.getTotalMemory() * snapshot.getMemoryOvercommitRatio()) - snapshot.getUsedMemory() - snapshot.getReservedMemory();
+            if (snapshot.getMaxGuestsLimit() != null) {
+                guestSlots = snapshot.getMaxGuestsLimit() - snapshot.getActiveVmCount();
+            }
+        } else {
+            CapacityVO capacityCpu = _capacityDao.findByHostIdType(host.getId(), Capacity.CAPACITY_TYPE_CPU);
+            CapacityVO capacityMem = _capacityDao.findByHostIdType(host.getId(), Capacity.CAPACITY_TYPE_MEMORY);
+            ClusterDetailsVO cpuOvercommitRatio = _clusterDetailsDao.findDetail(host.getClusterId(), "cpuOvercommitRatio");
+            ClusterDetailsVO memoryOvercommitRatio = _clusterDetailsDao.findDetail(host.getClusterId(), "memoryOvercommitRatio");
+            if (capacityCpu == null || capacityMem == null || cpuOvercommitRatio == null || memoryOvercommitRatio == null) {
+                return 0;
+            }
+            freeCpu = (long)(capacityCpu.getTotalCapacity() * Float.parseFloat(cpuOvercommitRatio.getValue())) - capacityCpu.getUsedCapacity()
+                    - capacityCpu.getReservedCapacity();
+            freeMem = (long)(capacityMem.getTotalCapacity() * Float.parseFloat(memoryOvercommitRatio.getValue())) - capacityMem.getUsedCapacity()
+                    - capacityMem.getReservedCapacity();
+        }
+        long slots = Math.min(cpuRequested > 0 ? freeCpu / cpuRequested : Integer.MAX_VALUE, ramRequested > 0 ? freeMem / ramRequested : Integer.MAX_VALUE);
+        return (int)Math.max(0, Math.min(slots, guestSlots));
+    }
+
     @Override
     public void cleanupVMReservations() {
         List<VMReservationVO> reservations = _reservationDao.listAll();
@@ -1211,8 +1379,16 @@ StateListener<State, VirtualMachine.Event, VirtualMachine>, Configurable {
 
                     // choose the potential host and pool for the VM
                     if (!suitableVolumeStoragePools.isEmpty()) {
-                        Pair<Host, Map<Volume, StoragePool>> potentialResources = findPotentialDeploymentResources(suitableHosts, suitableVolumeStoragePools, avoid,
+                        List<Host> candidateHosts = new ArrayList<Host>(suitableHosts);
+                        Pair<Host, Map<Volume, StoragePool>> potentialResources = findPotentialDeploymentResources(candidateHosts, suitableVolumeStoragePools, avoid,
                                 resourceUsageRequired, readyAndReusedVolumes, plan.getPreferredHosts(), vmProfile.getVirtualMachine());
+                        while (potentialResources != null && !hasCapacityForVm(potentialResources.first(), vmProfile)) {
+                            // fall through to the next candidate instead of failing when the capacity is allocated
+                            candidateHosts.remove(potentialResources.first());
+                            avoid.addHost(potentialResources.first().getId());
+                            potentialResources = findPotentialDeploymentResources(candidateHosts, suitableVolumeStoragePools, avoid,
+                                    resourceUsageRequired, readyAndReusedVolumes, plan.getPreferredHosts(), vmProfile.getVirtualMachine());
+                        }
 
                         if (potentialResources != null) {
                             Host host = _hostDao.findById(potentialResources.first().getId());
@@ -1243,6 +1419,29 @@ StateListener<State, VirtualMachine.Event, VirtualMachine>, Configurable {
         return null;
     }
 
+    /**
+     * The host allocators may pick the hosts from the capacity index, which is only refreshed locally and
+     * can be stale. Checks the chosen host against its capacity rows, and drops its stale index entry when
+     * the vm no longer fits.
+     */
+    protected boolean hasCapacityForVm(Host host, VirtualMachineProfile vmProfile) {
+        HostCapacityIndex capacityIndex = _capacityMgr.getHostCapacityIndex();
+        if (capacityIndex == null || vmProfile.getServiceOffering() == null) {
+            return true;
+        }
+        // the capacity the vm reserved on its last host is its own
+        Long lastHostId = vmProfile.getVirtualMachine().getLastHostId();
+        boolean considerReservedCapacity = lastHostId == null || lastHostId.longValue() != host.getId();
+        Pair<Boolean, Boolean> cpuCapabilityAndCapacity = _capacityMgr.checkIfHostHasCpuCapabilityAndCapacity(host, vmProfile.getServiceOffering(),
+                considerReservedCapacity);
+        if (cpuCapabilityAndCapacity.first() && cpuCapabilityAndCapacity.second()) {
+            return true;
+        }
+        s_logger.debug("Host " + host.getId() + " no longer has the capacity for " + vmProfile + ", trying the next host");
+        capacityIndex.invalidateHost(host.getId());
+        return false;
+    }
+
     private boolean canAvoidCluster(Cluster clusterVO, ExcludeList avoids, ExcludeList plannerAvoidOutput, VirtualMachineProfile vmProfile) {
 
         ExcludeList allocatorAvoidOutput =
@@ -36,6 +36,8 @@ import org.apache.log4j.Logger;
 
 import com.cloud.capacity.Capacity;
 import com.cloud.capacity.CapacityManager;
+import com.cloud.capacity.HostCapacityIndex;
+import com.cloud.capacity.HostCapacitySnapshot;
 import com.cloud.capacity.dao.CapacityDao;
 import com.cloud.configuration.Config;
 import com.cloud.dc.ClusterDetailsDao;
@@ -203,21 +205,22 @@ public class FirstFitPlanner extends AdapterBase implements DeploymentClusterPla
             if (((serviceOfferingDetailsDao.findDetail(offering.getId(), GPU.Keys.vgpuType.toString()) == null) && !(hostGpuGroupsDao.listHostIds().isEmpty())) || nonUefiVMDeploy) {
                 int requiredCpu = offering.getCpu() * offering.getSpeed();
                 long requiredRam = offering.getRamSize() * 1024L * 1024L;
-                reorderClustersBasedOnImplicitTags(clusterList, requiredCpu, requiredRam);
+                reorderClustersBasedOnImplicitTags(plan.getDataCenterId(), clusterList, requiredCpu, requiredRam);
             }
         }
         return clusterList;
     }
 
-    private void reorderClustersBasedOnImplicitTags(List<Long> clusterList, int requiredCpu, long requiredRam) {
+    private void reorderClustersBasedOnImplicitTags(long zoneId, List<Long> clusterList, int requiredCpu, long requiredRam) {
             final HashMap<Long, Long> UniqueTagsInClusterMap = new HashMap<Long, Long>();
+            HostCapacityIndex capacityIndex = capacityMgr.getHostCapacityIndex();
             Long uniqueTags;
             for (Long clusterId : clusterList) {
                 uniqueTags = (long) 0;
             List<Long> hostList = capacityDao.listHostsWithEnoughCapacity(requiredCpu, requiredRam, clusterId, Host.Type.Routing.toString());
             if (!hostList.isEmpty() && implicitHostTags.length > 0) {
                 uniqueTags = new Long(hostTagsDao.getDistinctImplicitHostTags(hostList, implicitHostTags).size());
-                uniqueTags = uniqueTags + getHostsByCapability(hostList, Host.HOST_UEFI_ENABLE);
+                uniqueTags = uniqueTags + getHostsByCapability(capacityIndex, zoneId, hostList, Host.HOST_UEFI_ENABLE);
             }
                 UniqueTagsInClusterMap.put(clusterId, uniqueTags);
             }
@@ -231,8 +234,15 @@ public class FirstFitPlanner extends AdapterBase implements DeploymentClusterPla
             });
     }
 
-    private Long getHostsByCapability(List<Long> hostList, String hostCapability) {
-        for (Long host : hostList) { //TODO: Fix this in single query instead of polling request for each Host
+    private Long getHostsByCapability(HostCapacityIndex capacityIndex, long zoneId, List<Long> hostList, String hostCapability) {
+        for (Long host : hostList) {
+            HostCapacitySnapshot snapshot = capacityIndex != null ? capacityIndex.getHost(zoneId, host) : null;
+            if (snapshot != null) {
+                if (snapshot.isUefiEnabled()) {
+                    return new Long(1);
+                }
+                continue;
+            }
             Map<String, String> details = hostDetailsDao.findDetails(host);
             if (details.containsKey(Host.HOST_UEFI_ENABLE)) {
                 if (details.get(Host.HOST_UEFI_ENABLE).equalsIgnoreCase("Yes")) {
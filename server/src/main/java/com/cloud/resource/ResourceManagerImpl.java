@@ -86,6 +86,7 @@ import com.cloud.capacity.Capacity;
 import com.cloud.capacity.CapacityManager;
 import com.cloud.capacity.CapacityState;
 import com.cloud.capacity.CapacityVO;
+import com.cloud.capacity.HostCapacityIndex;
 import com.cloud.capacity.dao.CapacityDao;
 import com.cloud.cluster.ClusterManager;
 import com.cloud.configuration.Config;
@@ -225,6 +226,8 @@ public class ResourceManagerImpl extends ManagerBase implements ResourceManager,
     @Inject
     private CapacityDao _capacityDao;
     @Inject
+    private CapacityManager _capacityMgr;
+    @Inject
     private DiskOfferingDao diskOfferingDao;
     @Inject
     private ServiceOfferingDao serviceOfferingDao;
@@ -1827,6 +1830,9 @@ public class ResourceManagerImpl extends ManagerBase implements ResourceManager,
             _storageMgr.updateSecondaryStorage(cmd.getId(), cmd.getUrl());
         }
 
+        // allocation state and guest OS category are part of the indexed host
+        invalidateHostCapacityIndex(hostId);
+
         final HostVO updatedHost = _hostDao.findById(hostId);
         return updatedHost;
     }
@@ -3269,6 +3275,14 @@ public class ResourceManagerImpl extends ManagerBase implements ResourceManager,
         _hostGpuGroupsDao.persist(hostId, new ArrayList<String>(groupDetails.keySet()));
         _vgpuTypesDao.persist(hostId, groupDetails);
         txn.commit();
+        invalidateHostCapacityIndex(hostId);
+    }
+
+    private void invalidateHostCapacityIndex(final long hostId) {
+        final HostCapacityIndex capacityIndex = _capacityMgr.getHostCapacityIndex();
+        if (capacityIndex != null) {
+            capacityIndex.invalidateHost(hostId);
+        }
     }
 
     @Override
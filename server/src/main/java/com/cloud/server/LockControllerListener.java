@@ -20,6 +20,8 @@ import java.util.List;
 
 import com.cloud.cluster.ClusterManagerListener;
 import org.apache.cloudstack.management.ManagementServerHost;
+import com.cloud.utils.db.DistributedLockService;
+import com.cloud.utils.db.DistributedLockServiceFactory;
 import com.cloud.utils.db.Merovingian2;
 
 /**
@@ -28,9 +30,11 @@ import com.cloud.utils.db.Merovingian2;
  */
 public class LockControllerListener implements ClusterManagerListener {
     Merovingian2 _lockController;
+    DistributedLockService _lockService;
 
     public LockControllerListener(long msId) {
         _lockController = Merovingian2.createLockController(msId);
+        _lockService = DistributedLockServiceFactory.createLockService(msId);
     }
 
     @Override
@@ -41,6 +45,7 @@ public class LockControllerListener implements ClusterManagerListener {
     public void onManagementNodeLeft(List<? extends ManagementServerHost> nodeList, long selfNodeId) {
         for (ManagementServerHost node : nodeList) {
             _lockController.cleanupForServer(node.getMsid());
+            _lockService.cleanupForServer(node.getMsid());
         }
     }
 
@@ -0,0 +1,189 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
+import org.apache.log4j.Logger;
+
+import com.cloud.host.HostVO;
+
+/**
+ * Runs one stats collection sweep over a list of hosts on a shared, bounded pool, so that a slow or unreachable
+ * host only holds one worker instead of delaying every host after it. A host whose collection runs longer than
+ * its timeout is cancelled and counted, and the sweep duration is compared to the collector interval to track
+ * overruns.
+ */
+public class StatsCollectionFanOut implements StatsCollectionFanOutMBean {
+    private static final Logger s_logger = Logger.getLogger(StatsCollectionFanOut.class);
+
+    private static final long POLL_INTERVAL_MILLIS = 500L;
+
+    private final String _name;
+    private final ExecutorService _executor;
+
+    private final AtomicLong _sweeps = new AtomicLong();
+    private final AtomicLong _overruns = new AtomicLong();
+    private final AtomicLong _timedOutHosts = new AtomicLong();
+    private final AtomicLong _failedHosts = new AtomicLong();
+    private volatile long _lastSweepDuration;
+    private volatile int _lastSweepHosts;
+
+    public StatsCollectionFanOut(String name, ExecutorService executor) {
+        _name = name;
+        _executor = executor;
+    }
+
+    /**
+     * Collects the stats of every host and waits for all of them to complete, fail or time out.
+     * @param hosts hosts to collect from
+     * @param timeoutProvider time, in milliseconds, the collection of a host may run before being cancelled
+     * @param collector collects and stores the stats of one host
+     * @param intervalMillis interval the sweep is scheduled at; sweeps running longer are counted as overruns
+     */
+    public void sweep(List<HostVO> hosts, ToLongFunction<HostVO> timeoutProvider, Consumer<HostVO> collector, long intervalMillis) throws InterruptedException {
+        final long sweepStart = System.currentTimeMillis();
+        final CompletionService<Void> completionService = new ExecutorCompletionService<Void>(_executor);
+        final List<HostTask> pending = new ArrayList<HostTask>(hosts.size());
+
+        for (final HostVO host : hosts) {
+            final HostTask task = new HostTask(host, timeoutProvider.applyAsLong(host));
+            task.future = completionService.submit(new ManagedContextRunnable() {
+                @Override
+                protected void runInContext() {
+                    task.startedAt = System.currentTimeMillis();
+                    try {
+                        collector.accept(host);
+                    } catch (RuntimeException e) {
+                        _failedHosts.incrementAndGet();
+                        s_logger.debug(String.format("%s failed to collect stats of host %s: %s", _name, host.getId(), e.getMessage()));
+                    }
+                }
+            }, null);
+            pending.add(task);
+        }
+
+        try {
+            while (!pending.isEmpty()) {
+                completionService.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                cancelOverdueTasks(pending, System.currentTimeMillis());
+            }
+        } finally {
+            for (HostTask task : pending) {
+                task.future.cancel(true);
+            }
+        }
+
+        recordSweep(hosts.size(), System.currentTimeMillis() - sweepStart, intervalMillis);
+    }
+
+    /**
+     * Drops the completed tasks from the list and cancels the ones running for longer than their timeout.
+     */
+    protected void cancelOverdueTasks(List<HostTask> pending, long now) {
+        Iterator<HostTask> it = pending.iterator();
+        while (it.hasNext()) {
+            HostTask task = it.next();
+            if (task.future.isDone()) {
+                it.remove();
+            } else if (task.isOverdue(now)) {
+                task.future.cancel(true);
+                it.remove();
+                _timedOutHosts.incrementAndGet();
+                s_logger.warn(String.format("%s timed out collecting stats of host %s after %d ms", _name, task.host.getId(), task.timeoutMillis));
+            }
+        }
+    }
+
+    protected void recordSweep(int hostCount, long duration, long intervalMillis) {
+        _sweeps.incrementAndGet();
+        _lastSweepDuration = duration;
+        _lastSweepHosts = hostCount;
+        if (intervalMillis > 0 && duration > intervalMillis) {
+            _overruns.incrementAndGet();
+            s_logger.warn(String.format("%s took %d ms to collect stats of %d hosts, longer than its interval of %d ms; %d overruns so far", _name, duration, hostCount,
+                    intervalMillis, _overruns.get()));
+        } else if (s_logger.isDebugEnabled()) {
+            s_logger.debug(String.format("%s collected stats of %d hosts in %d ms", _name, hostCount, duration));
+        }
+    }
+
+    @Override
+    public String getName() {
+        return _name;
+    }
+
+    @Override
+    public long getSweeps() {
+        return _sweeps.get();
+    }
+
+    @Override
+    public long getOverruns() {
+        return _overruns.get();
+    }
+
+    @Override
+    public long getTimedOutHosts() {
+        return _timedOutHosts.get();
+    }
+
+    @Override
+    public long getFailedHosts() {
+        return _failedHosts.get();
+    }
+
+    @Override
+    public long getLastSweepDuration() {
+        return _lastSweepDuration;
+    }
+
+    @Override
+    public int getLastSweepHosts() {
+        return _lastSweepHosts;
+    }
+
+    protected static class HostTask {
+        final HostVO host;
+        final long timeoutMillis;
+        volatile long startedAt;
+        Future<Void> future;
+
+        HostTask(HostVO host, long timeoutMillis) {
+            this.host = host;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        /**
+         * Only the time spent running counts against the timeout, not the time waiting for a free worker.
+         */
+        boolean isOverdue(long now) {
+            return timeoutMillis > 0 && startedAt > 0 && now - startedAt > timeoutMillis;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+/**
+ * Counters of the host and VM stats collection sweeps.
+ */
+public interface StatsCollectionFanOutMBean {
+
+    String getName();
+
+    /**
+     * @return number of sweeps over all hosts completed
+     */
+    long getSweeps();
+
+    /**
+     * @return number of sweeps that took longer than the collector interval
+     */
+    long getOverruns();
+
+    /**
+     * @return number of host collections cancelled after their timeout
+     */
+    long getTimedOutHosts();
+
+    /**
+     * @return number of host collections that failed
+     */
+    long getFailedHosts();
+
+    /**
+     * @return duration, in milliseconds, of the last sweep
+     */
+    long getLastSweepDuration();
+
+    /**
+     * @return number of hosts of the last sweep
+     */
+    int getLastSweepHosts();
+}
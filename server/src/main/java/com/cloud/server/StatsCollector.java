@@ -16,19 +16,22 @@
 // under the License.
 package com.cloud.server;
 
+import java.io.File;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -62,10 +65,16 @@ import org.influxdb.dto.Pong;
 import org.springframework.stereotype.Component;
 
 import com.cloud.agent.AgentManager;
+import com.cloud.agent.Listener;
+import com.cloud.agent.api.AgentControlAnswer;
+import com.cloud.agent.api.AgentControlCommand;
 import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.Command;
 import com.cloud.agent.api.GetStorageStatsCommand;
 import com.cloud.agent.api.HostStatsEntry;
 import com.cloud.agent.api.PerformanceMonitorCommand;
+import com.cloud.agent.api.PingRoutingCommand;
+import com.cloud.agent.api.StartupCommand;
 import com.cloud.agent.api.VgpuTypesInfo;
 import com.cloud.agent.api.VmDiskStatsEntry;
 import com.cloud.agent.api.VmNetworkStatsEntry;
@@ -133,6 +142,7 @@ import com.cloud.utils.db.GlobalLock;
 import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.net.MacAddress;
@@ -226,10 +236,42 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
     private static final ConfigKey<Boolean> VM_STATS_INCREMENT_METRICS_IN_MEMORY = new ConfigKey<Boolean>("Advanced", Boolean.class, "vm.stats.increment.metrics.in.memory", "true",
             "When set to 'true', VM metrics(NetworkReadKBs, NetworkWriteKBs, DiskWriteKBs, DiskReadKBs, DiskReadIOs and DiskWriteIOs) that are collected from the hypervisor are summed and stored in memory. "
             + "On the other hand, when set to 'false', the VM metrics API will just display the latest metrics collected.", true);
+    private static final ConfigKey<Integer> statsOutputBufferSize = new ConfigKey<Integer>("Advanced", Integer.class, "stats.output.buffer.size", "10000",
+            "Number of statistics entries buffered for the backend configured in stats.output.uri. When the backend can not keep up, the oldest entries are dropped.", false);
+    private static final ConfigKey<Integer> statsOutputBatchSize = new ConfigKey<Integer>("Advanced", Integer.class, "stats.output.batch.size", "1000",
+            "Maximum number of statistics entries written to the backend configured in stats.output.uri in one batch.", false);
+    private static final ConfigKey<Integer> statsOutputRetries = new ConfigKey<Integer>("Advanced", Integer.class, "stats.output.retries", "3",
+            "Number of times a batch of statistics is retried before it is dropped when the backend configured in stats.output.uri fails.", false);
+
+    private static final ConfigKey<Integer> statsCollectionParallelism = new ConfigKey<Integer>("Advanced", Integer.class, "stats.collection.parallelism", "16",
+            "Number of hosts the host and VM stats collectors query at the same time. Hosts taking longer than stats.timeout are skipped for the current collection.", false);
+    private static final ConfigKey<Boolean> statsCollectionOwnedHostsOnly = new ConfigKey<Boolean>("Advanced", Boolean.class, "stats.collection.owned.hosts.only", "false",
+            "When set to 'true', the host and VM stats collectors of each management server only query the hosts connected to it, spreading the collection over the "
+            + "management servers. Host and VM stats of other hosts are then only available through the management server they are connected to and the external stats backend.",
+            true);
+
+    private static final ConfigKey<Integer> statsHistoryRetention = new ConfigKey<Integer>("Advanced", Integer.class, "stats.history.retention", "3600",
+            "Period (in seconds) of host and VM stats history kept by the management server for the metrics APIs. History is disabled if this is set to 0.", false);
+    private static final ConfigKey<Integer> statsHistoryResolution = new ConfigKey<Integer>("Advanced", Integer.class, "stats.history.resolution", "60",
+            "Period (in seconds) covered by each sample of the host and VM stats history; samples collected more often replace each other.", false);
+    private static final ConfigKey<String> statsHistoryDirectory = new ConfigKey<String>("Advanced", String.class, "stats.history.directory", "",
+            "Directory the host and VM stats history is memory mapped from, so it survives restarts of the management server. The history is kept in memory if empty.", false);
+
+    private static final String[] HOST_STATS_HISTORY_METRICS = {"cpuused", "memoryusedkbs", "networkreadkbs", "networkwritekbs", "loadaverage"};
+    private static final String[] VM_STATS_HISTORY_METRICS = {"cpuused", "memoryintfreekbs", "networkreadkbs", "networkwritekbs", "diskreadkbs", "diskwritekbs",
+            "diskreadiops", "diskwriteiops"};
+
+    private static final long STATS_OUTPUT_RETRY_DELAY = 1000L;
 
     private static StatsCollector s_instance = null;
 
     private ScheduledExecutorService _executor = null;
+    private ExecutorService _hostStatsExecutor = null;
+    private StatsCollectionFanOut _hostStatsFanOut;
+    private StatsCollectionFanOut _vmStatsFanOut;
+    private StatsHistory _hostStatsHistory;
+    private StatsHistory _vmStatsHistory;
+    private final Map<String, Long> _vmIdsByUuid = new ConcurrentHashMap<String, Long>();
     @Inject
     private AgentManager _agentMgr;
     @Inject
@@ -309,11 +351,15 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
     private String externalStatsScheme;
     ExternalStatsProtocol externalStatsType = ExternalStatsProtocol.NONE;
     private String databaseName = DEFAULT_DATABASE_NAME;
+    private StatsExportPipeline statsExportPipeline;
 
     private ScheduledExecutorService _diskStatsUpdateExecutor;
     private int _usageAggregationRange = 1440;
     private String _usageTimeZone = "GMT";
     private final long mgmtSrvrId = MacAddress.getMacAddress().toLong();
+    private long pingInterval = ONE_MINUTE_IN_MILLISCONDS;
+    /* hosts pushing their stats along with the ping, mapped to the time until which they are not polled */
+    private final Map<Long, Long> _statsPushingHosts = new ConcurrentHashMap<Long, Long>();
     private static final int ACQUIRE_GLOBAL_LOCK_TIMEOUT_FOR_COOPERATION = 5;    // 5 seconds
     private boolean _dailyOrHourly = false;
 
@@ -335,17 +381,51 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
     @Override
     public boolean start() {
         init(_configDao.getConfiguration());
+        _agentMgr.registerForHostEvents(new PushedStatsListener(), true, true, false);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (statsExportPipeline != null) {
+            statsExportPipeline.stop();
+        }
+        if (_hostStatsExecutor != null) {
+            _hostStatsExecutor.shutdownNow();
+        }
         return true;
     }
 
     protected void init(Map<String, String> configs) {
         _executor = Executors.newScheduledThreadPool(6, new NamedThreadFactory("StatsCollector"));
+        _hostStatsExecutor = Executors.newFixedThreadPool(Math.max(1, statsCollectionParallelism.value()), new NamedThreadFactory("StatsCollector-Host"));
+        _hostStatsFanOut = new StatsCollectionFanOut("HostStatsCollector", _hostStatsExecutor);
+        _vmStatsFanOut = new StatsCollectionFanOut("VmStatsCollector", _hostStatsExecutor);
+        try {
+            JmxUtil.registerMBean("StatsCollector", "Host Stats Collection", _hostStatsFanOut);
+            JmxUtil.registerMBean("StatsCollector", "VM Stats Collection", _vmStatsFanOut);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register stats collection counters for JMX", e);
+        }
+
+        if (statsHistoryRetention.value() > 0) {
+            File historyDirectory = StringUtils.isNotBlank(statsHistoryDirectory.value()) ? new File(statsHistoryDirectory.value()) : null;
+            try {
+                _hostStatsHistory = new StatsHistory("host", HOST_STATS_HISTORY_METRICS, statsHistoryResolution.value(), statsHistoryRetention.value(), historyDirectory);
+                _vmStatsHistory = new StatsHistory("vm", VM_STATS_HISTORY_METRICS, statsHistoryResolution.value(), statsHistoryRetention.value(), historyDirectory);
+            } catch (IllegalArgumentException e) {
+                s_logger.error("Unable to set up the stats history, it will be kept in memory: " + e.getMessage());
+                _hostStatsHistory = new StatsHistory("host", HOST_STATS_HISTORY_METRICS, statsHistoryResolution.value(), statsHistoryRetention.value(), null);
+                _vmStatsHistory = new StatsHistory("vm", VM_STATS_HISTORY_METRICS, statsHistoryResolution.value(), statsHistoryRetention.value(), null);
+            }
+        }
 
         hostStatsInterval = NumbersUtil.parseLong(configs.get("host.stats.interval"), ONE_MINUTE_IN_MILLISCONDS);
         hostAndVmStatsInterval = NumbersUtil.parseLong(configs.get("vm.stats.interval"), ONE_MINUTE_IN_MILLISCONDS);
         storageStatsInterval = NumbersUtil.parseLong(configs.get("storage.stats.interval"), ONE_MINUTE_IN_MILLISCONDS);
         volumeStatsInterval = NumbersUtil.parseLong(configs.get("volume.stats.interval"), ONE_MINUTE_IN_MILLISCONDS);
         autoScaleStatsInterval = NumbersUtil.parseLong(configs.get("autoscale.stats.interval"), ONE_MINUTE_IN_MILLISCONDS);
+        pingInterval = NumbersUtil.parseLong(configs.get("ping.interval"), 60L) * 1000L;
 
         String statsUri = statsOutputUri.value();
         if (StringUtils.isNotBlank(statsUri)) {
@@ -383,6 +463,18 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
             }
         }
 
+        StatsExporter statsExporter = createStatsExporter();
+        if (statsExporter != null) {
+            statsExportPipeline = new StatsExportPipeline(statsExporter, statsOutputBufferSize.value(), statsOutputBatchSize.value(), statsOutputRetries.value(),
+                    STATS_OUTPUT_RETRY_DELAY);
+            statsExportPipeline.start();
+            try {
+                JmxUtil.registerMBean("StatsCollector", "Stats Export", statsExportPipeline);
+            } catch (Exception e) {
+                s_logger.warn("Unable to register stats export counters for JMX", e);
+            }
+        }
+
         if (hostStatsInterval > 0) {
             _executor.scheduleWithFixedDelay(new HostCollector(), 15000L, hostStatsInterval, TimeUnit.MILLISECONDS);
         }
@@ -505,38 +597,38 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                 externalStatsPrefix, externalStatsHost, externalStatsPort));
     }
 
-    class HostCollector extends AbstractStatsCollector {
+    class HostCollector extends ManagedContextRunnable {
         @Override
         protected void runInContext() {
             try {
                 s_logger.debug("HostStatsCollector is running...");
 
-                SearchCriteria<HostVO> sc = createSearchCriteriaForHostTypeRoutingStateUpAndNotInMaintenance();
+                List<HostVO> hosts = listHostsToCollectStatsFrom();
 
-                Map<Object, Object> metrics = new HashMap<>();
-                List<HostVO> hosts = _hostDao.search(sc, null);
+                _hostStatsFanOut.sweep(excludeStatsPushingHosts(hosts), StatsCollector.this::getStatsTimeout, this::collectHostStats, hostStatsInterval);
 
-                for (HostVO host : hosts) {
-                    HostStatsEntry hostStatsEntry = (HostStatsEntry)_resourceMgr.getHostStatistics(host.getId());
-                    if (hostStatsEntry != null) {
-                        hostStatsEntry.setHostVo(host);
-                        metrics.put(hostStatsEntry.getHostId(), hostStatsEntry);
-                        _hostStats.put(host.getId(), hostStatsEntry);
-                    } else {
-                        s_logger.warn("The Host stats is null for host: " + host.getId());
-                    }
-                }
+                updateGpuEnabledHostsDetails(hosts);
 
-                if (externalStatsType == ExternalStatsProtocol.INFLUXDB) {
-                    sendMetricsToInfluxdb(metrics);
+                if (_hostStatsHistory != null) {
+                    _hostStatsHistory.purge(System.currentTimeMillis());
                 }
-
-                updateGpuEnabledHostsDetails(hosts);
             } catch (Throwable t) {
                 s_logger.error("Error trying to retrieve host stats", t);
             }
         }
 
+        private void collectHostStats(HostVO host) {
+            HostStatsEntry hostStatsEntry = (HostStatsEntry)_resourceMgr.getHostStatistics(host.getId());
+            if (hostStatsEntry != null) {
+                hostStatsEntry.setHostVo(host);
+                _hostStats.put(host.getId(), hostStatsEntry);
+                recordHostStatsHistory(host.getId(), hostStatsEntry);
+                exportStats(hostStatsEntry);
+            } else {
+                s_logger.warn("The Host stats is null for host: " + host.getId());
+            }
+        }
+
         /**
          * Updates GPU details on hosts supporting GPU.
          */
@@ -558,78 +650,61 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                 }
             }
         }
-
-        @Override
-        protected Point creteInfluxDbPoint(Object metricsObject) {
-            return createInfluxDbPointForHostMetrics(metricsObject);
-        }
     }
 
-    class VmStatsCollector extends AbstractStatsCollector {
+    class VmStatsCollector extends ManagedContextRunnable {
         @Override
         protected void runInContext() {
             try {
                 s_logger.trace("VmStatsCollector is running...");
 
-                SearchCriteria<HostVO> sc = createSearchCriteriaForHostTypeRoutingStateUpAndNotInMaintenance();
-                List<HostVO> hosts = _hostDao.search(sc, null);
-
-                Map<Object, Object> metrics = new HashMap<>();
-
-                for (HostVO host : hosts) {
-                    List<UserVmVO> vms = _userVmDao.listRunningByHostId(host.getId());
-                    List<Long> vmIds = new ArrayList<Long>();
-
-                    for (UserVmVO vm : vms) {
-                        vmIds.add(vm.getId());
-                    }
-
-                    try {
-                        Map<Long, VmStatsEntry> vmStatsById = _userVmMgr.getVirtualMachineStatistics(host.getId(), host.getName(), vmIds);
-
-                        if (vmStatsById != null) {
-                            Set<Long> vmIdSet = vmStatsById.keySet();
-                            for (Long vmId : vmIdSet) {
-                                VmStatsEntry statsForCurrentIteration = vmStatsById.get(vmId);
-                                statsForCurrentIteration.setVmId(vmId);
-                                UserVmVO userVmVo = _userVmDao.findById(vmId);
-                                statsForCurrentIteration.setUserVmVO(userVmVo);
-
-                                storeVirtualMachineStatsInMemory(statsForCurrentIteration);
+                List<HostVO> hosts = listHostsToCollectStatsFrom();
 
-                                if (externalStatsType == ExternalStatsProtocol.GRAPHITE) {
-                                    prepareVmMetricsForGraphite(metrics, statsForCurrentIteration);
-                                } else {
-                                    metrics.put(statsForCurrentIteration.getVmId(), statsForCurrentIteration);
-                                }
-                            }
+                _vmStatsFanOut.sweep(excludeStatsPushingHosts(hosts), StatsCollector.this::getStatsTimeout, this::collectVmStats, hostAndVmStatsInterval);
 
-                            if (!metrics.isEmpty()) {
-                                if (externalStatsType == ExternalStatsProtocol.GRAPHITE) {
-                                    sendVmMetricsToGraphiteHost(metrics, host);
-                                } else if (externalStatsType == ExternalStatsProtocol.INFLUXDB) {
-                                    sendMetricsToInfluxdb(metrics);
-                                }
-                            }
+                cleanUpVirtualMachineStats();
 
-                            metrics.clear();
-                        }
-                    } catch (Exception e) {
-                        s_logger.debug("Failed to get VM stats for host with ID: " + host.getId());
-                        continue;
-                    }
+                if (_vmStatsHistory != null) {
+                    _vmStatsHistory.purge(System.currentTimeMillis());
                 }
 
-                cleanUpVirtualMachineStats();
-
             } catch (Throwable t) {
                 s_logger.error("Error trying to retrieve VM stats", t);
             }
         }
 
-        @Override
-        protected Point creteInfluxDbPoint(Object metricsObject) {
-            return createInfluxDbPointForVmMetrics(metricsObject);
+        /**
+         * @throws CloudRuntimeException when the stats could not be retrieved, so the sweep counts the host as failed
+         */
+        protected void collectVmStats(HostVO host) {
+            List<UserVmVO> vms = _userVmDao.listRunningByHostId(host.getId());
+            Map<Long, UserVmVO> vmsById = new HashMap<Long, UserVmVO>();
+
+            for (UserVmVO vm : vms) {
+                vmsById.put(vm.getId(), vm);
+            }
+
+            Map<Long, VmStatsEntry> vmStatsById;
+            try {
+                vmStatsById = _userVmMgr.getVirtualMachineStatistics(host.getId(), host.getName(), new ArrayList<Long>(vmsById.keySet()));
+            } catch (Exception e) {
+                throw new CloudRuntimeException("Failed to get VM stats for host with ID: " + host.getId(), e);
+            }
+            if (vmStatsById == null) {
+                throw new CloudRuntimeException("Failed to get VM stats for host with ID: " + host.getId());
+            }
+
+            Set<Long> vmIdSet = vmStatsById.keySet();
+            for (Long vmId : vmIdSet) {
+                VmStatsEntry statsForCurrentIteration = vmStatsById.get(vmId);
+                statsForCurrentIteration.setVmId(vmId);
+                UserVmVO userVmVo = vmsById.containsKey(vmId) ? vmsById.get(vmId) : _userVmDao.findById(vmId);
+                statsForCurrentIteration.setUserVmVO(userVmVo);
+
+                recordVmStatsHistory(statsForCurrentIteration);
+                storeVirtualMachineStatsInMemory(statsForCurrentIteration);
+                exportStats(statsForCurrentIteration);
+            }
         }
     }
 
@@ -657,15 +732,15 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                             public void doInTransactionWithoutResult(TransactionStatus status) {
                                 //get all stats with delta > 0
                                 List<VmDiskStatisticsVO> updatedVmNetStats = _vmDiskStatsDao.listUpdatedStats();
-                                for (VmDiskStatisticsVO stat : updatedVmNetStats) {
-                                    if (_dailyOrHourly) {
+                                if (_dailyOrHourly) {
+                                    for (VmDiskStatisticsVO stat : updatedVmNetStats) {
                                         //update agg bytes
                                         stat.setAggBytesRead(stat.getCurrentBytesRead() + stat.getNetBytesRead());
                                         stat.setAggBytesWrite(stat.getCurrentBytesWrite() + stat.getNetBytesWrite());
                                         stat.setAggIORead(stat.getCurrentIORead() + stat.getNetIORead());
                                         stat.setAggIOWrite(stat.getCurrentIOWrite() + stat.getNetIOWrite());
-                                        _vmDiskStatsDao.update(stat.getId(), stat);
                                     }
+                                    _vmDiskStatsDao.updateBatch(updatedVmNetStats);
                                 }
                                 s_logger.debug("Successfully updated aggregate vm disk stats");
                             }
@@ -1340,41 +1415,112 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
     }
 
     /**
-     * This class allows to writing metrics in InfluxDB for the table that matches the Collector extending it.
-     * Thus, VmStatsCollector and HostCollector can use same method to write on different measures (host_stats or vm_stats table).
+     * Creates the exporter for the backend configured in stats.output.uri, or null if no backend is configured.
      */
-    abstract class AbstractStatsCollector extends ManagedContextRunnable {
-        /**
-         * Sends metrics to influxdb host. This method supports both VM and Host metrics
-         */
-        protected void sendMetricsToInfluxdb(Map<Object, Object> metrics) {
-            InfluxDB influxDbConnection = createInfluxDbConnection();
+    protected StatsExporter createStatsExporter() {
+        if (externalStatsType == ExternalStatsProtocol.GRAPHITE) {
+            return new GraphiteStatsExporter();
+        }
+        if (externalStatsType == ExternalStatsProtocol.INFLUXDB) {
+            return new InfluxDbStatsExporter();
+        }
+        return null;
+    }
 
-            try {
-                Pong response = influxDbConnection.ping();
+    /**
+     * Hands the entry over to the external stats backend, if one is configured; it is written asynchronously.
+     */
+    protected void exportStats(Object stats) {
+        if (statsExportPipeline != null) {
+            statsExportPipeline.add(stats);
+        }
+    }
+
+    /**
+     * Writes host and VM stats in the host_stats and vm_stats measurements, keeping the connection open between batches.
+     */
+    class InfluxDbStatsExporter implements StatsExporter {
+        private InfluxDB influxDbConnection;
+
+        @Override
+        public String getName() {
+            return ExternalStatsProtocol.INFLUXDB.toString();
+        }
+
+        @Override
+        public void export(List<Sample> samples) {
+            List<Point> points = new ArrayList<>(samples.size());
+            for (Sample sample : samples) {
+                Object metricsObject = sample.getStats();
+                if (metricsObject instanceof HostStatsEntry) {
+                    points.add(createInfluxDbPointForHostMetrics(metricsObject, sample.getTimestamp()));
+                } else if (metricsObject instanceof VmStatsEntry) {
+                    points.add(createInfluxDbPointForVmMetrics(metricsObject, sample.getTimestamp()));
+                }
+            }
+            if (points.isEmpty()) {
+                return;
+            }
+            s_logger.debug(String.format("Sending %d stats to %s host %s:%s", points.size(), externalStatsType, externalStatsHost, externalStatsPort));
+            writeBatches(getConnection(), databaseName, points);
+        }
+
+        private InfluxDB getConnection() {
+            if (influxDbConnection == null) {
+                InfluxDB connection = createInfluxDbConnection();
+                Pong response = connection.ping();
                 if (response.getVersion().equalsIgnoreCase("unknown")) {
+                    connection.close();
                     throw new CloudRuntimeException(String.format("Cannot ping influxdb host %s:%s.", externalStatsHost, externalStatsPort));
                 }
+                influxDbConnection = connection;
+            }
+            return influxDbConnection;
+        }
 
-                Collection<Object> metricsObjects = metrics.values();
-                List<Point> points = new ArrayList<>();
+        @Override
+        public void close() {
+            if (influxDbConnection != null) {
+                influxDbConnection.close();
+                influxDbConnection = null;
+            }
+        }
+    }
 
-                s_logger.debug(String.format("Sending stats to %s host %s:%s", externalStatsType, externalStatsHost, externalStatsPort));
+    /**
+     * Sends VM stats to the Graphite host, the samples of a batch grouped by the second they were collected at.
+     */
+    class GraphiteStatsExporter implements StatsExporter {
+        private GraphiteClient graphiteClient;
 
-                for (Object metricsObject : metricsObjects) {
-                    Point vmPoint = creteInfluxDbPoint(metricsObject);
-                    points.add(vmPoint);
+        @Override
+        public String getName() {
+            return ExternalStatsProtocol.GRAPHITE.toString();
+        }
+
+        @Override
+        public void export(List<Sample> samples) {
+            Map<Long, Map<Object, Object>> metricsBySecond = groupVmMetricsForGraphite(samples);
+            if (metricsBySecond.isEmpty()) {
+                return;
+            }
+            s_logger.debug(String.format("Sending %d VmStats to %s host %s:%s", samples.size(), externalStatsType, externalStatsHost, externalStatsPort));
+            if (graphiteClient == null) {
+                graphiteClient = new GraphiteClient(externalStatsHost, externalStatsPort);
+            }
+            try {
+                for (Map.Entry<Long, Map<Object, Object>> metrics : metricsBySecond.entrySet()) {
+                    graphiteClient.sendMetrics(metrics.getValue(), metrics.getKey());
                 }
-                writeBatches(influxDbConnection, databaseName, points);
-            } finally {
-                influxDbConnection.close();
+            } catch (GraphiteException e) {
+                throw new CloudRuntimeException("Failed sending VmStats to Graphite host " + externalStatsHost + ":" + externalStatsPort + ": " + e.getMessage(), e);
             }
         }
 
-        /**
-         * Creates a InfluxDB point for the given stats collector (VmStatsCollector, or HostCollector).
-         */
-        protected abstract Point creteInfluxDbPoint(Object metricsObject);
+        @Override
+        public void close() {
+            graphiteClient = null;
+        }
     }
 
     public boolean imageStoreHasEnoughCapacity(DataStore imageStore) {
@@ -1426,16 +1572,18 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
     }
 
     /**
-     * Sends VMs metrics to the configured graphite host.
+     * Groups the Graphite metrics of the VM samples by the second they were collected at, so that several samples
+     * of the same VM in one batch are all sent with their own timestamp.
      */
-    protected void sendVmMetricsToGraphiteHost(Map<Object, Object> metrics, HostVO host) {
-        s_logger.debug(String.format("Sending VmStats of host %s to %s host %s:%s", host.getId(), externalStatsType, externalStatsHost, externalStatsPort));
-        try {
-            GraphiteClient g = new GraphiteClient(externalStatsHost, externalStatsPort);
-            g.sendMetrics(metrics);
-        } catch (GraphiteException e) {
-            s_logger.debug("Failed sending VmStats to Graphite host " + externalStatsHost + ":" + externalStatsPort + ": " + e.getMessage());
+    protected Map<Long, Map<Object, Object>> groupVmMetricsForGraphite(List<StatsExporter.Sample> samples) {
+        Map<Long, Map<Object, Object>> metricsBySecond = new TreeMap<>();
+        for (StatsExporter.Sample sample : samples) {
+            if (sample.getStats() instanceof VmStatsEntry) {
+                Map<Object, Object> metrics = metricsBySecond.computeIfAbsent(sample.getTimestamp() / 1000, second -> new HashMap<>());
+                prepareVmMetricsForGraphite(metrics, (VmStatsEntry)sample.getStats());
+            }
         }
+        return metricsBySecond;
     }
 
     /**
@@ -1444,8 +1592,8 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
      * otherwise, it will compromise the map of metrics used by another type of collector (e.g. InfluxDB).
      */
     private void prepareVmMetricsForGraphite(Map<Object, Object> metrics, VmStatsEntry statsForCurrentIteration) {
-        VMInstanceVO vmVO = _vmInstance.findById(statsForCurrentIteration.getVmId());
-        String vmName = vmVO.getUuid();
+        String vmName = statsForCurrentIteration.getUserVmVO() != null ? statsForCurrentIteration.getUserVmVO().getUuid()
+                : _vmInstance.findById(statsForCurrentIteration.getVmId()).getUuid();
 
         metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".cpu.num", statsForCurrentIteration.getNumCPUs());
         metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".cpu.utilization", statsForCurrentIteration.getCPUUtilization());
@@ -1490,6 +1638,26 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
         }
     }
 
+    private void recordHostStatsHistory(long hostId, HostStatsEntry hostStats) {
+        if (_hostStatsHistory != null) {
+            _hostStatsHistory.record(hostId, System.currentTimeMillis(), hostStats.getCpuUtilization(), hostStats.getUsedMemory(), hostStats.getNetworkReadKBs(),
+                    hostStats.getNetworkWriteKBs(), hostStats.getLoadAverage());
+        }
+    }
+
+    /**
+     * Records the stats collected in this iteration, before they are summed to the ones in memory.
+     */
+    private void recordVmStatsHistory(VmStatsEntry vmStats) {
+        if (_vmStatsHistory != null) {
+            if (vmStats.getUserVmVO() != null) {
+                _vmIdsByUuid.put(vmStats.getUserVmVO().getUuid(), vmStats.getVmId());
+            }
+            _vmStatsHistory.record(vmStats.getVmId(), System.currentTimeMillis(), vmStats.getCPUUtilization(), vmStats.getIntFreeMemoryKBs(), vmStats.getNetworkReadKBs(),
+                    vmStats.getNetworkWriteKBs(), vmStats.getDiskReadKBs(), vmStats.getDiskWriteKBs(), vmStats.getDiskReadIOs(), vmStats.getDiskWriteIOs());
+        }
+    }
+
     /**
      * Removes stats for a given virtual machine.
      * @param vmId ID of the virtual machine to remove stats.
@@ -1497,6 +1665,10 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
     public void removeVirtualMachineStats(Long vmId) {
         s_logger.debug(String.format("Removing stats from VM with ID: %s .",vmId));
         _VmStats.remove(vmId);
+        if (_vmStatsHistory != null) {
+            _vmStatsHistory.remove(vmId);
+            _vmIdsByUuid.values().remove(vmId);
+        }
     }
 
     /**
@@ -1522,6 +1694,10 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
      * <b>Fields:</b>memory_total_kb, memory_internal_free_kbs, memory_target_kbs, cpu_utilization, cpus, network_write_kb, disk_read_iops, disk_read_kbs, disk_write_iops, disk_write_kbs
      */
     protected Point createInfluxDbPointForHostMetrics(Object metricsObject) {
+        return createInfluxDbPointForHostMetrics(metricsObject, System.currentTimeMillis());
+    }
+
+    protected Point createInfluxDbPointForHostMetrics(Object metricsObject, long timestamp) {
         HostStatsEntry hostStatsEntry = (HostStatsEntry)metricsObject;
 
         Map<String, String> tagsToAdd = new HashMap<>();
@@ -1536,7 +1712,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
         fieldsToAdd.put(NETWORK_READ_KBS_FIELD, hostStatsEntry.getNetworkReadKBs());
         fieldsToAdd.put(NETWORK_WRITE_KBS_FIELD, hostStatsEntry.getNetworkWriteKBs());
 
-        return Point.measurement(INFLUXDB_HOST_MEASUREMENT).tag(tagsToAdd).time(System.currentTimeMillis(), TimeUnit.MILLISECONDS).fields(fieldsToAdd).build();
+        return Point.measurement(INFLUXDB_HOST_MEASUREMENT).tag(tagsToAdd).time(timestamp, TimeUnit.MILLISECONDS).fields(fieldsToAdd).build();
     }
 
     /**
@@ -1545,6 +1721,10 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
      * <b>Fields:</b>memory_total_kb, memory_internal_free_kbs, memory_target_kbs, cpu_utilization, cpus, network_write_kb, disk_read_iops, disk_read_kbs, disk_write_iops, disk_write_kbs
      */
     protected Point createInfluxDbPointForVmMetrics(Object metricsObject) {
+        return createInfluxDbPointForVmMetrics(metricsObject, System.currentTimeMillis());
+    }
+
+    protected Point createInfluxDbPointForVmMetrics(Object metricsObject, long timestamp) {
         VmStatsEntry vmStatsEntry = (VmStatsEntry)metricsObject;
         UserVmVO userVmVO = vmStatsEntry.getUserVmVO();
 
@@ -1565,7 +1745,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
         fieldsToAdd.put(DISK_WRITE_IOPS_FIELD, vmStatsEntry.getDiskWriteIOs());
         fieldsToAdd.put(DISK_WRITE_KBS_FIELD, vmStatsEntry.getDiskWriteKBs());
 
-        return Point.measurement(INFLUXDB_VM_MEASUREMENT).tag(tagsToAdd).time(System.currentTimeMillis(), TimeUnit.MILLISECONDS).fields(fieldsToAdd).build();
+        return Point.measurement(INFLUXDB_VM_MEASUREMENT).tag(tagsToAdd).time(timestamp, TimeUnit.MILLISECONDS).fields(fieldsToAdd).build();
     }
 
     /**
@@ -1642,6 +1822,183 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
         return sc;
     }
 
+    /**
+     * Lists the Up routing hosts the host and VM stats collectors query; only the ones connected to this management server when
+     * stats.collection.owned.hosts.only is enabled.
+     */
+    protected List<HostVO> listHostsToCollectStatsFrom() {
+        SearchCriteria<HostVO> sc = createSearchCriteriaForHostTypeRoutingStateUpAndNotInMaintenance();
+        if (statsCollectionOwnedHostsOnly.value()) {
+            sc.addAnd("managementServerId", SearchCriteria.Op.EQ, mgmtSrvrId);
+        }
+        return _hostDao.search(sc, null);
+    }
+
+    /**
+     * Leaves out the hosts that recently pushed their stats, those do not need to be polled.
+     */
+    protected List<HostVO> excludeStatsPushingHosts(List<HostVO> hosts) {
+        if (_statsPushingHosts.isEmpty()) {
+            return hosts;
+        }
+        long now = System.currentTimeMillis();
+        List<HostVO> hostsToPoll = new ArrayList<HostVO>(hosts.size());
+        for (HostVO host : hosts) {
+            Long pushingUntil = _statsPushingHosts.get(host.getId());
+            if (pushingUntil == null || pushingUntil < now) {
+                hostsToPoll.add(host);
+            }
+        }
+        return hostsToPoll;
+    }
+
+    /**
+     * Ingests the host and VM stats an agent pushed along with its ping, storing them as if they had been polled. The host is not polled
+     * for as long as it keeps pushing; the ingestion itself runs on the host stats pool, so that the agent's ping is not delayed.
+     */
+    public void ingestPushedStats(final long hostId, final PingRoutingCommand ping) {
+        long pushInterval = ping.getStatsPushInterval() * 1000L;
+        _statsPushingHosts.put(hostId, System.currentTimeMillis() + 2 * (pushInterval + pingInterval));
+
+        if (_hostStatsExecutor == null) {
+            return;
+        }
+        try {
+            _hostStatsExecutor.execute(new ManagedContextRunnable() {
+                @Override
+                protected void runInContext() {
+                    storePushedStats(hostId, ping.getHostStats(), ping.getVmStats());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            s_logger.debug("Discarding the stats pushed by host " + hostId + " as the stats collector is stopping");
+        }
+    }
+
+    protected void storePushedStats(long hostId, HostStatsEntry hostStats, Map<String, VmStatsEntry> vmStatsByName) {
+        try {
+            if (hostStats != null) {
+                hostStats.setHostId(hostId);
+                hostStats.setHostVo(_hostDao.findById(hostId));
+                _hostStats.put(hostId, hostStats);
+                recordHostStatsHistory(hostId, hostStats);
+                exportStats(hostStats);
+            }
+
+            if (MapUtils.isEmpty(vmStatsByName)) {
+                return;
+            }
+            Map<String, UserVmVO> vmsByName = new HashMap<String, UserVmVO>();
+            for (UserVmVO vm : _userVmDao.listRunningByHostId(hostId)) {
+                vmsByName.put(vm.getInstanceName(), vm);
+            }
+            for (Map.Entry<String, VmStatsEntry> entry : vmStatsByName.entrySet()) {
+                UserVmVO userVmVo = vmsByName.get(entry.getKey());
+                if (userVmVo == null) {
+                    continue;
+                }
+                VmStatsEntry statsForCurrentIteration = entry.getValue();
+                statsForCurrentIteration.setVmId(userVmVo.getId());
+                statsForCurrentIteration.setUserVmVO(userVmVo);
+
+                recordVmStatsHistory(statsForCurrentIteration);
+                storeVirtualMachineStatsInMemory(statsForCurrentIteration);
+                exportStats(statsForCurrentIteration);
+            }
+        } catch (Exception e) {
+            s_logger.warn("Failed to store the stats pushed by host " + hostId, e);
+        }
+    }
+
+    /**
+     * Picks up the stats agents push along with their pings and forgets about a pushing host once it disconnects.
+     */
+    class PushedStatsListener implements Listener {
+        @Override
+        public boolean isRecurring() {
+            return false;
+        }
+
+        @Override
+        public boolean processAnswers(long agentId, long seq, Answer[] answers) {
+            return false;
+        }
+
+        @Override
+        public boolean processCommands(long agentId, long seq, Command[] commands) {
+            for (Command cmd : commands) {
+                if (cmd instanceof PingRoutingCommand && ((PingRoutingCommand)cmd).hasPushedStats()) {
+                    ingestPushedStats(agentId, (PingRoutingCommand)cmd);
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public AgentControlAnswer processControlCommand(long agentId, AgentControlCommand cmd) {
+            return null;
+        }
+
+        @Override
+        public void processHostAdded(long hostId) {
+        }
+
+        @Override
+        public void processConnect(Host host, StartupCommand cmd, boolean forRebalance) {
+        }
+
+        @Override
+        public boolean processDisconnect(long agentId, Status state) {
+            _statsPushingHosts.remove(agentId);
+            return true;
+        }
+
+        @Override
+        public void processHostAboutToBeRemoved(long hostId) {
+        }
+
+        @Override
+        public void processHostRemoved(long hostId, long clusterId) {
+            _statsPushingHosts.remove(hostId);
+        }
+
+        @Override
+        public boolean processTimeout(long agentId, long seq) {
+            return false;
+        }
+
+        @Override
+        public int getTimeout() {
+            return -1;
+        }
+    }
+
+    private long getStatsTimeout(HostVO host) {
+        return StatsTimeout.valueIn(host.getClusterId());
+    }
+
+    /**
+     * Returns min/avg/max/p95 of the host stats collected over the window, by metric name, or null if there is no history of the host.
+     */
+    public Map<String, StatsHistory.Summary> getHostStatsHistory(long hostId, long windowMillis) {
+        return _hostStatsHistory == null ? null : _hostStatsHistory.summarize(hostId, windowMillis, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns min/avg/max/p95 of the VM stats collected over the window, by metric name, or null if there is no history of the VM.
+     */
+    public Map<String, StatsHistory.Summary> getVmStatsHistory(long vmId, long windowMillis) {
+        return _vmStatsHistory == null ? null : _vmStatsHistory.summarize(vmId, windowMillis, System.currentTimeMillis());
+    }
+
+    /**
+     * Same as {@link #getVmStatsHistory(long, long)}, for the VM with the given UUID, so API responses need no lookup of the VM.
+     */
+    public Map<String, StatsHistory.Summary> getVmStatsHistory(String vmUuid, long windowMillis) {
+        Long vmId = _vmIdsByUuid.get(vmUuid);
+        return vmId == null ? null : getVmStatsHistory(vmId, windowMillis);
+    }
+
     public StorageStats getStorageStats(long id) {
         return _storageStats.get(id);
     }
@@ -1661,7 +2018,9 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {vmDiskStatsInterval, vmDiskStatsIntervalMin, vmNetworkStatsInterval, vmNetworkStatsIntervalMin, StatsTimeout, statsOutputUri, VM_STATS_INCREMENT_METRICS_IN_MEMORY};
+        return new ConfigKey<?>[] {vmDiskStatsInterval, vmDiskStatsIntervalMin, vmNetworkStatsInterval, vmNetworkStatsIntervalMin, StatsTimeout, statsOutputUri, VM_STATS_INCREMENT_METRICS_IN_MEMORY,
+                statsOutputBufferSize, statsOutputBatchSize, statsOutputRetries, statsCollectionParallelism, statsCollectionOwnedHostsOnly,
+                statsHistoryRetention, statsHistoryResolution, statsHistoryDirectory};
     }
 
     public double getImageStoreCapacityThreshold() {
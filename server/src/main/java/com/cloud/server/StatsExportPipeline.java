@@ -0,0 +1,183 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+
+/**
+ * Decouples the stats collectors from the external stats backend. Collectors add entries to a bounded buffer
+ * and return right away, a dedicated thread drains the buffer and writes it in batches through the
+ * {@link StatsExporter}, retrying failed batches. When the backend can not keep up, the oldest entries
+ * are dropped so the most recent statistics are the ones sent.
+ */
+public class StatsExportPipeline implements StatsExportPipelineMBean {
+    private static final Logger s_logger = Logger.getLogger(StatsExportPipeline.class);
+
+    private static final long POLL_TIMEOUT_MILLIS = 1000L;
+    private static final long STOP_TIMEOUT_MILLIS = 5000L;
+
+    private final StatsExporter _exporter;
+    private final BlockingQueue<StatsExporter.Sample> _buffer;
+    private final int _batchSize;
+    private final int _retries;
+    private final long _retryDelayMillis;
+
+    private final AtomicLong _exported = new AtomicLong();
+    private final AtomicLong _dropped = new AtomicLong();
+    private final AtomicLong _failedBatches = new AtomicLong();
+
+    private ExecutorService _writer;
+    private volatile boolean _running;
+
+    public StatsExportPipeline(StatsExporter exporter, int bufferSize, int batchSize, int retries, long retryDelayMillis) {
+        _exporter = exporter;
+        _buffer = new ArrayBlockingQueue<StatsExporter.Sample>(Math.max(1, bufferSize));
+        _batchSize = Math.max(1, batchSize);
+        _retries = Math.max(0, retries);
+        _retryDelayMillis = retryDelayMillis;
+    }
+
+    public void start() {
+        _running = true;
+        _writer = Executors.newSingleThreadExecutor(new NamedThreadFactory("StatsExporter-" + _exporter.getName()));
+        _writer.submit(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        });
+    }
+
+    /**
+     * Stops the writer thread, which closes the exporter once it is out of {@link StatsExporter#export(List)}.
+     */
+    public void stop() {
+        _running = false;
+        if (_writer == null) {
+            _exporter.close();
+            return;
+        }
+        _writer.shutdownNow();
+        try {
+            if (!_writer.awaitTermination(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                s_logger.warn("Stats export to " + _exporter.getName() + " did not stop within " + STOP_TIMEOUT_MILLIS + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queues an entry, stamped with the current time, for export without blocking, dropping the oldest queued entry if the buffer is full.
+     */
+    public void add(Object stats) {
+        final StatsExporter.Sample sample = new StatsExporter.Sample(stats, System.currentTimeMillis());
+        while (!_buffer.offer(sample)) {
+            if (_buffer.poll() != null) {
+                _dropped.incrementAndGet();
+            }
+        }
+    }
+
+    private void writeLoop() {
+        final List<StatsExporter.Sample> batch = new ArrayList<StatsExporter.Sample>(_batchSize);
+        try {
+            while (_running) {
+                try {
+                    StatsExporter.Sample first = _buffer.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    _buffer.drainTo(batch, _batchSize - 1);
+                    writeBatch(batch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Throwable t) {
+                    s_logger.error("Unexpected failure exporting stats to " + _exporter.getName(), t);
+                } finally {
+                    batch.clear();
+                }
+            }
+        } finally {
+            // closed by the only thread using it, never in the middle of an export
+            _exporter.close();
+        }
+    }
+
+    /**
+     * Writes the batch, retrying with an increasing delay. The batch is dropped once the retries are exhausted.
+     */
+    protected boolean writeBatch(List<StatsExporter.Sample> batch) throws InterruptedException {
+        for (int attempt = 0; attempt <= _retries; attempt++) {
+            try {
+                _exporter.export(batch);
+                _exported.addAndGet(batch.size());
+                return true;
+            } catch (RuntimeException e) {
+                s_logger.debug(String.format("Failed to export %d stats entries to %s (attempt %d of %d): %s", batch.size(), _exporter.getName(), attempt + 1, _retries + 1,
+                        e.getMessage()));
+                _exporter.close();
+                if (attempt < _retries) {
+                    Thread.sleep(_retryDelayMillis * (attempt + 1));
+                }
+            }
+        }
+        _failedBatches.incrementAndGet();
+        _dropped.addAndGet(batch.size());
+        s_logger.warn(String.format("Dropped %d stats entries after failing to export them to %s; %d entries dropped so far", batch.size(), _exporter.getName(),
+                _dropped.get()));
+        return false;
+    }
+
+    @Override
+    public String getExporterName() {
+        return _exporter.getName();
+    }
+
+    @Override
+    public long getExported() {
+        return _exported.get();
+    }
+
+    @Override
+    public long getDropped() {
+        return _dropped.get();
+    }
+
+    @Override
+    public long getFailedBatches() {
+        return _failedBatches.get();
+    }
+
+    @Override
+    public int getQueued() {
+        return _buffer.size();
+    }
+}
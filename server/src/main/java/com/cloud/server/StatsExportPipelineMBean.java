@@ -0,0 +1,45 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+/**
+ * Counters of the export of statistics to the external backend configured in stats.output.uri.
+ */
+public interface StatsExportPipelineMBean {
+
+    String getExporterName();
+
+    /**
+     * @return number of entries written to the backend
+     */
+    long getExported();
+
+    /**
+     * @return number of entries dropped, because the buffer was full or their batch failed after all retries
+     */
+    long getDropped();
+
+    /**
+     * @return number of batches dropped after all retries failed
+     */
+    long getFailedBatches();
+
+    /**
+     * @return number of entries waiting to be written
+     */
+    int getQueued();
+}
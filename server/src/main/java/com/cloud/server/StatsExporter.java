@@ -0,0 +1,68 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.util.List;
+
+/**
+ * Backend the StatsCollector statistics are sent to, such as Graphite or InfluxDB. Exporters are driven by a
+ * {@link StatsExportPipeline}, which calls them from a single thread, so they can keep their connection open
+ * between batches.
+ */
+public interface StatsExporter {
+
+    /**
+     * Name of the backend, used in logs and thread names.
+     */
+    String getName();
+
+    /**
+     * Sends a batch of statistics entries (e.g. HostStatsEntry or VmStatsEntry) to the backend; entries of a type
+     * the backend does not handle are skipped. A batch may hold several samples of the same host or VM.
+     * @throws RuntimeException when the batch could not be written, the pipeline retries the whole batch
+     */
+    void export(List<Sample> samples);
+
+    /**
+     * Releases the connection to the backend, the next export opens a new one.
+     */
+    void close();
+
+    /**
+     * Statistics entry along with the time it was collected at.
+     */
+    class Sample {
+        private final Object stats;
+        private final long timestamp;
+
+        public Sample(Object stats, long timestamp) {
+            this.stats = stats;
+            this.timestamp = timestamp;
+        }
+
+        public Object getStats() {
+            return stats;
+        }
+
+        /**
+         * @return collection time, in milliseconds since the epoch
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+}
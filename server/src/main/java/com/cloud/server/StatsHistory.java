@@ -0,0 +1,282 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Short-term history of the stats of one kind of resource (hosts, VMs), kept as one fixed size ring buffer per
+ * resource. Each slot covers one resolution period and holds the time of the sample and one double per metric,
+ * so the memory used by a resource does not grow with time. When a directory is given, the buffers are memory
+ * mapped files in it and the history survives management server restarts. The history of a resource that has not
+ * been sampled for a whole retention period is dropped by {@link #purge(long)}.
+ */
+public class StatsHistory {
+    private static final Logger s_logger = Logger.getLogger(StatsHistory.class);
+
+    private static final int MAGIC = 0x53545348;
+    private static final int HEADER_SIZE = 4 * Integer.BYTES;
+    private static final double PERCENTILE = 0.95;
+
+    private final String _type;
+    private final String[] _metrics;
+    private final long _resolutionMillis;
+    private final int _slots;
+    private final File _directory;
+    private final Map<Long, RingBuffer> _buffers = new ConcurrentHashMap<Long, RingBuffer>();
+
+    /**
+     * @param type kind of resource, used to name the files
+     * @param metrics names of the metrics recorded for every sample, in the order the values are recorded
+     * @param resolutionSeconds period covered by each slot; a sample replaces the previous one of the same period
+     * @param retentionSeconds period the history covers
+     * @param directory directory the buffers are mapped from, or null to keep them on the heap
+     */
+    public StatsHistory(String type, String[] metrics, int resolutionSeconds, int retentionSeconds, File directory) {
+        _type = type;
+        _metrics = metrics;
+        _resolutionMillis = Math.max(1, resolutionSeconds) * 1000L;
+        _slots = Math.max(1, retentionSeconds / Math.max(1, resolutionSeconds));
+        _directory = directory;
+        if (_directory != null && !_directory.isDirectory() && !_directory.mkdirs()) {
+            throw new IllegalArgumentException("Unable to create the stats history directory " + _directory);
+        }
+        loadFiles();
+    }
+
+    /**
+     * Maps the files left by a previous run, so their history is available and gets purged like the rest.
+     */
+    private void loadFiles() {
+        if (_directory == null) {
+            return;
+        }
+        File[] files = _directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Pattern fileNamePattern = Pattern.compile(Pattern.quote(_type) + "-(\\d+)\\.stats");
+        for (File file : files) {
+            Matcher matcher = fileNamePattern.matcher(file.getName());
+            if (matcher.matches()) {
+                long id = Long.parseLong(matcher.group(1));
+                _buffers.put(id, createBuffer(id));
+            }
+        }
+    }
+
+    public void record(long id, long timestamp, double... values) {
+        if (values.length != _metrics.length) {
+            throw new IllegalArgumentException(String.format("Expected %d %s stats values, got %d", _metrics.length, _type, values.length));
+        }
+        RingBuffer buffer = _buffers.computeIfAbsent(id, this::createBuffer);
+        buffer.record(timestamp, values);
+    }
+
+    /**
+     * Summarizes the samples recorded in the window (capped by the retention) ending now, by metric name.
+     * Returns null when there is no history of the resource.
+     */
+    public Map<String, Summary> summarize(long id, long windowMillis, long now) {
+        RingBuffer buffer = _buffers.get(id);
+        if (buffer == null) {
+            return null;
+        }
+        long since = now - Math.min(windowMillis, _slots * _resolutionMillis);
+        double[][] samples = buffer.samplesSince(since);
+        Map<String, Summary> summaries = new LinkedHashMap<String, Summary>();
+        for (int metric = 0; metric < _metrics.length; metric++) {
+            summaries.put(_metrics[metric], Summary.of(samples[metric]));
+        }
+        return summaries;
+    }
+
+    public void remove(long id) {
+        RingBuffer buffer = _buffers.remove(id);
+        if (buffer != null && _directory != null) {
+            File file = getFile(id);
+            if (!file.delete()) {
+                s_logger.debug("Unable to delete stats history file " + file);
+            }
+        }
+    }
+
+    /**
+     * Drops the history of the resources without samples in the last retention period, such as removed hosts and VMs.
+     */
+    public void purge(long now) {
+        long since = now - _slots * _resolutionMillis;
+        for (Map.Entry<Long, RingBuffer> entry : _buffers.entrySet()) {
+            if (entry.getValue().lastTimestamp() < since) {
+                remove(entry.getKey());
+            }
+        }
+    }
+
+    public int size() {
+        return _buffers.size();
+    }
+
+    public String[] getMetrics() {
+        return _metrics;
+    }
+
+    private File getFile(long id) {
+        return new File(_directory, _type + "-" + id + ".stats");
+    }
+
+    private RingBuffer createBuffer(long id) {
+        int slotSize = Long.BYTES + _metrics.length * Double.BYTES;
+        int size = HEADER_SIZE + _slots * slotSize;
+        if (_directory == null) {
+            return new RingBuffer(ByteBuffer.allocate(size), slotSize);
+        }
+        File file = getFile(id);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new RingBuffer(mapped, slotSize);
+        } catch (IOException e) {
+            s_logger.warn(String.format("Unable to map stats history file %s, keeping the history of %s %d in memory: %s", file, _type, id, e.getMessage()));
+            return new RingBuffer(ByteBuffer.allocate(size), slotSize);
+        }
+    }
+
+    private class RingBuffer {
+        private final ByteBuffer _buffer;
+        private final int _slotSize;
+
+        RingBuffer(ByteBuffer buffer, int slotSize) {
+            _buffer = buffer;
+            _slotSize = slotSize;
+            if (_buffer.getInt(0) != MAGIC || _buffer.getInt(4) != _slots || _buffer.getInt(8) != _metrics.length || _buffer.getInt(12) != (int)(_resolutionMillis / 1000)) {
+                for (int i = 0; i < _buffer.capacity(); i++) {
+                    _buffer.put(i, (byte)0);
+                }
+                _buffer.putInt(0, MAGIC);
+                _buffer.putInt(4, _slots);
+                _buffer.putInt(8, _metrics.length);
+                _buffer.putInt(12, (int)(_resolutionMillis / 1000));
+            }
+        }
+
+        private int offset(int slot) {
+            return HEADER_SIZE + slot * _slotSize;
+        }
+
+        synchronized void record(long timestamp, double[] values) {
+            int offset = offset((int)((timestamp / _resolutionMillis) % _slots));
+            _buffer.putLong(offset, timestamp);
+            for (int metric = 0; metric < values.length; metric++) {
+                _buffer.putDouble(offset + Long.BYTES + metric * Double.BYTES, values[metric]);
+            }
+        }
+
+        synchronized long lastTimestamp() {
+            long last = 0;
+            for (int slot = 0; slot < _slots; slot++) {
+                last = Math.max(last, _buffer.getLong(offset(slot)));
+            }
+            return last;
+        }
+
+        synchronized double[][] samplesSince(long since) {
+            double[][] samples = new double[_metrics.length][_slots];
+            int count = 0;
+            for (int slot = 0; slot < _slots; slot++) {
+                int offset = offset(slot);
+                long timestamp = _buffer.getLong(offset);
+                if (timestamp <= 0 || timestamp < since) {
+                    continue;
+                }
+                for (int metric = 0; metric < _metrics.length; metric++) {
+                    samples[metric][count] = _buffer.getDouble(offset + Long.BYTES + metric * Double.BYTES);
+                }
+                count++;
+            }
+            for (int metric = 0; metric < _metrics.length; metric++) {
+                samples[metric] = Arrays.copyOf(samples[metric], count);
+            }
+            return samples;
+        }
+    }
+
+    /**
+     * Minimum, average, maximum and 95th percentile of the samples of one metric.
+     */
+    public static class Summary {
+        private final int samples;
+        private final double min;
+        private final double avg;
+        private final double max;
+        private final double p95;
+
+        Summary(int samples, double min, double avg, double max, double p95) {
+            this.samples = samples;
+            this.min = min;
+            this.avg = avg;
+            this.max = max;
+            this.p95 = p95;
+        }
+
+        static Summary of(double[] values) {
+            if (values.length == 0) {
+                return new Summary(0, 0, 0, 0, 0);
+            }
+            double[] sorted = values.clone();
+            Arrays.sort(sorted);
+            double sum = 0;
+            for (double value : sorted) {
+                sum += value;
+            }
+            int p95Index = (int)Math.ceil(PERCENTILE * sorted.length) - 1;
+            return new Summary(sorted.length, sorted[0], sum / sorted.length, sorted[sorted.length - 1], sorted[Math.max(0, p95Index)]);
+        }
+
+        public int getSamples() {
+            return samples;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getAvg() {
+            return avg;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getP95() {
+            return p95;
+        }
+    }
+}
@@ -167,6 +167,7 @@ public class TaggedResourceManagerImpl extends ManagerBase implements TaggedReso
         Transaction.execute(new TransactionCallbackNoReturn() {
             @Override
             public void doInTransactionWithoutResult(TransactionStatus status) {
+                final List<ResourceTagVO> newTags = new ArrayList<>(tags.size() * resourceIds.size());
                 for (String key : tags.keySet()) {
                     for (String resourceId : resourceIds) {
                         if (!resourceType.resourceTagsSupport()) {
@@ -189,15 +190,15 @@ public class TaggedResourceManagerImpl extends ManagerBase implements TaggedReso
                             throw new InvalidParameterValueException("Value for the key " + key + " is either null or empty");
                         }
 
-                        ResourceTagVO resourceTag = new ResourceTagVO(key, value, accountDomainPair.first(), accountDomainPair.second(), id, resourceType, customer, resourceUuid);
-                        try {
-                            resourceTag = _resourceTagDao.persist(resourceTag);
-                        } catch (EntityExistsException e) {
-                            throw new CloudRuntimeException(String.format("tag %s already on %s with id %s", resourceTag.getKey(), resourceType.toString(), resourceId),e);
-                        }
-                        resourceTags.add(resourceTag);
+                        newTags.add(new ResourceTagVO(key, value, accountDomainPair.first(), accountDomainPair.second(), id, resourceType, customer, resourceUuid));
                     }
                 }
+
+                try {
+                    resourceTags.addAll(_resourceTagDao.persistBatch(newTags));
+                } catch (EntityExistsException e) {
+                    throw new CloudRuntimeException(String.format("one of the tags %s is already on one of the %s resources %s", tags.keySet(), resourceType.toString(), resourceIds), e);
+                }
             }
         });
 
@@ -35,6 +35,7 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -69,6 +70,7 @@ import org.apache.cloudstack.api.command.admin.vm.DeployVMCmdByAdmin;
 import org.apache.cloudstack.api.command.admin.vm.RecoverVMCmd;
 import org.apache.cloudstack.api.command.user.vm.AddNicToVMCmd;
 import org.apache.cloudstack.api.command.user.vm.DeployVMCmd;
+import org.apache.cloudstack.api.command.user.vm.DeployVirtualMachinesCmd;
 import org.apache.cloudstack.api.command.user.vm.DestroyVMCmd;
 import org.apache.cloudstack.api.command.user.vm.RebootVMCmd;
 import org.apache.cloudstack.api.command.user.vm.RemoveNicFromVMCmd;
@@ -110,6 +112,8 @@ import org.apache.cloudstack.framework.async.AsyncCallFuture;
 import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.framework.config.Configurable;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
+import org.apache.cloudstack.framework.jobs.AsyncJob;
+import org.apache.cloudstack.framework.jobs.AsyncJobExecutionContext;
 import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.query.QueryService;
 import org.apache.cloudstack.storage.command.DeleteCommand;
@@ -565,6 +569,7 @@ public class UserVmManagerImpl extends ManagerBase implements UserVmManager, Vir
     private boolean _dailyOrHourly = false;
     private int capacityReleaseInterval;
     private ExecutorService _vmIpFetchThreadExecutor;
+    private ExecutorService _vmBatchStartExecutor;
 
 
     private String _instance;
@@ -615,6 +620,12 @@ public class UserVmManagerImpl extends ManagerBase implements UserVmManager, Vir
     private static final ConfigKey<Boolean> VmDestroyForcestop = new ConfigKey<Boolean>("Advanced", Boolean.class, "vm.destroy.forcestop", "false",
             "On destroy, force-stop takes this value ", true);
 
+    private static final ConfigKey<Integer> DeployVirtualMachinesMaxCount = new ConfigKey<Integer>("Advanced", Integer.class, "deploy.virtual.machines.max.count", "50",
+            "The maximum number of virtual machines a single deployVirtualMachines call can deploy", true);
+
+    private static final ConfigKey<Integer> DeployVirtualMachinesStartWorkers = new ConfigKey<Integer>("Advanced", Integer.class, "deploy.virtual.machines.start.workers", "10",
+            "The number of threads starting the virtual machines of deployVirtualMachines calls in parallel", false);
+
     public static final List<HypervisorType> VM_STORAGE_MIGRATION_SUPPORTING_HYPERVISORS = new ArrayList<>(Arrays.asList(
             HypervisorType.KVM,
             HypervisorType.VMware,
@@ -2297,6 +2308,7 @@ public class UserVmManagerImpl extends ManagerBase implements UserVmManager, Vir
         _scaleRetry = NumbersUtil.parseInt(configs.get(Config.ScaleRetry.key()), 2);
 
         _vmIpFetchThreadExecutor = Executors.newFixedThreadPool(VmIpFetchThreadPoolMax.value(), new NamedThreadFactory("vmIpFetchThread"));
+        _vmBatchStartExecutor = Executors.newFixedThreadPool(DeployVirtualMachinesStartWorkers.value(), new NamedThreadFactory("UserVm-BatchStart"));
 
         s_logger.info("User VM Manager is configured.");
 
@@ -2346,6 +2358,7 @@ public class UserVmManagerImpl extends ManagerBase implements UserVmManager, Vir
     public boolean stop() {
         _executor.shutdown();
         _vmIpFetchExecutor.shutdown();
+        _vmBatchStartExecutor.shutdown();
         return true;
     }
 
@@ -4687,21 +4700,155 @@ public class UserVmManagerImpl extends ManagerBase implements UserVmManager, Vir
         Long podId = null;
         Long clusterId = null;
         Long hostId = cmd.getHostId();
-        Map<VirtualMachineProfile.Param, Object> additionalParams =  new HashMap<>();
         Map<Long, DiskOffering> diskOfferingMap = cmd.getDataDiskTemplateToDiskOfferingMap();
-        Map<String, String> details = cmd.getDetails();
         if (cmd instanceof DeployVMCmdByAdmin) {
             DeployVMCmdByAdmin adminCmd = (DeployVMCmdByAdmin)cmd;
             podId = adminCmd.getPodId();
             clusterId = adminCmd.getClusterId();
         }
+        return startVirtualMachine(vmId, podId, clusterId, hostId, diskOfferingMap, getDeployVmAdditionalParams(cmd), cmd.getDeploymentPlanner());
+    }
+
+    private Map<VirtualMachineProfile.Param, Object> getDeployVmAdditionalParams(DeployVMCmd cmd) {
+        Map<VirtualMachineProfile.Param, Object> additionalParams =  new HashMap<>();
+        Map<String, String> details = cmd.getDetails();
         if (MapUtils.isNotEmpty(details) && details.containsKey(ApiConstants.BootType.UEFI.toString())) {
             addVmUefiBootOptionsToParams(additionalParams, ApiConstants.BootType.UEFI.toString(), details.get(ApiConstants.BootType.UEFI.toString()));
         }
         if (cmd.getBootIntoSetup() != null) {
             additionalParams.put(VirtualMachineProfile.Param.BootIntoSetup, cmd.getBootIntoSetup());
         }
-        return startVirtualMachine(vmId, podId, clusterId, hostId, diskOfferingMap, additionalParams, cmd.getDeploymentPlanner());
+        return additionalParams;
+    }
+
+    @Override
+    @ActionEvent(eventType = EventTypes.EVENT_VM_CREATE, eventDescription = "starting Vms", async = true)
+    public List<UserVm> startVirtualMachines(DeployVirtualMachinesCmd cmd) throws ResourceUnavailableException, InsufficientCapacityException, ConcurrentOperationException,
+            ResourceAllocationException {
+        final List<UserVmVO> vms = new ArrayList<>();
+        for (Long vmId : cmd.getEntityIds()) {
+            UserVmVO vm = _vmDao.findById(vmId);
+            if (vm == null) {
+                throw new InvalidParameterValueException("unable to find a virtual machine with id " + vmId);
+            }
+            vms.add(vm);
+        }
+        if (!cmd.getStartVm()) {
+            return new ArrayList<>(vms);
+        }
+
+        Map<Long, Long> plannedHosts = new HashMap<>();
+        if (cmd.getHostId() == null && vms.size() > 1) {
+            plannedHosts = planBatchDeployment(vms, cmd.getZoneId(), cmd.getDeploymentPlanner());
+        }
+
+        // the vms are started by the job of the batch, every start still goes through the vm work queue
+        final CallContext callerContext = CallContext.current();
+        final AsyncJob batchJob = AsyncJobExecutionContext.getCurrentExecutionContext().getJob();
+        final Map<Long, DiskOffering> diskOfferingMap = cmd.getDataDiskTemplateToDiskOfferingMap();
+        final Map<VirtualMachineProfile.Param, Object> additionalParams = getDeployVmAdditionalParams(cmd);
+        final Long hostId = cmd.getHostId();
+        final String deploymentPlanner = cmd.getDeploymentPlanner();
+        final Map<Long, Exception> failures = new ConcurrentHashMap<>();
+        final CountDownLatch startsDone = new CountDownLatch(vms.size());
+        for (final UserVmVO vm : vms) {
+            _vmBatchStartExecutor.execute(new ManagedContextRunnable() {
+                @Override
+                protected void runInContext() {
+                    CallContext.register(callerContext.getCallingUser(), callerContext.getCallingAccount());
+                    AsyncJobExecutionContext.setCurrentExecutionContext(new AsyncJobExecutionContext(batchJob));
+                    try {
+                        startVirtualMachine(vm.getId(), null, null, hostId, diskOfferingMap, new HashMap<>(additionalParams), deploymentPlanner);
+                    } catch (Exception e) {
+                        s_logger.warn("Failed to start vm " + vm + " of the batch deployment", e);
+                        failures.put(vm.getId(), e);
+                    } finally {
+                        AsyncJobExecutionContext.unregister();
+                        CallContext.unregister();
+                        startsDone.countDown();
+                    }
+                }
+            });
+        }
+        try {
+            startsDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CloudRuntimeException("Interrupted while waiting for the vms of the batch deployment to start", e);
+        }
+
+        List<UserVm> result = releaseUnusedBatchReservations(vms, plannedHosts);
+
+        if (failures.size() == vms.size()) {
+            Exception failure = failures.values().iterator().next();
+            if (failure instanceof InsufficientCapacityException) {
+                throw (InsufficientCapacityException)failure;
+            } else if (failure instanceof ResourceUnavailableException) {
+                throw (ResourceUnavailableException)failure;
+            } else if (failure instanceof ResourceAllocationException) {
+                throw (ResourceAllocationException)failure;
+            } else if (failure instanceof ConcurrentOperationException) {
+                throw (ConcurrentOperationException)failure;
+            }
+            throw new CloudRuntimeException("Failed to start the vms of the batch deployment", failure);
+        }
+        if (!failures.isEmpty()) {
+            s_logger.warn(failures.size() + " of " + vms.size() + " vms of the batch deployment failed to start: " + failures.keySet());
+        }
+        return result;
+    }
+
+    /**
+     * Drops the reservations of the vms which did not end up running on their planned host.
+     * @return the vms of the batch as they are now
+     */
+    protected List<UserVm> releaseUnusedBatchReservations(List<UserVmVO> vms, Map<Long, Long> plannedHosts) {
+        Set<Long> hostsToRecalculate = new HashSet<>();
+        List<UserVm> result = new ArrayList<>();
+        for (UserVmVO vm : vms) {
+            UserVmVO startedVm = _vmDao.findById(vm.getId());
+            Long plannedHostId = plannedHosts.get(vm.getId());
+            if (plannedHostId != null && (startedVm.getState() != State.Running || !plannedHostId.equals(startedVm.getHostId()))) {
+                if (startedVm.getState() != State.Running && plannedHostId.equals(startedVm.getLastHostId())) {
+                    // the recalculation would otherwise keep the capacity reserved for the failed vm
+                    UserVmVO vmForUpdate = _vmDao.createForUpdate();
+                    vmForUpdate.setLastHostId(null);
+                    _vmDao.update(vm.getId(), vmForUpdate);
+                    startedVm.setLastHostId(null);
+                }
+                hostsToRecalculate.add(plannedHostId);
+            }
+            result.add(startedVm);
+        }
+        for (Long plannedHostId : hostsToRecalculate) {
+            HostVO host = _hostDao.findById(plannedHostId);
+            if (host != null) {
+                _capacityMgr.updateCapacityForHost(host);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Plans the whole batch at once and reserves its capacity, every vm is left with its planned host as last host.
+     */
+    private Map<Long, Long> planBatchDeployment(List<UserVmVO> vms, long zoneId, String deploymentPlannerToUse) throws InsufficientServerCapacityException {
+        DeploymentPlanner planner = null;
+        if (deploymentPlannerToUse != null) {
+            planner = _planningMgr.getDeploymentPlannerByName(deploymentPlannerToUse);
+            if (planner == null) {
+                throw new InvalidParameterValueException("Can't find a planner by name " + deploymentPlannerToUse);
+            }
+        }
+        UserVmVO firstVm = vms.get(0);
+        ServiceOfferingVO offering = _offeringDao.findById(firstVm.getId(), firstVm.getServiceOfferingId());
+        VMTemplateVO template = _templateDao.findByIdIncludingRemoved(firstVm.getTemplateId());
+        Account owner = _accountDao.findById(firstVm.getAccountId());
+        List<VirtualMachineProfile> vmProfiles = new ArrayList<>(vms.size());
+        for (UserVmVO vm : vms) {
+            vmProfiles.add(new VirtualMachineProfileImpl(vm, template, offering, owner, null));
+        }
+        return _planningMgr.planBatchDeployment(vmProfiles, new DataCenterDeployment(zoneId), new ExcludeList(), planner);
     }
 
     private UserVm startVirtualMachine(long vmId, Long podId, Long clusterId, Long hostId, Map<Long, DiskOffering> diskOfferingMap
@@ -5561,6 +5708,44 @@ public class UserVmManagerImpl extends ManagerBase implements UserVmManager, Vir
         return userVm.getHypervisorType();
     }
 
+    @Override
+    public List<UserVm> createVirtualMachines(DeployVirtualMachinesCmd cmd) throws InsufficientCapacityException, ResourceUnavailableException, ConcurrentOperationException,
+    StorageUnavailableException, ResourceAllocationException {
+        int count = cmd.getCount();
+        int maxCount = DeployVirtualMachinesMaxCount.value();
+        if (count > maxCount) {
+            throw new InvalidParameterValueException("Unable to deploy " + count + " virtual machines at once, the maximum is " + maxCount);
+        }
+        // fail before creating anything if the whole batch can not be owned by the account
+        Account owner = _accountService.getActiveAccountById(cmd.getEntityOwnerId());
+        _resourceLimitMgr.checkResourceLimit(owner, ResourceType.user_vm, cmd.isDisplayVm(), count);
+
+        List<UserVm> vms = new ArrayList<>(count);
+        boolean success = false;
+        try {
+            for (int i = 0; i < count; i++) {
+                cmd.setCurrentIndex(i);
+                UserVm vm = createVirtualMachine(cmd);
+                if (vm == null) {
+                    throw new CloudRuntimeException("Failed to create vm " + (i + 1) + " of " + count);
+                }
+                vms.add(vm);
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                for (UserVm vm : vms) {
+                    try {
+                        destroyVm(vm.getId(), true);
+                    } catch (Exception e) {
+                        s_logger.warn("Failed to expunge vm " + vm + " after the batch deployment failed", e);
+                    }
+                }
+            }
+        }
+        return vms;
+    }
+
     @Override
     public UserVm createVirtualMachine(DeployVMCmd cmd) throws InsufficientCapacityException, ResourceUnavailableException, ConcurrentOperationException,
     StorageUnavailableException, ResourceAllocationException {
@@ -7711,7 +7896,8 @@ public class UserVmManagerImpl extends ManagerBase implements UserVmManager, Vir
     public ConfigKey<?>[] getConfigKeys() {
         return new ConfigKey<?>[] {EnableDynamicallyScaleVm, AllowUserExpungeRecoverVm, VmIpFetchWaitInterval, VmIpFetchTrialMax,
                 VmIpFetchThreadPoolMax, VmIpFetchTaskWorkers, AllowDeployVmIfGivenHostFails, EnableAdditionalVmConfig, DisplayVMOVFProperties,
-                KvmAdditionalConfigAllowList, XenServerAdditionalConfigAllowList, VmwareAdditionalConfigAllowList};
+                KvmAdditionalConfigAllowList, XenServerAdditionalConfigAllowList, VmwareAdditionalConfigAllowList, DeployVirtualMachinesMaxCount,
+                DeployVirtualMachinesStartWorkers};
     }
 
     @Override
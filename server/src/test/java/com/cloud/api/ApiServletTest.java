@@ -199,6 +199,26 @@ public class ApiServletTest {
                 Mockito.any(StringBuilder.class));
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void processRequestInContextAuthorizedGetStreamed() {
+        Mockito.when(request.getMethod()).thenReturn("GET");
+        Mockito.when(
+                apiServer.verifyRequest(nullable(Map.class), nullable(Long.class), nullable(InetAddress.class)))
+        .thenReturn(true);
+        Mockito.when(apiServer.handleRequest(Mockito.anyMap(), Mockito.anyString(), Mockito.any(StringBuilder.class))).thenAnswer(invocation -> {
+            Assert.assertSame(response, SerializationContext.current().getStreamingResponse());
+            SerializationContext.current().setStreamed(true);
+            response.getWriter().print("{\"listvirtualmachinesresponse\":{}}");
+            return null;
+        });
+        servlet.processRequestInContext(request, response);
+        Mockito.verify(response, Mockito.never()).setContentType(Mockito.anyString());
+        Assert.assertEquals("{\"listvirtualmachinesresponse\":{}}", responseWriter.toString());
+        Assert.assertNull(SerializationContext.current().getStreamingResponse());
+        Assert.assertFalse(SerializationContext.current().isStreamed());
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void processRequestInContextLogout() throws UnknownHostException {
@@ -0,0 +1,51 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.query;
+
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.exception.InvalidParameterValueException;
+
+public class PageTokenTest {
+
+    @Test
+    public void testEncodeDecode() {
+        Date created = new Date(1600000000000L);
+        String token = PageToken.encode(created, 42L);
+        Object[] values = PageToken.decode(token, Date.class, Long.class);
+        Assert.assertEquals(created, values[0]);
+        Assert.assertEquals(42L, values[1]);
+    }
+
+    @Test
+    public void testEncodeNullValue() {
+        Assert.assertNull(PageToken.encode(null, 42L));
+    }
+
+    @Test(expected = InvalidParameterValueException.class)
+    public void testDecodeWrongNumberOfValues() {
+        PageToken.decode(PageToken.encode(42L), Date.class, Long.class);
+    }
+
+    @Test(expected = InvalidParameterValueException.class)
+    public void testDecodeGarbage() {
+        PageToken.decode("not a token!", Long.class);
+    }
+}
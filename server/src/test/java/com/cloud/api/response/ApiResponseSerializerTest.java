@@ -0,0 +1,70 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.response;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.api.response.ResourceTagResponse;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.utils.HttpUtils;
+
+public class ApiResponseSerializerTest {
+
+    private ListResponse<ResourceTagResponse> createListResponse(int entries) {
+        List<ResourceTagResponse> tags = new ArrayList<ResourceTagResponse>();
+        for (int i = 0; i < entries; i++) {
+            ResourceTagResponse tag = new ResourceTagResponse();
+            tag.setKey("key" + i);
+            tag.setValue("value" + i);
+            tag.setObjectName("tag");
+            tags.add(tag);
+        }
+        ListResponse<ResourceTagResponse> response = new ListResponse<ResourceTagResponse>();
+        response.setResponses(tags, entries);
+        response.setResponseName("listtagsresponse");
+        return response;
+    }
+
+    @Test
+    public void writeSerializedResponseJsonMatchesSerializedString() throws IOException {
+        ListResponse<ResourceTagResponse> response = createListResponse(3);
+        response.setNextPageToken("token");
+        StringWriter out = new StringWriter();
+        StringBuilder log = new StringBuilder();
+
+        ApiResponseSerializer.writeSerializedResponse(response, HttpUtils.RESPONSE_TYPE_JSON, out, log);
+
+        Assert.assertEquals(ApiResponseSerializer.toSerializedString(response, HttpUtils.RESPONSE_TYPE_JSON), out.toString());
+        Assert.assertEquals("{\"listtagsresponse\":{\"count\":3}}", log.toString());
+    }
+
+    @Test
+    public void writeSerializedResponseJsonEmptyList() throws IOException {
+        ListResponse<ResourceTagResponse> response = createListResponse(0);
+        StringWriter out = new StringWriter();
+
+        ApiResponseSerializer.writeSerializedResponse(response, HttpUtils.RESPONSE_TYPE_JSON, out, new StringBuilder());
+
+        Assert.assertEquals(ApiResponseSerializer.toSerializedString(response, HttpUtils.RESPONSE_TYPE_JSON), out.toString());
+    }
+}
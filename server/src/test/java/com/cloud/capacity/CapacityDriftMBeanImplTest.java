@@ -0,0 +1,72 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.capacity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CapacityDriftMBeanImplTest {
+
+    @Test
+    public void testReconciliationRecordsDrift() {
+        CapacityDriftMBeanImpl stats = new CapacityDriftMBeanImpl();
+        stats.startReconciliation();
+        stats.recordHost(1L, 0, 0, 0, 0);
+        stats.recordHost(2L, 500, -1000, 0, 1024);
+        stats.endReconciliation();
+
+        assertEquals(1, stats.getReconciliationCount());
+        assertNotNull(stats.getLastReconciliationTime());
+        assertEquals(2, stats.getLastHostsChecked());
+        assertEquals(1, stats.getLastHostsDrifted());
+        assertEquals(500, stats.getLastUsedCpuDrift());
+        assertEquals(1000, stats.getLastReservedCpuDrift());
+        assertEquals(0, stats.getLastUsedMemoryDrift());
+        assertEquals(1024, stats.getLastReservedMemoryDrift());
+        assertEquals(1, stats.getLastHostDrifts().size());
+        assertTrue(stats.getLastHostDrifts().containsKey(2L));
+        assertEquals(1, stats.getTotalHostsDrifted());
+    }
+
+    @Test
+    public void testHostOutsideReconciliationOnlyCountsTotal() {
+        CapacityDriftMBeanImpl stats = new CapacityDriftMBeanImpl();
+        stats.recordHost(1L, 100, 0, 0, 0);
+
+        assertEquals(0, stats.getReconciliationCount());
+        assertEquals(0, stats.getLastHostsChecked());
+        assertEquals(1, stats.getTotalHostsDrifted());
+    }
+
+    @Test
+    public void testReset() {
+        CapacityDriftMBeanImpl stats = new CapacityDriftMBeanImpl();
+        stats.startReconciliation();
+        stats.recordHost(1L, 100, 0, 0, 0);
+        stats.endReconciliation();
+        stats.recordExpiredReservationReleased();
+        stats.reset();
+
+        assertEquals(0, stats.getReconciliationCount());
+        assertEquals(0, stats.getTotalHostsDrifted());
+        assertEquals(0, stats.getExpiredReservationsReleased());
+        assertEquals(0, stats.getLastHostsDrifted());
+    }
+}
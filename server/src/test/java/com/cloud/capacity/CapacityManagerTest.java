@@ -17,12 +17,25 @@
 
 package com.cloud.capacity;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
+import java.util.Collections;
+import java.util.Date;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -31,7 +44,13 @@ import com.cloud.dc.ClusterDetailsDao;
 import com.cloud.dc.ClusterDetailsVO;
 import com.cloud.service.ServiceOfferingVO;
 import com.cloud.service.dao.ServiceOfferingDao;
+import com.cloud.utils.db.GlobalLock;
+import com.cloud.vm.UserVmDetailVO;
+import com.cloud.vm.VMInstanceVO;
 import com.cloud.vm.VirtualMachine;
+import com.cloud.vm.VmDetailConstants;
+import com.cloud.vm.dao.UserVmDetailsDao;
+import com.cloud.vm.dao.VMInstanceDao;
 
 public class CapacityManagerTest {
     CapacityDao CDao = mock(CapacityDao.class);
@@ -76,4 +95,71 @@ public class CapacityManagerTest {
         Assert.assertTrue(hasCapacity);
 
     }
+
+    @Test
+    public void isCapacityReservedTest() {
+        capMgr = setUp();
+        VMInstanceVO stoppedVm = new VMInstanceVO();
+        Date now = new Date();
+        // capacity reserved by a batch deployment for a vm which was never started
+        Assert.assertTrue(capMgr.isCapacityReserved(stoppedVm, now));
+
+        stoppedVm.setUpdateTime(new Date(now.getTime() - 1000));
+        Assert.assertFalse(capMgr.isCapacityReserved(stoppedVm, now));
+    }
+
+    private CapacityManagerImpl setUpExpiredReservation(VMInstanceDao vmDao, UserVmDetailsDao userVmDetailsDao, GlobalLock lock) {
+        CapacityManagerImpl capMgr = spy(setUp());
+        capMgr._vmDao = vmDao;
+        capMgr._userVmDetailsDao = userVmDetailsDao;
+        VMInstanceVO stoppedVm = mock(VMInstanceVO.class);
+        when(vmDao.listStoppedWithLastHostUpdatedBetween(eq(VirtualMachine.Type.User), any(Date.class), any(Date.class))).thenReturn(Collections.singletonList(stoppedVm));
+        doReturn(lock).when(capMgr).getReservedCapacityLock();
+        return capMgr;
+    }
+
+    @Test
+    public void releaseExpiredReservationsTestLockNotAcquired() {
+        VMInstanceDao vmDao = mock(VMInstanceDao.class);
+        UserVmDetailsDao userVmDetailsDao = mock(UserVmDetailsDao.class);
+        GlobalLock lock = mock(GlobalLock.class);
+        capMgr = setUpExpiredReservation(vmDao, userVmDetailsDao, lock);
+        when(lock.lock(anyInt())).thenReturn(false);
+
+        Assert.assertFalse(capMgr.releaseExpiredReservations(new Date(0), new Date()));
+        verifyZeroInteractions(userVmDetailsDao);
+        verify(capMgr, never()).releaseVmCapacity(any(VirtualMachine.class), anyBoolean(), anyBoolean(), any());
+        verify(lock).releaseRef();
+    }
+
+    @Test
+    public void releaseExpiredReservationsTestReleasedByOtherServer() {
+        VMInstanceDao vmDao = mock(VMInstanceDao.class);
+        UserVmDetailsDao userVmDetailsDao = mock(UserVmDetailsDao.class);
+        GlobalLock lock = mock(GlobalLock.class);
+        capMgr = setUpExpiredReservation(vmDao, userVmDetailsDao, lock);
+        when(lock.lock(anyInt())).thenReturn(true);
+        UserVmDetailVO freedFlag = new UserVmDetailVO(1L, VmDetailConstants.MESSAGE_RESERVED_CAPACITY_FREED_FLAG, "true", true);
+        when(userVmDetailsDao.findDetail(anyLong(), eq(VmDetailConstants.MESSAGE_RESERVED_CAPACITY_FREED_FLAG))).thenReturn(freedFlag);
+
+        Assert.assertTrue(capMgr.releaseExpiredReservations(new Date(0), new Date()));
+        verify(capMgr, never()).releaseVmCapacity(any(VirtualMachine.class), anyBoolean(), anyBoolean(), any());
+        verify(lock).unlock();
+        verify(lock).releaseRef();
+    }
+
+    @Test
+    public void updateHostCapacitiesTestForcedRecalculation() {
+        capMgr = spy(setUp());
+        capMgr._vmDao = mock(VMInstanceDao.class);
+        doNothing().when(capMgr).reconcileHostCapacities();
+
+        capMgr.updateHostCapacities(false);
+        capMgr.updateHostCapacities(false);
+        // within the reconcile interval only the expired reservations are released
+        verify(capMgr, times(1)).reconcileHostCapacities();
+
+        capMgr.updateHostCapacities(true);
+        verify(capMgr, times(2)).reconcileHostCapacities();
+    }
 }
@@ -0,0 +1,201 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.capacity;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.cloud.capacity.dao.CapacityDao;
+import com.cloud.dc.ClusterDetailsDao;
+import com.cloud.dc.ClusterDetailsVO;
+import com.cloud.gpu.dao.HostGpuGroupsDao;
+import com.cloud.host.DetailVO;
+import com.cloud.host.Host;
+import com.cloud.host.HostVO;
+import com.cloud.host.Status;
+import com.cloud.host.dao.HostDao;
+import com.cloud.host.dao.HostDetailsDao;
+import com.cloud.hypervisor.Hypervisor.HypervisorType;
+import com.cloud.hypervisor.dao.HypervisorCapabilitiesDao;
+import com.cloud.resource.ResourceState;
+import com.cloud.storage.GuestOSCategoryVO;
+import com.cloud.storage.dao.GuestOSCategoryDao;
+import com.cloud.utils.db.SearchCriteria;
+import com.cloud.vm.dao.VMInstanceDao;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HostCapacityIndexImplTest {
+    private static final long ZONE_ID = 1L;
+    private static final long CLUSTER_ID = 10L;
+    private static final long GB = 1024L * 1024L * 1024L;
+
+    @Mock
+    HostDao hostDao;
+    @Mock
+    CapacityDao capacityDao;
+    @Mock
+    ClusterDetailsDao clusterDetailsDao;
+    @Mock
+    HostDetailsDao hostDetailsDao;
+    @Mock
+    GuestOSCategoryDao guestOSCategoryDao;
+    @Mock
+    HostGpuGroupsDao hostGpuGroupsDao;
+    @Mock
+    VMInstanceDao vmDao;
+    @Mock
+    HypervisorCapabilitiesDao hypervisorCapabilitiesDao;
+
+    private HostCapacityIndexImpl index;
+    private List<CapacityVO> capacities;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        index = new HostCapacityIndexImpl(hostDao, capacityDao, clusterDetailsDao, hostDetailsDao, guestOSCategoryDao, hostGpuGroupsDao, vmDao,
+                hypervisorCapabilitiesDao, 60000L);
+
+        List<HostVO> hosts = Arrays.asList(createHost(1L, HypervisorType.KVM), createHost(2L, HypervisorType.XenServer), createHost(3L, HypervisorType.KVM),
+                createHost(4L, HypervisorType.KVM));
+        lenient().when(hostDao.listByDataCenterId(ZONE_ID)).thenReturn(hosts);
+        lenient().when(hostDao.createSearchCriteria()).thenReturn(mock(SearchCriteria.class));
+        lenient().when(hostDao.search(any(SearchCriteria.class), any())).thenReturn(hosts);
+
+        capacities = new ArrayList<CapacityVO>();
+        for (long hostId = 1; hostId <= 3; hostId++) {
+            capacities.add(new CapacityVO(hostId, ZONE_ID, 1L, CLUSTER_ID, 1000L, 4000L, Capacity.CAPACITY_TYPE_CPU));
+            capacities.add(new CapacityVO(hostId, ZONE_ID, 1L, CLUSTER_ID, 2 * GB, 8 * GB, Capacity.CAPACITY_TYPE_MEMORY));
+        }
+        lenient().when(capacityDao.createSearchCriteria()).thenReturn(mock(SearchCriteria.class));
+        lenient().when(capacityDao.search(any(SearchCriteria.class), any())).thenAnswer(invocation -> new ArrayList<CapacityVO>(capacities));
+
+        lenient().when(clusterDetailsDao.createSearchCriteria()).thenReturn(mock(SearchCriteria.class));
+        lenient().when(clusterDetailsDao.search(any(SearchCriteria.class), any())).thenReturn(Arrays.asList(
+                new ClusterDetailsVO(CLUSTER_ID, HostCapacityIndexImpl.CPU_OVERCOMMIT_RATIO, "2.0"),
+                new ClusterDetailsVO(CLUSTER_ID, HostCapacityIndexImpl.MEMORY_OVERCOMMIT_RATIO, "1.0")));
+
+        lenient().when(hostDetailsDao.createSearchCriteria()).thenReturn(mock(SearchCriteria.class));
+        lenient().when(hostDetailsDao.search(any(SearchCriteria.class), any())).thenReturn(Arrays.asList(
+                new DetailVO(3L, HostCapacityIndexImpl.GUEST_OS_CATEGORY_DETAIL, "7"),
+                new DetailVO(3L, Host.HOST_UEFI_ENABLE, "Yes")));
+        GuestOSCategoryVO category = mock(GuestOSCategoryVO.class);
+        lenient().when(category.getId()).thenReturn(7L);
+        lenient().when(category.getName()).thenReturn("Windows");
+        lenient().when(guestOSCategoryDao.listAll()).thenReturn(Collections.singletonList(category));
+
+        lenient().when(hostGpuGroupsDao.listHostIds()).thenReturn(Collections.singletonList(3L));
+        Map<Long, Long> vmCounts = new HashMap<Long, Long>();
+        vmCounts.put(2L, 50L);
+        lenient().when(vmDao.countActiveByHostIdsInZone(ZONE_ID)).thenReturn(vmCounts);
+        lenient().when(hypervisorCapabilitiesDao.getMaxGuestsLimit(HypervisorType.XenServer, "8.2")).thenReturn(50L);
+    }
+
+    private HostVO createHost(long id, HypervisorType hypervisorType) {
+        HostVO host = new HostVO(id, "host-" + id, Host.Type.Routing, null, null, null, null, null, null, null, null, null, "guid-" + id, Status.Up, null, null, null,
+                ZONE_ID, 1L, 1L, 0L, 4, 1000L, 8 * GB, 0L, "hvm");
+        host.setClusterId(CLUSTER_ID);
+        host.setHypervisorType(hypervisorType);
+        host.setHypervisorVersion("8.2");
+        host.setResourceState(ResourceState.Enabled);
+        return host;
+    }
+
+    @Test
+    public void testSnapshotAttributes() {
+        HostCapacitySnapshot kvm = index.getHost(ZONE_ID, 1L);
+        Assert.assertNotNull(kvm);
+        Assert.assertFalse(kvm.hasReachedMaxGuestLimit());
+        Assert.assertNull(kvm.getGuestOSCategory());
+        Assert.assertFalse(kvm.isGpuEnabled());
+
+        Assert.assertTrue(index.getHost(ZONE_ID, 2L).hasReachedMaxGuestLimit());
+
+        HostCapacitySnapshot gpu = index.getHost(ZONE_ID, 3L);
+        Assert.assertEquals("Windows", gpu.getGuestOSCategory());
+        Assert.assertTrue(gpu.isGpuEnabled());
+        Assert.assertTrue(gpu.isUefiEnabled());
+
+        // no capacity rows, left to the database checks
+        Assert.assertNull(index.getHost(ZONE_ID, 4L));
+    }
+
+    @Test
+    public void testHasCapacityAppliesOvercommit() {
+        HostCapacitySnapshot snapshot = index.getHost(ZONE_ID, 1L);
+        // 4000 MHz * 2.0 overcommit - 1000 MHz used
+        Assert.assertTrue(snapshot.hasCapacity(7000, 6 * GB, true));
+        Assert.assertFalse(snapshot.hasCapacity(7001, 6 * GB, true));
+        Assert.assertFalse(snapshot.hasCapacity(1000, 6 * GB + 1, true));
+        Assert.assertTrue(snapshot.hasCpuCapability(4, 1000));
+        Assert.assertFalse(snapshot.hasCpuCapability(8, 1000));
+    }
+
+    @Test
+    public void testLookupsAreServedFromMemory() {
+        for (int i = 0; i < 100; i++) {
+            index.getHost(ZONE_ID, 1L + i % 3);
+        }
+        verify(hostDao, times(1)).listByDataCenterId(ZONE_ID);
+        verify(capacityDao, times(1)).search(any(SearchCriteria.class), any());
+        verify(hostDao, never()).search(any(SearchCriteria.class), any());
+        Assert.assertEquals(1, index.getZoneLoads());
+    }
+
+    @Test
+    public void testInvalidatedHostIsReloaded() {
+        Assert.assertEquals(1000L, index.getHost(ZONE_ID, 1L).getUsedCpu());
+
+        capacities.set(0, new CapacityVO(1L, ZONE_ID, 1L, CLUSTER_ID, 3000L, 4000L, Capacity.CAPACITY_TYPE_CPU));
+        Assert.assertEquals(1000L, index.getHost(ZONE_ID, 1L).getUsedCpu());
+
+        index.invalidateHost(1L);
+        Assert.assertEquals(3000L, index.getHost(ZONE_ID, 1L).getUsedCpu());
+        Assert.assertNotNull(index.getHost(ZONE_ID, 2L));
+        verify(hostDao, times(1)).listByDataCenterId(ZONE_ID);
+        verify(hostDao, times(1)).search(any(SearchCriteria.class), any());
+        Assert.assertEquals(1, index.getHostReloads());
+    }
+
+    @Test
+    public void testExpiredZoneIsReloaded() {
+        index.getHost(ZONE_ID, 1L);
+        index.setTtlMillis(0);
+        index.getHost(ZONE_ID, 1L);
+        verify(hostDao, times(2)).listByDataCenterId(anyLong());
+        Assert.assertEquals(2, index.getZoneLoads());
+    }
+}
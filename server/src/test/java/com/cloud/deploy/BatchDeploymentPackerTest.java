@@ -0,0 +1,63 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.deploy;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.deploy.BatchDeploymentPacker.HostSlots;
+
+public class BatchDeploymentPackerTest {
+
+    private final List<HostSlots> hosts = Arrays.asList(new HostSlots(1L, 2), new HostSlots(2L, 4), new HostSlots(3L, 3));
+
+    @Test
+    public void packFillsHostsInAllocatorOrder() {
+        List<Long> placement = BatchDeploymentPacker.pack(hosts, 5, true);
+        Assert.assertEquals(Arrays.asList(1L, 1L, 2L, 2L, 2L), placement);
+    }
+
+    @Test
+    public void packSpreadsOverHostsWithMostSlots() {
+        List<Long> placement = BatchDeploymentPacker.pack(hosts, 5, false);
+        Assert.assertEquals(Arrays.asList(2L, 2L, 3L, 1L, 2L), placement);
+    }
+
+    @Test
+    public void packUsesEverySlot() {
+        Assert.assertEquals(9, BatchDeploymentPacker.pack(hosts, 9, false).size());
+        Assert.assertEquals(9, BatchDeploymentPacker.pack(hosts, 9, true).size());
+    }
+
+    @Test
+    public void packReturnsNullWhenBatchDoesNotFit() {
+        Assert.assertNull(BatchDeploymentPacker.pack(hosts, 10, true));
+        Assert.assertNull(BatchDeploymentPacker.pack(hosts, 10, false));
+        Assert.assertNull(BatchDeploymentPacker.pack(Collections.<HostSlots>emptyList(), 1, false));
+    }
+
+    @Test
+    public void packIgnoresHostsWithoutSlots() {
+        List<HostSlots> withFullHost = Arrays.asList(new HostSlots(1L, 0), new HostSlots(2L, 1));
+        Assert.assertEquals(Collections.singletonList(2L), BatchDeploymentPacker.pack(withFullHost, 1, true));
+        Assert.assertEquals(Collections.singletonList(2L), BatchDeploymentPacker.pack(withFullHost, 1, false));
+    }
+}
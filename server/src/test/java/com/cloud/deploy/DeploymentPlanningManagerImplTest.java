@@ -23,17 +23,22 @@ import static org.junit.Assert.assertTrue;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
 
 import com.cloud.dc.DataCenter;
 import com.cloud.host.Host;
+import com.cloud.storage.StoragePool;
 import com.cloud.storage.VMTemplateVO;
+import com.cloud.storage.Volume;
 import com.cloud.storage.dao.VMTemplateDao;
 import com.cloud.user.AccountVO;
 import com.cloud.user.dao.AccountDao;
+import com.cloud.utils.Pair;
 import com.cloud.vm.VMInstanceVO;
 import com.cloud.vm.VirtualMachine;
 import com.cloud.vm.VirtualMachine.Type;
@@ -77,6 +82,7 @@ import org.apache.cloudstack.test.utils.SpringUtils;
 
 import com.cloud.agent.AgentManager;
 import com.cloud.capacity.CapacityManager;
+import com.cloud.capacity.HostCapacityIndex;
 import com.cloud.capacity.dao.CapacityDao;
 import com.cloud.dc.ClusterDetailsDao;
 import com.cloud.dc.ClusterVO;
@@ -161,6 +167,9 @@ public class DeploymentPlanningManagerImplTest {
     @Inject
     HostPodDao hostPodDao;
 
+    @Inject
+    CapacityManager _capacityMgr;
+
     @Mock
     Host host;
 
@@ -444,6 +453,53 @@ public class DeploymentPlanningManagerImplTest {
         return dc;
     }
 
+    @Test
+    public void hasSuitableStorageTestNoPools() {
+        Mockito.when(vmProfile.getHypervisorType()).thenReturn(HypervisorType.KVM);
+        Mockito.doReturn(new Pair<Map<Volume, List<StoragePool>>, List<Volume>>(new HashMap<>(), new ArrayList<>())).when(_dpm)
+                .findSuitablePoolsForVolumes(Mockito.eq(vmProfile), Mockito.any(DataCenterDeployment.class), Mockito.eq(avoids), Mockito.anyInt());
+
+        assertFalse(_dpm.hasSuitableStorage(vmProfile, new DataCenterDeployment(dataCenterId, 1L, 1L, null, null, null), avoids));
+    }
+
+    @Test
+    public void hasSuitableStorageTestPoolsFound() {
+        Mockito.when(vmProfile.getHypervisorType()).thenReturn(HypervisorType.KVM);
+        Map<Volume, List<StoragePool>> suitablePools = new HashMap<>();
+        suitablePools.put(Mockito.mock(Volume.class), Arrays.asList(Mockito.mock(StoragePool.class)));
+        Mockito.doReturn(new Pair<Map<Volume, List<StoragePool>>, List<Volume>>(suitablePools, new ArrayList<>())).when(_dpm)
+                .findSuitablePoolsForVolumes(Mockito.eq(vmProfile), Mockito.any(DataCenterDeployment.class), Mockito.eq(avoids), Mockito.anyInt());
+
+        assertTrue(_dpm.hasSuitableStorage(vmProfile, new DataCenterDeployment(dataCenterId, 1L, 1L, null, null, null), avoids));
+    }
+
+    @Test
+    public void getClusterVmSlotsTest() {
+        // the cluster crosses its disable threshold beyond 3 vms of 1000 MHz
+        Mockito.when(_capacityMgr.checkIfClusterCrossesThreshold(Mockito.eq(1L), Mockito.anyInt(), Mockito.anyLong()))
+                .thenAnswer(invocation -> (Integer)invocation.getArgument(1) > 3000);
+
+        Assert.assertEquals(3, _dpm.getClusterVmSlots(1L, 1000, 1024L, 10));
+        Assert.assertEquals(2, _dpm.getClusterVmSlots(1L, 1000, 1024L, 2));
+    }
+
+    @Test
+    public void hasCapacityForVmTestStaleIndex() {
+        ServiceOfferingVO svcOffering = Mockito.mock(ServiceOfferingVO.class);
+        Mockito.when(vmProfile.getServiceOffering()).thenReturn(svcOffering);
+        HostCapacityIndex capacityIndex = Mockito.mock(HostCapacityIndex.class);
+        Mockito.when(_capacityMgr.getHostCapacityIndex()).thenReturn(capacityIndex);
+        Mockito.when(_capacityMgr.checkIfHostHasCpuCapabilityAndCapacity(host, svcOffering, true))
+                .thenReturn(new Pair<Boolean, Boolean>(true, true), new Pair<Boolean, Boolean>(true, false));
+
+        assertTrue(_dpm.hasCapacityForVm(host, vmProfile));
+        Mockito.verify(capacityIndex, Mockito.never()).invalidateHost(hostId);
+
+        // the index picked a host whose capacity was allocated meanwhile
+        assertFalse(_dpm.hasCapacityForVm(host, vmProfile));
+        Mockito.verify(capacityIndex).invalidateHost(hostId);
+    }
+
     private void assertAvoidIsEmpty(ExcludeList avoids, boolean isDcEmpty, boolean isPodsEmpty, boolean isClustersEmpty, boolean isHostsEmpty) {
         Assert.assertEquals(isDcEmpty, CollectionUtils.isEmpty(avoids.getDataCentersToAvoid()));
         Assert.assertEquals(isPodsEmpty, CollectionUtils.isEmpty(avoids.getPodsToAvoid()));
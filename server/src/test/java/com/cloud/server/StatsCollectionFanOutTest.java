@@ -0,0 +1,109 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+package com.cloud.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.cloud.host.HostVO;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+public class StatsCollectionFanOutTest {
+
+    private ExecutorService executor;
+    private StatsCollectionFanOut fanOut;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(2);
+        fanOut = new StatsCollectionFanOut("TestCollector", executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private HostVO mockHost(long id) {
+        HostVO host = Mockito.mock(HostVO.class);
+        Mockito.when(host.getId()).thenReturn(id);
+        return host;
+    }
+
+    @Test
+    public void sweepCollectsEveryHostAndCountsFailures() throws InterruptedException {
+        List<HostVO> hosts = Arrays.asList(mockHost(1L), mockHost(2L), mockHost(3L));
+        Set<Long> collected = ConcurrentHashMap.newKeySet();
+
+        fanOut.sweep(hosts, host -> 10000L, host -> {
+            if (host.getId() == 2L) {
+                throw new CloudRuntimeException("host unreachable");
+            }
+            collected.add(host.getId());
+        }, 60000L);
+
+        Assert.assertEquals(2, collected.size());
+        Assert.assertEquals(1, fanOut.getFailedHosts());
+        Assert.assertEquals(1, fanOut.getSweeps());
+        Assert.assertEquals(3, fanOut.getLastSweepHosts());
+        Assert.assertEquals(0, fanOut.getOverruns());
+    }
+
+    @Test
+    public void cancelOverdueTasksCancelsOnlyTasksRunningPastTheirTimeout() {
+        StatsCollectionFanOut.HostTask overdue = new StatsCollectionFanOut.HostTask(mockHost(1L), 1000L);
+        overdue.startedAt = 1000L;
+        overdue.future = Mockito.mock(Future.class);
+        StatsCollectionFanOut.HostTask queued = new StatsCollectionFanOut.HostTask(mockHost(2L), 1000L);
+        queued.future = Mockito.mock(Future.class);
+        StatsCollectionFanOut.HostTask done = new StatsCollectionFanOut.HostTask(mockHost(3L), 1000L);
+        done.future = Mockito.mock(Future.class);
+        Mockito.when(done.future.isDone()).thenReturn(true);
+        List<StatsCollectionFanOut.HostTask> pending = new ArrayList<>(Arrays.asList(overdue, queued, done));
+
+        fanOut.cancelOverdueTasks(pending, 5000L);
+
+        Assert.assertEquals(Arrays.asList(queued), pending);
+        Mockito.verify(overdue.future).cancel(true);
+        Mockito.verify(queued.future, Mockito.never()).cancel(Mockito.anyBoolean());
+        Assert.assertEquals(1, fanOut.getTimedOutHosts());
+    }
+
+    @Test
+    public void recordSweepCountsOverruns() {
+        fanOut.recordSweep(10, 500L, 1000L);
+        fanOut.recordSweep(10, 1500L, 1000L);
+
+        Assert.assertEquals(2, fanOut.getSweeps());
+        Assert.assertEquals(1, fanOut.getOverruns());
+        Assert.assertEquals(1500L, fanOut.getLastSweepDuration());
+    }
+}
@@ -44,10 +44,16 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 import org.powermock.modules.junit4.PowerMockRunnerDelegate;
 
+import com.cloud.agent.api.HostStatsEntry;
+import com.cloud.agent.api.PingRoutingCommand;
 import com.cloud.agent.api.VmDiskStatsEntry;
+import com.cloud.agent.api.VmStatsEntry;
+import com.cloud.host.Host;
+import com.cloud.host.HostVO;
 import com.cloud.server.StatsCollector.ExternalStatsProtocol;
 import com.cloud.user.VmDiskStatisticsVO;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.vm.UserVmManager;
 import com.cloud.vm.UserVmVO;
 import com.cloud.vm.VmStats;
 import com.cloud.vm.dao.UserVmDao;
@@ -81,6 +87,9 @@ public class StatsCollectorTest {
     @Mock
     UserVmVO userVmVOMock;
 
+    @Mock
+    UserVmManager userVmManagerMock;
+
     @Test
     public void createInfluxDbConnectionTest() {
         configureAndTestCreateInfluxDbConnection(true);
@@ -127,6 +136,44 @@ public class StatsCollectorTest {
         Mockito.verify(influxDbConnection).write(batchPoints);
     }
 
+    @Test(expected = CloudRuntimeException.class)
+    public void collectVmStatsTestReportsFailure() {
+        HostVO host = Mockito.mock(HostVO.class);
+        Mockito.when(host.getId()).thenReturn(1L);
+        Mockito.when(userVmDaoMock.listRunningByHostId(1L)).thenReturn(new ArrayList<UserVmVO>());
+        Mockito.when(userVmManagerMock.getVirtualMachineStatistics(Mockito.eq(1L), Mockito.any(), Mockito.anyList())).thenThrow(new CloudRuntimeException("unreachable"));
+
+        statsCollector.new VmStatsCollector().collectVmStats(host);
+    }
+
+    @Test(expected = CloudRuntimeException.class)
+    public void collectVmStatsTestReportsFailedAnswer() {
+        HostVO host = Mockito.mock(HostVO.class);
+        Mockito.when(host.getId()).thenReturn(1L);
+        Mockito.when(userVmDaoMock.listRunningByHostId(1L)).thenReturn(new ArrayList<UserVmVO>());
+        Mockito.when(userVmManagerMock.getVirtualMachineStatistics(Mockito.eq(1L), Mockito.any(), Mockito.anyList())).thenReturn(null);
+
+        statsCollector.new VmStatsCollector().collectVmStats(host);
+    }
+
+    @Test
+    public void groupVmMetricsForGraphiteTestKeepsSamplesOfSameVm() {
+        Mockito.when(userVmVOMock.getUuid()).thenReturn("vm-uuid");
+        VmStatsEntry first = new VmStatsEntry();
+        first.setUserVmVO(userVmVOMock);
+        first.setCPUUtilization(10);
+        VmStatsEntry second = new VmStatsEntry();
+        second.setUserVmVO(userVmVOMock);
+        second.setCPUUtilization(20);
+
+        Map<Long, Map<Object, Object>> metrics = statsCollector.groupVmMetricsForGraphite(Arrays.asList(new StatsExporter.Sample(first, 1000000L),
+                new StatsExporter.Sample(second, 1060000L)));
+
+        Assert.assertEquals(2, metrics.size());
+        Assert.assertEquals(10.0, metrics.get(1000L).get("cloudstack.stats.instances.vm-uuid.cpu.utilization"));
+        Assert.assertEquals(20.0, metrics.get(1060L).get("cloudstack.stats.instances.vm-uuid.cpu.utilization"));
+    }
+
     @Test
     public void configureExternalStatsPortTestGraphitePort() throws URISyntaxException {
         URI uri = new URI(HOST_ADDRESS);
@@ -283,4 +330,19 @@ public class StatsCollectorTest {
 
         Mockito.verify(vmStatsMock, Mockito.times(1)).remove(Mockito.anyLong());
     }
+
+    @Test
+    public void excludeStatsPushingHostsTestSkipHostsPushingStats() {
+        HostVO pushingHost = Mockito.mock(HostVO.class);
+        Mockito.doReturn(1l).when(pushingHost).getId();
+        HostVO polledHost = Mockito.mock(HostVO.class);
+        Mockito.doReturn(2l).when(polledHost).getId();
+        PingRoutingCommand ping = new PingRoutingCommand(Host.Type.Routing, 1l, new HashMap<>());
+        ping.setPushedStats(new HostStatsEntry(), new HashMap<>(), 60);
+
+        statsCollector.ingestPushedStats(1l, ping);
+        List<HostVO> hostsToPoll = statsCollector.excludeStatsPushingHosts(Arrays.asList(pushingHost, polledHost));
+
+        Assert.assertEquals(Arrays.asList(polledHost), hostsToPoll);
+    }
 }
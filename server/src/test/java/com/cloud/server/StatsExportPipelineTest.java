@@ -0,0 +1,98 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+package com.cloud.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+public class StatsExportPipelineTest {
+
+    private StatsExporter exporter = Mockito.mock(StatsExporter.class);
+
+    @Test
+    public void addDropsOldestEntryWhenBufferIsFull() throws InterruptedException {
+        StatsExportPipeline pipeline = new StatsExportPipeline(exporter, 2, 10, 0, 0);
+
+        pipeline.add(1);
+        pipeline.add(2);
+        pipeline.add(3);
+
+        Assert.assertEquals(2, pipeline.getQueued());
+        Assert.assertEquals(1, pipeline.getDropped());
+    }
+
+    @Test
+    public void writeBatchRetriesFailedExport() throws InterruptedException {
+        StatsExportPipeline pipeline = new StatsExportPipeline(exporter, 10, 10, 2, 0);
+        List<StatsExporter.Sample> batch = new ArrayList<StatsExporter.Sample>(Arrays.asList(new StatsExporter.Sample(1, 0L), new StatsExporter.Sample(2, 0L)));
+        Mockito.doThrow(new CloudRuntimeException("unreachable")).doNothing().when(exporter).export(batch);
+
+        Assert.assertTrue(pipeline.writeBatch(batch));
+
+        Mockito.verify(exporter, Mockito.times(2)).export(batch);
+        Mockito.verify(exporter).close();
+        Assert.assertEquals(2, pipeline.getExported());
+        Assert.assertEquals(0, pipeline.getDropped());
+    }
+
+    @Test
+    public void writeBatchDropsBatchAfterRetries() throws InterruptedException {
+        StatsExportPipeline pipeline = new StatsExportPipeline(exporter, 10, 10, 1, 0);
+        List<StatsExporter.Sample> batch = new ArrayList<StatsExporter.Sample>(Arrays.asList(new StatsExporter.Sample(1, 0L), new StatsExporter.Sample(2, 0L),
+                new StatsExporter.Sample(3, 0L)));
+        Mockito.doThrow(new CloudRuntimeException("unreachable")).when(exporter).export(batch);
+
+        Assert.assertFalse(pipeline.writeBatch(batch));
+
+        Mockito.verify(exporter, Mockito.times(2)).export(batch);
+        Assert.assertEquals(0, pipeline.getExported());
+        Assert.assertEquals(3, pipeline.getDropped());
+        Assert.assertEquals(1, pipeline.getFailedBatches());
+    }
+
+    @Test
+    public void stopClosesExporterAfterTheExportInProgress() throws InterruptedException {
+        StatsExportPipeline pipeline = new StatsExportPipeline(exporter, 10, 10, 0, 0);
+        CountDownLatch exporting = new CountDownLatch(1);
+        Mockito.doAnswer(invocation -> {
+            exporting.countDown();
+            Thread.sleep(200);
+            return null;
+        }).when(exporter).export(Mockito.anyList());
+        pipeline.start();
+        pipeline.add(1);
+        Assert.assertTrue(exporting.await(5, TimeUnit.SECONDS));
+
+        pipeline.stop();
+
+        InOrder inOrder = Mockito.inOrder(exporter);
+        inOrder.verify(exporter).export(Mockito.anyList());
+        inOrder.verify(exporter).close();
+    }
+}
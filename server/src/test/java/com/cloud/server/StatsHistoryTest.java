@@ -0,0 +1,111 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+package com.cloud.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StatsHistoryTest {
+
+    private static final String[] METRICS = {"cpuused", "networkreadkbs"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void summarizeReturnsMinAvgMaxAndP95() {
+        StatsHistory history = new StatsHistory("host", METRICS, 1, 100, null);
+        for (int i = 1; i <= 20; i++) {
+            history.record(1L, i * 1000L, i, 100 - i);
+        }
+
+        Map<String, StatsHistory.Summary> summaries = history.summarize(1L, 100000L, 20000L);
+
+        StatsHistory.Summary cpu = summaries.get("cpuused");
+        Assert.assertEquals(20, cpu.getSamples());
+        Assert.assertEquals(1, cpu.getMin(), 0);
+        Assert.assertEquals(10.5, cpu.getAvg(), 0.001);
+        Assert.assertEquals(20, cpu.getMax(), 0);
+        Assert.assertEquals(19, cpu.getP95(), 0);
+        Assert.assertEquals(99, summaries.get("networkreadkbs").getMax(), 0);
+    }
+
+    @Test
+    public void summarizeOnlyIncludesSamplesInWindow() {
+        StatsHistory history = new StatsHistory("vm", METRICS, 1, 10, null);
+        for (int i = 1; i <= 25; i++) {
+            history.record(2L, i * 1000L, i, 0);
+        }
+
+        Assert.assertEquals(10, history.summarize(2L, 60000L, 25000L).get("cpuused").getSamples());
+        Assert.assertEquals(16, history.summarize(2L, 60000L, 25000L).get("cpuused").getMin(), 0);
+        Assert.assertEquals(6, history.summarize(2L, 5000L, 25000L).get("cpuused").getSamples());
+        Assert.assertNull(history.summarize(3L, 5000L, 25000L));
+    }
+
+    @Test
+    public void mappedHistorySurvivesRestart() throws IOException {
+        File directory = folder.newFolder();
+        StatsHistory history = new StatsHistory("host", METRICS, 1, 60, directory);
+        history.record(1L, 5000L, 42, 7);
+
+        StatsHistory reloaded = new StatsHistory("host", METRICS, 1, 60, directory);
+        reloaded.record(1L, 6000L, 44, 9);
+
+        Map<String, StatsHistory.Summary> summaries = reloaded.summarize(1L, 60000L, 6000L);
+        Assert.assertEquals(2, summaries.get("cpuused").getSamples());
+        Assert.assertEquals(43, summaries.get("cpuused").getAvg(), 0.001);
+
+        reloaded.remove(1L);
+        Assert.assertFalse(new File(directory, "host-1.stats").exists());
+    }
+
+    @Test
+    public void mappedHistoryIsLoadedOnRestart() throws IOException {
+        File directory = folder.newFolder();
+        new StatsHistory("vm", METRICS, 1, 60, directory).record(3L, 5000L, 42, 7);
+
+        StatsHistory reloaded = new StatsHistory("vm", METRICS, 1, 60, directory);
+
+        Assert.assertEquals(1, reloaded.size());
+        Assert.assertEquals(1, reloaded.summarize(3L, 60000L, 6000L).get("cpuused").getSamples());
+        Assert.assertEquals(0, new StatsHistory("host", METRICS, 1, 60, directory).size());
+    }
+
+    @Test
+    public void purgeDropsResourcesWithoutRecentSamples() throws IOException {
+        File directory = folder.newFolder();
+        StatsHistory history = new StatsHistory("vm", METRICS, 1, 10, directory);
+        history.record(1L, 5000L, 1, 1);
+        history.record(2L, 20000L, 2, 2);
+
+        history.purge(21000L);
+
+        Assert.assertNull(history.summarize(1L, 10000L, 21000L));
+        Assert.assertNotNull(history.summarize(2L, 10000L, 21000L));
+        Assert.assertFalse(new File(directory, "vm-1.stats").exists());
+        Assert.assertTrue(new File(directory, "vm-2.stats").exists());
+    }
+}
@@ -29,11 +29,15 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.cloud.capacity.CapacityManager;
 import com.cloud.configuration.Resource;
+import com.cloud.host.HostVO;
+import com.cloud.host.dao.HostDao;
 import com.cloud.hypervisor.Hypervisor;
 import com.cloud.storage.DiskOfferingVO;
 import com.cloud.storage.VMTemplateVO;
@@ -151,6 +155,12 @@ public class UserVmManagerImplTest {
     @Mock
     ResourceLimitService resourceLimitMgr;
 
+    @Mock
+    private HostDao hostDao;
+
+    @Mock
+    private CapacityManager capacityManager;
+
     private long vmId = 1l;
 
     private static final long GiB_TO_BYTES = 1024 * 1024 * 1024;
@@ -546,6 +556,42 @@ public class UserVmManagerImplTest {
         prepareAndRunResizeVolumeTest(2L, 10L, 20L, largerDisdkOffering, smallerDisdkOffering);
     }
 
+    @Test
+    public void releaseUnusedBatchReservationsTestFailedVm() {
+        long plannedHostId = 2l;
+        Mockito.when(userVmVoMock.getId()).thenReturn(vmId);
+        Mockito.when(userVmVoMock.getState()).thenReturn(VirtualMachine.State.Stopped);
+        Mockito.when(userVmVoMock.getLastHostId()).thenReturn(plannedHostId);
+        UserVmVO vmForUpdate = Mockito.mock(UserVmVO.class);
+        Mockito.when(userVmDao.createForUpdate()).thenReturn(vmForUpdate);
+        HostVO host = Mockito.mock(HostVO.class);
+        Mockito.when(hostDao.findById(plannedHostId)).thenReturn(host);
+
+        Map<Long, Long> plannedHosts = new HashMap<>();
+        plannedHosts.put(vmId, plannedHostId);
+        List<UserVm> vms = userVmManagerImpl.releaseUnusedBatchReservations(Collections.singletonList(userVmVoMock), plannedHosts);
+
+        assertEquals(1, vms.size());
+        Mockito.verify(vmForUpdate).setLastHostId(null);
+        Mockito.verify(userVmDao).update(vmId, vmForUpdate);
+        Mockito.verify(capacityManager).updateCapacityForHost(host);
+    }
+
+    @Test
+    public void releaseUnusedBatchReservationsTestVmRunningOnPlannedHost() {
+        long plannedHostId = 2l;
+        Mockito.when(userVmVoMock.getId()).thenReturn(vmId);
+        Mockito.when(userVmVoMock.getState()).thenReturn(VirtualMachine.State.Running);
+        Mockito.when(userVmVoMock.getHostId()).thenReturn(plannedHostId);
+
+        Map<Long, Long> plannedHosts = new HashMap<>();
+        plannedHosts.put(vmId, plannedHostId);
+        userVmManagerImpl.releaseUnusedBatchReservations(Collections.singletonList(userVmVoMock), plannedHosts);
+
+        Mockito.verify(userVmDao, Mockito.never()).createForUpdate();
+        Mockito.verify(capacityManager, Mockito.never()).updateCapacityForHost(any(HostVO.class));
+    }
+
     private void prepareAndRunResizeVolumeTest(Long expectedOfferingId, long expectedMinIops, long expectedMaxIops, DiskOfferingVO currentRootDiskOffering, DiskOfferingVO newRootDiskOffering) {
         long rootVolumeId = 1l;
         VolumeVO rootVolumeOfVm = Mockito.mock(VolumeVO.class);
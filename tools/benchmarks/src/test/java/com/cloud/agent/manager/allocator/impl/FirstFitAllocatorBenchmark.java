@@ -0,0 +1,260 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager.allocator.impl;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.cloud.agent.manager.allocator.HostAllocator;
+import com.cloud.capacity.Capacity;
+import com.cloud.capacity.CapacityManager;
+import com.cloud.capacity.CapacityVO;
+import com.cloud.capacity.HostCapacityIndexImpl;
+import com.cloud.capacity.dao.CapacityDao;
+import com.cloud.dc.ClusterDetailsDao;
+import com.cloud.dc.ClusterDetailsVO;
+import com.cloud.deploy.DataCenterDeployment;
+import com.cloud.deploy.DeploymentPlanner.ExcludeList;
+import com.cloud.gpu.dao.HostGpuGroupsDao;
+import com.cloud.host.Host;
+import com.cloud.host.HostVO;
+import com.cloud.host.Status;
+import com.cloud.host.dao.HostDao;
+import com.cloud.host.dao.HostDetailsDao;
+import com.cloud.hypervisor.Hypervisor.HypervisorType;
+import com.cloud.hypervisor.dao.HypervisorCapabilitiesDao;
+import com.cloud.offering.ServiceOffering;
+import com.cloud.resource.ResourceManager;
+import com.cloud.resource.ResourceState;
+import com.cloud.service.dao.ServiceOfferingDetailsDao;
+import com.cloud.storage.GuestOSCategoryVO;
+import com.cloud.storage.GuestOSVO;
+import com.cloud.storage.VMTemplateVO;
+import com.cloud.storage.dao.GuestOSCategoryDao;
+import com.cloud.storage.dao.GuestOSDao;
+import com.cloud.utils.Pair;
+import com.cloud.utils.db.SearchCriteria;
+import com.cloud.vm.dao.VMInstanceDao;
+
+/**
+ * Plans a VM against a zone of synthetic XenServer hosts of which only the
+ * last ones have enough free capacity, so FirstFitAllocator has to check
+ * every host, either through the in-memory HostCapacityIndex or through the
+ * per host database checks.
+ *
+ * The DAOs are mocks; every call the database path makes costs queryCost
+ * Blackhole tokens to stand in for a database round trip, and the number of
+ * simulated queries per planning is logged at the end of each trial.
+ *
+ * Run with: mvn -Pdeveloper -pl tools/benchmarks -am test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=com.cloud.agent.manager.allocator.impl.FirstFitAllocatorBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FirstFitAllocatorBenchmark {
+    private static final Logger s_logger = Logger.getLogger(FirstFitAllocatorBenchmark.class);
+    private static final long ZONE_ID = 1L;
+    private static final long GB = 1024L * 1024L * 1024L;
+    private static final int HOSTS_PER_CLUSTER = 32;
+
+    @Param({"1500", "10000"})
+    int hosts;
+
+    @Param({"index", "database"})
+    String mode;
+
+    @Param({"1000"})
+    long queryCost;
+
+    private final AtomicLong _queries = new AtomicLong();
+    private final AtomicLong _plannings = new AtomicLong();
+
+    private FirstFitAllocator allocator;
+    private List<HostVO> hostList;
+    private ServiceOffering offering;
+    private VMTemplateVO template;
+    private HostCapacityIndexImpl index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        hostList = new ArrayList<HostVO>(hosts);
+        List<CapacityVO> capacities = new ArrayList<CapacityVO>(hosts * 2);
+        List<ClusterDetailsVO> clusterDetails = new ArrayList<ClusterDetailsVO>();
+        for (long id = 1; id <= hosts; id++) {
+            long clusterId = (id - 1) / HOSTS_PER_CLUSTER + 1;
+            HostVO host = new HostVO(id, "host-" + id, Host.Type.Routing, null, null, null, null, null, null, null, null, null, "guid-" + id, Status.Up, null, null,
+                    null, ZONE_ID, 1L, 1L, 0L, 32, 2000L, 256 * GB, 0L, "hvm");
+            host.setClusterId(clusterId);
+            host.setHypervisorType(HypervisorType.XenServer);
+            host.setHypervisorVersion("8.2");
+            host.setResourceState(ResourceState.Enabled);
+            hostList.add(host);
+
+            // only the last 1% of the hosts can take the VM
+            long usedMemory = id > hosts - hosts / 100 ? 64 * GB : 254 * GB;
+            capacities.add(new CapacityVO(id, ZONE_ID, 1L, clusterId, 16000L, 64000L, Capacity.CAPACITY_TYPE_CPU));
+            capacities.add(new CapacityVO(id, ZONE_ID, 1L, clusterId, usedMemory, 256 * GB, Capacity.CAPACITY_TYPE_MEMORY));
+            if (id % HOSTS_PER_CLUSTER == 1) {
+                clusterDetails.add(new ClusterDetailsVO(clusterId, "cpuOvercommitRatio", "1.0"));
+                clusterDetails.add(new ClusterDetailsVO(clusterId, "memoryOvercommitRatio", "1.0"));
+            }
+        }
+
+        offering = stub(ServiceOffering.class);
+        when(offering.getId()).thenReturn(1L);
+        when(offering.getCpu()).thenReturn(2);
+        when(offering.getSpeed()).thenReturn(1000);
+        when(offering.getRamSize()).thenReturn(4096);
+
+        template = stub(VMTemplateVO.class);
+        when(template.isRequiresHvm()).thenReturn(false);
+        when(template.getGuestOSId()).thenReturn(1L);
+        GuestOSVO guestOS = stub(GuestOSVO.class);
+        when(guestOS.getCategoryId()).thenReturn(7L);
+        GuestOSCategoryVO category = stub(GuestOSCategoryVO.class);
+        when(category.getId()).thenReturn(7L);
+        when(category.getName()).thenReturn("Linux");
+
+        allocator = new FirstFitAllocator();
+        allocator._allocationAlgorithm = "firstfit";
+        allocator._guestOSDao = stub(GuestOSDao.class);
+        when(allocator._guestOSDao.findById(anyLong())).thenReturn(guestOS);
+        allocator._guestOSCategoryDao = stub(GuestOSCategoryDao.class);
+        when(allocator._guestOSCategoryDao.findById(anyLong())).thenReturn(category);
+        when(allocator._guestOSCategoryDao.listAll()).thenReturn(Collections.singletonList(category));
+        allocator._serviceOfferingDetailsDao = stub(ServiceOfferingDetailsDao.class);
+        allocator._hostDetailsDao = stub(HostDetailsDao.class);
+        when(allocator._hostDetailsDao.findDetail(anyLong(), anyString())).thenAnswer(invocation -> query(1, null));
+        allocator._resourceMgr = stub(ResourceManager.class);
+        when(allocator._resourceMgr.isHostGpuEnabled(anyLong())).thenAnswer(invocation -> query(1, false));
+        allocator._capacityMgr = stub(CapacityManager.class);
+        // checkIfHostReachMaxGuestLimit counts the VMs and reads the hypervisor capabilities,
+        // checkIfHostHasCpuCapabilityAndCapacity reads the cluster, its two ratios, the host and its two capacities
+        when(allocator._capacityMgr.checkIfHostReachMaxGuestLimit(any(Host.class))).thenAnswer(invocation -> query(2, false));
+        when(allocator._capacityMgr.checkIfHostHasCpuCapabilityAndCapacity(any(Host.class), any(ServiceOffering.class), anyBoolean())).thenAnswer(invocation -> {
+            HostVO host = invocation.getArgument(0);
+            return query(6, new Pair<Boolean, Boolean>(true, host.getId() > hosts - hosts / 100));
+        });
+
+        if ("index".equals(mode)) {
+            HostDao hostDao = stub(HostDao.class);
+            when(hostDao.listByDataCenterId(ZONE_ID)).thenReturn(hostList);
+            CapacityDao capacityDao = stub(CapacityDao.class);
+            when(capacityDao.createSearchCriteria()).thenReturn(stub(SearchCriteria.class));
+            when(capacityDao.search(any(), any())).thenReturn(capacities);
+            ClusterDetailsDao clusterDetailsDao = stub(ClusterDetailsDao.class);
+            when(clusterDetailsDao.createSearchCriteria()).thenReturn(stub(SearchCriteria.class));
+            when(clusterDetailsDao.search(any(), any())).thenReturn(clusterDetails);
+            HostDetailsDao hostDetailsDao = stub(HostDetailsDao.class);
+            when(hostDetailsDao.createSearchCriteria()).thenReturn(stub(SearchCriteria.class));
+            when(hostDetailsDao.search(any(), any())).thenReturn(Collections.emptyList());
+            HostGpuGroupsDao hostGpuGroupsDao = stub(HostGpuGroupsDao.class);
+            when(hostGpuGroupsDao.listHostIds()).thenReturn(Collections.emptyList());
+            VMInstanceDao vmDao = stub(VMInstanceDao.class);
+            when(vmDao.countActiveByHostIdsInZone(ZONE_ID)).thenReturn(Collections.emptyMap());
+            HypervisorCapabilitiesDao hypervisorCapabilitiesDao = stub(HypervisorCapabilitiesDao.class);
+            when(hypervisorCapabilitiesDao.getMaxGuestsLimit(any(), any())).thenReturn(500L);
+
+            index = new HostCapacityIndexImpl(hostDao, capacityDao, clusterDetailsDao, hostDetailsDao, allocator._guestOSCategoryDao, hostGpuGroupsDao, vmDao,
+                    hypervisorCapabilitiesDao, TimeUnit.HOURS.toMillis(1));
+            when(allocator._capacityMgr.getHostCapacityIndex()).thenReturn(index);
+        } else {
+            when(allocator._capacityMgr.getHostCapacityIndex()).thenReturn(null);
+        }
+        _queries.set(0);
+        _plannings.set(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (_plannings.get() > 0) {
+            s_logger.info(String.format("%s, %d hosts: %d simulated per host queries per planning", mode, hosts, _queries.get() / _plannings.get()));
+        }
+    }
+
+    @Benchmark
+    public List<Host> plan() {
+        _plannings.incrementAndGet();
+        List<Host> candidates = new ArrayList<Host>(hostList);
+        List<Host> suitable = allocator.allocateTo(new DataCenterDeployment(ZONE_ID), offering, template, new ExcludeList(), candidates,
+                HostAllocator.RETURN_UPTO_ALL, true, null);
+        if (suitable.size() != hosts / 100) {
+            throw new IllegalStateException("Expected " + hosts / 100 + " suitable hosts, found " + suitable.size());
+        }
+        return suitable;
+    }
+
+    @Benchmark
+    public Object reloadZone() {
+        if (index == null) {
+            return null;
+        }
+        index.invalidateAll();
+        return index.getHost(ZONE_ID, 1L);
+    }
+
+    private <T> T query(int queries, T result) {
+        _queries.addAndGet(queries);
+        Blackhole.consumeCPU(queryCost * queries);
+        return result;
+    }
+
+    private static <T> T stub(Class<T> clazz) {
+        // stub only mocks do not record their invocations, which would otherwise pile up over millions of calls
+        return mock(clazz, withSettings().stubOnly());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder().include(FirstFitAllocatorBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
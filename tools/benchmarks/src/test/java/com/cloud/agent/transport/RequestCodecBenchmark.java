@@ -0,0 +1,94 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.cloud.agent.api.GetVmStatsAnswer;
+import com.cloud.agent.api.GetVmStatsCommand;
+import com.cloud.agent.transport.Request.Codec;
+
+/**
+ * Compares the Json and JsonStream codecs on a GetVmStatsAnswer of a host
+ * with many VMs, both for encoding and for decoding the answer.
+ *
+ * Run with: mvn -Pdeveloper -pl tools/benchmarks -am test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=com.cloud.agent.transport.RequestCodecBenchmark
+ * and add -prof gc to the options below to compare allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestCodecBenchmark {
+
+    @Param({"10", "200", "1000"})
+    int vms;
+
+    @Param({"Json", "JsonStream"})
+    Codec codec;
+
+    private Request request;
+    private GetVmStatsAnswer answer;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Request.setDefaultCodec(codec);
+        GetVmStatsCommand cmd = RequestTest.createVmStatsCommand(vms);
+        answer = RequestTest.createVmStatsAnswer(cmd);
+        request = new Request(2, 3, cmd, true);
+        encoded = new Response(request, answer).getBytes();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return new Response(request, answer).getBytes();
+    }
+
+    @Benchmark
+    public Object decode() throws Exception {
+        return Response.parse(encoded).getAnswers();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder().include(RequestCodecBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
@@ -19,16 +19,26 @@ package com.cloud.usage;
 import java.net.InetAddress;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
@@ -59,6 +69,7 @@ import com.cloud.usage.dao.UsageNetworkOfferingDao;
 import com.cloud.usage.dao.UsagePortForwardingRuleDao;
 import com.cloud.usage.dao.UsageSecurityGroupDao;
 import com.cloud.usage.dao.UsageBackupDao;
+import com.cloud.usage.dao.UsageCheckpointDao;
 import com.cloud.usage.dao.UsageVMSnapshotOnPrimaryDao;
 import com.cloud.usage.dao.UsageStorageDao;
 import com.cloud.usage.dao.UsageVMInstanceDao;
@@ -73,6 +84,7 @@ import com.cloud.usage.parser.NetworkUsageParser;
 import com.cloud.usage.parser.PortForwardingUsageParser;
 import com.cloud.usage.parser.SecurityGroupUsageParser;
 import com.cloud.usage.parser.StorageUsageParser;
+import com.cloud.usage.parser.UsageRecordBatch;
 import com.cloud.usage.parser.BackupUsageParser;
 import com.cloud.usage.parser.VMInstanceUsageParser;
 import com.cloud.usage.parser.VMSnapshotOnPrimaryParser;
@@ -87,6 +99,8 @@ import com.cloud.user.VmDiskStatisticsVO;
 import com.cloud.user.dao.AccountDao;
 import com.cloud.user.dao.UserStatisticsDao;
 import com.cloud.user.dao.VmDiskStatisticsDao;
+import com.cloud.utils.NumbersUtil;
+import com.cloud.utils.Pair;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.DB;
@@ -157,6 +171,8 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
     @Inject
     private UsageBackupDao usageBackupDao;
     @Inject
+    private UsageCheckpointDao _usageCheckpointDao;
+    @Inject
     private QuotaManager _quotaManager;
     @Inject
     private QuotaAlertManager _alertManager;
@@ -182,6 +198,48 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
     private Future _heartbeat = null;
     private Future _sanity = null;
     private boolean  usageSnapshotSelection = false;
+    private int _parseParallelism = 1;
+    private int _usageRecordBatchSize = 500;
+    private ExecutorService _parserExecutor = null;
+    private final UsageParserStats _parserStats = new UsageParserStats();
+
+    private boolean _incrementalParse = false;
+
+    @FunctionalInterface
+    private interface ParseFunction {
+        boolean parse(AccountVO account, Date startDate, Date endDate);
+    }
+
+    private static class AccountUsageParser {
+        final String name;
+        final String description;
+        final ParseFunction function;
+        // whether the helper table of the parser is only filled from usage events
+        final boolean eventDriven;
+
+        AccountUsageParser(String name, String description, ParseFunction function, boolean eventDriven) {
+            this.name = name;
+            this.description = description;
+            this.function = function;
+            this.eventDriven = eventDriven;
+        }
+    }
+
+    private static final List<AccountUsageParser> s_parsers = Arrays.asList(
+            new AccountUsageParser("VMInstance", "vm usage instances", VMInstanceUsageParser::parse, true),
+            new AccountUsageParser("Network", "network usage", NetworkUsageParser::parse, false),
+            new AccountUsageParser("VmDisk", "vm disk usage", VmDiskUsageParser::parse, false),
+            new AccountUsageParser("Volume", "volume usage", VolumeUsageParser::parse, true),
+            new AccountUsageParser("Storage", "storage usage", StorageUsageParser::parse, true),
+            new AccountUsageParser("SecurityGroup", "Security Group usage", SecurityGroupUsageParser::parse, true),
+            new AccountUsageParser("LoadBalancer", "load balancer usage", LoadBalancerUsageParser::parse, true),
+            new AccountUsageParser("PortForwarding", "port forwarding usage", PortForwardingUsageParser::parse, true),
+            new AccountUsageParser("NetworkOffering", "network offering usage", NetworkOfferingUsageParser::parse, true),
+            new AccountUsageParser("IPAddress", "IPAddress usage", IPAddressUsageParser::parse, true),
+            new AccountUsageParser("VPNUser", "VPN user usage", VPNUserUsageParser::parse, true),
+            new AccountUsageParser("VMSnapshot", "VM Snapshot usage", VMSnapshotUsageParser::parse, true),
+            new AccountUsageParser("VMSnapshotOnPrimary", "VM Snapshot on primary usage", VMSnapshotOnPrimaryParser::parse, true),
+            new AccountUsageParser("Backup", "VM Backup usage", BackupUsageParser::parse, true));
 
     public UsageManagerImpl() {
     }
@@ -225,6 +283,9 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         if (sanityCheckInterval != null) {
             _sanityCheckInterval = Integer.parseInt(sanityCheckInterval);
         }
+        _parseParallelism = NumbersUtil.parseInt(configs.get("usage.parse.parallelism"), 1);
+        _usageRecordBatchSize = NumbersUtil.parseInt(configs.get("usage.parse.batch.size"), 500);
+        _incrementalParse = Boolean.parseBoolean(configs.get("usage.parse.incremental"));
 
         if (aggreagationTimeZone != null && !aggreagationTimeZone.isEmpty()) {
             _usageTimezone = TimeZone.getTimeZone(aggreagationTimeZone);
@@ -307,6 +368,10 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
             _sanity = _sanityExecutor.scheduleAtFixedRate(new SanityCheck(), 1, _sanityCheckInterval, TimeUnit.DAYS);
         }
 
+        if (_parseParallelism > 1) {
+            _parserExecutor = Executors.newFixedThreadPool(_parseParallelism, new NamedThreadFactory("Usage-Parser"));
+        }
+
         TransactionLegacy usageTxn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
         try {
             if (_heartbeatLock.lock(3)) { // 3 second timeout
@@ -336,6 +401,9 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         if (_sanity != null) {
             _sanity.cancel(true);
         }
+        if (_parserExecutor != null) {
+            _parserExecutor.shutdownNow();
+        }
         return true;
     }
 
@@ -643,11 +711,15 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
 
                     // - loop over the list of events and create entries in the helper tables
                     // - create the usage records using the parse methods below
+                    Set<Long> eventAccountIds = new HashSet<Long>();
                     for (UsageEventVO event : events) {
                         event.setProcessed(true);
-                        _usageEventDao.update(event.getId(), event);
                         createHelperRecord(event);
+                        eventAccountIds.add(event.getAccountId());
                     }
+                    _usageEventDao.updateBatch(events);
+                    // the accounts may have something to bill again
+                    _usageCheckpointDao.markActive(eventAccountIds);
                 }
 
                 // TODO:  Fetch a maximum number of user stats and process them before moving on to the next range of user stats
@@ -759,83 +831,62 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
 
                 boolean parsed = false;
                 numAcctsProcessed = 0;
+                _parserStats.reset();
 
-                Date currentStartDate = startDate;
-                Date currentEndDate = endDate;
-                Date tempDate = endDate;
+                List<Pair<Date, Date>> aggregationRanges = getAggregationRanges(startDate, endDate);
+                if (_parseParallelism > 1) {
+                    parsed = parseInParallel(aggregationRanges, recentlyDeletedDate);
+                } else {
+                    try (UsageRecordBatch usageRecordBatch = UsageRecordBatch.open(_usageDao, _usageRecordBatchSize)) {
+                        for (Pair<Date, Date> aggregationRange : aggregationRanges) {
+                            Date currentStartDate = aggregationRange.first();
+                            Date currentEndDate = aggregationRange.second();
+                            Long offset = Long.valueOf(0);
+                            Long limit = Long.valueOf(500);
+
+                            do {
+                                Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
+                                accounts = _accountDao.listAll(filter);
+                                if ((accounts != null) && !accounts.isEmpty()) {
+                                    for (AccountVO account : accounts) {
+                                        parsed = parseHelperTables(account, currentStartDate, currentEndDate);
+                                        numAcctsProcessed++;
+                                    }
+                                }
+                                offset = new Long(offset.longValue() + limit.longValue());
+                            } while ((accounts != null) && !accounts.isEmpty());
 
-                Calendar aggregateCal = Calendar.getInstance(_usageTimezone);
+                            if (s_logger.isDebugEnabled()) {
+                                s_logger.debug("processed VM/Network Usage for " + numAcctsProcessed + " ACTIVE accts");
+                            }
+                            numAcctsProcessed = 0;
 
-                while ((tempDate.after(startDate)) && ((tempDate.getTime() - startDate.getTime()) > 60000)) {
-                    currentEndDate = tempDate;
-                    aggregateCal.setTime(tempDate);
-                    aggregateCal.add(Calendar.MINUTE, -_aggregationDuration);
-                    tempDate = aggregateCal.getTime();
-                }
+                            // reset offset
+                            offset = Long.valueOf(0);
 
-                while (!currentEndDate.after(endDate) || (currentEndDate.getTime() - endDate.getTime() < 60000)) {
-                    Long offset = Long.valueOf(0);
-                    Long limit = Long.valueOf(500);
-
-                    do {
-                        Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
-                        accounts = _accountDao.listAll(filter);
-                        if ((accounts != null) && !accounts.isEmpty()) {
-                            for (AccountVO account : accounts) {
-                                parsed = parseHelperTables(account, currentStartDate, currentEndDate);
-                                numAcctsProcessed++;
-                            }
-                        }
-                        offset = new Long(offset.longValue() + limit.longValue());
-                    } while ((accounts != null) && !accounts.isEmpty());
+                            do {
+                                Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
 
-                    if (s_logger.isDebugEnabled()) {
-                        s_logger.debug("processed VM/Network Usage for " + numAcctsProcessed + " ACTIVE accts");
-                    }
-                    numAcctsProcessed = 0;
-
-                    // reset offset
-                    offset = Long.valueOf(0);
-
-                    do {
-                        Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
-
-                        accounts = _accountDao.findRecentlyDeletedAccounts(null, recentlyDeletedDate, filter);
-
-                        if ((accounts != null) && !accounts.isEmpty()) {
-                            for (AccountVO account : accounts) {
-                                parsed = parseHelperTables(account, currentStartDate, currentEndDate);
-                                List<Long> publicTemplates = _usageDao.listPublicTemplatesByAccount(account.getId());
-                                for (Long templateId : publicTemplates) {
-                                    //mark public templates owned by deleted accounts as deleted
-                                    List<UsageStorageVO> storageVOs = _usageStorageDao.listById(account.getId(), templateId, StorageTypes.TEMPLATE);
-                                    if (storageVOs.size() > 1) {
-                                        s_logger.warn("More that one usage entry for storage: " + templateId + " assigned to account: " + account.getId() +
-                                                "; marking them all as deleted...");
-                                    }
-                                    for (UsageStorageVO storageVO : storageVOs) {
-                                        if (s_logger.isDebugEnabled()) {
-                                            s_logger.debug("deleting template: " + storageVO.getId() + " from account: " + storageVO.getAccountId());
-                                        }
-                                        storageVO.setDeleted(account.getRemoved());
-                                        _usageStorageDao.update(storageVO);
+                                accounts = _accountDao.findRecentlyDeletedAccounts(null, recentlyDeletedDate, filter);
+
+                                if ((accounts != null) && !accounts.isEmpty()) {
+                                    for (AccountVO account : accounts) {
+                                        parsed = parseHelperTables(account, currentStartDate, currentEndDate);
+                                        markPublicTemplatesDeleted(account);
+                                        numAcctsProcessed++;
                                     }
                                 }
-                                numAcctsProcessed++;
-                            }
+                                offset = new Long(offset.longValue() + limit.longValue());
+                            } while ((accounts != null) && !accounts.isEmpty());
                         }
-                        offset = new Long(offset.longValue() + limit.longValue());
-                    } while ((accounts != null) && !accounts.isEmpty());
-
-                    currentStartDate = new Date(currentEndDate.getTime() + 1);
-                    aggregateCal.setTime(currentEndDate);
-                    aggregateCal.add(Calendar.MINUTE, _aggregationDuration);
-                    currentEndDate = aggregateCal.getTime();
-                }
+                        usageRecordBatch.flush();
+                    }
 
-                if (s_logger.isDebugEnabled()) {
-                    s_logger.debug("processed Usage for " + numAcctsProcessed + " RECENTLY DELETED accts");
+                    if (s_logger.isDebugEnabled()) {
+                        s_logger.debug("processed Usage for " + numAcctsProcessed + " RECENTLY DELETED accts");
+                    }
                 }
+                logParserStats();
 
                 // FIXME: we don't break the above loop if something fails to parse, so it gets reset every account,
                 //        do we want to break out of processing accounts and rollback if there are errors?
@@ -874,103 +925,186 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         }
     }
 
-    private boolean parseHelperTables(AccountVO account, Date currentStartDate, Date currentEndDate) {
+    /**
+     * Parses the usage of the account between currentStartDate and currentEndDate. With incremental parsing,
+     * the period is clipped to what each parser has not parsed yet, and the event driven parsers which found
+     * nothing to bill in their last run are skipped until a usage event of the account is processed.
+     * With incremental or parallel parsing, a checkpoint of each parser is saved with the usage records,
+     * so the parsers which already covered the period are skipped when the period is parsed again.
+     */
+    protected boolean parseHelperTables(AccountVO account, Date currentStartDate, Date currentEndDate) {
         boolean parsed = false;
-
-        parsed = VMInstanceUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("vm usage instances successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+        UsageRecordBatch usageRecordBatch = UsageRecordBatch.current();
+        Map<String, UsageCheckpointVO> checkpoints = getCheckpoints(account);
+        List<UsageCheckpointVO> newCheckpoints = new ArrayList<UsageCheckpointVO>();
+
+        for (AccountUsageParser parser : s_parsers) {
+            Date parserStartDate = currentStartDate;
+            UsageCheckpointVO checkpoint = checkpoints.get(parser.name);
+            if (checkpoint != null) {
+                if (!checkpoint.getProcessedUntil().before(currentEndDate)
+                        || (_incrementalParse && checkpoint.isIdle() && parser.eventDriven && account.getRemoved() == null)) {
+                    _parserStats.recordSkipped(parser.description);
+                    parsed = true;
+                    continue;
+                }
+                if (!checkpoint.getProcessedUntil().before(parserStartDate)) {
+                    parserStartDate = new Date(checkpoint.getProcessedUntil().getTime() + 1);
+                }
             }
-        }
 
-        parsed = NetworkUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("network usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+            long recordsBefore = usageRecordBatch == null ? 0 : usageRecordBatch.getRecordCount();
+            long parseStart = System.nanoTime();
+            parsed = parser.function.parse(account, parserStartDate, currentEndDate);
+            long records = usageRecordBatch == null ? -1 : usageRecordBatch.getRecordCount() - recordsBefore;
+            _parserStats.record(parser.description, System.nanoTime() - parseStart, Math.max(records, 0));
+            if (s_logger.isDebugEnabled()) {
+                if (!parsed) {
+                    s_logger.debug(parser.description + " successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+                }
             }
-        }
-
-        parsed = VmDiskUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("vm disk usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+            if (isCheckpointing() && parsed) {
+                newCheckpoints.add(new UsageCheckpointVO(account.getId(), parser.name, currentEndDate, records == 0));
             }
         }
+        _usageCheckpointDao.saveCheckpoints(newCheckpoints);
+        return parsed;
+    }
 
-        parsed = VolumeUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("volume usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
-        }
+    /**
+     * The parser threads commit separately, the checkpoints let a re-run of a period which failed
+     * on some of the threads skip the accounts the other threads committed.
+     */
+    private boolean isCheckpointing() {
+        return _incrementalParse || _parseParallelism > 1;
+    }
 
-        parsed = StorageUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("storage usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
+    private Map<String, UsageCheckpointVO> getCheckpoints(AccountVO account) {
+        if (!isCheckpointing()) {
+            return Collections.emptyMap();
         }
-
-        parsed = SecurityGroupUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("Security Group usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
+        Map<String, UsageCheckpointVO> checkpoints = new HashMap<String, UsageCheckpointVO>();
+        for (UsageCheckpointVO checkpoint : _usageCheckpointDao.listByAccount(account.getId())) {
+            checkpoints.put(checkpoint.getUsageParser(), checkpoint);
         }
+        return checkpoints;
+    }
 
-        parsed = LoadBalancerUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("load balancer usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+    private void markPublicTemplatesDeleted(AccountVO account) {
+        List<Long> publicTemplates = _usageDao.listPublicTemplatesByAccount(account.getId());
+        for (Long templateId : publicTemplates) {
+            //mark public templates owned by deleted accounts as deleted
+            List<UsageStorageVO> storageVOs = _usageStorageDao.listById(account.getId(), templateId, StorageTypes.TEMPLATE);
+            if (storageVOs.size() > 1) {
+                s_logger.warn("More that one usage entry for storage: " + templateId + " assigned to account: " + account.getId() +
+                        "; marking them all as deleted...");
+            }
+            for (UsageStorageVO storageVO : storageVOs) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("deleting template: " + storageVO.getId() + " from account: " + storageVO.getAccountId());
+                }
+                storageVO.setDeleted(account.getRemoved());
+                _usageStorageDao.update(storageVO);
             }
         }
+    }
 
-        parsed = PortForwardingUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("port forwarding usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
+    /**
+     * Splits the period between startDate and endDate into the aggregation ranges usage records are created for.
+     */
+    protected List<Pair<Date, Date>> getAggregationRanges(Date startDate, Date endDate) {
+        List<Pair<Date, Date>> aggregationRanges = new ArrayList<Pair<Date, Date>>();
+        Date currentStartDate = startDate;
+        Date currentEndDate = endDate;
+        Date tempDate = endDate;
+
+        Calendar aggregateCal = Calendar.getInstance(_usageTimezone);
+
+        while ((tempDate.after(startDate)) && ((tempDate.getTime() - startDate.getTime()) > 60000)) {
+            currentEndDate = tempDate;
+            aggregateCal.setTime(tempDate);
+            aggregateCal.add(Calendar.MINUTE, -_aggregationDuration);
+            tempDate = aggregateCal.getTime();
         }
 
-        parsed = NetworkOfferingUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("network offering usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
+        while (!currentEndDate.after(endDate) || (currentEndDate.getTime() - endDate.getTime() < 60000)) {
+            aggregationRanges.add(new Pair<Date, Date>(currentStartDate, currentEndDate));
+
+            currentStartDate = new Date(currentEndDate.getTime() + 1);
+            aggregateCal.setTime(currentEndDate);
+            aggregateCal.add(Calendar.MINUTE, _aggregationDuration);
+            currentEndDate = aggregateCal.getTime();
         }
+        return aggregationRanges;
+    }
 
-        parsed = IPAddressUsageParser.parse(account, currentStartDate, currentEndDate);
+    /**
+     * Parses the active and recently deleted accounts on the usage parser threads, each thread taking a share
+     * of the accounts in its own transaction. The transactions are only committed once every thread has parsed
+     * its share, and are rolled back if any thread failed by then. The commits of the threads are not atomic:
+     * if one fails after others committed, the checkpoints saved with their usage records keep a re-run of the
+     * period from creating the records of those accounts again.
+     */
+    protected boolean parseInParallel(List<Pair<Date, Date>> aggregationRanges, final Date recentlyDeletedDate) throws InterruptedException {
+        List<AccountVO> activeAccounts = listAccounts(filter -> _accountDao.listAll(filter));
+        List<AccountVO> deletedAccounts = listAccounts(filter -> _accountDao.findRecentlyDeletedAccounts(null, recentlyDeletedDate, filter));
         if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("IPAddress usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
+            s_logger.debug("Parsing usage of " + activeAccounts.size() + " ACTIVE and " + deletedAccounts.size() + " RECENTLY DELETED accts on " + _parseParallelism +
+                    " threads");
         }
-        parsed = VPNUserUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("VPN user usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
+
+        int parsers = Math.max(Math.min(_parseParallelism, activeAccounts.size() + deletedAccounts.size()), 1);
+        CountDownLatch parsedLatch = new CountDownLatch(parsers);
+        AtomicBoolean failed = new AtomicBoolean(false);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(parsers);
+        for (int i = 0; i < parsers; i++) {
+            results.add(_parserExecutor.submit(new AccountsParser(partition(activeAccounts, i, parsers), partition(deletedAccounts, i, parsers), aggregationRanges,
+                    parsedLatch, failed)));
         }
-        parsed = VMSnapshotUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("VM Snapshot usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+
+        boolean parsed = false;
+        for (Future<Boolean> result : results) {
+            try {
+                parsed |= result.get();
+            } catch (ExecutionException e) {
+                s_logger.error("Usage parser thread failed", e.getCause());
+                failed.set(true);
             }
         }
-        parsed = VMSnapshotOnPrimaryParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("VM Snapshot on primary usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
+        return parsed && !failed.get();
+    }
+
+    private List<AccountVO> listAccounts(Function<Filter, List<AccountVO>> lister) {
+        List<AccountVO> allAccounts = new ArrayList<AccountVO>();
+        Long offset = Long.valueOf(0);
+        Long limit = Long.valueOf(500);
+        List<AccountVO> accounts = null;
+        do {
+            accounts = lister.apply(new Filter(AccountVO.class, "id", true, offset, limit));
+            if (accounts != null) {
+                allAccounts.addAll(accounts);
+            }
+            offset = offset + limit;
+        } while ((accounts != null) && !accounts.isEmpty());
+        return allAccounts;
+    }
+
+    /**
+     * Every partitions-th item of the list, starting at index, so accounts are spread evenly over the parser threads.
+     */
+    protected static <T> List<T> partition(List<T> items, int index, int partitions) {
+        List<T> partition = new ArrayList<T>(items.size() / partitions + 1);
+        for (int i = index; i < items.size(); i += partitions) {
+            partition.add(items.get(i));
         }
-        parsed = BackupUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("VM Backup usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
+        return partition;
+    }
+
+    private void logParserStats() {
+        if (s_logger.isInfoEnabled() && !_parserStats.isEmpty()) {
+            s_logger.info("Usage parsers throughput with " + _parseParallelism + " thread(s):" + _parserStats);
         }
-        return parsed;
+        _parserStats.reset();
     }
 
     private void createHelperRecord(UsageEventVO event) {
@@ -2153,6 +2287,64 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         }
     }
 
+    private class AccountsParser implements Callable<Boolean> {
+        private final List<AccountVO> _activeAccounts;
+        private final List<AccountVO> _deletedAccounts;
+        private final List<Pair<Date, Date>> _aggregationRanges;
+        private final CountDownLatch _parsedLatch;
+        private final AtomicBoolean _failed;
+
+        AccountsParser(List<AccountVO> activeAccounts, List<AccountVO> deletedAccounts, List<Pair<Date, Date>> aggregationRanges, CountDownLatch parsedLatch,
+                AtomicBoolean failed) {
+            _activeAccounts = activeAccounts;
+            _deletedAccounts = deletedAccounts;
+            _aggregationRanges = aggregationRanges;
+            _parsedLatch = parsedLatch;
+            _failed = failed;
+        }
+
+        @Override
+        public Boolean call() throws InterruptedException {
+            boolean parsed = false;
+            TransactionLegacy usageTxn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
+            try (UsageRecordBatch usageRecordBatch = UsageRecordBatch.open(_usageDao, _usageRecordBatchSize)) {
+                try {
+                    usageTxn.start();
+                    for (Pair<Date, Date> aggregationRange : _aggregationRanges) {
+                        for (AccountVO account : _activeAccounts) {
+                            parsed = parseHelperTables(account, aggregationRange.first(), aggregationRange.second());
+                        }
+                        for (AccountVO account : _deletedAccounts) {
+                            parsed = parseHelperTables(account, aggregationRange.first(), aggregationRange.second());
+                            markPublicTemplatesDeleted(account);
+                        }
+                    }
+                    usageRecordBatch.flush();
+                } catch (Exception e) {
+                    s_logger.error("Exception parsing usage of " + (_activeAccounts.size() + _deletedAccounts.size()) + " accts", e);
+                    _failed.set(true);
+                } finally {
+                    _parsedLatch.countDown();
+                }
+
+                // wait for the other parser threads, so that nothing is committed if any of them failed to parse
+                _parsedLatch.await();
+                if (_failed.get()) {
+                    usageTxn.rollback();
+                } else {
+                    usageTxn.commit();
+                }
+            } catch (Exception e) {
+                _failed.set(true);
+                usageTxn.rollback();
+                throw e;
+            } finally {
+                usageTxn.close();
+            }
+            return parsed;
+        }
+    }
+
     private class SanityCheck extends ManagedContextRunnable {
         @Override
         protected void runInContext() {
@@ -0,0 +1,90 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput of the usage parsers over a usage job, shared by the parser threads.
+ */
+public class UsageParserStats {
+    private final Map<String, ParserStats> _parsers = new ConcurrentSkipListMap<String, ParserStats>();
+
+    public void record(String parser, long elapsedNanos, long records) {
+        ParserStats stats = _parsers.computeIfAbsent(parser, k -> new ParserStats());
+        stats.accounts.increment();
+        stats.elapsedNanos.add(elapsedNanos);
+        stats.records.add(records);
+    }
+
+    /**
+     * Records an account the parser had nothing to parse for, per its checkpoint.
+     */
+    public void recordSkipped(String parser) {
+        _parsers.computeIfAbsent(parser, k -> new ParserStats()).skipped.increment();
+    }
+
+    public long getAccounts(String parser) {
+        ParserStats stats = _parsers.get(parser);
+        return stats == null ? 0 : stats.accounts.sum();
+    }
+
+    public long getRecords(String parser) {
+        ParserStats stats = _parsers.get(parser);
+        return stats == null ? 0 : stats.records.sum();
+    }
+
+    public long getSkipped(String parser) {
+        ParserStats stats = _parsers.get(parser);
+        return stats == null ? 0 : stats.skipped.sum();
+    }
+
+    public boolean isEmpty() {
+        return _parsers.isEmpty();
+    }
+
+    public void reset() {
+        _parsers.clear();
+    }
+
+    /**
+     * One line per parser with the accounts parsed, the records created, the time spent in it and
+     * the accounts skipped, summed over the parser threads.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, ParserStats> entry : _parsers.entrySet()) {
+            ParserStats stats = entry.getValue();
+            long accounts = stats.accounts.sum();
+            long millis = TimeUnit.NANOSECONDS.toMillis(stats.elapsedNanos.sum());
+            sb.append(String.format("%n  %s: %d accounts, %d records in %d ms (%.1f accounts/s), %d accounts skipped", entry.getKey(), accounts, stats.records.sum(),
+                    millis, millis == 0 ? 0.0 : accounts * 1000.0 / millis, stats.skipped.sum()));
+        }
+        return sb.toString();
+    }
+
+    private static class ParserStats {
+        final LongAdder accounts = new LongAdder();
+        final LongAdder elapsedNanos = new LongAdder();
+        final LongAdder records = new LongAdder();
+        final LongAdder skipped = new LongAdder();
+    }
+}
@@ -90,7 +90,7 @@ public class BackupUsageParser {
                     new UsageVO(zoneId, account.getAccountId(), account.getDomainId(), description, usageDisplay + " Hrs",
                             UsageTypes.BACKUP, new Double(usage), vmId, null, offeringId, null, vmId,
                             usageBackup.getSize(), usageBackup.getProtectedSize(), startDate, endDate);
-            s_usageDao.persist(usageRecord);
+            UsageRecordBatch.persist(s_usageDao, usageRecord);
         }
 
         return true;
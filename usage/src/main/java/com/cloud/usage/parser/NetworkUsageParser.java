@@ -138,7 +138,7 @@ public class NetworkUsageParser {
             }
         }
 
-        s_usageDao.saveUsageRecords(usageRecords);
+        UsageRecordBatch.persist(s_usageDao, usageRecords);
 
         return true;
     }
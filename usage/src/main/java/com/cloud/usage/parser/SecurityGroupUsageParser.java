@@ -157,7 +157,7 @@ public class SecurityGroupUsageParser {
         UsageVO usageRecord =
             new UsageVO(zoneId, account.getId(), account.getDomainId(), usageDesc, usageDisplay + " Hrs", type, new Double(usage), vmId, null, null, null, sgId, null,
                 startDate, endDate);
-        s_usageDao.persist(usageRecord);
+        UsageRecordBatch.persist(s_usageDao, usageRecord);
     }
 
     private static class SGInfo {
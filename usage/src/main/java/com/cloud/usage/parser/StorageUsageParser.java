@@ -197,7 +197,7 @@ public class StorageUsageParser {
         UsageVO usageRecord =
             new UsageVO(zoneId, account.getId(), account.getDomainId(), usageDesc, usageDisplay + " Hrs", usage_type, new Double(usage), null, null, null, tmplSourceId,
                 storageId, size, virtualSize, startDate, endDate);
-        s_usageDao.persist(usageRecord);
+        UsageRecordBatch.persist(s_usageDao, usageRecord);
     }
 
     private static class StorageInfo {
@@ -0,0 +1,116 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.cloud.usage.UsageVO;
+import com.cloud.usage.dao.UsageDao;
+
+/**
+ * Buffers the usage records created by the parsers on the current thread, so they
+ * are written to cloud_usage in JDBC batches instead of one insert per record.
+ * Without a batch open on the thread, records are persisted right away.
+ */
+public class UsageRecordBatch implements AutoCloseable {
+    private static final ThreadLocal<UsageRecordBatch> s_current = new ThreadLocal<UsageRecordBatch>();
+
+    private final UsageDao _usageDao;
+    private final int _batchSize;
+    private final List<UsageVO> _records;
+    private long _recordCount;
+
+    private UsageRecordBatch(UsageDao usageDao, int batchSize) {
+        _usageDao = usageDao;
+        _batchSize = Math.max(batchSize, 1);
+        _records = new ArrayList<UsageVO>(_batchSize);
+    }
+
+    /**
+     * Opens a batch for the records created on the current thread, to be closed by the same thread.
+     */
+    public static UsageRecordBatch open(UsageDao usageDao, int batchSize) {
+        if (s_current.get() != null) {
+            throw new IllegalStateException("A usage record batch is already open on this thread");
+        }
+        UsageRecordBatch batch = new UsageRecordBatch(usageDao, batchSize);
+        s_current.set(batch);
+        return batch;
+    }
+
+    public static UsageRecordBatch current() {
+        return s_current.get();
+    }
+
+    public static void persist(UsageDao usageDao, UsageVO usageRecord) {
+        UsageRecordBatch batch = s_current.get();
+        if (batch == null) {
+            usageDao.persist(usageRecord);
+        } else {
+            batch.add(usageRecord);
+        }
+    }
+
+    public static void persist(UsageDao usageDao, List<UsageVO> usageRecords) {
+        UsageRecordBatch batch = s_current.get();
+        if (batch == null) {
+            usageDao.saveUsageRecords(usageRecords);
+        } else {
+            for (UsageVO usageRecord : usageRecords) {
+                batch.add(usageRecord);
+            }
+        }
+    }
+
+    private void add(UsageVO usageRecord) {
+        _records.add(usageRecord);
+        _recordCount++;
+        if (_records.size() >= _batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the buffered records, in the transaction of the current thread.
+     */
+    public void flush() {
+        if (_records.isEmpty()) {
+            return;
+        }
+        _usageDao.saveUsageRecords(_records);
+        _records.clear();
+    }
+
+    /**
+     * Number of records created since the batch was opened, written or not.
+     */
+    public long getRecordCount() {
+        return _recordCount;
+    }
+
+    /**
+     * Detaches the batch from the thread, dropping the records which were not flushed.
+     */
+    @Override
+    public void close() {
+        _records.clear();
+        if (s_current.get() == this) {
+            s_current.remove();
+        }
+    }
+}
@@ -125,7 +125,7 @@ public class VMSnapshotOnPrimaryParser {
 
         UsageVO usageRecord = new UsageVO(zoneId, account.getId(), account.getDomainId(), usageDesc, usageDisplay + " Hrs", usageType, new Double(usage), vmId, name, null, null,
                 vmSnapshotId, physicalSize, virtualSize, startDate, endDate);
-        s_usageDao.persist(usageRecord);
+        UsageRecordBatch.persist(s_usageDao, usageRecord);
     }
 
 }
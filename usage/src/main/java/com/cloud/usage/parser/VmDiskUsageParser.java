@@ -166,7 +166,7 @@ public class VmDiskUsageParser {
             }
         }
 
-        s_usageDao.saveUsageRecords(usageRecords);
+        UsageRecordBatch.persist(s_usageDao, usageRecords);
 
         return true;
     }
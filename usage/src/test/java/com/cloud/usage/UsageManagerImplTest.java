@@ -17,10 +17,15 @@
 package com.cloud.usage;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 
 import com.cloud.event.dao.UsageEventDetailsDao;
+import com.cloud.usage.dao.UsageCheckpointDao;
 import com.cloud.usage.dao.UsageVMSnapshotDao;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -28,6 +33,7 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.Spy;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import com.cloud.event.EventTypes;
 import com.cloud.event.UsageEventVO;
@@ -58,6 +64,9 @@ public class UsageManagerImplTest {
     @Mock
     private AccountDao accountDaoMock;
 
+    @Mock
+    private UsageCheckpointDao usageCheckpointDaoMock;
+
     @Mock
     private UsageVPNUserVO vpnUserMock;
 
@@ -243,4 +252,30 @@ public class UsageManagerImplTest {
         Mockito.verify(usageManagerImpl, Mockito.never()).createUsageVpnUser(usageEventVOMock,accountMock);
         Mockito.verify(usageManagerImpl, Mockito.never()).deleteUsageVpnUser(usageEventVOMock, accountMock);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void partitionTestSpreadsItemsEvenly() {
+        List<Long> accountIds = Arrays.asList(1L, 2L, 3L, 4L, 5L);
+
+        Assert.assertEquals(Arrays.asList(1L, 4L), UsageManagerImpl.partition(accountIds, 0, 3));
+        Assert.assertEquals(Arrays.asList(2L, 5L), UsageManagerImpl.partition(accountIds, 1, 3));
+        Assert.assertEquals(Arrays.asList(3L), UsageManagerImpl.partition(accountIds, 2, 3));
+    }
+
+    @Test
+    public void parseHelperTablesTestParallelRerunSkipsCommittedParsers() {
+        // the parser threads commit separately, a re-run of the period must not parse the accounts already committed again
+        ReflectionTestUtils.setField(usageManagerImpl, "_parseParallelism", 2);
+        Date startDate = new Date(0);
+        Date endDate = new Date(3600000L - 1);
+        List<UsageCheckpointVO> checkpoints = new ArrayList<UsageCheckpointVO>();
+        for (String parser : Arrays.asList("VMInstance", "Network", "VmDisk", "Volume", "Storage", "SecurityGroup", "LoadBalancer", "PortForwarding",
+                "NetworkOffering", "IPAddress", "VPNUser", "VMSnapshot", "VMSnapshotOnPrimary", "Backup")) {
+            checkpoints.add(new UsageCheckpointVO(accountMockId, parser, endDate, false));
+        }
+        Mockito.when(usageCheckpointDaoMock.listByAccount(accountMockId)).thenReturn(checkpoints);
+
+        Assert.assertTrue(usageManagerImpl.parseHelperTables(accountMock, startDate, endDate));
+        Mockito.verify(usageCheckpointDaoMock).saveCheckpoints(Collections.<UsageCheckpointVO>emptyList());
+    }
+}
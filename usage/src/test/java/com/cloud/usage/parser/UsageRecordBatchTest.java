@@ -0,0 +1,77 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.cloud.usage.UsageVO;
+import com.cloud.usage.dao.UsageDao;
+
+@RunWith(MockitoJUnitRunner.class)
+public class UsageRecordBatchTest {
+
+    @Mock
+    private UsageDao usageDaoMock;
+
+    @Test
+    public void persistTestNoBatchOpen() {
+        UsageVO usageRecord = new UsageVO();
+
+        UsageRecordBatch.persist(usageDaoMock, usageRecord);
+
+        Mockito.verify(usageDaoMock).persist(usageRecord);
+        Mockito.verify(usageDaoMock, Mockito.never()).saveUsageRecords(Mockito.anyList());
+    }
+
+    @Test
+    public void persistTestWritesFullBatches() {
+        List<Integer> batchSizes = new ArrayList<Integer>();
+        Mockito.doAnswer(invocation -> batchSizes.add(((List<?>)invocation.getArgument(0)).size())).when(usageDaoMock).saveUsageRecords(Mockito.anyList());
+
+        try (UsageRecordBatch batch = UsageRecordBatch.open(usageDaoMock, 2)) {
+            UsageRecordBatch.persist(usageDaoMock, new UsageVO());
+            Assert.assertTrue(batchSizes.isEmpty());
+
+            UsageRecordBatch.persist(usageDaoMock, Arrays.asList(new UsageVO(), new UsageVO()));
+            Assert.assertEquals(Arrays.asList(2), batchSizes);
+
+            batch.flush();
+            Assert.assertEquals(Arrays.asList(2, 1), batchSizes);
+            Assert.assertEquals(3, batch.getRecordCount());
+        }
+        Mockito.verify(usageDaoMock, Mockito.never()).persist(Mockito.any(UsageVO.class));
+    }
+
+    @Test
+    public void closeTestDropsUnflushedRecords() {
+        try (UsageRecordBatch batch = UsageRecordBatch.open(usageDaoMock, 10)) {
+            UsageRecordBatch.persist(usageDaoMock, new UsageVO());
+        }
+
+        Assert.assertNull(UsageRecordBatch.current());
+        Mockito.verify(usageDaoMock, Mockito.never()).saveUsageRecords(Mockito.anyList());
+    }
+}
@@ -21,12 +21,83 @@ package com.cloud.utils;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 import org.apache.commons.io.FileUtils;
 
 public class FileUtil {
+    private static final int SPARSE_COPY_BUFFER_SIZE = 1024 * 1024;
+    private static final int SPARSE_COPY_BLOCK_SIZE = 64 * 1024;
 
     public static void copyfile(File source, File destination) throws IOException {
         FileUtils.copyFile(source, destination);
     }
+
+    /**
+     * Copies the file, leaving holes in the destination wherever a block of the source only holds zeros,
+     * so that sparse disk images stay sparse instead of being fully allocated as with a plain copy.
+     * Zeros are still written when the destination is not a regular file, e.g. a block device.
+     */
+    public static void copySparseFile(File source, File destination) throws IOException {
+        copySparseFile(source, destination, 0);
+    }
+
+    /**
+     * Copies the file sparsely like {@link #copySparseFile(File, File)}, failing with an IOException when the copy
+     * is not done within the timeout, in milliseconds; a timeout of 0 or less waits for the copy to finish.
+     */
+    public static void copySparseFile(File source, File destination, long timeout) throws IOException {
+        final long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+        final boolean skipZeros = !destination.exists() || destination.isFile();
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(destination.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final long size = in.size();
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(SPARSE_COPY_BUFFER_SIZE);
+            long position = 0;
+            while (position < size) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Timed out after " + timeout + " ms copying " + source + " to " + destination + ", copied " + position + " of " + size + " bytes");
+                }
+                buffer.clear();
+                final int read = in.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                for (int offset = 0; offset < read; offset += SPARSE_COPY_BLOCK_SIZE) {
+                    buffer.limit(Math.min(offset + SPARSE_COPY_BLOCK_SIZE, read));
+                    buffer.position(offset);
+                    if (skipZeros && isZeroBlock(buffer)) {
+                        continue;
+                    }
+                    long writePosition = position + offset;
+                    while (buffer.hasRemaining()) {
+                        writePosition += out.write(buffer, writePosition);
+                    }
+                }
+                position += read;
+            }
+            // a trailing hole is not written, extend the file to its full size
+            if (skipZeros && out.size() < position) {
+                out.write(ByteBuffer.allocate(1), position - 1);
+            }
+        }
+    }
+
+    private static boolean isZeroBlock(ByteBuffer block) {
+        int index = block.position();
+        final int limit = block.limit();
+        for (; index + Long.BYTES <= limit; index += Long.BYTES) {
+            if (block.getLong(index) != 0) {
+                return false;
+            }
+        }
+        for (; index < limit; index++) {
+            if (block.get(index) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -63,22 +63,29 @@ public class HttpUtils {
         resp.addHeader("content-security-policy","style-src=self");
     }
 
+    /**
+     * Sets the content type, status and security headers of the response, before its body is written.
+     */
+    public static void prepareHttpResponse(final HttpServletResponse resp, final Integer responseCode, final String responseType, final String jsonContentType) {
+        if (RESPONSE_TYPE_JSON.equalsIgnoreCase(responseType)) {
+            if (jsonContentType != null && !jsonContentType.isEmpty()) {
+                resp.setContentType(jsonContentType);
+            } else {
+                resp.setContentType(JSON_CONTENT_TYPE);
+            }
+        } else if (RESPONSE_TYPE_XML.equalsIgnoreCase(responseType)){
+            resp.setContentType(XML_CONTENT_TYPE);
+        }
+        if (responseCode != null) {
+            resp.setStatus(responseCode);
+        }
+        addSecurityHeaders(resp);
+    }
+
     public static void writeHttpResponse(final HttpServletResponse resp, final String response,
                                          final Integer responseCode, final String responseType, final String jsonContentType) {
         try {
-            if (RESPONSE_TYPE_JSON.equalsIgnoreCase(responseType)) {
-                if (jsonContentType != null && !jsonContentType.isEmpty()) {
-                    resp.setContentType(jsonContentType);
-                } else {
-                    resp.setContentType(JSON_CONTENT_TYPE);
-                }
-            } else if (RESPONSE_TYPE_XML.equalsIgnoreCase(responseType)){
-                resp.setContentType(XML_CONTENT_TYPE);
-            }
-            if (responseCode != null) {
-                resp.setStatus(responseCode);
-            }
-            addSecurityHeaders(resp);
+            prepareHttpResponse(resp, responseCode, responseType, jsonContentType);
             resp.getWriter().print(response);
         } catch (final IOException ioex) {
             if (s_logger.isTraceEnabled()) {
@@ -33,16 +33,19 @@ import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.SSLEngine;
 
@@ -57,7 +60,7 @@ import com.cloud.utils.exception.NioConnectionException;
  * NioConnection abstracts the NIO socket operations.  The Java implementation
  * provides that.
  */
-public abstract class NioConnection implements Callable<Boolean> {
+public abstract class NioConnection implements Callable<Boolean>, NioConnectionMBean {
     private static final Logger s_logger = Logger.getLogger(NioConnection.class);;
 
     protected Selector _selector;
@@ -70,17 +73,29 @@ public abstract class NioConnection implements Callable<Boolean> {
     protected List<ChangeRequest> _todos;
     protected HandlerFactory _factory;
     protected String _name;
-    protected ExecutorService _executor;
+    // Each link is served by one single threaded worker, so its tasks run in the order its data was read
+    protected final ThreadPoolExecutor[] _workerExecutors;
     protected ExecutorService _sslHandshakeExecutor;
     protected CAService caService;
 
+    // Backpressure: once this many tasks are waiting for a worker, reading is paused on the links
+    // that have data until the workers catch up, so the load is pushed back onto the senders.
+    protected int _workerQueueLimit = 0;
+    protected final Set<SelectionKey> _parkedKeys = Collections.newSetFromMap(new ConcurrentHashMap<SelectionKey, Boolean>());
+    protected final AtomicLong _backpressureCount = new AtomicLong();
+    protected volatile int _peakWorkerQueueSize = 0;
+
     public NioConnection(final String name, final int port, final int workers, final HandlerFactory factory) {
         _name = name;
         _isRunning = false;
         _selector = null;
         _port = port;
         _factory = factory;
-        _executor = new ThreadPoolExecutor(workers, 5 * workers, 1, TimeUnit.DAYS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(name + "-Handler"));
+        final NamedThreadFactory workerThreadFactory = new NamedThreadFactory(name + "-Handler");
+        _workerExecutors = new ThreadPoolExecutor[Math.max(workers, 1)];
+        for (int i = 0; i < _workerExecutors.length; i++) {
+            _workerExecutors[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), workerThreadFactory);
+        }
         _sslHandshakeExecutor = Executors.newCachedThreadPool(new NamedThreadFactory(name + "-SSLHandshakeHandler"));
     }
 
@@ -88,6 +103,45 @@ public abstract class NioConnection implements Callable<Boolean> {
         this.caService = caService;
     }
 
+    /**
+     * @param workerQueueLimit number of tasks waiting for a worker above which reads are paused, 0 for no limit.
+     */
+    public void setWorkerQueueLimit(final int workerQueueLimit) {
+        _workerQueueLimit = workerQueueLimit;
+    }
+
+    @Override
+    public int getWorkerQueueLimit() {
+        return _workerQueueLimit;
+    }
+
+    @Override
+    public int getWorkerQueueSize() {
+        int queueSize = 0;
+        for (final ThreadPoolExecutor executor : _workerExecutors) {
+            queueSize += executor.getQueue().size();
+        }
+        return queueSize;
+    }
+
+    @Override
+    public int getPeakWorkerQueueSize() {
+        return _peakWorkerQueueSize;
+    }
+
+    /**
+     * @return number of times reading from a link was paused because the workers were behind.
+     */
+    @Override
+    public long getBackpressureCount() {
+        return _backpressureCount.get();
+    }
+
+    @Override
+    public int getParkedLinkCount() {
+        return _parkedKeys.size();
+    }
+
     public void start() throws NioConnectionException {
         _todos = new ArrayList<ChangeRequest>();
 
@@ -111,7 +165,9 @@ public abstract class NioConnection implements Callable<Boolean> {
     }
 
     public void stop() {
-        _executor.shutdown();
+        for (final ThreadPoolExecutor executor : _workerExecutors) {
+            executor.shutdown();
+        }
         _isRunning = false;
         if (_threadExecutor != null) {
             _futureTask.cancel(false);
@@ -169,6 +225,7 @@ public abstract class NioConnection implements Callable<Boolean> {
                 s_logger.trace("Keys Done Processing.");
 
                 processTodos();
+                unparkReads();
             } catch (final ClosedSelectorException e) {
                 /*
                  * Exception occurred when calling java.nio.channels.Selector.selectedKeys() method. It means the connection has not yet been established. Let's continue trying
@@ -189,6 +246,13 @@ public abstract class NioConnection implements Callable<Boolean> {
 
     abstract void unregisterLink(InetSocketAddress saddr);
 
+    /**
+     * @return the connection whose selector and workers serve a newly accepted link.
+     */
+    protected NioConnection selectConnectionForLink() {
+        return this;
+    }
+
     protected void accept(final SelectionKey key) throws IOException {
         final ServerSocketChannel serverSocketChannel = (ServerSocketChannel)key.channel();
         final SocketChannel socketChannel = serverSocketChannel.accept();
@@ -206,7 +270,7 @@ public abstract class NioConnection implements Callable<Boolean> {
             sslEngine = Link.initServerSSLEngine(caService, socketChannel.getRemoteAddress().toString());
             sslEngine.setUseClientMode(false);
             sslEngine.setEnabledProtocols(SSLUtils.getSupportedProtocols(sslEngine.getEnabledProtocols()));
-            final NioConnection nioConnection = this;
+            final NioConnection nioConnection = selectConnectionForLink();
             _sslHandshakeExecutor.submit(new Runnable() {
                 @Override
                 public void run() {
@@ -222,10 +286,11 @@ public abstract class NioConnection implements Callable<Boolean> {
                         final InetSocketAddress saddr = (InetSocketAddress)socket.getRemoteSocketAddress();
                         final Link link = new Link(saddr, nioConnection);
                         link.setSSLEngine(sslEngine);
-                        link.setKey(socketChannel.register(key.selector(), SelectionKey.OP_READ, link));
+                        nioConnection._selector.wakeup();
+                        link.setKey(socketChannel.register(nioConnection._selector, SelectionKey.OP_READ, link));
                         final Task task = _factory.create(Task.Type.CONNECT, link, null);
                         registerLink(saddr, link);
-                        _executor.submit(task);
+                        nioConnection.scheduleTask(task);
                     } catch (IOException e) {
                         if (s_logger.isTraceEnabled()) {
                             s_logger.trace("Connection closed due to failure: " + e.getMessage());
@@ -256,16 +321,15 @@ public abstract class NioConnection implements Callable<Boolean> {
             final Task task = _factory.create(Task.Type.DISCONNECT, link, null);
             unregisterLink(link.getSocketAddress());
 
-            try {
-                _executor.submit(task);
-            } catch (final Exception e) {
-                s_logger.warn("Exception occurred when submitting the task", e);
-            }
+            scheduleTask(task);
         }
     }
 
     protected void read(final SelectionKey key) throws IOException {
         final Link link = (Link)key.attachment();
+        if (parkReadIfBusy(key)) {
+            return;
+        }
         try {
             final SocketChannel socketChannel = (SocketChannel)key.channel();
             if (s_logger.isTraceEnabled()) {
@@ -280,17 +344,62 @@ public abstract class NioConnection implements Callable<Boolean> {
             }
             final Task task = _factory.create(Task.Type.DATA, link, data);
 
-            try {
-                _executor.submit(task);
-            } catch (final Exception e) {
-                s_logger.warn("Exception occurred when submitting the task", e);
-            }
+            scheduleTask(task);
         } catch (final Exception e) {
             logDebug(e, key, 1);
             terminate(key);
         }
     }
 
+    /**
+     * Stops reading from the key while the workers have more than the limit of tasks waiting.
+     * @return true if the key has been parked and must not be read from now.
+     */
+    protected boolean parkReadIfBusy(final SelectionKey key) {
+        if (_workerQueueLimit <= 0) {
+            return false;
+        }
+        final int queueSize = getWorkerQueueSize();
+        if (queueSize > _peakWorkerQueueSize) {
+            _peakWorkerQueueSize = queueSize;
+        }
+        if (queueSize < _workerQueueLimit) {
+            return false;
+        }
+        try {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        } catch (final CancelledKeyException e) {
+            return true;
+        }
+        if (_parkedKeys.add(key)) {
+            _backpressureCount.incrementAndGet();
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("Pausing reads from " + key.attachment() + ", " + queueSize + " tasks are waiting for workers");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Resumes reading from the parked keys once the workers have caught up to half the limit.
+     */
+    protected void unparkReads() {
+        if (_parkedKeys.isEmpty() || getWorkerQueueSize() > _workerQueueLimit / 2) {
+            return;
+        }
+        for (final Iterator<SelectionKey> i = _parkedKeys.iterator(); i.hasNext();) {
+            final SelectionKey key = i.next();
+            i.remove();
+            try {
+                if (key.isValid()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                }
+            } catch (final CancelledKeyException e) {
+                s_logger.debug("key has been cancelled");
+            }
+        }
+    }
+
     protected void logTrace(final Exception e, final SelectionKey key, final int loc) {
         if (s_logger.isTraceEnabled()) {
             Socket socket = null;
@@ -409,11 +518,7 @@ public abstract class NioConnection implements Callable<Boolean> {
             key.attach(link);
             final Task task = _factory.create(Task.Type.CONNECT, link, null);
 
-            try {
-                _executor.submit(task);
-            } catch (final Exception e) {
-                s_logger.warn("Exception occurred when submitting the task", e);
-            }
+            scheduleTask(task);
         } catch (final IOException e) {
             logTrace(e, key, 2);
             terminate(key);
@@ -422,12 +527,20 @@ public abstract class NioConnection implements Callable<Boolean> {
 
     protected void scheduleTask(final Task task) {
         try {
-            _executor.submit(task);
+            getWorkerExecutor(task.getLink()).submit(task);
         } catch (final Exception e) {
             s_logger.warn("Exception occurred when submitting the task", e);
         }
     }
 
+    /**
+     * @return the worker that runs all the tasks of the link.
+     */
+    protected ExecutorService getWorkerExecutor(final Link link) {
+        final int hash = link == null ? 0 : System.identityHashCode(link);
+        return _workerExecutors[(hash & Integer.MAX_VALUE) % _workerExecutors.length];
+    }
+
     protected void write(final SelectionKey key) throws IOException {
         final Link link = (Link)key.attachment();
         try {
@@ -0,0 +1,48 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+
+/**
+ * Load of the workers handling the messages read from the links of a connection.
+ */
+public interface NioConnectionMBean {
+
+    /**
+     * @return number of tasks waiting for a worker above which reads are paused, 0 for no limit
+     */
+    int getWorkerQueueLimit();
+
+    /**
+     * @return number of tasks waiting for a worker
+     */
+    int getWorkerQueueSize();
+
+    int getPeakWorkerQueueSize();
+
+    /**
+     * @return number of times reading from a link was paused because the workers were behind
+     */
+    long getBackpressureCount();
+
+    /**
+     * @return number of links whose reads are paused
+     */
+    int getParkedLinkCount();
+}
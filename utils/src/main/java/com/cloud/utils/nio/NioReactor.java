@@ -0,0 +1,61 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.spi.SelectorProvider;
+
+/**
+ * NioReactor is one of the selectors of a NioServer running with more than
+ * one reactor. It serves the links handed to it by the server, from reading
+ * through to its own pool of workers, so a link always stays on the same
+ * selector and worker pool for as long as it is connected.
+ */
+class NioReactor extends NioConnection {
+    private final NioServer _server;
+
+    NioReactor(final String name, final int workers, final HandlerFactory factory, final NioServer server) {
+        super(name, 0, workers, factory);
+        _server = server;
+    }
+
+    @Override
+    protected void init() throws IOException {
+        _selector = SelectorProvider.provider().openSelector();
+    }
+
+    /**
+     * @return the number of links currently served by this reactor.
+     */
+    int getLinkCount() {
+        return _selector == null ? 0 : _selector.keys().size();
+    }
+
+    @Override
+    protected void registerLink(final InetSocketAddress saddr, final Link link) {
+        _server.registerLink(saddr, link);
+    }
+
+    @Override
+    protected void unregisterLink(final InetSocketAddress saddr) {
+        _server.unregisterLink(saddr);
+    }
+}
@@ -25,11 +25,21 @@ import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.WeakHashMap;
 
 import org.apache.cloudstack.framework.ca.CAService;
 import org.apache.log4j.Logger;
 
+import com.cloud.utils.exception.NioConnectionException;
+
+/**
+ * NioServer accepts the connections on its own selector. With more than one
+ * reactor, the accepted links are spread over that many NioReactors, each with
+ * its own selector thread and pool of workers, instead of all being served by
+ * the accepting selector.
+ */
 public class NioServer extends NioConnection {
     private final static Logger s_logger = Logger.getLogger(NioServer.class);
 
@@ -38,11 +48,24 @@ public class NioServer extends NioConnection {
 
     protected WeakHashMap<InetSocketAddress, Link> _links;
 
+    protected final int _workers;
+    protected final int _reactorCount;
+    protected final List<NioReactor> _reactors = new ArrayList<NioReactor>();
+
     public NioServer(final String name, final int port, final int workers, final HandlerFactory factory, final CAService caService) {
+        this(name, port, workers, 1, factory, caService);
+    }
+
+    /**
+     * @param reactors number of selectors the links are spread over, each with a pool of workers threads.
+     */
+    public NioServer(final String name, final int port, final int workers, final int reactors, final HandlerFactory factory, final CAService caService) {
         super(name, port, workers, factory);
         setCAService(caService);
         _localAddr = null;
         _links = new WeakHashMap<InetSocketAddress, Link>(1024);
+        _workers = workers;
+        _reactorCount = Math.max(reactors, 1);
     }
 
     public int getPort() {
@@ -61,12 +84,99 @@ public class NioServer extends NioConnection {
 
         _serverSocket.register(_selector, SelectionKey.OP_ACCEPT, null);
 
-        s_logger.info("NioServer started and listening on " + _serverSocket.socket().getLocalSocketAddress());
+        if (_reactorCount > 1) {
+            startReactors();
+        }
+
+        s_logger.info("NioServer started and listening on " + _serverSocket.socket().getLocalSocketAddress() + " with " + _reactorCount + " reactor(s)");
+    }
+
+    private void startReactors() throws IOException {
+        for (int i = 0; i < _reactorCount; i++) {
+            final NioReactor reactor = new NioReactor(_name + "-Reactor-" + i, _workers, _factory, this);
+            reactor.setWorkerQueueLimit(_workerQueueLimit);
+            try {
+                reactor.start();
+            } catch (final NioConnectionException e) {
+                throw new IOException("Unable to start reactor " + i + " of " + _name, e);
+            }
+            _reactors.add(reactor);
+        }
+    }
+
+    @Override
+    protected NioConnection selectConnectionForLink() {
+        NioReactor selected = null;
+        for (final NioReactor reactor : _reactors) {
+            if (selected == null || reactor.getLinkCount() < selected.getLinkCount()) {
+                selected = reactor;
+            }
+        }
+        return selected != null ? selected : this;
+    }
+
+    @Override
+    public void setWorkerQueueLimit(final int workerQueueLimit) {
+        super.setWorkerQueueLimit(workerQueueLimit);
+        for (final NioReactor reactor : _reactors) {
+            reactor.setWorkerQueueLimit(workerQueueLimit);
+        }
+    }
+
+    public int getReactorCount() {
+        return _reactorCount;
+    }
+
+    @Override
+    public int getWorkerQueueSize() {
+        int queueSize = super.getWorkerQueueSize();
+        for (final NioReactor reactor : _reactors) {
+            queueSize += reactor.getWorkerQueueSize();
+        }
+        return queueSize;
+    }
+
+    @Override
+    public int getPeakWorkerQueueSize() {
+        int peak = super.getPeakWorkerQueueSize();
+        for (final NioReactor reactor : _reactors) {
+            peak = Math.max(peak, reactor.getPeakWorkerQueueSize());
+        }
+        return peak;
+    }
+
+    @Override
+    public long getBackpressureCount() {
+        long count = super.getBackpressureCount();
+        for (final NioReactor reactor : _reactors) {
+            count += reactor.getBackpressureCount();
+        }
+        return count;
+    }
+
+    @Override
+    public int getParkedLinkCount() {
+        int count = super.getParkedLinkCount();
+        for (final NioReactor reactor : _reactors) {
+            count += reactor.getParkedLinkCount();
+        }
+        return count;
+    }
+
+    @Override
+    public void stop() {
+        for (final NioReactor reactor : _reactors) {
+            reactor.stop();
+        }
+        super.stop();
     }
 
     @Override
     public void cleanUp() throws IOException {
         super.cleanUp();
+        for (final NioReactor reactor : _reactors) {
+            reactor.cleanUp();
+        }
         if (_serverSocket != null) {
             _serverSocket.close();
         }
@@ -75,12 +185,16 @@ public class NioServer extends NioConnection {
 
     @Override
     protected void registerLink(final InetSocketAddress addr, final Link link) {
-        _links.put(addr, link);
+        synchronized (_links) {
+            _links.put(addr, link);
+        }
     }
 
     @Override
     protected void unregisterLink(final InetSocketAddress saddr) {
-        _links.remove(saddr);
+        synchronized (_links) {
+            _links.remove(saddr);
+        }
     }
 
     /**
@@ -93,7 +207,10 @@ public class NioServer extends NioConnection {
      * @return null if not sent.  attach object in link if sent.
      */
     public Object send(final InetSocketAddress saddr, final byte[] data) throws ClosedChannelException {
-        final Link link = _links.get(saddr);
+        final Link link;
+        synchronized (_links) {
+            link = _links.get(saddr);
+        }
         if (link == null) {
             return null;
         }
@@ -32,9 +32,11 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.cloudstack.utils.security.KeyStoreUtils;
@@ -58,13 +60,20 @@ public class Script implements Callable<String> {
 
     private boolean _passwordCommand = false;
 
-    private static final ScheduledExecutorService s_executors = Executors.newScheduledThreadPool(10, new NamedThreadFactory("Script"));
+    /* only runs the timeout checks, which return right away */
+    private static final ScheduledExecutorService s_executors = Executors.newScheduledThreadPool(2, new NamedThreadFactory("Script"));
+    /* drains the output of the running processes, a drain lasts as long as its process so it must not hold up the timeout checks */
+    private static final ExecutorService s_outputDrainers = Executors.newCachedThreadPool(new NamedThreadFactory("ScriptOutput"));
+    /* bounds the number of processes forked at the same time, unbounded when null */
+    private static volatile Semaphore s_processPermits;
 
     String _workDir;
     ArrayList<String> _command;
     long _timeout;
     Process _process;
     Thread _thread;
+    OutputInterpreter _errorInterpreter;
+    boolean _longRunning;
 
     public boolean isTimeout() {
         return _isTimeOut;
@@ -140,6 +149,30 @@ public class Script implements Callable<String> {
         _workDir = workDir;
     }
 
+    /**
+     * Streams the standard error of the process to the given interpreter instead of merging it into the standard output.
+     */
+    public void setErrorInterpreter(OutputInterpreter errorInterpreter) {
+        _errorInterpreter = errorInterpreter;
+    }
+
+    /**
+     * Marks the command as long running, e.g. a disk conversion, so it is not counted against the limit of concurrent
+     * processes; a few of them holding every slot for hours would make the short commands time out waiting for one.
+     */
+    public void setLongRunning(boolean longRunning) {
+        _longRunning = longRunning;
+    }
+
+    /**
+     * Limits the number of processes executed at the same time, except the long running ones; callers wait, within
+     * their timeout, for one to finish.
+     * @param maxConcurrentProcesses the limit, 0 or less for none
+     */
+    public static void setMaxConcurrentProcesses(int maxConcurrentProcesses) {
+        s_processPermits = maxConcurrentProcesses > 0 ? new Semaphore(maxConcurrentProcesses, true) : null;
+    }
+
     protected String buildCommandLine(String[] command) {
         StringBuilder builder = new StringBuilder();
         boolean obscureParam = false;
@@ -204,6 +237,57 @@ public class Script implements Callable<String> {
     }
 
     public String execute(OutputInterpreter interpreter) {
+        final Semaphore permits = _longRunning ? null : s_processPermits;
+        if (permits != null) {
+            try {
+                if (!permits.tryAcquire(_timeout, TimeUnit.MILLISECONDS)) {
+                    _logger.warn("Timed out waiting for a process slot to execute: " + buildCommandLine(_command));
+                    return ERR_TIMEOUT;
+                }
+            } catch (InterruptedException e) {
+                return ERR_EXECUTE;
+            }
+        }
+
+        final long startTime = System.currentTimeMillis();
+        String result = null;
+        try {
+            result = executeProcess(interpreter);
+            return result;
+        } finally {
+            if (permits != null) {
+                permits.release();
+            }
+            final long duration = System.currentTimeMillis() - startTime;
+            if (_logger.isTraceEnabled()) {
+                _logger.trace("Execution took " + duration + "ms: " + buildCommandLine(_command));
+            }
+            ScriptStats.record(getStatsKey(), duration, !isSuccessful(), _isTimeOut || ERR_TIMEOUT.equals(result));
+        }
+    }
+
+    private boolean isSuccessful() {
+        try {
+            return _process != null && _process.exitValue() == 0;
+        } catch (IllegalThreadStateException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the executable the stats are accounted to, the first word of the command line for "bash -c".
+     */
+    protected String getStatsKey() {
+        int index = "sudo".equals(_command.get(0)) && _command.size() > 1 ? 1 : 0;
+        String executable = _command.get(index);
+        if ((executable.endsWith("/bash") || executable.endsWith("/sh")) && _command.size() > index + 2 && "-c".equals(_command.get(index + 1))) {
+            String commandLine = _command.get(index + 2).trim();
+            executable = commandLine.isEmpty() ? executable : commandLine.split("\\s+")[0];
+        }
+        return new File(executable).getName();
+    }
+
+    private String executeProcess(OutputInterpreter interpreter) {
         String[] command = _command.toArray(new String[_command.size()]);
 
         if (_logger.isDebugEnabled()) {
@@ -212,7 +296,7 @@ public class Script implements Callable<String> {
 
         try {
             ProcessBuilder pb = new ProcessBuilder(command);
-            pb.redirectErrorStream(true);
+            pb.redirectErrorStream(_errorInterpreter == null);
             if (_workDir != null)
                 pb.directory(new File(_workDir));
 
@@ -223,6 +307,11 @@ public class Script implements Callable<String> {
             }
 
             BufferedReader ir = new BufferedReader(new InputStreamReader(_process.getInputStream()));
+            Task errorTask = null;
+            if (_errorInterpreter != null) {
+                errorTask = new Task(_errorInterpreter, new BufferedReader(new InputStreamReader(_process.getErrorStream())));
+                s_outputDrainers.execute(errorTask);
+            }
 
             _thread = Thread.currentThread();
             ScheduledFuture<String> future = null;
@@ -233,7 +322,7 @@ public class Script implements Callable<String> {
             Task task = null;
             if (interpreter != null && interpreter.drain()) {
                 task = new Task(interpreter, ir);
-                s_executors.execute(task);
+                s_outputDrainers.execute(task);
             }
 
             while (true) {
@@ -241,6 +330,9 @@ public class Script implements Callable<String> {
                 try {
                     //process execution completed within timeout period
                     if (_process.waitFor(_timeout, TimeUnit.MILLISECONDS)) {
+                        if (errorTask != null) {
+                            errorTask.getResult(_timeout);
+                        }
                         //process completed successfully
                         if (_process.exitValue() == 0) {
                             _logger.debug("Execution is successful.");
@@ -365,6 +457,13 @@ public class Script implements Callable<String> {
             }
             return result;
         }
+
+        public synchronized String getResult(long timeoutInMilliseconds) throws InterruptedException {
+            if (!done) {
+                wait(timeoutInMilliseconds);
+            }
+            return result;
+        }
     }
 
     public static String findScript(String path, String script) {
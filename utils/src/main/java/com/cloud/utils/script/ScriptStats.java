@@ -0,0 +1,139 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.script;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+
+/**
+ * Execution counters and latency of the commands run through {@link Script}, per executable. For "bash -c" the first
+ * word of the command line is used, so that e.g. "ip route ..." and "ip link ..." are accounted as "ip".
+ */
+public class ScriptStats {
+    private static final Logger s_logger = Logger.getLogger(ScriptStats.class);
+    private static final Map<String, ScriptStats> s_stats = new ConcurrentHashMap<String, ScriptStats>();
+    private static ScheduledExecutorService s_logExecutor;
+
+    private final String _command;
+    private final LongAdder _executions = new LongAdder();
+    private final LongAdder _failures = new LongAdder();
+    private final LongAdder _timeouts = new LongAdder();
+    private final LongAdder _totalMillis = new LongAdder();
+    private final AtomicLong _maxMillis = new AtomicLong();
+
+    private ScriptStats(String command) {
+        _command = command;
+    }
+
+    static void record(String command, long millis, boolean failed, boolean timedOut) {
+        ScriptStats stats = s_stats.computeIfAbsent(command, ScriptStats::new);
+        stats._executions.increment();
+        stats._totalMillis.add(millis);
+        stats._maxMillis.accumulateAndGet(millis, Math::max);
+        if (timedOut) {
+            stats._timeouts.increment();
+        } else if (failed) {
+            stats._failures.increment();
+        }
+    }
+
+    /**
+     * @return the stats of every command executed since the start of the process.
+     */
+    public static List<ScriptStats> getAll() {
+        return new ArrayList<ScriptStats>(s_stats.values());
+    }
+
+    public static ScriptStats get(String command) {
+        return s_stats.get(command);
+    }
+
+    /**
+     * Logs the stats of every command executed so far at the given interval.
+     * @param intervalSeconds the interval, 0 or less to stop logging
+     */
+    public static synchronized void scheduleLogging(int intervalSeconds) {
+        if (s_logExecutor != null) {
+            s_logExecutor.shutdownNow();
+            s_logExecutor = null;
+        }
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        s_logExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("ScriptStats"));
+        s_logExecutor.scheduleAtFixedRate(ScriptStats::logAll, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    static void logAll() {
+        final List<ScriptStats> all = getAll();
+        if (all.isEmpty() || !s_logger.isInfoEnabled()) {
+            return;
+        }
+        all.sort(Comparator.comparing(ScriptStats::getCommand));
+        final StringBuilder message = new StringBuilder("Script execution stats since the agent started:");
+        for (ScriptStats stats : all) {
+            message.append("\n  ").append(stats);
+        }
+        s_logger.info(message);
+    }
+
+    public String getCommand() {
+        return _command;
+    }
+
+    public long getExecutions() {
+        return _executions.sum();
+    }
+
+    public long getFailures() {
+        return _failures.sum();
+    }
+
+    public long getTimeouts() {
+        return _timeouts.sum();
+    }
+
+    public long getAverageMillis() {
+        long executions = _executions.sum();
+        return executions == 0 ? 0 : _totalMillis.sum() / executions;
+    }
+
+    public long getMaxMillis() {
+        return _maxMillis.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: executions=%d, failures=%d, timeouts=%d, avg=%dms, max=%dms", _command, getExecutions(), getFailures(), getTimeouts(),
+                getAverageMillis(), getMaxMillis());
+    }
+}
@@ -0,0 +1,92 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileUtilTest {
+
+    File source;
+    File destination;
+
+    @Before
+    public void setup() throws IOException {
+        source = File.createTempFile("source", ".img");
+        destination = File.createTempFile("destination", ".img");
+    }
+
+    @After
+    public void cleanup() {
+        FileUtils.deleteQuietly(source);
+        FileUtils.deleteQuietly(destination);
+    }
+
+    @Test
+    public void copySparseFileTestKeepsData() throws IOException {
+        byte[] data = new byte[3 * 1024 * 1024 + 100];
+        Arrays.fill(data, 0, 4096, (byte)1);
+        Arrays.fill(data, 2 * 1024 * 1024, 2 * 1024 * 1024 + 10, (byte)2);
+        FileUtils.writeByteArrayToFile(source, data);
+        FileUtils.writeStringToFile(destination, "previous content that must not survive the copy", StandardCharsets.UTF_8);
+
+        FileUtil.copySparseFile(source, destination);
+
+        Assert.assertArrayEquals(data, FileUtils.readFileToByteArray(destination));
+    }
+
+    @Test
+    public void copySparseFileTestTrailingZeros() throws IOException {
+        byte[] data = new byte[1024 * 1024];
+        data[0] = 1;
+        FileUtils.writeByteArrayToFile(source, data);
+
+        FileUtil.copySparseFile(source, destination);
+
+        Assert.assertEquals(source.length(), destination.length());
+        Assert.assertArrayEquals(data, FileUtils.readFileToByteArray(destination));
+    }
+
+    @Test
+    public void copySparseFileTestWithinTimeout() throws IOException {
+        byte[] data = new byte[2 * 1024 * 1024];
+        Arrays.fill(data, 1024 * 1024, 1024 * 1024 + 10, (byte)1);
+        FileUtils.writeByteArrayToFile(source, data);
+
+        FileUtil.copySparseFile(source, destination, 60000);
+
+        Assert.assertArrayEquals(data, FileUtils.readFileToByteArray(destination));
+    }
+
+    @Test
+    public void copySparseFileTestEmptyFile() throws IOException {
+        FileUtil.copySparseFile(source, destination);
+
+        Assert.assertEquals(0, destination.length());
+    }
+}
@@ -33,6 +33,7 @@ import org.mockito.Mockito;
 
 import com.cloud.utils.script.OutputInterpreter;
 import com.cloud.utils.script.Script;
+import com.cloud.utils.script.ScriptStats;
 
 public class ScriptTest {
     @Test
@@ -132,4 +133,63 @@ public class ScriptTest {
         String script = Script.findScript("/bin", "pwd");
         Assert.assertNotNull("/bin/pwd shoud be there on linux", script);
     }
+
+    @Test
+    public void testErrorInterpreter() {
+        Assume.assumeTrue(SystemUtils.IS_OS_LINUX);
+        Script script = new Script("/bin/bash");
+        script.add("-c");
+        script.add("echo out; echo err 1>&2");
+        OutputInterpreter.AllLinesParser errorParser = new OutputInterpreter.AllLinesParser();
+        script.setErrorInterpreter(errorParser);
+        OutputInterpreter.AllLinesParser resultParser = new OutputInterpreter.AllLinesParser();
+        Assert.assertNull(script.execute(resultParser));
+        Assert.assertEquals("out\n", resultParser.getLines());
+        Assert.assertEquals("err\n", errorParser.getLines());
+    }
+
+    @Test
+    public void testStatsPerCommand() {
+        Assume.assumeTrue(SystemUtils.IS_OS_LINUX);
+        Script.runSimpleBashScript("true");
+        Script.runSimpleBashScript("false");
+        ScriptStats stats = ScriptStats.get("false");
+        Assert.assertNotNull(stats);
+        Assert.assertTrue(stats.getExecutions() >= 1);
+        Assert.assertTrue(stats.getFailures() >= 1);
+        Assert.assertTrue(ScriptStats.get("true").getExecutions() >= 1);
+    }
+
+    @Test
+    public void testMaxConcurrentProcesses() {
+        Assume.assumeTrue(SystemUtils.IS_OS_LINUX);
+        Script.setMaxConcurrentProcesses(1);
+        try {
+            Assert.assertEquals("hello world!", Script.runSimpleBashScript("echo 'hello world!'"));
+        } finally {
+            Script.setMaxConcurrentProcesses(0);
+        }
+    }
+
+    @Test
+    public void testLongRunningIsNotLimited() throws Exception {
+        Assume.assumeTrue(SystemUtils.IS_OS_LINUX);
+        Script.setMaxConcurrentProcesses(1);
+        Thread holder = new Thread(() -> Script.runSimpleBashScript("sleep 3", 10000));
+        try {
+            holder.start();
+            Thread.sleep(500);
+            Script waiting = new Script("/bin/echo", 100);
+            waiting.add("bar");
+            Assert.assertEquals(Script.ERR_TIMEOUT, waiting.execute());
+
+            Script longRunning = new Script("/bin/echo", 100);
+            longRunning.setLongRunning(true);
+            longRunning.add("bar");
+            Assert.assertNull(longRunning.execute());
+        } finally {
+            holder.join();
+            Script.setMaxConcurrentProcesses(0);
+        }
+    }
 }
@@ -0,0 +1,99 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NioConnectionTest {
+
+    private static final int TASKS = 200;
+
+    private final List<Integer> processed = new CopyOnWriteArrayList<Integer>();
+    private final CountDownLatch done = new CountDownLatch(TASKS);
+
+    private final HandlerFactory factory = new HandlerFactory() {
+        @Override
+        public Task create(final Task.Type type, final Link link, final byte[] data) {
+            return new Task(type, link, data) {
+                @Override
+                protected void doTask(final Task task) {
+                    processed.add((int)task.getData()[0] & 0xff);
+                    done.countDown();
+                }
+            };
+        }
+    };
+
+    private final NioReactor connection = new NioReactor("NioConnectionTest", 4, factory, null);
+
+    @After
+    public void tearDown() {
+        connection.stop();
+    }
+
+    @Test
+    public void scheduleTaskRunsTasksOfLinkInOrder() throws InterruptedException {
+        final Link link = new Link(new InetSocketAddress("127.0.0.1", 8250), connection);
+        for (int i = 0; i < TASKS; i++) {
+            connection.scheduleTask(factory.create(Task.Type.DATA, link, new byte[] {(byte)i}));
+        }
+
+        Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+        for (int i = 0; i < TASKS; i++) {
+            Assert.assertEquals(i, (int)processed.get(i));
+        }
+    }
+
+    @Test
+    public void getWorkerExecutorPinsLinkToOneWorker() {
+        final Link link = new Link(new InetSocketAddress("127.0.0.1", 8250), connection);
+
+        Assert.assertSame(connection.getWorkerExecutor(link), connection.getWorkerExecutor(link));
+        Assert.assertNotNull(connection.getWorkerExecutor(null));
+    }
+
+    @Test
+    public void workerStatsAreExposedOverJmx() throws Exception {
+        final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName("com.cloud:type=NioConnectionTest");
+        connection.setWorkerQueueLimit(8);
+
+        mBeanServer.registerMBean(connection, name);
+        try {
+            Assert.assertEquals(8, mBeanServer.getAttribute(name, "WorkerQueueLimit"));
+            Assert.assertEquals(0, mBeanServer.getAttribute(name, "WorkerQueueSize"));
+            Assert.assertEquals(0L, mBeanServer.getAttribute(name, "BackpressureCount"));
+        } finally {
+            mBeanServer.unregisterMBean(name);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.testcase;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.exception.NioConnectionException;
+import com.cloud.utils.nio.HandlerFactory;
+import com.cloud.utils.nio.Link;
+import com.cloud.utils.nio.NioClient;
+import com.cloud.utils.nio.NioServer;
+import com.cloud.utils.nio.Task;
+import com.cloud.utils.nio.Task.Type;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * NioLoadTestCase connects a number of clients to a NioServer running several
+ * reactors with a small worker queue limit, and has every client send a
+ * number of messages while the server workers are kept slower than the
+ * selectors. It verifies that every message of every client arrives intact even
+ * though reads get paused for backpressure, and in the order each client sent
+ * them, and logs the throughput and the backpressure metrics of the server.
+ *
+ * Being a load test, it is excluded from the unit tests like the other
+ * *TestCase classes and is meant to be run on demand, e.g.
+ * mvn test -pl utils -Dtest=NioLoadTestCase. The load can be raised with
+ * -Dnio.load.clients, -Dnio.load.messages and -Dnio.load.reactors.
+ */
+
+public class NioLoadTestCase {
+
+    private static final Logger LOGGER = Logger.getLogger(NioLoadTestCase.class);
+
+    // Test should fail in due time instead of looping forever
+    private static final int TESTTIMEOUT = 120000;
+
+    private final int clientCount = Integer.getInteger("nio.load.clients", 20);
+    private final int messageCount = Integer.getInteger("nio.load.messages", 50);
+    private final int reactorCount = Integer.getInteger("nio.load.reactors", 4);
+    private static final int MESSAGE_SIZE = 16384;
+
+    private NioServer server;
+    private List<NioClient> clients = new ArrayList<>();
+    private ExecutorService clientExecutor;
+
+    private final AtomicInteger receivedCount = new AtomicInteger();
+    private final AtomicInteger corruptedCount = new AtomicInteger();
+    private final AtomicInteger outOfOrderCount = new AtomicInteger();
+    private final Map<Integer, AtomicInteger> clientCounts = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() {
+        LOGGER.info("Setting up NIO load test with " + clientCount + " clients, " + messageCount + " messages each, " + reactorCount + " reactors");
+
+        server = new NioServer("NioLoadTestServer", 0, 2, reactorCount, new NioLoadTestServer(), null);
+        server.setWorkerQueueLimit(8);
+        try {
+            server.start();
+        } catch (final NioConnectionException e) {
+            Assert.fail(e.getMessage());
+        }
+
+        clientExecutor = Executors.newFixedThreadPool(Math.min(clientCount, 16), new NamedThreadFactory("NioLoadClientHandler"));
+        for (int i = 0; i < clientCount; i++) {
+            final NioClient client = new NioClient("NioLoadTestClient-" + i, "127.0.0.1", server.getPort(), 1, new NioLoadTestClient(i));
+            clients.add(client);
+            clientExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        client.start();
+                    } catch (final NioConnectionException e) {
+                        LOGGER.error("Unable to start client", e);
+                    }
+                }
+            });
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (final NioClient client : clients) {
+            client.stop();
+        }
+        clientExecutor.shutdownNow();
+        server.stop();
+    }
+
+    @Test(timeout=TESTTIMEOUT)
+    public void testLoad() throws InterruptedException {
+        final int expected = clientCount * messageCount;
+        final long start = System.currentTimeMillis();
+        while (receivedCount.get() < expected) {
+            LOGGER.debug(receivedCount.get() + "/" + expected + " messages received, " + server.getWorkerQueueSize() + " tasks queued");
+            Thread.sleep(100);
+        }
+        final long elapsed = Math.max(1, System.currentTimeMillis() - start);
+
+        LOGGER.info(expected + " messages received in " + elapsed + " ms (" + (expected * 1000L / elapsed) + " msg/s), peak worker queue "
+                + server.getPeakWorkerQueueSize() + ", read pauses " + server.getBackpressureCount());
+        Assert.assertEquals(0, corruptedCount.get());
+        Assert.assertEquals(0, outOfOrderCount.get());
+        Assert.assertEquals(clientCount, clientCounts.size());
+        for (final AtomicInteger count : clientCounts.values()) {
+            Assert.assertEquals(messageCount, count.get());
+        }
+    }
+
+    protected void doServerProcess(final byte[] data) {
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        final int client = buffer.getInt();
+        final int sequence = buffer.getInt();
+        if (data.length != MESSAGE_SIZE || sequence < 0 || sequence >= messageCount) {
+            corruptedCount.incrementAndGet();
+        }
+        if (clientCounts.computeIfAbsent(client, k -> new AtomicInteger()).getAndIncrement() != sequence) {
+            outOfOrderCount.incrementAndGet();
+        }
+        try {
+            // Keep the workers slower than the selectors so reads get paused
+            Thread.sleep(1);
+        } catch (final InterruptedException e) {
+            LOGGER.debug(e.getMessage());
+        }
+        receivedCount.incrementAndGet();
+    }
+
+    public class NioLoadTestClient implements HandlerFactory {
+        private final int _client;
+
+        public NioLoadTestClient(final int client) {
+            _client = client;
+        }
+
+        @Override
+        public Task create(final Type type, final Link link, final byte[] data) {
+            return new NioLoadTestClientHandler(type, link, data);
+        }
+
+        public class NioLoadTestClientHandler extends Task {
+
+            public NioLoadTestClientHandler(final Type type, final Link link, final byte[] data) {
+                super(type, link, data);
+            }
+
+            @Override
+            public void doTask(final Task task) {
+                if (task.getType() == Task.Type.CONNECT) {
+                    try {
+                        for (int i = 0; i < messageCount; i++) {
+                            final ByteBuffer message = ByteBuffer.allocate(MESSAGE_SIZE);
+                            message.putInt(_client);
+                            message.putInt(i);
+                            task.getLink().send(message.array());
+                        }
+                    } catch (final ClosedChannelException e) {
+                        LOGGER.error(e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    public class NioLoadTestServer implements HandlerFactory {
+
+        @Override
+        public Task create(final Type type, final Link link, final byte[] data) {
+            return new NioLoadTestServerHandler(type, link, data);
+        }
+
+        public class NioLoadTestServerHandler extends Task {
+
+            public NioLoadTestServerHandler(final Type type, final Link link, final byte[] data) {
+                super(type, link, data);
+            }
+
+            @Override
+            public void doTask(final Task task) {
+                if (task.getType() == Task.Type.DATA) {
+                    doServerProcess(task.getData());
+                }
+            }
+        }
+    }
+}